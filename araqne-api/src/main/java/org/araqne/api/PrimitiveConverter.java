@@ -16,9 +16,7 @@
 package org.araqne.api;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -29,6 +27,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.araqne.api.PrimitiveMapper.FieldMapping;
+
 public class PrimitiveConverter {
 	@SuppressWarnings("unchecked")
 	private static Set<Class<?>> nonSerializeClasses = new HashSet<Class<?>>(Arrays.asList(byte.class, Byte.class, short.class,
@@ -102,25 +102,22 @@ public class PrimitiveConverter {
 
 		// Others
 		Map<String, Object> m = new HashMap<String, Object>();
-		for (Field f : cls.getDeclaredFields()) {
+		for (FieldMapping mapping : PrimitiveMapper.get(cls).getFields()) {
 			// skip static field
-			if (Modifier.isStatic(f.getModifiers()))
+			if (mapping.isStatic)
 				continue;
 
+			Field f = mapping.field;
 			try {
-				FieldOption option = f.getAnnotation(FieldOption.class);
+				FieldOption option = mapping.option;
 
-				if (option != null && option.skip() && !optionList.contains(SerializeOption.INCLUDE_SKIP_FIELD))
+				if (mapping.isSkip() && !optionList.contains(SerializeOption.INCLUDE_SKIP_FIELD))
 					continue;
 
 				if (refkey != null && !refkey.contains(f.getName()))
 					continue;
 
-				String fieldName = toUnderscoreName(f.getName());
-				if (option != null && !option.name().isEmpty())
-					fieldName = option.name();
-
-				f.setAccessible(true);
+				String fieldName = mapping.name;
 				Object value = f.get(obj);
 
 				if (option != null && !option.nullable() && value == null)
@@ -142,8 +139,8 @@ public class PrimitiveConverter {
 						m.put(fieldName, null);
 					else {
 						List<String> referenceKey = null;
-						if (f.getAnnotation(ReferenceKey.class) != null && callback != null)
-							referenceKey = Arrays.asList(f.getAnnotation(ReferenceKey.class).value());
+						if (mapping.referenceFields != null && callback != null)
+							referenceKey = mapping.referenceFields;
 						Object serialized = serialize(root, value, callback, referenceKey, options);
 						m.put(fieldName, serialized);
 					}
@@ -158,11 +155,102 @@ public class PrimitiveConverter {
 		return m;
 	}
 
+	/**
+	 * Serialize object to writer without building intermediate maps and
+	 * lists. Writer receives same structure and map key order as
+	 * {@link #serialize(Object, PrimitiveSerializeCallback)}.
+	 */
+	public static void serialize(Object obj, PrimitiveWriter writer, PrimitiveSerializeCallback callback) {
+		write(obj, obj, writer, callback);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void write(Object root, Object obj, PrimitiveWriter writer, PrimitiveSerializeCallback callback) {
+		if (obj == null) {
+			writer.value(null);
+			return;
+		}
+
+		Class<?> cls = obj.getClass();
+		if (nonSerializeClasses.contains(cls)) {
+			writer.value(obj);
+			return;
+		}
+
+		if (cls.isArray()) {
+			if (cls.getComponentType().isPrimitive()) {
+				writer.value(obj);
+				return;
+			}
+
+			writer.beginArray();
+			int length = Array.getLength(obj);
+			for (int i = 0; i < length; i++)
+				write(root, Array.get(obj, i), writer, callback);
+			writer.endArray();
+			return;
+		}
+
+		if (Collection.class.isAssignableFrom(cls)) {
+			writer.beginArray();
+			for (Object o : (Collection<Object>) obj)
+				write(root, o, writer, callback);
+			writer.endArray();
+			return;
+		}
+
+		// key order depends on serialized keys
+		if (Map.class.isAssignableFrom(cls)) {
+			writer.value(serialize(root, obj, callback, null));
+			return;
+		}
+
+		writer.beginMap();
+		for (FieldMapping mapping : PrimitiveMapper.get(cls).getSerializeOrder()) {
+			Field f = mapping.field;
+			FieldOption option = mapping.option;
+			try {
+				Object value = f.get(obj);
+				if (option != null && !option.nullable() && value == null)
+					throw new IllegalArgumentException(String.format("Can not set %s field %s.%s to null value", f.getType()
+							.getSimpleName(), cls.getName(), f.getName()));
+
+				if (value instanceof Enum) {
+					writer.key(mapping.name);
+					writer.value(value.toString());
+				} else if (value instanceof String) {
+					if (option != null && option.length() > 0 && ((String) value).length() > option.length()) {
+						String s = (String) value;
+						throw new IllegalArgumentException(String.format(
+								"Too long String value for %s.%s (limit: %d, input: [%s])", cls.getName(), f.getName(),
+								option.length(), s));
+					}
+					writer.key(mapping.name);
+					writer.value(value);
+				} else if (value == null) {
+					writer.key(mapping.name);
+					writer.value(null);
+				} else if (mapping.referenceFields != null && callback != null) {
+					// reference key map is small, and callback needs it
+					Object serialized = serialize(root, value, callback, mapping.referenceFields);
+					writer.key(mapping.name);
+					writer.value(serialized);
+				} else {
+					writer.key(mapping.name);
+					write(root, value, writer, callback);
+				}
+			} catch (Exception e) {
+				throw new RuntimeException("araqne api: serialize failed", e);
+			}
+		}
+		writer.endMap();
+	}
+
 	public static <T> T parse(Class<T> cls, Object obj) {
 		return parse(cls, obj, null);
 	}
 
-	@SuppressWarnings({ "unchecked", "rawtypes" })
+	@SuppressWarnings("unchecked")
 	public static <T> T parse(Class<T> cls, Object obj, PrimitiveParseCallback callback) {
 		if (obj == null || !(obj instanceof Map) || cls.equals(Object.class))
 			return (T) obj;
@@ -170,113 +258,18 @@ public class PrimitiveConverter {
 		try {
 			Map<String, Object> m = (Map<String, Object>) obj;
 
-			T n = null;
-			try {
-				n = cls.newInstance();
-			} catch (IllegalAccessException e) {
-				Constructor c = cls.getDeclaredConstructor();
-				c.setAccessible(true);
-				n = (T) c.newInstance();
-			}
-
-			for (Field f : cls.getDeclaredFields()) {
-				FieldOption option = f.getAnnotation(FieldOption.class);
+			PrimitiveMapper mapper = PrimitiveMapper.get(cls);
+			T n = mapper.instantiate();
 
-				if (option != null && option.skip())
+			for (FieldMapping mapping : mapper.getFields()) {
+				if (mapping.isSkip())
 					continue;
 
-				String fieldName = toUnderscoreName(f.getName());
-				if (option != null && !option.name().isEmpty())
-					fieldName = option.name();
-
-				if (!m.containsKey(fieldName))
+				Object value = m.get(mapping.name);
+				if (value == null && !m.containsKey(mapping.name))
 					continue;
 
-				Object value = m.get(fieldName);
-				f.setAccessible(true);
-				if (value == null) {
-					f.set(n, null);
-					continue;
-				}
-
-				Class<?> fieldType = f.getType();
-				ReferenceKey refkey = f.getAnnotation(ReferenceKey.class);
-				if (refkey != null) {
-					if (value instanceof Map) {
-						Map<String, Object> keys = (Map<String, Object>) value;
-						if (callback != null)
-							f.set(n, callback.onParse(fieldType, getRefKeys(keys, refkey.value())));
-						else if (option != null && !option.nullable())
-							throw new IllegalArgumentException(fieldName + " requires parse callback");
-					} else if (value instanceof Object[]) {
-						List<Object> coll = new ArrayList<Object>();
-						for (Object v : (Object[]) value) {
-							Map<String, Object> keys = (Map<String, Object>) v;
-							if (callback != null) {
-								Object o = callback.onParse(f.getAnnotation(CollectionTypeHint.class).value(),
-										getRefKeys(keys, refkey.value()));
-								if (o != null)
-									coll.add(o);
-							} else if (option != null && !option.nullable())
-								throw new IllegalArgumentException(fieldName + " requires parse callback");
-						}
-
-						// TODO
-						if (List.class.isAssignableFrom(fieldType))
-							f.set(n, coll);
-						else if (Set.class.isAssignableFrom(fieldType))
-							f.set(n, new HashSet<Object>(coll));
-						else if (fieldType.isArray())
-							f.set(n, coll.toArray());
-					}
-					continue;
-				}
-
-				if (fieldType.isEnum()) {
-					Object found = null;
-					for (Object o : fieldType.getEnumConstants())
-						if (o.toString().equals(value))
-							found = o;
-					f.set(n, found);
-				} else if (fieldType.isArray()) {
-					if (fieldType.getComponentType().isPrimitive())
-						f.set(n, value);
-					else {
-						Object[] o = (Object[]) value;
-						Object ary = Array.newInstance(fieldType.getComponentType(), o.length);
-						for (int i = 0; i < o.length; i++)
-							Array.set(ary, i, o[i]);
-						f.set(n, ary);
-					}
-				} else if (Collection.class.isAssignableFrom(fieldType)) {
-					if (value instanceof Object[])
-						value = Arrays.asList((Object[]) value);
-
-					CollectionTypeHint hint = f.getAnnotation(CollectionTypeHint.class);
-					if (value instanceof List) {
-						if (hint != null) {
-							if (Set.class.isAssignableFrom(fieldType)) {
-								f.set(n, parseSet(hint.value(), (List) value));
-							} else {
-								f.set(n, parseCollection(hint.value(), (List) value));
-							}
-						} else
-							f.set(n, value);
-					}
-				} else if (Map.class.isAssignableFrom(fieldType)) {
-					MapTypeHint hint = f.getAnnotation(MapTypeHint.class);
-					if (hint == null) {
-						f.set(n, value);
-					} else {
-						Map<Object, Object> v = (Map<Object, Object>) value;
-						Map<Object, Object> fmap = new HashMap<Object, Object>();
-						for (Object k : v.keySet())
-							fmap.put(parse(hint.value()[0], k, callback), parse(hint.value()[1], v.get(k), callback));
-						f.set(n, fmap);
-					}
-				} else {
-					f.set(n, parse(fieldType, value, callback));
-				}
+				setField(n, mapping, value, callback);
 			}
 
 			return n;
@@ -287,6 +280,107 @@ public class PrimitiveConverter {
 		}
 	}
 
+	/**
+	 * set parsed field value, value should not be missing
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static void setField(Object n, FieldMapping mapping, Object value, PrimitiveParseCallback callback) throws Exception {
+		FieldOption option = mapping.option;
+		String fieldName = mapping.name;
+		Field f = mapping.field;
+		if (value == null) {
+			f.set(n, null);
+			return;
+		}
+
+		Class<?> fieldType = mapping.type;
+		ReferenceKey refkey = mapping.referenceKey;
+		if (refkey != null) {
+			if (value instanceof Map) {
+				Map<String, Object> keys = (Map<String, Object>) value;
+				if (callback != null)
+					f.set(n, callback.onParse(fieldType, getRefKeys(keys, refkey.value())));
+				else if (option != null && !option.nullable())
+					throw new IllegalArgumentException(fieldName + " requires parse callback");
+			} else if (value instanceof Object[]) {
+				List<Object> coll = new ArrayList<Object>();
+				for (Object v : (Object[]) value) {
+					Map<String, Object> keys = (Map<String, Object>) v;
+					if (callback != null) {
+						Object o = callback.onParse(mapping.collectionTypeHint.value(),
+								getRefKeys(keys, refkey.value()));
+						if (o != null)
+							coll.add(o);
+					} else if (option != null && !option.nullable())
+						throw new IllegalArgumentException(fieldName + " requires parse callback");
+				}
+
+				// TODO
+				if (List.class.isAssignableFrom(fieldType))
+					f.set(n, coll);
+				else if (Set.class.isAssignableFrom(fieldType))
+					f.set(n, new HashSet<Object>(coll));
+				else if (fieldType.isArray())
+					f.set(n, coll.toArray());
+			}
+			return;
+		}
+
+		if (fieldType.isEnum()) {
+			Object found = null;
+			for (Object o : fieldType.getEnumConstants())
+				if (o.toString().equals(value))
+					found = o;
+			f.set(n, found);
+		} else if (fieldType.isArray()) {
+			if (fieldType.getComponentType().isPrimitive())
+				f.set(n, value);
+			else {
+				Object[] o = (Object[]) value;
+				Object ary = Array.newInstance(fieldType.getComponentType(), o.length);
+				for (int i = 0; i < o.length; i++)
+					Array.set(ary, i, o[i]);
+				f.set(n, ary);
+			}
+		} else if (Collection.class.isAssignableFrom(fieldType)) {
+			if (value instanceof Object[])
+				value = Arrays.asList((Object[]) value);
+
+			CollectionTypeHint hint = mapping.collectionTypeHint;
+			if (value instanceof List) {
+				if (hint != null) {
+					if (Set.class.isAssignableFrom(fieldType)) {
+						f.set(n, parseSet(hint.value(), (List) value));
+					} else {
+						f.set(n, parseCollection(hint.value(), (List) value));
+					}
+				} else
+					f.set(n, value);
+			}
+		} else if (Map.class.isAssignableFrom(fieldType)) {
+			MapTypeHint hint = mapping.mapTypeHint;
+			if (hint == null) {
+				f.set(n, value);
+			} else {
+				Map<Object, Object> v = (Map<Object, Object>) value;
+				Map<Object, Object> fmap = new HashMap<Object, Object>();
+				for (Object k : v.keySet())
+					fmap.put(parse(hint.value()[0], k, callback), parse(hint.value()[1], v.get(k), callback));
+				f.set(n, fmap);
+			}
+		} else {
+			f.set(n, parse(fieldType, value, callback));
+		}
+	}
+
+	/**
+	 * Clear cached class mappings. Should be called when bundle is uninstalled
+	 * or refreshed, otherwise mappings keep the class loader of the bundle.
+	 */
+	public static void clearCache() {
+		PrimitiveMapper.clear();
+	}
+
 	private static Map<String, Object> getRefKeys(Map<String, Object> src, String[] refkeys) {
 		Map<String, Object> m = new HashMap<String, Object>();
 		for (String key : refkeys) {
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2011 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.api;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per-class field mapping used by {@link PrimitiveConverter}. Declared fields,
+ * annotations and underscore names are resolved once, and fields are made
+ * accessible when mapper is built. Codecs which read or write primitive form
+ * directly can use it to bind fields by serialized name.
+ * 
+ * Mappers hold class references, so cache should be cleared when bundle is
+ * uninstalled or refreshed. See {@link PrimitiveConverter#clearCache()}.
+ */
+public class PrimitiveMapper {
+	private static final ConcurrentMap<Class<?>, PrimitiveMapper> mappers = new ConcurrentHashMap<Class<?>, PrimitiveMapper>();
+
+	private final Class<?> cls;
+	private final Constructor<?> constructor;
+	private final FieldMapping[] fields;
+
+	// serialized name to field, except skip fields
+	private final Map<String, FieldMapping> names;
+
+	// fields in key order of serialized map
+	private final FieldMapping[] serializeOrder;
+
+	public static PrimitiveMapper get(Class<?> cls) {
+		PrimitiveMapper mapper = mappers.get(cls);
+		if (mapper != null)
+			return mapper;
+
+		// concurrent builds are harmless
+		mapper = new PrimitiveMapper(cls);
+		PrimitiveMapper old = mappers.putIfAbsent(cls, mapper);
+		return old != null ? old : mapper;
+	}
+
+	static void clear() {
+		mappers.clear();
+	}
+
+	static int size() {
+		return mappers.size();
+	}
+
+	private PrimitiveMapper(Class<?> cls) {
+		this.cls = cls;
+		this.constructor = findConstructor(cls);
+
+		List<FieldMapping> l = new ArrayList<FieldMapping>();
+		for (Field f : cls.getDeclaredFields())
+			l.add(new FieldMapping(f));
+
+		this.fields = l.toArray(new FieldMapping[0]);
+
+		// same insertion as PrimitiveConverter.serialize() gives same order
+		Map<String, FieldMapping> m = new HashMap<String, FieldMapping>();
+		for (FieldMapping f : fields)
+			if (!f.isStatic && !f.isSkip())
+				m.put(f.name, f);
+
+		this.serializeOrder = m.values().toArray(new FieldMapping[0]);
+
+		this.names = new HashMap<String, FieldMapping>();
+		for (FieldMapping f : fields)
+			if (!f.isSkip())
+				names.put(f.name, f);
+	}
+
+	private static Constructor<?> findConstructor(Class<?> cls) {
+		try {
+			Constructor<?> c = cls.getDeclaredConstructor();
+			c.setAccessible(true);
+			return c;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	public Class<?> getMappedClass() {
+		return cls;
+	}
+
+	/**
+	 * @return the field of serialized name, or null if not found or skipped
+	 */
+	public FieldMapping getField(String name) {
+		return names.get(name);
+	}
+
+	FieldMapping[] getFields() {
+		return fields;
+	}
+
+	FieldMapping[] getSerializeOrder() {
+		return serializeOrder;
+	}
+
+	/**
+	 * create instance using nullary constructor
+	 */
+	public <T> T newInstance() {
+		try {
+			return this.<T> instantiate();
+		} catch (InstantiationException e) {
+			throw new RuntimeException("Primitive parse failed. Please check if nullary constructor is accessible", e);
+		} catch (Exception e) {
+			throw new RuntimeException("Primitive parse failed", e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	<T> T instantiate() throws Exception {
+		if (constructor == null || cls.isInterface() || Modifier.isAbstract(cls.getModifiers()))
+			throw new InstantiationException(cls.getName());
+
+		return (T) constructor.newInstance();
+	}
+
+	public static class FieldMapping {
+		final Field field;
+		final String name;
+		final boolean isStatic;
+		final Class<?> type;
+		final FieldOption option;
+		final ReferenceKey referenceKey;
+		final CollectionTypeHint collectionTypeHint;
+		final MapTypeHint mapTypeHint;
+
+		// reference key fields, not converted to underscore name
+		final List<String> referenceFields;
+
+		FieldMapping(Field f) {
+			this.field = f;
+			this.isStatic = Modifier.isStatic(f.getModifiers());
+			this.type = f.getType();
+			this.option = f.getAnnotation(FieldOption.class);
+			this.referenceKey = f.getAnnotation(ReferenceKey.class);
+			this.collectionTypeHint = f.getAnnotation(CollectionTypeHint.class);
+			this.mapTypeHint = f.getAnnotation(MapTypeHint.class);
+			this.referenceFields = referenceKey != null ? Arrays.asList(referenceKey.value()) : null;
+
+			if (option != null && !option.name().isEmpty())
+				this.name = option.name();
+			else
+				this.name = PrimitiveConverter.toUnderscoreName(f.getName());
+
+			try {
+				f.setAccessible(true);
+			} catch (SecurityException e) {
+				// access will fail later with same reason
+			}
+		}
+
+		boolean isSkip() {
+			return option != null && option.skip();
+		}
+
+		/**
+		 * @return the serialized name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		public Class<?> getType() {
+			return type;
+		}
+
+		/**
+		 * @return true if serialized map value is parsed as object of field
+		 *         type, not as collection, map, enum or reference
+		 */
+		public boolean isNestedObject() {
+			return referenceKey == null && !type.isEnum() && !type.isArray() && !Collection.class.isAssignableFrom(type)
+					&& !Map.class.isAssignableFrom(type) && type != Object.class;
+		}
+
+		/**
+		 * Set primitive value as {@link PrimitiveConverter#parse(Class, Object)}
+		 * does. Value of nested object field can be parsed object.
+		 */
+		public void set(Object target, Object value, PrimitiveParseCallback callback) {
+			try {
+				PrimitiveConverter.setField(target, this, value, callback);
+			} catch (Exception e) {
+				throw new RuntimeException("Primitive parse failed", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2011 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.api;
+
+/**
+ * Receives serialized form of object from
+ * {@link PrimitiveConverter#serialize(Object, PrimitiveWriter, PrimitiveSerializeCallback)}
+ * without building intermediate maps and lists. Events are same as iterating
+ * the result of {@link PrimitiveConverter#serialize(Object)}, including the
+ * key order of maps.
+ */
+public interface PrimitiveWriter {
+	void beginMap();
+
+	void key(String key);
+
+	void endMap();
+
+	void beginArray();
+
+	void endArray();
+
+	/**
+	 * primitive value, primitive array, or already serialized map
+	 */
+	void value(Object value);
+}
@@ -145,6 +145,26 @@ public class PrimitiveConverterTest {
 		assertEquals("eggplant", vegetables2.get(1));
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testMapperCache() {
+		PrimitiveConverter.clearCache();
+		assertEquals(0, PrimitiveMapper.size());
+
+		Nested s = new Nested("xeraph", "cucumber");
+		Map<String, Object> o = (Map<String, Object>) PrimitiveConverter.serialize(s);
+		assertEquals(1, PrimitiveMapper.size());
+
+		// same mapping is used for parse
+		Nested parsed = PrimitiveConverter.parse(Nested.class, o);
+		assertEquals(1, PrimitiveMapper.size());
+		assertEquals("xeraph", parsed.name);
+		assertEquals(Arrays.asList("cucumber"), parsed.vegetableList);
+
+		PrimitiveConverter.clearCache();
+		assertEquals(0, PrimitiveMapper.size());
+	}
+
 	private static class Sample {
 		private String foo;
 		private int bar;
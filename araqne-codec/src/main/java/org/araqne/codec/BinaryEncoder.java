@@ -0,0 +1,476 @@
+/*
+ * Copyright 2013 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.codec;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Single pass encoder which produces same binary as {@link EncodingRule}.
+ * Values are written into growable byte array, and length prefix of map,
+ * array and string is back-patched after payload is written. Payload is moved
+ * only when the length prefix needs more than one byte.
+ * 
+ * Use {@link #acquire()} and {@link #release()} to reuse thread local
+ * encoder and its buffer.
+ */
+public class BinaryEncoder {
+	private static final int DEFAULT_CAPACITY = 512;
+
+	// larger buffer is not pooled
+	private static final int MAX_POOLED_CAPACITY = 1024 * 1024;
+
+	private static final ThreadLocal<BinaryEncoder> pool = new ThreadLocal<BinaryEncoder>() {
+		@Override
+		protected BinaryEncoder initialValue() {
+			return new BinaryEncoder(DEFAULT_CAPACITY, true);
+		}
+	};
+
+	private byte[] buf;
+	private int pos;
+
+	private final boolean pooled;
+	private boolean acquired;
+
+	// write numeric primitive arrays as packed arrays
+	private boolean packedArrays;
+
+	public BinaryEncoder() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public BinaryEncoder(int capacity) {
+		this(capacity, false);
+	}
+
+	private BinaryEncoder(int capacity, boolean pooled) {
+		this.buf = new byte[Math.max(capacity, 16)];
+		this.pooled = pooled;
+	}
+
+	/**
+	 * Return thread local encoder, or new encoder if thread local encoder is
+	 * in use (e.g. custom codec encodes nested map using EncodingRule).
+	 * Encoder should be released after use.
+	 */
+	public static BinaryEncoder acquire() {
+		BinaryEncoder encoder = pool.get();
+		if (encoder.acquired)
+			return new BinaryEncoder();
+
+		encoder.acquired = true;
+		return encoder;
+	}
+
+	/**
+	 * reset encoder and return it to thread local pool. encoded bytes are not
+	 * valid after release
+	 */
+	public void release() {
+		pos = 0;
+		packedArrays = false;
+		if (!pooled)
+			return;
+
+		if (buf.length > MAX_POOLED_CAPACITY)
+			buf = new byte[DEFAULT_CAPACITY];
+		acquired = false;
+	}
+
+	public void reset() {
+		pos = 0;
+	}
+
+	/**
+	 * Encode int, long, short, float and double arrays using packed array
+	 * types, which are decoded as primitive arrays. Readers older than packed
+	 * array types cannot decode them, so it is disabled by default.
+	 */
+	public BinaryEncoder setPackedArrays(boolean packedArrays) {
+		this.packedArrays = packedArrays;
+		return this;
+	}
+
+	/**
+	 * @return the number of encoded bytes
+	 */
+	public int length() {
+		return pos;
+	}
+
+	/**
+	 * @return the internal buffer, valid from 0 to length()
+	 */
+	public byte[] array() {
+		return buf;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buf, pos);
+	}
+
+	/**
+	 * put encoded bytes to byte buffer
+	 */
+	public void writeTo(ByteBuffer bb) {
+		bb.put(buf, 0, pos);
+	}
+
+	public BinaryEncoder encode(Object value) {
+		return encode(value, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	public BinaryEncoder encode(Object value, CustomCodec cc) {
+		if (value == null) {
+			put(EncodingRule.NULL_TYPE);
+		} else if (value instanceof String) {
+			writeString((String) value);
+		} else if (value instanceof Long) {
+			writeLong((Long) value);
+		} else if (value instanceof Integer) {
+			writeInt((Integer) value);
+		} else if (value instanceof Short) {
+			writeShort((Short) value);
+		} else if (value instanceof Date) {
+			ensure(9);
+			buf[pos++] = EncodingRule.DATE_TYPE;
+			writePlainLong(((Date) value).getTime());
+		} else if (value instanceof Inet4Address) {
+			writeFixed(EncodingRule.IP4_TYPE, ((Inet4Address) value).getAddress());
+		} else if (value instanceof Inet6Address) {
+			writeFixed(EncodingRule.IP6_TYPE, ((Inet6Address) value).getAddress());
+		} else if (value instanceof EncodedMap) {
+			writeEncoded(((EncodedMap) value).getEncoded());
+		} else if (value instanceof EncodedArray) {
+			writeEncoded(((EncodedArray) value).getEncoded());
+		} else if (value instanceof Map<?, ?>) {
+			writeMap((Map<String, Object>) value, cc);
+		} else if (value instanceof List<?>) {
+			writeArray((List<?>) value, cc);
+		} else if (value.getClass().isArray()) {
+			Class<?> c = value.getClass().getComponentType();
+			if (c == byte.class) {
+				byte[] b = (byte[]) value;
+				put(EncodingRule.BLOB_TYPE);
+				writeRawNumber(int.class, b.length);
+				put(b);
+			} else if (packedArrays && c != boolean.class && c != char.class && c.isPrimitive()) {
+				writePackedArray(value);
+			} else if (c == int.class) {
+				int start = beginContainer(EncodingRule.ARRAY_TYPE);
+				for (int i : (int[]) value)
+					writeInt(i);
+				endContainer(start);
+			} else if (c == long.class) {
+				int start = beginContainer(EncodingRule.ARRAY_TYPE);
+				for (long l : (long[]) value)
+					writeLong(l);
+				endContainer(start);
+			} else if (c == short.class) {
+				int start = beginContainer(EncodingRule.ARRAY_TYPE);
+				for (short s : (short[]) value)
+					writeShort(s);
+				endContainer(start);
+			} else if (c == boolean.class) {
+				int start = beginContainer(EncodingRule.ARRAY_TYPE);
+				for (boolean b : (boolean[]) value)
+					writeBoolean(b);
+				endContainer(start);
+			} else if (c == double.class) {
+				int start = beginContainer(EncodingRule.ARRAY_TYPE);
+				for (double d : (double[]) value)
+					writeDouble(d);
+				endContainer(start);
+			} else if (c == float.class) {
+				int start = beginContainer(EncodingRule.ARRAY_TYPE);
+				for (float f : (float[]) value)
+					writeFloat(f);
+				endContainer(start);
+			} else if (c == char.class) {
+				throw new UnsupportedTypeException(value.getClass().getName());
+			} else {
+				writeArray(Arrays.asList((Object[]) value), cc);
+			}
+		} else if (value instanceof Boolean) {
+			writeBoolean((Boolean) value);
+		} else if (value instanceof Float) {
+			writeFloat((Float) value);
+		} else if (value instanceof Double) {
+			writeDouble((Double) value);
+		} else {
+			if (cc == null)
+				throw new UnsupportedTypeException(value.getClass().getName());
+
+			int len = cc.lengthOf(value);
+			ensure(len);
+			ByteBuffer bb = ByteBuffer.wrap(buf, pos, len);
+			cc.encode(bb, value);
+			pos = bb.position();
+		}
+
+		return this;
+	}
+
+	private void writePackedArray(Object array) {
+		Class<?> c = array.getClass().getComponentType();
+		int len;
+		if (c == int.class)
+			len = EncodingRule.lengthOfPackedArray((int[]) array);
+		else if (c == long.class)
+			len = EncodingRule.lengthOfPackedArray((long[]) array);
+		else if (c == short.class)
+			len = EncodingRule.lengthOfPackedArray((short[]) array);
+		else if (c == float.class)
+			len = EncodingRule.lengthOfPackedArray((float[]) array);
+		else
+			len = EncodingRule.lengthOfPackedArray((double[]) array);
+
+		ensure(len);
+		ByteBuffer bb = ByteBuffer.wrap(buf, pos, len);
+		if (c == int.class)
+			EncodingRule.encodePackedArray(bb, (int[]) array);
+		else if (c == long.class)
+			EncodingRule.encodePackedArray(bb, (long[]) array);
+		else if (c == short.class)
+			EncodingRule.encodePackedArray(bb, (short[]) array);
+		else if (c == float.class)
+			EncodingRule.encodePackedArray(bb, (float[]) array);
+		else
+			EncodingRule.encodePackedArray(bb, (double[]) array);
+		pos += len;
+	}
+
+	/**
+	 * Begin map which is written by caller, for example, fields of object.
+	 * Write keys using {@link #writeKey(String)} and values using
+	 * {@link #encode(Object, CustomCodec)}, and call {@link #end(int)}.
+	 * 
+	 * @return the offset of length prefix which should be passed to end()
+	 */
+	public int beginMap() {
+		return beginContainer(EncodingRule.MAP_TYPE);
+	}
+
+	/**
+	 * Begin array which is written by caller, and call {@link #end(int)}
+	 * after elements are written.
+	 * 
+	 * @return the offset of length prefix which should be passed to end()
+	 */
+	public int beginArray() {
+		return beginContainer(EncodingRule.ARRAY_TYPE);
+	}
+
+	public BinaryEncoder writeKey(String key) {
+		writeKeyString(key);
+		return this;
+	}
+
+	/**
+	 * back-patch length prefix of map or array which is begun by
+	 * {@link #beginMap()} or {@link #beginArray()}
+	 */
+	public BinaryEncoder end(int start) {
+		endContainer(start);
+		return this;
+	}
+
+	// copy view bytes without decoding
+	private void writeEncoded(ByteBuffer bb) {
+		int len = bb.remaining();
+		ensure(len);
+		bb.get(buf, pos, len);
+		pos += len;
+	}
+
+	private void writeMap(Map<String, Object> map, CustomCodec cc) {
+		int start = beginContainer(EncodingRule.MAP_TYPE);
+		for (Entry<String, Object> e : map.entrySet()) {
+			writeKeyString(e.getKey());
+			encode(e.getValue(), cc);
+		}
+		endContainer(start);
+	}
+
+	private void writeArray(List<?> array, CustomCodec cc) {
+		int start = beginContainer(EncodingRule.ARRAY_TYPE);
+		for (Object o : array)
+			encode(o, cc);
+		endContainer(start);
+	}
+
+	// key which cannot be interned is written in place
+	private void writeKeyString(String key) {
+		EncodedStringCache k = EncodedStringCache.getInternedKey(key);
+		if (k != null)
+			put(k.encoded());
+		else
+			writeString(key);
+	}
+
+	private void writeString(String s) {
+		int start = beginContainer(EncodingRule.STRING_TYPE);
+		int len = s.length();
+		ensure(len * 3);
+
+		// same output as String.getBytes("utf-8"), including '?' for
+		// unpaired surrogate
+		byte[] b = buf;
+		int p = pos;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				b[p++] = (byte) c;
+			} else if (c < 0x800) {
+				b[p++] = (byte) (0xC0 | (c >> 6));
+				b[p++] = (byte) (0x80 | (c & 0x3F));
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+					int cp = Character.toCodePoint(c, s.charAt(++i));
+					b[p++] = (byte) (0xF0 | (cp >> 18));
+					b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+					b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+					b[p++] = (byte) (0x80 | (cp & 0x3F));
+				} else {
+					b[p++] = '?';
+				}
+			} else {
+				b[p++] = (byte) (0xE0 | (c >> 12));
+				b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				b[p++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		pos = p;
+		endContainer(start);
+	}
+
+	private void writeLong(long value) {
+		put(EncodingRule.ZINT64_TYPE);
+		writeRawNumber(long.class, (value << 1) ^ (value >> 63));
+	}
+
+	private void writeInt(int value) {
+		put(EncodingRule.ZINT32_TYPE);
+		writeRawNumber(int.class, ((long) value << 1) ^ ((long) value >> 31));
+	}
+
+	private void writeShort(short value) {
+		put(EncodingRule.ZINT16_TYPE);
+		writeRawNumber(short.class, ((long) value << 1) ^ ((long) value >> 15));
+	}
+
+	private void writeBoolean(boolean value) {
+		ensure(2);
+		buf[pos++] = EncodingRule.BOOLEAN_TYPE;
+		buf[pos++] = (byte) (value ? 1 : 0);
+	}
+
+	private void writeFloat(float value) {
+		ensure(5);
+		buf[pos++] = EncodingRule.FLOAT_TYPE;
+		int v = Float.floatToIntBits(value);
+		for (int i = 3; i >= 0; i--)
+			buf[pos++] = (byte) (v >> (i * 8));
+	}
+
+	private void writeDouble(double value) {
+		ensure(9);
+		buf[pos++] = EncodingRule.DOUBLE_TYPE;
+		writePlainLong(Double.doubleToLongBits(value));
+	}
+
+	private void writePlainLong(long v) {
+		for (int i = 7; i >= 0; i--)
+			buf[pos++] = (byte) (v >> (i * 8));
+	}
+
+	private void writeFixed(byte type, byte[] b) {
+		put(type);
+		put(b);
+	}
+
+	private void writeRawNumber(Class<?> clazz, long value) {
+		int len = EncodingRule.lengthOfRawNumber(clazz, value);
+		ensure(len);
+		writeRawNumber(pos, len, value);
+		pos += len;
+	}
+
+	// same as EncodingRule.encodeRawNumber()
+	private void writeRawNumber(int offset, int len, long value) {
+		if (len == 1) {
+			buf[offset] = (byte) value;
+			return;
+		}
+
+		for (int i = 0; i < len; ++i) {
+			byte signalBit = (byte) (i != len - 1 ? 0x80 : 0);
+			buf[offset + i] = (byte) (signalBit | (byte) (value >> (7 * (len - i - 1)) & 0x7F));
+		}
+	}
+
+	/**
+	 * write type and reserve one byte for length prefix
+	 * 
+	 * @return the offset of length prefix
+	 */
+	private int beginContainer(byte type) {
+		ensure(2);
+		buf[pos++] = type;
+		return pos++;
+	}
+
+	/**
+	 * back-patch length prefix, and move payload if length needs more bytes
+	 */
+	private void endContainer(int start) {
+		int length = pos - start - 1;
+		int len = EncodingRule.lengthOfRawNumber(int.class, length);
+		if (len > 1) {
+			ensure(len - 1);
+			System.arraycopy(buf, start + 1, buf, start + len, length);
+			pos += len - 1;
+		}
+		writeRawNumber(start, len, length);
+	}
+
+	private void put(byte b) {
+		ensure(1);
+		buf[pos++] = b;
+	}
+
+	private void put(byte[] b) {
+		ensure(b.length);
+		System.arraycopy(b, 0, buf, pos, b.length);
+		pos += b.length;
+	}
+
+	private void ensure(int n) {
+		if (pos + n <= buf.length)
+			return;
+
+		int capacity = Math.max(buf.length * 2, pos + n);
+		buf = Arrays.copyOf(buf, capacity);
+	}
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2013 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.codec;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads values written in {@link EncodingRule} format from channel using fixed
+ * size buffer. Value which fits in the buffer is decoded by
+ * {@link EncodingRule#decode(ByteBuffer, CustomCodec)}, and larger map, array,
+ * string and blob are decoded piece by piece, so that encoded form of large
+ * value is not held in memory.
+ * 
+ * Reader does not close the channel.
+ */
+public class BinaryStreamReader {
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	// type byte and length prefix
+	private static final int MAX_HEADER_LENGTH = 11;
+
+	private final ReadableByteChannel channel;
+	private final CustomCodec cc;
+	private final ByteBuffer buf;
+
+	// total bytes read from channel
+	private long received;
+
+	public BinaryStreamReader(ReadableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE, null);
+	}
+
+	public BinaryStreamReader(ReadableByteChannel channel, CustomCodec cc) {
+		this(channel, DEFAULT_BUFFER_SIZE, cc);
+	}
+
+	public BinaryStreamReader(ReadableByteChannel channel, int bufferSize, CustomCodec cc) {
+		if (bufferSize < 64)
+			throw new IllegalArgumentException("buffer size should be at least 64: " + bufferSize);
+
+		this.channel = channel;
+		this.cc = cc;
+		this.buf = ByteBuffer.allocate(bufferSize);
+		this.buf.flip();
+	}
+
+	/**
+	 * @return true if stream has more value
+	 */
+	public boolean hasNext() throws IOException {
+		return fill(1) > 0;
+	}
+
+	/**
+	 * @throws EOFException
+	 *             if stream is ended
+	 */
+	public Object read() throws IOException {
+		fill(MAX_HEADER_LENGTH);
+		if (!buf.hasRemaining())
+			throw new EOFException();
+
+		int length = peekLength();
+		if (length >= 0 && length <= buf.capacity()) {
+			ensure(length);
+			return EncodingRule.decode(buf, cc);
+		}
+
+		byte type = buf.get();
+		switch (type) {
+		case EncodingRule.STRING_TYPE: {
+			byte[] b = readBytes(readRawNumber());
+			try {
+				return new String(b, "utf-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+		case EncodingRule.BLOB_TYPE:
+			return readBytes(readRawNumber());
+		case EncodingRule.MAP_TYPE: {
+			long end = readRawNumber() + position();
+			Map<String, Object> m = new HashMap<String, Object>();
+			while (position() < end) {
+				String key = (String) read();
+				m.put(key, read());
+			}
+			return m;
+		}
+		case EncodingRule.ARRAY_TYPE: {
+			long end = readRawNumber() + position();
+			List<Object> l = new ArrayList<Object>();
+			while (position() < end)
+				l.add(read());
+			return l.toArray();
+		}
+		}
+
+		if (isPackedArray(type)) {
+			// primitive array is as large as the payload anyway
+			int payload = (int) readRawNumber();
+			ByteBuffer bb = ByteBuffer.allocate(1 + EncodingRule.lengthOfRawNumber(int.class, payload) + payload);
+			bb.put(type);
+			EncodingRule.encodeRawNumber(bb, int.class, payload);
+			readFully(bb);
+			bb.flip();
+			return EncodingRule.decode(bb);
+		}
+
+		throw new IllegalStateException("custom value is larger than buffer, type " + type);
+	}
+
+	private static boolean isPackedArray(byte type) {
+		return type >= EncodingRule.PACKED_INT16_TYPE && type <= EncodingRule.PACKED_DOUBLE_TYPE;
+	}
+
+	/**
+	 * Read values written by {@link BinaryStreamWriter#writeChunked(Iterator)}.
+	 * Values are read from channel as iterated.
+	 */
+	public Iterator<Object> readChunked() {
+		return new ChunkIterator();
+	}
+
+	/**
+	 * @return the bytes consumed from stream
+	 */
+	public long position() {
+		return received - buf.remaining();
+	}
+
+	// total length of next value, or -1 if it is unknown
+	private int peekLength() {
+		ByteBuffer dup = buf.duplicate();
+		byte type = dup.get(dup.position());
+		if (type == EncodingRule.STRING_TYPE || type == EncodingRule.MAP_TYPE || type == EncodingRule.ARRAY_TYPE
+				|| type == EncodingRule.BLOB_TYPE || isPackedArray(type)) {
+			dup.get();
+			int start = dup.position();
+			long length = EncodingRule.decodeRawNumber(dup);
+			if (length > Integer.MAX_VALUE - MAX_HEADER_LENGTH)
+				return -1;
+			return 1 + (dup.position() - start) + (int) length;
+		}
+
+		try {
+			return EncodingRule.getObjectLength(dup, cc);
+		} catch (RuntimeException e) {
+			// custom value may not be filled yet
+			fillQuietly();
+			return EncodingRule.getObjectLength(buf.duplicate(), cc);
+		}
+	}
+
+	private void fillQuietly() {
+		try {
+			fill(buf.capacity());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private long readRawNumber() throws IOException {
+		long value = 0L;
+		byte b;
+		do {
+			ensure(1);
+			value = value << 7;
+			b = buf.get();
+			value |= b & 0x7F;
+		} while ((b & 0x80) == 0x80);
+		return value;
+	}
+
+	private byte[] readBytes(long length) throws IOException {
+		if (length > Integer.MAX_VALUE)
+			throw new IllegalStateException("too large value: " + length);
+
+		byte[] b = new byte[(int) length];
+		readFully(ByteBuffer.wrap(b));
+		return b;
+	}
+
+	private void readFully(ByteBuffer bb) throws IOException {
+		int n = Math.min(bb.remaining(), buf.remaining());
+		ByteBuffer src = buf.duplicate();
+		src.limit(src.position() + n);
+		bb.put(src);
+		buf.position(buf.position() + n);
+
+		// read rest directly into value
+		while (bb.hasRemaining()) {
+			int len = channel.read(bb);
+			if (len < 0)
+				throw new EOFException();
+			received += len;
+		}
+	}
+
+	private void ensure(int length) throws IOException {
+		if (fill(length) < length)
+			throw new EOFException();
+	}
+
+	/**
+	 * @return the available bytes, which may be less than requested length at
+	 *         the end of stream
+	 */
+	private int fill(int length) throws IOException {
+		if (buf.remaining() >= length)
+			return buf.remaining();
+
+		if (length > buf.capacity())
+			length = buf.capacity();
+
+		buf.compact();
+		try {
+			while (buf.position() < length) {
+				int len = channel.read(buf);
+				if (len < 0)
+					break;
+				received += len;
+			}
+		} finally {
+			buf.flip();
+		}
+		return buf.remaining();
+	}
+
+	private class ChunkIterator implements Iterator<Object> {
+		private long chunkEnd = -1;
+		private boolean ended;
+
+		@Override
+		public boolean hasNext() {
+			if (ended)
+				return false;
+
+			try {
+				// read next chunk header
+				while (position() >= chunkEnd) {
+					ensure(1);
+					byte type = buf.get();
+					if (type != EncodingRule.ARRAY_TYPE)
+						throw new TypeMismatchException(EncodingRule.ARRAY_TYPE, type, (int) position() - 1);
+
+					long length = readRawNumber();
+					if (length == 0) {
+						ended = true;
+						return false;
+					}
+					chunkEnd = position() + length;
+				}
+				return true;
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public Object next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+
+			try {
+				return read();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
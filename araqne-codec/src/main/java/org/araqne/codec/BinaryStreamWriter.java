@@ -0,0 +1,264 @@
+/*
+ * Copyright 2013 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.codec;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes values to channel in {@link EncodingRule} format using fixed size
+ * buffer. Small values are encoded into the buffer at once, and large map,
+ * array, string and blob are streamed piece by piece, so encoded form of
+ * large value is never held in memory.
+ * 
+ * Length of unknown size can be written in two ways:
+ * <ul>
+ * <li>{@link #beginMap()} and {@link #beginArray()} reserve padded length
+ * prefix and back-patch it at {@link #end()}. File channel is required.</li>
+ * <li>{@link #writeChunked(Iterator)} writes consecutive arrays of bounded
+ * size followed by empty array. Read it using
+ * {@link BinaryStreamReader#readChunked()}.</li>
+ * </ul>
+ * 
+ * Writer does not close the channel. Call {@link #flush()} after writing.
+ */
+public class BinaryStreamWriter {
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	// 7 bits per byte, enough for int length
+	private static final int DEFERRED_LENGTH_BYTES = 5;
+
+	private final WritableByteChannel channel;
+	private final CustomCodec cc;
+	private final ByteBuffer buf;
+
+	// header positions of deferred containers
+	private long[] deferred = new long[8];
+	private int depth;
+
+	public BinaryStreamWriter(WritableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE, null);
+	}
+
+	public BinaryStreamWriter(WritableByteChannel channel, CustomCodec cc) {
+		this(channel, DEFAULT_BUFFER_SIZE, cc);
+	}
+
+	public BinaryStreamWriter(WritableByteChannel channel, int bufferSize, CustomCodec cc) {
+		if (bufferSize < 64)
+			throw new IllegalArgumentException("buffer size should be at least 64: " + bufferSize);
+
+		this.channel = channel;
+		this.cc = cc;
+		this.buf = ByteBuffer.allocate(bufferSize);
+	}
+
+	@SuppressWarnings("unchecked")
+	public void write(Object value) throws IOException {
+		int length = EncodingRule.lengthOf(value, cc);
+		if (length <= buf.capacity()) {
+			ensure(length);
+			EncodingRule.encode(buf, value, cc);
+			return;
+		}
+
+		if (value instanceof String) {
+			writeBytes(EncodingRule.STRING_TYPE, toUtf8((String) value));
+		} else if (value instanceof byte[]) {
+			writeBytes(EncodingRule.BLOB_TYPE, (byte[]) value);
+		} else if (value instanceof Map<?, ?>) {
+			Map<String, Object> m = (Map<String, Object>) value;
+			writeHeader(EncodingRule.MAP_TYPE, lengthOfPayload(length));
+			for (Map.Entry<String, Object> e : m.entrySet()) {
+				write(e.getKey());
+				write(e.getValue());
+			}
+		} else if (value instanceof List<?>) {
+			writeHeader(EncodingRule.ARRAY_TYPE, lengthOfPayload(length));
+			for (Object o : (List<?>) value)
+				write(o);
+		} else if (value.getClass().isArray()) {
+			writeHeader(EncodingRule.ARRAY_TYPE, lengthOfPayload(length));
+			int count = Array.getLength(value);
+			for (int i = 0; i < count; i++)
+				write(Array.get(value, i));
+		} else {
+			// large custom value
+			ByteBuffer bb = ByteBuffer.allocate(length);
+			EncodingRule.encode(bb, value, cc);
+			bb.flip();
+			flush();
+			writeFully(bb);
+		}
+	}
+
+	/**
+	 * write key of map which is opened by {@link #beginMap()}
+	 */
+	public void writeKey(String key) throws IOException {
+		write(key);
+	}
+
+	/**
+	 * Begin map of unknown size. Write keys and values using
+	 * {@link #writeKey(String)} and {@link #write(Object)}, and call
+	 * {@link #end()}.
+	 */
+	public void beginMap() throws IOException {
+		begin(EncodingRule.MAP_TYPE);
+	}
+
+	/**
+	 * Begin array of unknown size. Write elements using {@link #write(Object)}
+	 * and call {@link #end()}.
+	 */
+	public void beginArray() throws IOException {
+		begin(EncodingRule.ARRAY_TYPE);
+	}
+
+	/**
+	 * back-patch length prefix of the last opened map or array
+	 */
+	public void end() throws IOException {
+		if (depth == 0)
+			throw new IllegalStateException("no open map or array");
+
+		flush();
+		FileChannel fc = (FileChannel) channel;
+		long header = deferred[--depth];
+		long length = fc.position() - header - 1 - DEFERRED_LENGTH_BYTES;
+		if (length > Integer.MAX_VALUE)
+			throw new IllegalStateException("too large payload: " + length);
+
+		// leading zero groups are skipped by decodeRawNumber()
+		ByteBuffer bb = ByteBuffer.allocate(DEFERRED_LENGTH_BYTES);
+		for (int i = DEFERRED_LENGTH_BYTES - 1; i >= 0; i--) {
+			byte signalBit = (byte) (i != 0 ? 0x80 : 0);
+			bb.put((byte) (signalBit | (length >> (7 * i)) & 0x7F));
+		}
+		bb.flip();
+
+		long p = header + 1;
+		while (bb.hasRemaining())
+			p += fc.write(bb, p);
+	}
+
+	/**
+	 * Write values as consecutive arrays whose payload does not exceed buffer
+	 * size (unless single value is larger), and terminate them with empty
+	 * array. Values are taken from iterator as they are written.
+	 */
+	public void writeChunked(Iterator<?> values) throws IOException {
+		List<Object> chunk = new ArrayList<Object>();
+		int chunkLength = 0;
+		while (values.hasNext()) {
+			Object value = values.next();
+			int length = EncodingRule.lengthOf(value, cc);
+			if (!chunk.isEmpty() && chunkLength + length > buf.capacity()) {
+				writeChunk(chunk, chunkLength);
+				chunk.clear();
+				chunkLength = 0;
+			}
+
+			chunk.add(value);
+			chunkLength += length;
+		}
+
+		if (!chunk.isEmpty())
+			writeChunk(chunk, chunkLength);
+
+		// end of chunks
+		writeHeader(EncodingRule.ARRAY_TYPE, 0);
+	}
+
+	public void flush() throws IOException {
+		buf.flip();
+		writeFully(buf);
+		buf.clear();
+	}
+
+	private void writeChunk(List<Object> chunk, int length) throws IOException {
+		writeHeader(EncodingRule.ARRAY_TYPE, length);
+		for (Object o : chunk)
+			write(o);
+	}
+
+	private void begin(byte type) throws IOException {
+		if (!(channel instanceof FileChannel))
+			throw new IllegalStateException("length deferred map or array requires file channel");
+
+		flush();
+		if (depth == deferred.length)
+			deferred = Arrays.copyOf(deferred, depth * 2);
+		deferred[depth++] = ((FileChannel) channel).position();
+
+		buf.put(type);
+		for (int i = 0; i < DEFERRED_LENGTH_BYTES; i++)
+			buf.put((byte) 0x80);
+	}
+
+	private void writeHeader(byte type, int length) throws IOException {
+		ensure(1 + EncodingRule.lengthOfRawNumber(int.class, length));
+		buf.put(type);
+		EncodingRule.encodeRawNumber(buf, int.class, length);
+	}
+
+	private void writeBytes(byte type, byte[] b) throws IOException {
+		writeHeader(type, b.length);
+		if (b.length <= buf.remaining()) {
+			buf.put(b);
+			return;
+		}
+
+		flush();
+		writeFully(ByteBuffer.wrap(b));
+	}
+
+	private void writeFully(ByteBuffer bb) throws IOException {
+		while (bb.hasRemaining())
+			channel.write(bb);
+	}
+
+	private void ensure(int length) throws IOException {
+		if (buf.remaining() < length)
+			flush();
+	}
+
+	private static int lengthOfPayload(int length) {
+		// strip type and length prefix
+		int payload = length - 1;
+		while (payload + 1 + EncodingRule.lengthOfRawNumber(int.class, payload) > length)
+			payload--;
+		return payload;
+	}
+
+	private static byte[] toUtf8(String s) {
+		try {
+			return s.getBytes("utf-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
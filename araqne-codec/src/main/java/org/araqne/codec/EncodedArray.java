@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.codec;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list view over encoded array. Elements are decoded when accessed,
+ * and nested map and array are returned as {@link EncodedMap} and
+ * {@link EncodedArray} views. Use {@link #toObjectArray()} to get fully
+ * decoded array.
+ * 
+ * View shares the underlying buffer, so buffer content should not be modified
+ * while view is used.
+ */
+public class EncodedArray extends AbstractList<Object> implements RandomAccess {
+	// whole encoded array including type and length
+	private final ByteBuffer bb;
+	private final CustomCodec cc;
+
+	// position of first element and end of payload in the view buffer
+	private final int begin;
+	private final int end;
+
+	// element positions, built on first access
+	private volatile int[] offsets;
+
+	public EncodedArray(ByteBuffer bb) {
+		this(bb, null);
+	}
+
+	/**
+	 * @param bb
+	 *            the buffer positioned at the array type byte. position will
+	 *            not move.
+	 */
+	public EncodedArray(ByteBuffer bb, CustomCodec cc) {
+		ByteBuffer buf = bb.duplicate();
+		int start = buf.position();
+		byte type = buf.get();
+		if (type != EncodingRule.ARRAY_TYPE)
+			throw new TypeMismatchException(EncodingRule.ARRAY_TYPE, type, start);
+
+		int length = (int) EncodingRule.decodeRawNumber(buf);
+		this.begin = buf.position() - start;
+		this.end = begin + length;
+
+		buf.position(start);
+		buf.limit(start + end);
+		this.bb = buf.slice();
+		this.cc = cc;
+	}
+
+	/**
+	 * @return the encoded array including type and length bytes
+	 */
+	public ByteBuffer getEncoded() {
+		return bb.duplicate();
+	}
+
+	/**
+	 * @return the encoded element without decoding it
+	 */
+	public ByteBuffer getEncoded(int index) {
+		int pos = position(index);
+		ByteBuffer buf = bb.duplicate();
+		buf.position(pos);
+		buf.limit(pos + EncodingRule.getObjectLength(buf, cc));
+		return buf.slice();
+	}
+
+	@Override
+	public Object get(int index) {
+		ByteBuffer buf = bb.duplicate();
+		buf.position(position(index));
+		return EncodingRule.decodeView(buf, cc);
+	}
+
+	@Override
+	public int size() {
+		return getOffsets().length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return end == begin;
+	}
+
+	/**
+	 * @return the fully decoded array
+	 */
+	public Object[] toObjectArray() {
+		return EncodingRule.decodeArray(bb.duplicate(), cc);
+	}
+
+	private int position(int index) {
+		int[] positions = getOffsets();
+		if (index < 0 || index >= positions.length)
+			throw new IndexOutOfBoundsException("index: " + index + ", size: " + positions.length);
+		return positions[index];
+	}
+
+	private int[] getOffsets() {
+		int[] positions = offsets;
+		if (positions != null)
+			return positions;
+
+		int count = 0;
+		int[] l = new int[8];
+		ByteBuffer buf = bb.duplicate();
+		buf.position(begin);
+		while (buf.position() < end) {
+			if (count == l.length)
+				l = Arrays.copyOf(l, count * 2);
+			l[count++] = buf.position();
+			buf.position(buf.position() + EncodingRule.getObjectLength(buf, cc));
+		}
+
+		positions = Arrays.copyOf(l, count);
+		offsets = positions;
+		return positions;
+	}
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2013 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.codec;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only map view over encoded map. Values are decoded when accessed, and
+ * key lookup skips other values without decoding them. Nested map and array
+ * are returned as {@link EncodedMap} and {@link EncodedArray} views. Use
+ * {@link #toMap()} to get fully decoded map.
+ * 
+ * View shares the underlying buffer, so buffer content should not be modified
+ * while view is used.
+ */
+public class EncodedMap extends AbstractMap<String, Object> {
+	// whole encoded map including type and length
+	private final ByteBuffer bb;
+	private final CustomCodec cc;
+
+	// position of first key and end of payload in the view buffer
+	private final int begin;
+	private final int end;
+
+	// key positions, built on first iteration
+	private volatile int[] keyPositions;
+
+	public EncodedMap(ByteBuffer bb) {
+		this(bb, null);
+	}
+
+	/**
+	 * @param bb
+	 *            the buffer positioned at the map type byte. position will
+	 *            not move.
+	 */
+	public EncodedMap(ByteBuffer bb, CustomCodec cc) {
+		ByteBuffer buf = bb.duplicate();
+		int start = buf.position();
+		byte type = buf.get();
+		if (type != EncodingRule.MAP_TYPE)
+			throw new TypeMismatchException(EncodingRule.MAP_TYPE, type, start);
+
+		int length = (int) EncodingRule.decodeRawNumber(buf);
+		this.begin = buf.position() - start;
+		this.end = begin + length;
+
+		buf.position(start);
+		buf.limit(start + end);
+		this.bb = buf.slice();
+		this.cc = cc;
+	}
+
+	/**
+	 * @return the encoded map including type and length bytes
+	 */
+	public ByteBuffer getEncoded() {
+		return bb.duplicate();
+	}
+
+	/**
+	 * @return the encoded value of the key without decoding it, or null if key
+	 *         is not found
+	 */
+	public ByteBuffer getEncoded(String key) {
+		int pos = findValue(key);
+		if (pos < 0)
+			return null;
+
+		ByteBuffer buf = bb.duplicate();
+		buf.position(pos);
+		buf.limit(pos + EncodingRule.getObjectLength(buf, cc));
+		return buf.slice();
+	}
+
+	@Override
+	public Object get(Object key) {
+		if (!(key instanceof String))
+			return null;
+
+		int pos = findValue((String) key);
+		return pos < 0 ? null : decodeValue(pos);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return key instanceof String && findValue((String) key) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return getKeyPositions().length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return end == begin;
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		return new AbstractSet<Entry<String, Object>>() {
+			@Override
+			public Iterator<Entry<String, Object>> iterator() {
+				return new EntryIterator(getKeyPositions());
+			}
+
+			@Override
+			public int size() {
+				return EncodedMap.this.size();
+			}
+		};
+	}
+
+	/**
+	 * @return the fully decoded map
+	 */
+	public Map<String, Object> toMap() {
+		return EncodingRule.decodeMap(bb.duplicate(), cc);
+	}
+
+	private int findValue(String key) {
+		byte[] k = EncodedStringCache.getKeyBytes(key);
+		ByteBuffer buf = bb.duplicate();
+		buf.position(begin);
+		while (buf.position() < end) {
+			byte type = buf.get();
+			if (type != EncodingRule.STRING_TYPE)
+				throw new TypeMismatchException(EncodingRule.STRING_TYPE, type, buf.position() - 1);
+
+			int klength = (int) EncodingRule.decodeRawNumber(buf);
+			int kpos = buf.position();
+			buf.position(kpos + klength);
+
+			if (klength == k.length && equalBytes(buf, kpos, k))
+				return buf.position();
+
+			buf.position(buf.position() + EncodingRule.getObjectLength(buf, cc));
+		}
+		return -1;
+	}
+
+	private int[] getKeyPositions() {
+		int[] positions = keyPositions;
+		if (positions != null)
+			return positions;
+
+		int count = 0;
+		int[] l = new int[8];
+		ByteBuffer buf = bb.duplicate();
+		buf.position(begin);
+		while (buf.position() < end) {
+			if (count == l.length)
+				l = Arrays.copyOf(l, count * 2);
+			l[count++] = buf.position();
+
+			// skip key and value
+			buf.position(buf.position() + EncodingRule.getObjectLength(buf, cc));
+			buf.position(buf.position() + EncodingRule.getObjectLength(buf, cc));
+		}
+
+		positions = Arrays.copyOf(l, count);
+		keyPositions = positions;
+		return positions;
+	}
+
+	private Object decodeValue(int pos) {
+		ByteBuffer buf = bb.duplicate();
+		buf.position(pos);
+		return EncodingRule.decodeView(buf, cc);
+	}
+
+	private static boolean equalBytes(ByteBuffer buf, int offset, byte[] b) {
+		for (int i = 0; i < b.length; i++)
+			if (buf.get(offset + i) != b[i])
+				return false;
+		return true;
+	}
+
+	private class EntryIterator implements Iterator<Entry<String, Object>> {
+		private int[] positions;
+		private int i;
+
+		public EntryIterator(int[] positions) {
+			this.positions = positions;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return i < positions.length;
+		}
+
+		@Override
+		public Entry<String, Object> next() {
+			if (i >= positions.length)
+				throw new NoSuchElementException();
+
+			ByteBuffer buf = bb.duplicate();
+			buf.position(positions[i++]);
+			String key = EncodingRule.decodeString(buf);
+			return new LazyEntry(key, buf.position());
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	/**
+	 * decodes value when it is accessed, so that key iteration does not
+	 * decode values
+	 */
+	private class LazyEntry implements Entry<String, Object> {
+		private final String key;
+		private final int valuePos;
+
+		public LazyEntry(String key, int valuePos) {
+			this.key = key;
+			this.valuePos = valuePos;
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		public Object getValue() {
+			return decodeValue(valuePos);
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Entry))
+				return false;
+
+			Entry<?, ?> e = (Entry<?, ?>) o;
+			Object value = getValue();
+			return key.equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			Object value = getValue();
+			return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return key + "=" + getValue();
+		}
+	}
+}
@@ -16,15 +16,86 @@
 package org.araqne.codec;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class EncodedStringCache {
+	// map keys are interned until limit, and values are never interned
+	private static final int MAX_KEY_COUNT = 4096;
+	private static final int MAX_KEY_LENGTH = 128;
+	private static final ConcurrentMap<String, EncodedStringCache> keys = new ConcurrentHashMap<String, EncodedStringCache>();
+
 	private byte[] value;
 	private int rawNumberLength;
 
+	// type, length and utf-8 bytes
+	private byte[] encoded;
+
 	public static EncodedStringCache getEncodedString(String value) {
 		return new EncodedStringCache(value);
 	}
 
+	/**
+	 * Return interned encoding of map key. Short keys are cached until the
+	 * number of cached keys reaches the limit. Other keys are returned as new
+	 * uncached encoding.
+	 */
+	public static EncodedStringCache getEncodedKey(String key) {
+		EncodedStringCache cached = getInternedKey(key);
+		if (cached != null)
+			return cached;
+		return new EncodedStringCache(key);
+	}
+
+	/**
+	 * Return interned encoding of map key for writers, interning the key if
+	 * the cache has room.
+	 * 
+	 * @return the interned encoding, or null if key cannot be interned. caller
+	 *         should encode the key by itself in that case.
+	 */
+	public static EncodedStringCache getInternedKey(String key) {
+		EncodedStringCache cached = keys.get(key);
+		if (cached != null)
+			return cached;
+
+		if (key.length() > MAX_KEY_LENGTH || keys.size() >= MAX_KEY_COUNT)
+			return null;
+
+		cached = new EncodedStringCache(key);
+		cached.encoded();
+		EncodedStringCache old = keys.putIfAbsent(key, cached);
+		return old != null ? old : cached;
+	}
+
+	/**
+	 * Return utf-8 bytes of lookup key. Readers use arbitrary keys, so the key
+	 * is not interned.
+	 */
+	public static byte[] getKeyBytes(String key) {
+		EncodedStringCache cached = keys.get(key);
+		if (cached != null)
+			return cached.value;
+
+		try {
+			return key.getBytes("utf-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the number of interned map keys
+	 */
+	public static int getKeyCount() {
+		return keys.size();
+	}
+
+	public static void clearKeys() {
+		keys.clear();
+	}
+
 	private EncodedStringCache(String value) {
 		try {
 			this.value = value.getBytes("utf-8");
@@ -40,4 +111,19 @@ public class EncodedStringCache {
 	public byte[] value() {
 		return value;
 	}
+
+	/**
+	 * @return the encoded string including type and length, computed before
+	 *         interned key is published
+	 */
+	public byte[] encoded() {
+		if (encoded == null) {
+			ByteBuffer bb = ByteBuffer.allocate(length());
+			bb.put(EncodingRule.STRING_TYPE);
+			EncodingRule.encodeRawNumber(bb, int.class, value.length);
+			bb.put(value);
+			encoded = bb.array();
+		}
+		return encoded;
+	}
 }
@@ -21,6 +21,7 @@ import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
@@ -50,6 +51,13 @@ public class EncodingRule {
 	public static final byte FLOAT_TYPE = 15;
 	public static final byte DOUBLE_TYPE = 16;
 
+	// packed primitive arrays, decoded as primitive array
+	public static final byte PACKED_INT16_TYPE = 17;
+	public static final byte PACKED_INT32_TYPE = 18;
+	public static final byte PACKED_INT64_TYPE = 19;
+	public static final byte PACKED_FLOAT_TYPE = 20;
+	public static final byte PACKED_DOUBLE_TYPE = 21;
+
 	private EncodingRule() {
 	}
 
@@ -114,6 +122,25 @@ public class EncodingRule {
 		}
 	}
 
+	/**
+	 * Encode value in one pass using thread local buffer, without computing
+	 * length in advance.
+	 * 
+	 * @return the encoded bytes
+	 */
+	public static byte[] encodeBytes(Object value) {
+		return encodeBytes(value, null);
+	}
+
+	public static byte[] encodeBytes(Object value, CustomCodec cc) {
+		BinaryEncoder encoder = BinaryEncoder.acquire();
+		try {
+			return encoder.encode(value, cc).toByteArray();
+		} finally {
+			encoder.release();
+		}
+	}
+
 	@Deprecated
 	public static int length(Object value) {
 		return lengthOf(value);
@@ -141,6 +168,10 @@ public class EncodingRule {
 			return lengthOfIp4((Inet4Address) value);
 		} else if (value instanceof Inet6Address) {
 			return lengthOfIp6((Inet6Address) value);
+		} else if (value instanceof EncodedMap) {
+			return ((EncodedMap) value).getEncoded().remaining();
+		} else if (value instanceof EncodedArray) {
+			return ((EncodedArray) value).getEncoded().remaining();
 		} else if (value instanceof Map<?, ?>) {
 			return lengthOfMap((Map<String, Object>) value, cc);
 		} else if (value instanceof List<?>) {
@@ -197,7 +228,12 @@ public class EncodingRule {
 		case STRING_TYPE:
 		case MAP_TYPE:
 		case ARRAY_TYPE:
-		case BLOB_TYPE: {
+		case BLOB_TYPE:
+		case PACKED_INT16_TYPE:
+		case PACKED_INT32_TYPE:
+		case PACKED_INT64_TYPE:
+		case PACKED_FLOAT_TYPE:
+		case PACKED_DOUBLE_TYPE: {
 			int pos = buf.position();
 			return 1 + (int) decodeRawNumber(buf) + (buf.position() - pos);
 		}
@@ -280,6 +316,16 @@ public class EncodingRule {
 			return (float) decodeFloat(bb);
 		case DOUBLE_TYPE:
 			return (double) decodeDouble(bb);
+		case PACKED_INT16_TYPE:
+			return decodePackedShortArray(bb);
+		case PACKED_INT32_TYPE:
+			return decodePackedIntArray(bb);
+		case PACKED_INT64_TYPE:
+			return decodePackedLongArray(bb);
+		case PACKED_FLOAT_TYPE:
+			return decodePackedFloatArray(bb);
+		case PACKED_DOUBLE_TYPE:
+			return decodePackedDoubleArray(bb);
 		}
 
 		if (cc != null)
@@ -288,6 +334,30 @@ public class EncodingRule {
 			throw new UnsupportedTypeException("type: " + typeByte);
 	}
 
+	public static Object decodeView(ByteBuffer bb) {
+		return decodeView(bb, null);
+	}
+
+	/**
+	 * Decode map and array as lazy {@link EncodedMap} and {@link EncodedArray}
+	 * views which share the buffer. Other types are decoded as
+	 * {@link #decode(ByteBuffer, CustomCodec)}. Position moves to the end of
+	 * the object.
+	 */
+	public static Object decodeView(ByteBuffer bb, CustomCodec cc) {
+		int typeByte = bb.get(bb.position());
+		Object view;
+		if (typeByte == MAP_TYPE)
+			view = new EncodedMap(bb, cc);
+		else if (typeByte == ARRAY_TYPE)
+			view = new EncodedArray(bb, cc);
+		else
+			return decode(bb, cc);
+
+		bb.position(bb.position() + getObjectLength(bb, cc));
+		return view;
+	}
+
 	public static void encodeNull(ByteBuffer bb) {
 		bb.put(NULL_TYPE);
 	}
@@ -511,58 +581,12 @@ public class EncodingRule {
 	}
 
 	public static void encodeMap(ByteBuffer bb, Map<String, Object> map, CustomCodec cc) {
-		bb.put(MAP_TYPE);
-
-		int length = preencodeMap(map, 0, cc);
-		encodeRawNumber(bb, int.class, length);
-
-		for (String key : map.keySet()) {
-			EncodedStringCache k = EncodedStringCache.getEncodedString(key);
-			bb.put(STRING_TYPE);
-			encodeRawNumber(bb, int.class, k.value().length);
-			bb.put(k.value());
-
-			Object value = map.get(key);
-			if (value instanceof String) {
-				EncodedStringCache v = EncodedStringCache.getEncodedString((String) value);
-				bb.put(STRING_TYPE);
-				encodeRawNumber(bb, int.class, v.value().length);
-				bb.put(v.value());
-			} else
-				encode(bb, value, cc);
-		}
-	}
-
-	/**
-	 * preencodeMap track down recursively and sum all content length
-	 * 
-	 * @return content length except type and length bytes
-	 */
-	@SuppressWarnings("unchecked")
-	private static int preencodeMap(Map<String, Object> map, int depth, CustomCodec cc) {
-		int length = 0;
-
-		for (String key : map.keySet()) {
-			EncodedStringCache k = EncodedStringCache.getEncodedString(key);
-			length += k.length();
-
-			Object value = map.get(key);
-			if (value instanceof String)
-				length += EncodedStringCache.getEncodedString((String) value).length();
-			else if (value instanceof Map)
-				length += preencodeMap((Map<String, Object>) value, depth + 1, cc);
-			else if (value instanceof List)
-				length += preencodeArray((List<?>) value, depth + 1, cc);
-			else if (value instanceof Object[])
-				length += preencodeArray((Object[]) value, depth + 1, cc);
-			else
-				length += lengthOf(value, cc);
+		BinaryEncoder encoder = BinaryEncoder.acquire();
+		try {
+			encoder.encode(map, cc).writeTo(bb);
+		} finally {
+			encoder.release();
 		}
-
-		if (depth == 0)
-			return length;
-		else
-			return 1 + lengthOfRawNumber(int.class, length) + length;
 	}
 
 	public static Map<String, Object> decodeMap(ByteBuffer bb) {
@@ -619,24 +643,80 @@ public class EncodingRule {
 		return m;
 	}
 
+	/**
+	 * Find value position of the field path in the encoded map, without
+	 * decoding other fields. Values of non-matching keys are skipped using
+	 * {@link #getObjectLength(ByteBuffer, CustomCodec)}. ByteBuffer's position
+	 * will not move.
+	 *
+	 * @param bb
+	 *            the buffer positioned at the map type byte
+	 * @param path
+	 *            the nested map keys
+	 * @return the absolute position of the value, or -1 if value is not map or
+	 *         field is not found
+	 */
+	public static int findField(ByteBuffer bb, String[] path) {
+		return findField(bb, path, null);
+	}
+
+	public static int findField(ByteBuffer bb, String[] path, CustomCodec cc) {
+		byte[][] keys = new byte[path.length][];
+		for (int i = 0; i < path.length; i++)
+			keys[i] = path[i].getBytes(utf8);
+		return findField(bb, keys, cc);
+	}
+
+	public static int findField(ByteBuffer bb, byte[][] keys, CustomCodec cc) {
+		ByteBuffer buf = bb.duplicate();
+		for (byte[] key : keys) {
+			if (!seekMapKey(buf, key, cc))
+				return -1;
+		}
+		return buf.position();
+	}
+
+	private static boolean seekMapKey(ByteBuffer buf, byte[] key, CustomCodec cc) {
+		if (buf.get() != MAP_TYPE)
+			return false;
+
+		int length = (int) decodeRawNumber(buf);
+		int end = buf.position() + length;
+
+		while (buf.position() < end) {
+			if (buf.get() != STRING_TYPE)
+				return false;
+
+			int klength = (int) decodeRawNumber(buf);
+			int kpos = buf.position();
+			buf.position(kpos + klength);
+
+			if (klength == key.length && equalBytes(buf, kpos, key))
+				return true;
+
+			buf.position(buf.position() + getObjectLength(buf, cc));
+		}
+
+		return false;
+	}
+
+	private static boolean equalBytes(ByteBuffer buf, int offset, byte[] b) {
+		for (int i = 0; i < b.length; i++)
+			if (buf.get(offset + i) != b[i])
+				return false;
+		return true;
+	}
+
 	public static void encodeArray(ByteBuffer bb, List<?> array) {
 		encodeArray(bb, array, null);
 	}
 
 	public static void encodeArray(ByteBuffer bb, List<?> array, CustomCodec cc) {
-		bb.put(ARRAY_TYPE);
-
-		int length = preencodeArray(array, 0, cc);
-		encodeRawNumber(bb, int.class, length);
-
-		for (Object obj : array) {
-			if (obj instanceof String) {
-				EncodedStringCache es = EncodedStringCache.getEncodedString((String) obj);
-				bb.put(STRING_TYPE);
-				encodeRawNumber(bb, int.class, es.value().length);
-				bb.put(es.value());
-			} else
-				encode(bb, obj, cc);
+		BinaryEncoder encoder = BinaryEncoder.acquire();
+		try {
+			encoder.encode(array, cc).writeTo(bb);
+		} finally {
+			encoder.release();
 		}
 	}
 
@@ -717,34 +797,6 @@ public class EncodingRule {
 			encodeBoolean(bb, i);
 	}
 
-	/**
-	 * preencodeArray track down recursively and sum all content length
-	 * 
-	 * @return content length except type and length bytes
-	 */
-	@SuppressWarnings("unchecked")
-	private static int preencodeArray(List<?> array, int depth, CustomCodec cc) {
-		int length = 0;
-
-		for (Object object : array) {
-			if (object instanceof String)
-				length += EncodedStringCache.getEncodedString((String) object).length();
-			else if (object instanceof Map)
-				length += preencodeMap((Map<String, Object>) object, depth + 1, cc);
-			else if (object instanceof List)
-				length += preencodeArray((List<?>) object, depth + 1, cc);
-			else if (object instanceof Object[])
-				length += preencodeArray((Object[]) object, depth + 1, cc);
-			else
-				length += lengthOf(object, cc);
-		}
-
-		if (depth == 0)
-			return length;
-		else
-			return 1 + lengthOfRawNumber(int.class, length) + length;
-	}
-
 	public static void encodeArray(ByteBuffer bb, Object[] array) {
 		encodeArray(bb, array, null);
 	}
@@ -753,10 +805,6 @@ public class EncodingRule {
 		encodeArray(bb, Arrays.asList(array), cc);
 	}
 
-	private static int preencodeArray(Object[] array, int depth, CustomCodec cc) {
-		return preencodeArray(Arrays.asList(array), depth, cc);
-	}
-
 	public static Object[] decodeArray(ByteBuffer bb) {
 		return decodeArray(bb, null);
 	}
@@ -779,6 +827,170 @@ public class EncodingRule {
 		return l.toArray();
 	}
 
+	/**
+	 * Encode int array as packed array of zigzag varints. Packed array is
+	 * decoded as int[] instead of Object[].
+	 */
+	public static void encodePackedArray(ByteBuffer bb, int[] array) {
+		int contentLength = lengthOfRawNumber(int.class, array.length);
+		for (int i : array)
+			contentLength += lengthOfZigzagLong(i);
+
+		bb.put(PACKED_INT32_TYPE);
+		encodeRawNumber(bb, int.class, contentLength);
+		encodeRawNumber(bb, int.class, array.length);
+		for (int i : array)
+			encodeZigzagLong(bb, i);
+	}
+
+	public static void encodePackedArray(ByteBuffer bb, long[] array) {
+		int contentLength = lengthOfRawNumber(int.class, array.length);
+		for (long l : array)
+			contentLength += lengthOfZigzagLong(l);
+
+		bb.put(PACKED_INT64_TYPE);
+		encodeRawNumber(bb, int.class, contentLength);
+		encodeRawNumber(bb, int.class, array.length);
+		for (long l : array)
+			encodeZigzagLong(bb, l);
+	}
+
+	public static void encodePackedArray(ByteBuffer bb, short[] array) {
+		int contentLength = lengthOfRawNumber(int.class, array.length);
+		for (short s : array)
+			contentLength += lengthOfZigzagLong(s);
+
+		bb.put(PACKED_INT16_TYPE);
+		encodeRawNumber(bb, int.class, contentLength);
+		encodeRawNumber(bb, int.class, array.length);
+		for (short s : array)
+			encodeZigzagLong(bb, s);
+	}
+
+	/**
+	 * Encode float array as packed array of little endian raw bits.
+	 */
+	public static void encodePackedArray(ByteBuffer bb, float[] array) {
+		bb.put(PACKED_FLOAT_TYPE);
+		encodeRawNumber(bb, int.class, lengthOfRawNumber(int.class, array.length) + array.length * 4);
+		encodeRawNumber(bb, int.class, array.length);
+
+		ByteBuffer dup = bb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		dup.asFloatBuffer().put(array);
+		bb.position(bb.position() + array.length * 4);
+	}
+
+	public static void encodePackedArray(ByteBuffer bb, double[] array) {
+		bb.put(PACKED_DOUBLE_TYPE);
+		encodeRawNumber(bb, int.class, lengthOfRawNumber(int.class, array.length) + array.length * 8);
+		encodeRawNumber(bb, int.class, array.length);
+
+		ByteBuffer dup = bb.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		dup.asDoubleBuffer().put(array);
+		bb.position(bb.position() + array.length * 8);
+	}
+
+	public static int[] decodePackedIntArray(ByteBuffer bb) {
+		checkPackedType(bb, PACKED_INT32_TYPE);
+		int[] array = new int[(int) decodeRawNumber(bb)];
+		for (int i = 0; i < array.length; i++)
+			array[i] = (int) unzigzag(decodeRawNumber(bb));
+		return array;
+	}
+
+	public static long[] decodePackedLongArray(ByteBuffer bb) {
+		checkPackedType(bb, PACKED_INT64_TYPE);
+		long[] array = new long[(int) decodeRawNumber(bb)];
+		for (int i = 0; i < array.length; i++)
+			array[i] = unzigzag(decodeRawNumber(bb));
+		return array;
+	}
+
+	public static short[] decodePackedShortArray(ByteBuffer bb) {
+		checkPackedType(bb, PACKED_INT16_TYPE);
+		short[] array = new short[(int) decodeRawNumber(bb)];
+		for (int i = 0; i < array.length; i++)
+			array[i] = (short) unzigzag(decodeRawNumber(bb));
+		return array;
+	}
+
+	public static float[] decodePackedFloatArray(ByteBuffer bb) {
+		checkPackedType(bb, PACKED_FLOAT_TYPE);
+		float[] array = new float[(int) decodeRawNumber(bb)];
+		bb.duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(array);
+		bb.position(bb.position() + array.length * 4);
+		return array;
+	}
+
+	public static double[] decodePackedDoubleArray(ByteBuffer bb) {
+		checkPackedType(bb, PACKED_DOUBLE_TYPE);
+		double[] array = new double[(int) decodeRawNumber(bb)];
+		bb.duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(array);
+		bb.position(bb.position() + array.length * 8);
+		return array;
+	}
+
+	public static int lengthOfPackedArray(int[] value) {
+		int contentLength = lengthOfRawNumber(int.class, value.length);
+		for (int i : value)
+			contentLength += lengthOfZigzagLong(i);
+		return 1 + lengthOfRawNumber(int.class, contentLength) + contentLength;
+	}
+
+	public static int lengthOfPackedArray(long[] value) {
+		int contentLength = lengthOfRawNumber(int.class, value.length);
+		for (long l : value)
+			contentLength += lengthOfZigzagLong(l);
+		return 1 + lengthOfRawNumber(int.class, contentLength) + contentLength;
+	}
+
+	public static int lengthOfPackedArray(short[] value) {
+		int contentLength = lengthOfRawNumber(int.class, value.length);
+		for (short s : value)
+			contentLength += lengthOfZigzagLong(s);
+		return 1 + lengthOfRawNumber(int.class, contentLength) + contentLength;
+	}
+
+	public static int lengthOfPackedArray(float[] value) {
+		int contentLength = lengthOfRawNumber(int.class, value.length) + value.length * 4;
+		return 1 + lengthOfRawNumber(int.class, contentLength) + contentLength;
+	}
+
+	public static int lengthOfPackedArray(double[] value) {
+		int contentLength = lengthOfRawNumber(int.class, value.length) + value.length * 8;
+		return 1 + lengthOfRawNumber(int.class, contentLength) + contentLength;
+	}
+
+	private static void checkPackedType(ByteBuffer bb, byte expected) {
+		byte type = bb.get();
+		if (type != expected)
+			throw new TypeMismatchException(expected, type, bb.position() - 1);
+
+		// skip content length, element count follows
+		decodeRawNumber(bb);
+	}
+
+	private static long unzigzag(long zvalue) {
+		return (zvalue >>> 1) ^ -(zvalue & 1);
+	}
+
+	// zigzag value may be negative for long, encode it as unsigned varint
+	private static void encodeZigzagLong(ByteBuffer bb, long value) {
+		long zvalue = (value << 1) ^ (value >> 63);
+		int len = lengthOfZigzagLong(value);
+		for (int i = len - 1; i >= 0; i--) {
+			byte signalBit = (byte) (i != 0 ? 0x80 : 0);
+			bb.put((byte) (signalBit | (zvalue >>> (7 * i)) & 0x7F));
+		}
+	}
+
+	private static int lengthOfZigzagLong(long value) {
+		long zvalue = (value << 1) ^ (value >> 63);
+		if (zvalue == 0)
+			return 1;
+		return (63 - Long.numberOfLeadingZeros(zvalue)) / 7 + 1;
+	}
+
 	public static void encodeBlob(ByteBuffer bb, byte[] buffer) {
 		bb.put(BLOB_TYPE);
 		encodeRawNumber(bb, int.class, buffer.length);
@@ -928,9 +1140,10 @@ public class EncodingRule {
 
 	public static int lengthOfMap(Map<String, Object> value, CustomCodec cc) {
 		int contentLength = 0;
-		for (String key : value.keySet()) {
-			contentLength += lengthOfString(key);
-			contentLength += lengthOf(value.get(key), cc);
+		for (Map.Entry<String, Object> e : value.entrySet()) {
+			EncodedStringCache k = EncodedStringCache.getInternedKey(e.getKey());
+			contentLength += k != null ? k.length() : lengthOfString(e.getKey());
+			contentLength += lengthOf(e.getValue(), cc);
 		}
 		return 1 + lengthOfRawNumber(int.class, contentLength) + contentLength;
 	}
@@ -188,7 +188,7 @@ public class FastEncodingRule {
 		int i = 0;
 		int payloadLength = 0;
 		for (Entry<String, Object> e : map.entrySet()) {
-			BinaryForm k = preencodeString(e.getKey());
+			BinaryForm k = preencodeKey(e.getKey());
 			BinaryForm v = preencode(e.getValue(), cc);
 			bf.children[i++] = k;
 			bf.children[i++] = v;
@@ -306,6 +306,18 @@ public class FastEncodingRule {
 		return bf;
 	}
 
+	private BinaryForm preencodeKey(String key) {
+		EncodedStringCache k = EncodedStringCache.getEncodedKey(key);
+		byte[] encoded = k.encoded();
+		BinaryForm bf = new BinaryForm();
+		bf.type = EncodingRule.STRING_TYPE;
+		bf.payloadBytes = k.value();
+		bf.lengthBytes = Arrays.copyOfRange(encoded, 1, encoded.length - bf.payloadBytes.length);
+		bf.totalLength = encoded.length;
+		bf.value = key;
+		return bf;
+	}
+
 	public BinaryForm preencodeBlob(byte[] b) {
 		BinaryForm bf = new BinaryForm();
 		bf.type = EncodingRule.BLOB_TYPE;
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2013 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class BinaryEncoderTest {
+	@Test
+	public void sameAsFastEncodingRule() throws UnknownHostException {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("name", "xeraph");
+		m.put("korean", "한글");
+		m.put("emoji", "😀");
+		m.put("int", Integer.MIN_VALUE);
+		m.put("long", Long.MIN_VALUE);
+		m.put("long2", Long.MAX_VALUE);
+		m.put("short", (short) -1);
+		m.put("date", new Date(1380000000000L));
+		m.put("ip4", InetAddress.getByName("10.0.0.1"));
+		m.put("ip6", InetAddress.getByName("::1"));
+		m.put("bool", true);
+		m.put("float", 1.5f);
+		m.put("double", -2.25);
+		m.put("null", null);
+		m.put("blob", new byte[] { 1, 2, 3 });
+		m.put("ints", new int[] { -1, 0, 1000000 });
+		m.put("longs", new long[] { -1, Long.MAX_VALUE });
+		m.put("shorts", new short[] { 1, -300 });
+		m.put("bools", new boolean[] { true, false });
+		m.put("doubles", new double[] { 0.5 });
+		m.put("floats", new float[] { 0.25f });
+		m.put("objects", new Object[] { "a", 1, null });
+
+		Map<String, Object> nested = new HashMap<String, Object>();
+		nested.put("list", Arrays.asList("x", "y", Arrays.asList(1, 2)));
+		m.put("nested", nested);
+
+		assertEncoded(m);
+	}
+
+	@Test
+	public void backPatchLongPayload() {
+		// length prefix of 1, 2 and 3 bytes
+		for (int len : new int[] { 127, 128, 16383, 16384, 100000 }) {
+			char[] c = new char[len];
+			Arrays.fill(c, 'a');
+			String s = new String(c);
+			assertEncoded(s);
+
+			Map<String, Object> m = new HashMap<String, Object>();
+			m.put("k", s);
+			m.put("l", Arrays.asList(s, s));
+			assertEncoded(m);
+		}
+
+		List<Object> l = new ArrayList<Object>();
+		for (int i = 0; i < 10000; i++)
+			l.add(i);
+		assertEncoded(l);
+	}
+
+	@Test
+	public void unpairedSurrogate() throws Exception {
+		String s = "a\ud800b\udc00";
+		byte[] b = EncodingRule.encodeBytes(s);
+		assertEquals(s.getBytes("utf-8").length + 2, b.length);
+		assertEncoded(s);
+	}
+
+	@Test
+	public void encodeMapIntoBuffer() {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("name", "xeraph");
+		m.put("values", Arrays.asList(1, 2, 3));
+
+		ByteBuffer bb = ByteBuffer.allocate(EncodingRule.lengthOf(m));
+		EncodingRule.encode(bb, m);
+		assertEquals(bb.capacity(), bb.position());
+		assertArrayEquals(fastEncode(m), bb.array());
+
+		bb.flip();
+		assertEquals(m.get("name"), EncodingRule.decodeMap(bb).get("name"));
+	}
+
+	@Test
+	public void reuseThreadLocalEncoder() {
+		BinaryEncoder e1 = BinaryEncoder.acquire();
+		BinaryEncoder e2 = BinaryEncoder.acquire();
+		assertNotSame(e1, e2);
+		e2.release();
+
+		e1.encode("hello");
+		assertEquals(7, e1.length());
+		e1.release();
+
+		BinaryEncoder e3 = BinaryEncoder.acquire();
+		assertSame(e1, e3);
+		assertEquals(0, e3.length());
+		e3.release();
+	}
+
+	@Test
+	public void internMapKeys() {
+		EncodedStringCache.clearKeys();
+		EncodedStringCache k = EncodedStringCache.getEncodedKey("name");
+		assertSame(k, EncodedStringCache.getEncodedKey("name"));
+		assertEquals(1, EncodedStringCache.getKeyCount());
+
+		// values are not interned
+		assertNotSame(EncodedStringCache.getEncodedString("name"), EncodedStringCache.getEncodedString("name"));
+
+		// long key is not interned
+		char[] c = new char[200];
+		Arrays.fill(c, 'k');
+		EncodedStringCache.getEncodedKey(new String(c));
+		assertEquals(1, EncodedStringCache.getKeyCount());
+
+		// bounded
+		for (int i = 0; i < 10000; i++)
+			EncodedStringCache.getEncodedKey("key" + i);
+		assertEquals(4096, EncodedStringCache.getKeyCount());
+		assertNull(EncodedStringCache.getInternedKey("key9999"));
+
+		// keys which are not interned are encoded in place
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("key9999", 1);
+		m.put(new String(c), 2);
+		assertEncoded(m);
+		EncodedStringCache.clearKeys();
+	}
+
+	@Test
+	public void lookupKeysAreNotInterned() {
+		EncodedStringCache.clearKeys();
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("name", "xeraph");
+		EncodedMap view = (EncodedMap) EncodingRule.decodeView(ByteBuffer.wrap(EncodingRule.encodeBytes(m)));
+		EncodedStringCache.clearKeys();
+
+		assertEquals("xeraph", view.get("name"));
+		for (int i = 0; i < 100; i++)
+			assertNull(view.get("missing" + i));
+		assertEquals(0, EncodedStringCache.getKeyCount());
+	}
+
+	private void assertEncoded(Object o) {
+		byte[] expected = fastEncode(o);
+		assertArrayEquals(expected, EncodingRule.encodeBytes(o));
+		assertEquals(expected.length, EncodingRule.lengthOf(o));
+	}
+
+	private byte[] fastEncode(Object o) {
+		ByteBuffer bb = new FastEncodingRule().encode(o);
+		byte[] b = new byte[bb.remaining()];
+		bb.get(b);
+		return b;
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2013 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class BinaryStreamTest {
+	@Test
+	public void sameAsEncodingRule() throws IOException {
+		// nested values larger than buffer
+		char[] c = new char[1000];
+		Arrays.fill(c, 'a');
+		String large = new String(c);
+
+		byte[] blob = new byte[3000];
+		for (int i = 0; i < blob.length; i++)
+			blob[i] = (byte) i;
+
+		List<Object> list = new ArrayList<Object>();
+		for (int i = 0; i < 500; i++)
+			list.add(i);
+
+		Map<String, Object> nested = new HashMap<String, Object>();
+		nested.put("large", large);
+		nested.put("small", "x");
+
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("blob", blob);
+		m.put("list", list);
+		m.put("ints", new int[] { 1, -1, 1000 });
+		m.put("nested", nested);
+		m.put("null", null);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		BinaryStreamWriter writer = new BinaryStreamWriter(Channels.newChannel(os), 128, null);
+		writer.write(m);
+		writer.write("tail");
+		writer.flush();
+
+		byte[] expected = concat(EncodingRule.encodeBytes(m), EncodingRule.encodeBytes("tail"));
+		assertArrayEquals(expected, os.toByteArray());
+
+		BinaryStreamReader reader = newReader(os.toByteArray());
+		assertTrue(reader.hasNext());
+
+		@SuppressWarnings("unchecked")
+		Map<String, Object> decoded = (Map<String, Object>) reader.read();
+		assertArrayEquals(blob, (byte[]) decoded.get("blob"));
+		assertArrayEquals(list.toArray(), (Object[]) decoded.get("list"));
+		assertArrayEquals(new Object[] { 1, -1, 1000 }, (Object[]) decoded.get("ints"));
+		assertEquals(nested, decoded.get("nested"));
+		assertTrue(decoded.containsKey("null"));
+		assertEquals("tail", reader.read());
+		assertFalse(reader.hasNext());
+		assertEquals(expected.length, reader.position());
+	}
+
+	@Test
+	public void chunked() throws IOException {
+		List<Object> values = new ArrayList<Object>();
+		for (int i = 0; i < 1000; i++)
+			values.add("value " + i);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		BinaryStreamWriter writer = new BinaryStreamWriter(Channels.newChannel(os), 256, null);
+		writer.writeChunked(values.iterator());
+		writer.write("tail");
+		writer.flush();
+
+		BinaryStreamReader reader = newReader(os.toByteArray());
+		Iterator<Object> it = reader.readChunked();
+		List<Object> decoded = new ArrayList<Object>();
+		while (it.hasNext())
+			decoded.add(it.next());
+
+		assertEquals(values, decoded);
+		assertEquals("tail", reader.read());
+
+		// empty chunked values
+		os = new ByteArrayOutputStream();
+		writer = new BinaryStreamWriter(Channels.newChannel(os));
+		writer.writeChunked(new ArrayList<Object>().iterator());
+		writer.flush();
+		assertFalse(newReader(os.toByteArray()).readChunked().hasNext());
+	}
+
+	@Test
+	public void deferredLength() throws IOException {
+		File f = File.createTempFile("araqne-codec", ".bin");
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		try {
+			FileChannel fc = raf.getChannel();
+			BinaryStreamWriter writer = new BinaryStreamWriter(fc, 64, null);
+			writer.beginMap();
+			writer.writeKey("name");
+			writer.write("xeraph");
+			writer.writeKey("list");
+			writer.beginArray();
+			for (int i = 0; i < 100; i++)
+				writer.write(i);
+			writer.end();
+			writer.end();
+			writer.flush();
+
+			byte[] b = new byte[(int) fc.size()];
+			raf.seek(0);
+			raf.readFully(b);
+
+			Map<String, Object> m = EncodingRule.decodeMap(ByteBuffer.wrap(b));
+			assertEquals("xeraph", m.get("name"));
+			assertEquals(100, ((Object[]) m.get("list")).length);
+			assertEquals(99, ((Object[]) m.get("list"))[99]);
+		} finally {
+			raf.close();
+			f.delete();
+		}
+	}
+
+	private BinaryStreamReader newReader(byte[] b) {
+		return new BinaryStreamReader(Channels.newChannel(new ByteArrayInputStream(b)), 128, null);
+	}
+
+	private byte[] concat(byte[] b1, byte[] b2) {
+		byte[] b = Arrays.copyOf(b1, b1.length + b2.length);
+		System.arraycopy(b2, 0, b, b1.length, b2.length);
+		return b;
+	}
+}
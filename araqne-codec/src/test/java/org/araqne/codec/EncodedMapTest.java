@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 Future Systems
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class EncodedMapTest {
+	@Test
+	public void lookup() {
+		Map<String, Object> nested = new HashMap<String, Object>();
+		nested.put("port", 8080);
+
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("name", "xeraph");
+		m.put("date", new Date(1380000000000L));
+		m.put("null", null);
+		m.put("nested", nested);
+		m.put("list", Arrays.asList("a", nested, 3L));
+
+		// view over buffer with leading garbage
+		byte[] b = EncodingRule.encodeBytes(m);
+		ByteBuffer bb = ByteBuffer.allocate(b.length + 3);
+		bb.put(new byte[] { 1, 2, 3 });
+		bb.put(b);
+		bb.position(3);
+
+		Object decoded = EncodingRule.decodeView(bb);
+		assertEquals(bb.limit(), bb.position());
+		assertTrue(decoded instanceof EncodedMap);
+
+		EncodedMap view = (EncodedMap) decoded;
+		assertEquals(5, view.size());
+		assertEquals("xeraph", view.get("name"));
+		assertEquals(new Date(1380000000000L), view.get("date"));
+		assertTrue(view.containsKey("null"));
+		assertNull(view.get("null"));
+		assertFalse(view.containsKey("missing"));
+		assertNull(view.get("missing"));
+
+		EncodedMap nestedView = (EncodedMap) view.get("nested");
+		assertEquals(8080, nestedView.get("port"));
+
+		EncodedArray list = (EncodedArray) view.get("list");
+		assertEquals(3, list.size());
+		assertEquals("a", list.get(0));
+		assertEquals(nested, list.get(1));
+		assertEquals(3L, list.get(2));
+
+		// view equals to materialized map
+		assertEquals(m.keySet(), view.keySet());
+		assertEquals(nested, nestedView);
+		assertEquals(nested, view.toMap().get("nested"));
+		assertArrayEquals(new Object[] { "a", nested, 3L }, list.toObjectArray());
+	}
+
+	@Test
+	public void encodedValue() {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("k", "value");
+
+		EncodedMap view = new EncodedMap(ByteBuffer.wrap(EncodingRule.encodeBytes(m)));
+		assertArrayEquals(EncodingRule.encodeBytes(m), toBytes(view.getEncoded()));
+		assertArrayEquals(EncodingRule.encodeBytes("value"), toBytes(view.getEncoded("k")));
+		assertNull(view.getEncoded("missing"));
+	}
+
+	@Test
+	public void empty() {
+		EncodedMap view = new EncodedMap(ByteBuffer.wrap(EncodingRule.encodeBytes(new HashMap<String, Object>())));
+		assertTrue(view.isEmpty());
+		assertEquals(0, view.size());
+
+		EncodedArray arr = new EncodedArray(ByteBuffer.wrap(EncodingRule.encodeBytes(new Object[0])));
+		assertTrue(arr.isEmpty());
+		assertEquals(0, arr.size());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void readOnly() {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("k", "value");
+
+		new EncodedMap(ByteBuffer.wrap(EncodingRule.encodeBytes(m))).put("k", "other");
+	}
+
+	private byte[] toBytes(ByteBuffer bb) {
+		byte[] b = new byte[bb.remaining()];
+		bb.get(b);
+		return b;
+	}
+}
@@ -545,4 +545,76 @@ public class EncodingRuleTest {
 		bb.reset();
 
 	}
+
+	@Test
+	public void findField() {
+		Map<String, Object> inner = new HashMap<String, Object>();
+		inner.put("port", 8080);
+		inner.put("host", "localhost");
+
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("name", "araqne");
+		m.put("tags", new Object[] { "a", 1, null });
+		m.put("server", inner);
+		m.put("empty", null);
+
+		ByteBuffer bb = ByteBuffer.allocate(EncodingRule.lengthOf(m));
+		EncodingRule.encode(bb, m);
+		bb.flip();
+
+		int pos = EncodingRule.findField(bb, new String[] { "server", "port" });
+		assertEquals(8080, EncodingRule.decode((ByteBuffer) bb.duplicate().position(pos)));
+
+		pos = EncodingRule.findField(bb, new String[] { "name" });
+		assertEquals("araqne", EncodingRule.decode((ByteBuffer) bb.duplicate().position(pos)));
+
+		pos = EncodingRule.findField(bb, new String[] { "empty" });
+		assertNull(EncodingRule.decode((ByteBuffer) bb.duplicate().position(pos)));
+
+		assertEquals(-1, EncodingRule.findField(bb, new String[] { "server", "user" }));
+		assertEquals(-1, EncodingRule.findField(bb, new String[] { "name", "first" }));
+		assertEquals(-1, EncodingRule.findField(bb, new String[] { "nam" }));
+		assertEquals(0, bb.position());
+	}
+
+	@Test
+	public void packedArrays() {
+		int[] i = new int[] { 0, -1, 1, Integer.MIN_VALUE, Integer.MAX_VALUE };
+		long[] l = new long[] { 0, -1, 1, Long.MIN_VALUE, Long.MAX_VALUE };
+		short[] s = new short[] { 0, -1, Short.MIN_VALUE, Short.MAX_VALUE };
+		float[] f = new float[] { 0.5f, -1.25f, Float.NaN };
+		double[] d = new double[] { 1.11, -2.22, Double.MAX_VALUE };
+
+		assertArrayEquals(i, (int[]) packAndDecode(i));
+		assertArrayEquals(l, (long[]) packAndDecode(l));
+		assertArrayEquals(s, (short[]) packAndDecode(s));
+		assertArrayEquals(f, (float[]) packAndDecode(f), 0);
+		assertArrayEquals(d, (double[]) packAndDecode(d), 0);
+		assertArrayEquals(new int[0], (int[]) packAndDecode(new int[0]));
+
+		// packed array can be skipped as other values
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("ints", i);
+		m.put("doubles", d);
+		m.put("name", "araqne");
+
+		BinaryEncoder encoder = new BinaryEncoder().setPackedArrays(true);
+		ByteBuffer bb = ByteBuffer.wrap(encoder.encode(m).toByteArray());
+		assertEquals(bb.remaining(), EncodingRule.getObjectLength(bb));
+
+		int pos = EncodingRule.findField(bb, new String[] { "name" });
+		assertEquals("araqne", EncodingRule.decode((ByteBuffer) bb.duplicate().position(pos)));
+
+		Map<String, Object> decoded = EncodingRule.decodeMap(bb);
+		assertArrayEquals(i, (int[]) decoded.get("ints"));
+		assertArrayEquals(d, (double[]) decoded.get("doubles"), 0);
+	}
+
+	private Object packAndDecode(Object array) {
+		byte[] b = new BinaryEncoder().setPackedArrays(true).encode(array).toByteArray();
+		ByteBuffer bb = ByteBuffer.wrap(b);
+		Object decoded = EncodingRule.decode(bb);
+		assertFalse(bb.hasRemaining());
+		return decoded;
+	}
 }
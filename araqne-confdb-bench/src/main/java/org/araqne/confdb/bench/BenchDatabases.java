@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.araqne.confdb.ConfigCollection;
+import org.araqne.confdb.ConfigTransaction;
+import org.araqne.confdb.file.FileConfigDatabase;
+
+/**
+ * Creates benchmark databases under java.io.tmpdir, or araqne.confdb.bench.dir
+ * system property if specified.
+ */
+final class BenchDatabases {
+	static final String COLLECTION = "bench";
+
+	private static final int POPULATE_BATCH = 10000;
+
+	private BenchDatabases() {
+	}
+
+	static File getBaseDir() {
+		String dir = System.getProperty("araqne.confdb.bench.dir");
+		if (dir != null)
+			return new File(dir);
+		return new File(System.getProperty("java.io.tmpdir"), "araqne-confdb-bench");
+	}
+
+	/**
+	 * purge leftover of previous run, and open empty database
+	 */
+	static FileConfigDatabase create(String name) throws IOException {
+		File baseDir = getBaseDir();
+		new FileConfigDatabase(baseDir, name).purge();
+		return new FileConfigDatabase(baseDir, name);
+	}
+
+	/**
+	 * open database again without caches of other instance
+	 */
+	static FileConfigDatabase reopen(String name) throws IOException {
+		return new FileConfigDatabase(getBaseDir(), name);
+	}
+
+	/**
+	 * add documents using one transaction per batch
+	 */
+	static ConfigCollection populate(FileConfigDatabase db, int count) {
+		ConfigCollection col = db.ensureCollection(COLLECTION);
+		int i = 0;
+		while (i < count) {
+			int end = Math.min(count, i + POPULATE_BATCH);
+			ConfigTransaction xact = db.beginTransaction();
+			try {
+				for (; i < end; i++)
+					col.add(xact, doc(i));
+				xact.commit("bench", "populate");
+			} catch (RuntimeException e) {
+				xact.rollback();
+				throw e;
+			}
+		}
+		return col;
+	}
+
+	static Map<String, Object> doc(int i) {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("id", i);
+		m.put("name", "doc" + i);
+		m.put("group", i % 100);
+		m.put("enabled", i % 2 == 0);
+		m.put("description", "benchmark document " + i);
+		return m;
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.araqne.confdb.ConfigCollection;
+import org.araqne.confdb.file.FileConfigCache;
+import org.araqne.confdb.file.FileConfigDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Full scan of collection with cold (cleared before each invocation) and warm
+ * FileConfigCache. Snapshot and manifest caches are kept warm in both cases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CacheBenchmark {
+	private static final String DB_NAME = "cache";
+
+	@Param({ "1000", "10000", "100000" })
+	public int docs;
+
+	private FileConfigDatabase db;
+	private ConfigCollection col;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		db = BenchDatabases.create(DB_NAME);
+		col = BenchDatabases.populate(db, docs);
+
+		// large enough to hold all configs
+		db.setCacheSize("config", 512L * 1024 * 1024);
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		db.purge();
+	}
+
+	@Benchmark
+	public void scanCold(ColdCache cold, Blackhole bh) {
+		FindBenchmark.consume(col.find(null), bh);
+	}
+
+	@Benchmark
+	public void scanWarm(Blackhole bh) {
+		FindBenchmark.consume(col.find(null), bh);
+	}
+
+	@State(Scope.Thread)
+	public static class ColdCache {
+		@Setup(Level.Invocation)
+		public void clear(CacheBenchmark bench) {
+			((FileConfigCache) bench.db.getCache()).clear();
+		}
+	}
+}
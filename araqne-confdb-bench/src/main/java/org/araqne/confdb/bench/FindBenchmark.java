@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.bench;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.araqne.confdb.Config;
+import org.araqne.confdb.ConfigCollection;
+import org.araqne.confdb.ConfigIterator;
+import org.araqne.confdb.Predicate;
+import org.araqne.confdb.Predicates;
+import org.araqne.confdb.file.FileConfigDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Predicate search over collection sizes. Each matching config is decoded and
+ * consumed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FindBenchmark {
+	private static final String DB_NAME = "find";
+
+	@Param({ "1000", "10000", "100000", "500000" })
+	public int docs;
+
+	private FileConfigDatabase db;
+	private ConfigCollection col;
+
+	private Predicate field = Predicates.field("group", 7);
+	private Predicate in = Predicates.in("group", Arrays.asList(1, 2, 3));
+	private Predicate and = Predicates.and(Predicates.field("group", 8), Predicates.field("enabled", true));
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		db = BenchDatabases.create(DB_NAME);
+		col = BenchDatabases.populate(db, docs);
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		db.purge();
+	}
+
+	@Benchmark
+	public void findField(Blackhole bh) {
+		consume(col.find(field), bh);
+	}
+
+	@Benchmark
+	public void findIn(Blackhole bh) {
+		consume(col.find(in), bh);
+	}
+
+	@Benchmark
+	public void findAnd(Blackhole bh) {
+		consume(col.find(and), bh);
+	}
+
+	@Benchmark
+	public int countField() {
+		return col.count(field);
+	}
+
+	static void consume(ConfigIterator it, Blackhole bh) {
+		try {
+			while (it.hasNext()) {
+				Config c = it.next();
+				bh.consume(c.getDocument());
+			}
+		} finally {
+			it.close();
+		}
+	}
+}
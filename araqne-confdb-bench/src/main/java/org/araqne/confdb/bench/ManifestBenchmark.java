@@ -0,0 +1,79 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.araqne.confdb.ConfigCollection;
+import org.araqne.confdb.Manifest;
+import org.araqne.confdb.file.FileConfigDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latest manifest load time of new database instance (no manifest cache) by
+ * the number of commits. Manifests are written as checkpoints and deltas, so
+ * load time should not grow with commit count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ManifestBenchmark {
+	private static final String DB_NAME = "manifest";
+
+	@Param({ "100", "1000", "10000" })
+	public int commits;
+
+	private FileConfigDatabase db;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		db = BenchDatabases.create(DB_NAME);
+		ConfigCollection col = db.ensureCollection(BenchDatabases.COLLECTION);
+		for (int i = 0; i < commits; i++)
+			col.add(BenchDatabases.doc(i));
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		db.purge();
+	}
+
+	@Benchmark
+	public Manifest loadLatest() throws IOException {
+		return BenchDatabases.reopen(DB_NAME).getManifest(null);
+	}
+
+	@Benchmark
+	public Manifest loadFirst() throws IOException {
+		return BenchDatabases.reopen(DB_NAME).getManifest(1);
+	}
+}
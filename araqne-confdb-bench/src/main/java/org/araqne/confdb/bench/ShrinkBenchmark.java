@@ -0,0 +1,84 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.bench;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.araqne.confdb.Config;
+import org.araqne.confdb.ConfigCollection;
+import org.araqne.confdb.file.FileConfigDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Shrink of database which has many change sets. Database is built again
+ * before each invocation, so single shot time is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ShrinkBenchmark {
+	private static final String DB_NAME = "shrink";
+
+	@Param({ "1000", "10000" })
+	public int commits;
+
+	@Param({ "100" })
+	public int keep;
+
+	private FileConfigDatabase db;
+
+	@Setup(Level.Invocation)
+	public void setup() throws IOException {
+		db = BenchDatabases.create(DB_NAME);
+		ConfigCollection col = BenchDatabases.populate(db, 100);
+
+		// update documents to make change sets
+		List<Config> configs = col.find(null).getConfigs(0, 100);
+		for (int i = 0; i < commits; i++) {
+			int p = i % configs.size();
+			Config c = configs.get(p);
+			c.setDocument(BenchDatabases.doc(i));
+			configs.set(p, col.update(c));
+		}
+	}
+
+	@TearDown(Level.Invocation)
+	public void teardown() throws IOException {
+		db.purge();
+	}
+
+	@Benchmark
+	public void shrink() {
+		db.shrink(keep);
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.araqne.confdb.Config;
+import org.araqne.confdb.ConfigCollection;
+import org.araqne.confdb.ConfigTransaction;
+import org.araqne.confdb.file.FileConfigDatabase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Document add, update and remove throughput of implicit transaction (one
+ * commit per operation) and explicit transaction (one commit per batch).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WriteBenchmark {
+	private static final String DB_NAME = "write";
+	private static final int BATCH = 100;
+
+	private FileConfigDatabase db;
+	private ConfigCollection col;
+	private Config target;
+	private List<Config> targets;
+	private int seq;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		db = BenchDatabases.create(DB_NAME);
+		col = BenchDatabases.populate(db, BATCH);
+		targets = new ArrayList<Config>(col.find(null).getConfigs(0, BATCH));
+		target = targets.get(0);
+	}
+
+	@TearDown(Level.Trial)
+	public void teardown() throws IOException {
+		db.purge();
+	}
+
+	@Benchmark
+	public Config add() {
+		return col.add(BenchDatabases.doc(seq++));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public Config addInTransaction() {
+		ConfigTransaction xact = db.beginTransaction();
+		try {
+			Config c = null;
+			for (int i = 0; i < BATCH; i++)
+				c = col.add(xact, BenchDatabases.doc(seq++));
+			xact.commit(null, null);
+			return c;
+		} catch (RuntimeException e) {
+			xact.rollback();
+			throw e;
+		}
+	}
+
+	@Benchmark
+	public Config update() {
+		target.setDocument(BenchDatabases.doc(seq++));
+		target = col.update(target);
+		return target;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public Config updateInTransaction() {
+		ConfigTransaction xact = db.beginTransaction();
+		try {
+			for (int i = 0; i < BATCH; i++) {
+				Config c = targets.get(i);
+				c.setDocument(BenchDatabases.doc(seq++));
+				targets.set(i, col.update(xact, c, false));
+			}
+			xact.commit(null, null);
+			return targets.get(BATCH - 1);
+		} catch (RuntimeException e) {
+			xact.rollback();
+			throw e;
+		}
+	}
+
+	@Benchmark
+	public Config remove(Removable r) {
+		return col.remove(r.configs.get(0));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public Config removeInTransaction(RemovableBatch r) {
+		ConfigTransaction xact = db.beginTransaction();
+		try {
+			Config c = null;
+			for (Config removed : r.configs)
+				c = col.remove(xact, removed, false);
+			xact.commit(null, null);
+			return c;
+		} catch (RuntimeException e) {
+			xact.rollback();
+			throw e;
+		}
+	}
+
+	/**
+	 * adds document to remove before each invocation
+	 */
+	@State(Scope.Thread)
+	public static class Removable {
+		private List<Config> configs = new ArrayList<Config>();
+
+		@Setup(Level.Invocation)
+		public void setup(WriteBenchmark bench) {
+			configs.clear();
+			configs.add(bench.col.add(BenchDatabases.doc(bench.seq++)));
+		}
+	}
+
+	/**
+	 * adds batch of documents to remove before each invocation
+	 */
+	@State(Scope.Thread)
+	public static class RemovableBatch {
+		private List<Config> configs = new ArrayList<Config>();
+
+		@Setup(Level.Invocation)
+		public void setup(WriteBenchmark bench) {
+			configs.clear();
+			ConfigTransaction xact = bench.db.beginTransaction();
+			try {
+				for (int i = 0; i < BATCH; i++)
+					configs.add(bench.col.add(xact, BenchDatabases.doc(bench.seq++)));
+				xact.commit(null, null);
+			} catch (RuntimeException e) {
+				xact.rollback();
+				throw e;
+			}
+		}
+	}
+}
@@ -15,6 +15,8 @@
  */
 package org.araqne.confdb;
 
+import java.util.Set;
+
 public interface ConfigCollection {
 	String getName();
 
@@ -51,4 +53,23 @@ public interface ConfigCollection {
 	Config remove(Config c, boolean checkConflict, String committer, String log);
 
 	Config remove(ConfigTransaction xact, Config c, boolean ignoreConflict);
+
+	/**
+	 * Create persistent equality index for the field if not exists. Index is
+	 * used by find() and count() when predicate is field(), in() or and() of
+	 * them.
+	 * 
+	 * @param field
+	 *            the field name or slash separated path, same as
+	 *            Predicates.field()
+	 */
+	void ensureIndex(String field);
+
+	void dropIndex(String field);
+
+	/**
+	 * @return the slash separated field paths of indexes, converted to
+	 *         underscore names
+	 */
+	Set<String> getIndexes();
 }
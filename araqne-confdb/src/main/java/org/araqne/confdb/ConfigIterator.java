@@ -24,6 +24,16 @@ import org.araqne.api.PrimitiveParseCallback;
 public interface ConfigIterator extends Iterator<Config> {
 	void setParser(ConfigParser parser);
 
+	/**
+	 * Fetch only the specified fields of map documents. Other fields are
+	 * skipped without decoding, and projected document should not be used for
+	 * update. Nested field is specified using slash separated path.
+	 * 
+	 * @param fields
+	 *            the field paths, or null for whole document
+	 */
+	void setProjection(String... fields);
+
 	List<Config> getConfigs(int offset, int limit);
 
 	Collection<Object> getDocuments();
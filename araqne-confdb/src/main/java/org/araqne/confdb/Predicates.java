@@ -15,13 +15,17 @@
  */
 package org.araqne.confdb;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.araqne.api.PrimitiveConverter;
+import org.araqne.codec.EncodingRule;
 
 public class Predicates {
 	public static Predicate eq(Object o) {
@@ -56,6 +60,148 @@ public class Predicates {
 		return new Not(pred);
 	}
 
+	/**
+	 * Collect equality terms which every matching document should satisfy, for
+	 * index lookup. Term key is underscore field path (slash separated), and
+	 * term value is the set of acceptable field values. Missing field is
+	 * represented as null value. Predicate should be evaluated again against
+	 * the documents found by terms.
+	 * 
+	 * @param pred
+	 *            the predicate
+	 * @param terms
+	 *            the output terms. values of same field are intersected
+	 * @return true if any equality term is collected
+	 */
+	public static boolean collectTerms(Predicate pred, Map<String, Set<Object>> terms) {
+		if (pred instanceof KeyMatch) {
+			KeyMatch m = (KeyMatch) pred;
+			for (String k : m.terms.keySet()) {
+				Set<Object> values = new HashSet<Object>();
+				values.add(m.terms.get(k));
+				addTerm(terms, PrimitiveConverter.toUnderscoreName(k), values);
+			}
+			return !m.terms.isEmpty();
+		} else if (pred instanceof KeyContains) {
+			KeyContains m = (KeyContains) pred;
+			addTerm(terms, m.path, new HashSet<Object>(m.values));
+			return true;
+		} else if (pred instanceof Conjunction) {
+			// non-equality terms are ignored, narrowed down by others
+			boolean found = false;
+			for (Predicate p : ((Conjunction) pred).pred)
+				found |= collectTerms(p, terms);
+			return found;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Test if predicate can be evaluated against the encoded document using
+	 * {@link #eval(Predicate, ByteBuffer)}. Field predicates and their
+	 * combinations are supported, but document equality and custom predicates
+	 * need decoded document.
+	 * 
+	 * @param pred
+	 *            the predicate
+	 * @return true if predicate does not need decoded document
+	 */
+	public static boolean isEncodedEvaluable(Predicate pred) {
+		if (pred instanceof HasKey || pred instanceof KeyMatch || pred instanceof KeyContains)
+			return true;
+
+		Predicate[] children = null;
+		if (pred instanceof Conjunction)
+			children = ((Conjunction) pred).pred;
+		else if (pred instanceof Disjunction)
+			children = ((Disjunction) pred).pred;
+		else if (pred instanceof Not)
+			children = new Predicate[] { ((Not) pred).pred };
+		else
+			return false;
+
+		for (Predicate p : children)
+			if (!isEncodedEvaluable(p))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Evaluate predicate against the encoded document. Only referenced fields
+	 * are decoded, and other fields are skipped. Result is same with
+	 * {@link Predicate#eval(Config)} of the decoded document.
+	 * 
+	 * @param pred
+	 *            the predicate which is encoded evaluable
+	 * @param doc
+	 *            the encoded document. position will not move
+	 * @return true if document matches
+	 */
+	public static boolean eval(Predicate pred, ByteBuffer doc) {
+		if (pred instanceof HasKey) {
+			return getValue(doc, ((HasKey) pred).keys) != MISSING;
+		} else if (pred instanceof KeyMatch) {
+			KeyMatch m = (KeyMatch) pred;
+			if (doc.get(doc.position()) != EncodingRule.MAP_TYPE)
+				return false;
+
+			for (String k : m.terms.keySet()) {
+				Object value = getValue(doc, m.underscoreMap.get(k));
+				if (value == MISSING)
+					value = null;
+
+				if (!equals(value, m.terms.get(k)))
+					return false;
+			}
+			return true;
+		} else if (pred instanceof KeyContains) {
+			KeyContains m = (KeyContains) pred;
+			Object value = getValue(doc, m.keys);
+			return m.values.contains(value == MISSING ? null : value);
+		} else if (pred instanceof Conjunction) {
+			for (Predicate p : ((Conjunction) pred).pred)
+				if (!eval(p, doc))
+					return false;
+			return true;
+		} else if (pred instanceof Disjunction) {
+			for (Predicate p : ((Disjunction) pred).pred)
+				if (eval(p, doc))
+					return true;
+			return false;
+		} else if (pred instanceof Not) {
+			return !eval(((Not) pred).pred, doc);
+		}
+
+		throw new IllegalArgumentException("predicate needs decoded document: " + pred.getClass().getName());
+	}
+
+	private static final Object MISSING = new Object();
+
+	private static Object getValue(ByteBuffer doc, String[] keys) {
+		int pos = EncodingRule.findField(doc, keys);
+		if (pos < 0)
+			return MISSING;
+
+		ByteBuffer bb = doc.duplicate();
+		bb.position(pos);
+		return EncodingRule.decode(bb);
+	}
+
+	private static boolean equals(Object value, Object comp) {
+		if (value == null)
+			return comp == null;
+		return value.equals(comp);
+	}
+
+	private static void addTerm(Map<String, Set<Object>> terms, String path, Set<Object> values) {
+		Set<Object> old = terms.get(path);
+		if (old != null)
+			old.retainAll(values);
+		else
+			terms.put(path, values);
+	}
+
 	static Object getValue(Config c, String[] keys) {
 		return getValue(c, keys, false);
 	}
@@ -105,16 +251,16 @@ public class Predicates {
 	}
 
 	private static class HasKey implements Predicate {
-		private String key;
+		private String[] keys;
 
 		public HasKey(String key) {
-			this.key = key;
+			this.keys = key.split("/");
 		}
 
 		@Override
 		public boolean eval(Config c) {
 			try {
-				getValue(c, key.split("/"), true);
+				getValue(c, keys, true);
 				return true;
 			} catch (IllegalArgumentException e) {
 				return false;
@@ -163,11 +309,13 @@ public class Predicates {
 	}
 
 	private static class KeyContains implements Predicate {
+		private String path;
 		private String[] keys;
 		private Collection<? extends Object> values;
 
 		public KeyContains(String key, Collection<? extends Object> values) {
-			this.keys = PrimitiveConverter.toUnderscoreName(key).split("/");
+			this.path = PrimitiveConverter.toUnderscoreName(key);
+			this.keys = path.split("/");
 			this.values = values;
 		}
 
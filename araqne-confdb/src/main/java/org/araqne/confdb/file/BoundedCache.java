@@ -0,0 +1,212 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-aware segmented LRU cache. New entries are admitted to probation
+ * segment, and promoted to protected segment on second access. Eviction
+ * starts from least recently used probation entries, so one-off scan of cold
+ * collection does not flush hot entries. Entry size is estimated in bytes by
+ * weigher. Entry which is larger than max weight is admitted alone, evicting
+ * all other entries, since rebuilding it on every read costs much more.
+ */
+public class BoundedCache<K, V> {
+	/**
+	 * protected segment ratio of max weight, in percent
+	 */
+	private static final int PROTECTED_RATIO = 80;
+
+	private final String name;
+	private final Weigher<K, V> weigher;
+	private long maxWeight;
+
+	private final LinkedHashMap<K, Entry<V>> probation = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+	private final LinkedHashMap<K, Entry<V>> protect = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+	private long probationWeight;
+	private long protectWeight;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public BoundedCache(String name, long maxWeight, Weigher<K, V> weigher) {
+		this.name = name;
+		this.maxWeight = maxWeight;
+		this.weigher = weigher;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public synchronized long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public synchronized void setMaxWeight(long maxWeight) {
+		this.maxWeight = maxWeight;
+		evict(null);
+	}
+
+	public synchronized V get(K key) {
+		Entry<V> e = protect.get(key);
+		if (e == null) {
+			e = probation.remove(key);
+			if (e != null) {
+				probationWeight -= e.weight;
+				protect.put(key, e);
+				protectWeight += e.weight;
+				demote();
+			}
+		}
+
+		if (e == null) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return e.value;
+	}
+
+	/**
+	 * get value without touching recency and counters
+	 */
+	public synchronized V peek(K key) {
+		Entry<V> e = protect.get(key);
+		if (e == null)
+			e = probation.get(key);
+		return e == null ? null : e.value;
+	}
+
+	public synchronized void put(K key, V value) {
+		remove(key);
+
+		long weight = weigher.weigh(key, value);
+		Entry<V> e = new Entry<V>(value, weight);
+		probation.put(key, e);
+		probationWeight += weight;
+		evict(e);
+	}
+
+	public synchronized void remove(K key) {
+		Entry<V> e = probation.remove(key);
+		if (e != null)
+			probationWeight -= e.weight;
+
+		e = protect.remove(key);
+		if (e != null)
+			protectWeight -= e.weight;
+	}
+
+	public synchronized void removeAll(KeyFilter<K> filter) {
+		removeAll(probation, true, filter);
+		removeAll(protect, false, filter);
+	}
+
+	private void removeAll(LinkedHashMap<K, Entry<V>> segment, boolean probation, KeyFilter<K> filter) {
+		Iterator<Map.Entry<K, Entry<V>>> it = segment.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<K, Entry<V>> e = it.next();
+			if (!filter.matches(e.getKey()))
+				continue;
+
+			it.remove();
+
+			if (probation)
+				probationWeight -= e.getValue().weight;
+			else
+				protectWeight -= e.getValue().weight;
+		}
+	}
+
+	public synchronized void clear() {
+		probation.clear();
+		protect.clear();
+		probationWeight = 0;
+		protectWeight = 0;
+	}
+
+	public synchronized CacheStats getStats() {
+		return new CacheStats(name, probation.size() + protect.size(), probationWeight + protectWeight, maxWeight, hits,
+				misses, evictions);
+	}
+
+	// move least recently used protected entries to probation
+	private void demote() {
+		long limit = maxWeight * PROTECTED_RATIO / 100;
+		Iterator<Map.Entry<K, Entry<V>>> it = protect.entrySet().iterator();
+		while (protectWeight > limit && it.hasNext()) {
+			Map.Entry<K, Entry<V>> e = it.next();
+			it.remove();
+			protectWeight -= e.getValue().weight;
+			probation.put(e.getKey(), e.getValue());
+			probationWeight += e.getValue().weight;
+		}
+	}
+
+	/**
+	 * @param keep
+	 *            the new entry which should not be evicted, or null
+	 */
+	private void evict(Entry<V> keep) {
+		evict(probation, true, keep);
+		evict(protect, false, keep);
+	}
+
+	private void evict(LinkedHashMap<K, Entry<V>> segment, boolean probation, Entry<V> keep) {
+		Iterator<Entry<V>> it = segment.values().iterator();
+		while (probationWeight + protectWeight > maxWeight && it.hasNext()) {
+			Entry<V> e = it.next();
+			if (e == keep)
+				continue;
+
+			it.remove();
+
+			if (probation)
+				probationWeight -= e.weight;
+			else
+				protectWeight -= e.weight;
+
+			evictions++;
+		}
+	}
+
+	public interface Weigher<K, V> {
+		/**
+		 * @return the estimated memory usage in bytes
+		 */
+		long weigh(K key, V value);
+	}
+
+	public interface KeyFilter<K> {
+		boolean matches(K key);
+	}
+
+	private static class Entry<V> {
+		private V value;
+		private long weight;
+
+		public Entry(V value, long weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+/**
+ * snapshot of cache counters
+ */
+public class CacheStats {
+	private String name;
+	private int count;
+	private long weight;
+	private long maxWeight;
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	public CacheStats(String name, int count, long weight, long maxWeight, long hits, long misses, long evictions) {
+		this.name = name;
+		this.count = count;
+		this.weight = weight;
+		this.maxWeight = maxWeight;
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public long getWeight() {
+		return weight;
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+	public double getHitRatio() {
+		long total = hits + misses;
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: count=%d, weight=%d/%d, hits=%d, misses=%d, evictions=%d, hit ratio=%.1f%%", name,
+				count, weight, maxWeight, hits, misses, evictions, getHitRatio() * 100);
+	}
+}
@@ -112,9 +112,7 @@ class ChangeLog implements CommitLog {
 		m.put("col_names", serializeCollectionNames());
 		m.put("changeset", serializeChangeset());
 
-		ByteBuffer bb = ByteBuffer.allocate(EncodingRule.lengthOf(m));
-		EncodingRule.encode(bb, m);
-		return bb.array();
+		return EncodingRule.encodeBytes(m);
 	}
 
 	private List<Object> serializeChangeset() {
@@ -210,6 +208,11 @@ class ChangeLog implements CommitLog {
 				case EncodingRule.MAP_TYPE:
 				case EncodingRule.STRING_TYPE:
 				case EncodingRule.ARRAY_TYPE:
+				case EncodingRule.PACKED_INT16_TYPE:
+				case EncodingRule.PACKED_INT32_TYPE:
+				case EncodingRule.PACKED_INT64_TYPE:
+				case EncodingRule.PACKED_FLOAT_TYPE:
+				case EncodingRule.PACKED_DOUBLE_TYPE:
 					long l = EncodingRule.decodeRawNumber(bb);
 					bb.position((int) (bb.position() + l));
 					break;
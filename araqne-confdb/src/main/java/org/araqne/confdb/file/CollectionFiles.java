@@ -0,0 +1,123 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Collection file generation. Compaction writes live revisions into new
+ * generation files (colN.gen.log and colN.gen.dat), and colN.gen file points
+ * the current generation. Initial generation 0 uses colN.log and colN.dat file
+ * names, and has no gen file.
+ */
+class CollectionFiles {
+	private final int colId;
+	private final int generation;
+
+	/**
+	 * oldest change set which can be read or rolled back after compaction
+	 */
+	private final int horizon;
+
+	public CollectionFiles(int colId, int generation, int horizon) {
+		this.colId = colId;
+		this.generation = generation;
+		this.horizon = horizon;
+	}
+
+	public int getColId() {
+		return colId;
+	}
+
+	public int getGeneration() {
+		return generation;
+	}
+
+	public int getHorizon() {
+		return horizon;
+	}
+
+	public static File getLogFile(File dbDir, int colId, int generation) {
+		return new File(dbDir, getBaseName(colId, generation) + ".log");
+	}
+
+	public static File getDatFile(File dbDir, int colId, int generation) {
+		return new File(dbDir, getBaseName(colId, generation) + ".dat");
+	}
+
+	public static String getBaseName(int colId, int generation) {
+		if (generation == 0)
+			return "col" + colId;
+		return "col" + colId + "." + generation;
+	}
+
+	public static File getGenFile(File dbDir, int colId) {
+		return new File(dbDir, "col" + colId + ".gen");
+	}
+
+	public static CollectionFiles load(File dbDir, int colId) throws IOException {
+		File f = getGenFile(dbDir, colId);
+		if (!f.exists())
+			return new CollectionFiles(colId, 0, 0);
+
+		RandomAccessFile raf = new RandomAccessFile(f, "r");
+		try {
+			String line = raf.readLine();
+			if (line == null)
+				throw new IOException("empty generation file: " + f.getAbsolutePath());
+
+			String[] tokens = line.trim().split(" ");
+			return new CollectionFiles(colId, Integer.valueOf(tokens[0]), Integer.valueOf(tokens[1]));
+		} catch (RuntimeException e) {
+			throw new IOException("invalid generation file: " + f.getAbsolutePath(), e);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * write and rename for atomic replace
+	 */
+	public void save(File dbDir) throws IOException {
+		File f = getGenFile(dbDir, colId);
+		File tmp = new File(dbDir, f.getName() + ".tmp");
+		FileOutputStream os = null;
+		try {
+			os = new FileOutputStream(tmp);
+			os.write((generation + " " + horizon + "\n").getBytes());
+			os.getFD().sync();
+		} finally {
+			if (os != null)
+				os.close();
+		}
+
+		// rename replaces old file except windows
+		if (tmp.renameTo(f))
+			return;
+
+		f.delete();
+		if (!tmp.renameTo(f))
+			throw new IOException("cannot rename generation file: " + tmp.getAbsolutePath());
+	}
+
+	@Override
+	public String toString() {
+		return "col=" + colId + ", generation=" + generation + ", horizon=" + horizon;
+	}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+/**
+ * snapshot of compaction counters
+ */
+public class CompactionStats {
+	private String name;
+	private int runs;
+	private int skips;
+	private long purgedRevisions;
+	private long reclaimedBytes;
+	private long elapsed;
+
+	public CompactionStats(String name, int runs, int skips, long purgedRevisions, long reclaimedBytes, long elapsed) {
+		this.name = name;
+		this.runs = runs;
+		this.skips = skips;
+		this.purgedRevisions = purgedRevisions;
+		this.reclaimedBytes = reclaimedBytes;
+		this.elapsed = elapsed;
+	}
+
+	/**
+	 * @return the database name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of swapped generations
+	 */
+	public int getRuns() {
+		return runs;
+	}
+
+	/**
+	 * @return the number of compactions skipped by reclaim threshold
+	 */
+	public int getSkips() {
+		return skips;
+	}
+
+	public long getPurgedRevisions() {
+		return purgedRevisions;
+	}
+
+	public long getReclaimedBytes() {
+		return reclaimedBytes;
+	}
+
+	/**
+	 * @return the elapsed time in milliseconds
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: runs=%d, skips=%d, purged revisions=%d, reclaimed bytes=%d, elapsed=%dms", name, runs,
+				skips, purgedRevisions, reclaimedBytes, elapsed);
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.araqne.confdb.CommitLog;
+import org.araqne.confdb.ConfigEntry;
+import org.araqne.confdb.Manifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Online compaction of collection files. Unlike {@link Shrinker}, compaction
+ * keeps every revision log at the same index since manifests refer log index,
+ * and removes only doc binaries which are not referenced by retained change
+ * sets. Live revisions are copied into new generation files without write
+ * lock, and appended revisions are copied again in the short write locked swap.
+ * Readers continue on the old generation until they are closed.
+ */
+public class Compactor {
+	private final Logger logger = LoggerFactory.getLogger(Compactor.class.getName());
+	private FileConfigDatabase db;
+	private File dbDir;
+
+	// serializes compactions
+	private final Object compactLock = new Object();
+
+	// total counters, guarded by this
+	private int runs;
+	private int skips;
+	private long purgedRevisions;
+	private long reclaimedBytes;
+	private long elapsed;
+
+	public Compactor(FileConfigDatabase db) {
+		this.db = db;
+		this.dbDir = db.getDbDirectory();
+	}
+
+	public synchronized CompactionStats getStats() {
+		return new CompactionStats(db.getName(), runs, skips, purgedRevisions, reclaimedBytes, elapsed);
+	}
+
+	/**
+	 * @param colName
+	 *            the collection name
+	 * @param minReclaimRatio
+	 *            skip compaction if reclaimable ratio of data file is less than
+	 *            this ratio. 0 for forced compaction
+	 * @return the compaction result
+	 */
+	public CompactionStats compact(String colName, double minReclaimRatio) throws IOException {
+		synchronized (compactLock) {
+			return doCompact(colName, minReclaimRatio);
+		}
+	}
+
+	private CompactionStats doCompact(String colName, double minReclaimRatio) throws IOException {
+		long begin = System.currentTimeMillis();
+
+		int colId = 0;
+		int gen = 0;
+		int horizon = 0;
+		int previousHorizon = 0;
+		boolean raised = false;
+		long count = 0;
+		TreeSet<Integer> manifestIds = new TreeSet<Integer>();
+		RevLogReader reader = null;
+
+		// fix retained change sets and copy range
+		db.lock();
+		try {
+			Manifest manifest = db.getManifest(null, true);
+			if (!manifest.getCollectionNames().contains(colName))
+				throw new IllegalArgumentException("collection not found: " + colName);
+
+			colId = manifest.getCollectionId(colName);
+			gen = db.reloadGeneration(colId);
+			horizon = CollectionFiles.load(dbDir, colId).getHorizon();
+
+			// commit logs are ordered from the latest
+			List<CommitLog> logs = db.getCommitLogs(0, db.getCompactionRetention());
+			for (CommitLog c : logs)
+				manifestIds.add(((ChangeLog) c).getManifestId());
+
+			if (!logs.isEmpty())
+				horizon = Math.max(horizon, (int) logs.get(logs.size() - 1).getRev());
+
+			reader = db.openCollection(colId, false);
+			count = reader.count();
+
+			// restored if compaction is skipped or failed
+			previousHorizon = db.raiseHorizon(horizon);
+			raised = true;
+		} catch (FileNotFoundException e) {
+			// collection has no data
+			return new CompactionStats(db.getName(), 0, 0, 0, 0, 0);
+		} finally {
+			db.unlock();
+		}
+
+		File oldLog = CollectionFiles.getLogFile(dbDir, colId, gen);
+		File oldDat = CollectionFiles.getDatFile(dbDir, colId, gen);
+		File newLog = CollectionFiles.getLogFile(dbDir, colId, gen + 1);
+		File newDat = CollectionFiles.getDatFile(dbDir, colId, gen + 1);
+		RevLogWriter writer = null;
+		boolean swapped = false;
+
+		try {
+			BitSet live = collectLiveRevisions(colId, manifestIds);
+
+			// estimate reclaimable bytes
+			long garbage = 0;
+			for (long i = 0; i < count; i++) {
+				RevLog log = reader.read(i);
+				if (!live.get((int) i) && !log.isPurged())
+					garbage += log.getDocLength();
+			}
+
+			if (garbage == 0 || garbage < oldDat.length() * minReclaimRatio) {
+				logger.debug("araqne confdb: skip compaction of db [{}] col [{}], reclaimable [{}] bytes",
+						new Object[] { db.getName(), colName, garbage });
+				synchronized (this) {
+					skips++;
+				}
+				return new CompactionStats(db.getName(), 0, 1, 0, 0, System.currentTimeMillis() - begin);
+			}
+
+			// delete leftover of failed compaction
+			newLog.delete();
+			newDat.delete();
+
+			// 8 byte dat option is doc base offset, written at swap
+			writer = new RevLogWriter(newLog, newDat, null, new byte[8]);
+			Map<Long, Long> offsets = new HashMap<Long, Long>();
+			long purged = copy(reader, writer, 0, count, live, offsets);
+			reader.close();
+			reader = null;
+
+			db.lock();
+			try {
+				if (db.reloadGeneration(colId) != gen)
+					throw new IOException("generation of collection " + colName + " is changed by other process");
+
+				// copy revisions appended during compaction
+				reader = db.openCollection(colId, false);
+				long tailCount = reader.count();
+				BitSet all = new BitSet();
+				all.set((int) count, (int) tailCount);
+				copy(reader, writer, count, tailCount, all, offsets);
+
+				// new doc offsets should not overlap with old generation
+				long base = reader.getDocEnd();
+				reader.close();
+				reader = null;
+
+				writer.sync();
+				writer.close();
+				writer = null;
+				RevLogWriter.setDocBase(newDat, base);
+
+				for (Map.Entry<Long, Long> e : offsets.entrySet())
+					e.setValue(base + e.getValue());
+
+				new CollectionFiles(colId, gen + 1, horizon).save(dbDir);
+				db.swapGeneration(colId, gen + 1, offsets);
+				swapped = true;
+			} finally {
+				db.unlock();
+			}
+
+			long reclaimed = (oldLog.length() + oldDat.length()) - (newLog.length() + newDat.length());
+			long spent = System.currentTimeMillis() - begin;
+
+			// readers of old generation may hold files, retried at next
+			// compaction
+			deleteOldGenerations(colId, gen + 1);
+
+			synchronized (this) {
+				runs++;
+				purgedRevisions += purged;
+				reclaimedBytes += reclaimed;
+				elapsed += spent;
+			}
+
+			logger.info("araqne confdb: compacted db [{}] col [{}] to generation [{}], purged [{}] revisions, reclaimed [{}] bytes",
+					new Object[] { db.getName(), colName, gen + 1, purged, reclaimed });
+
+			return new CompactionStats(db.getName(), 1, 0, purged, reclaimed, spent);
+		} finally {
+			if (reader != null)
+				reader.close();
+			if (writer != null)
+				writer.close();
+
+			if (!swapped) {
+				newLog.delete();
+				newDat.delete();
+				restoreHorizon(raised, horizon, previousHorizon);
+			}
+		}
+	}
+
+	private void restoreHorizon(boolean raised, int horizon, int previousHorizon) {
+		if (!raised)
+			return;
+
+		db.lock();
+		try {
+			db.restoreHorizon(horizon, previousHorizon);
+		} finally {
+			db.unlock();
+		}
+	}
+
+	// log indexes which are referenced by manifests of retained change sets
+	private BitSet collectLiveRevisions(int colId, TreeSet<Integer> manifestIds) throws IOException {
+		BitSet live = new BitSet();
+		RevLogReader manifestReader = null;
+		try {
+			manifestReader = new RevLogReader(new File(dbDir, "manifest.log"), new File(dbDir, "manifest.dat"), true);
+			for (Integer manifestId : manifestIds) {
+				FileManifest manifest = FileManifest.readManifest(manifestReader, manifestId, dbDir, false, db);
+				for (String name : manifest.getCollectionNames()) {
+					if (manifest.getCollectionId(name) != colId)
+						continue;
+
+					for (ConfigEntry e : manifest.getConfigEntries(name))
+						live.set(e.getIndex());
+				}
+			}
+		} finally {
+			if (manifestReader != null)
+				manifestReader.close();
+		}
+		return live;
+	}
+
+	/**
+	 * copy revision logs in range, and doc binaries of live revisions only
+	 * 
+	 * @return the number of purged revisions
+	 */
+	private long copy(RevLogReader reader, RevLogWriter writer, long from, long to, BitSet live, Map<Long, Long> offsets)
+			throws IOException {
+		long purged = 0;
+		for (long i = from; i < to; i++) {
+			RevLog log = reader.read(i);
+			int docId = log.getDocId();
+			long offset = log.getDocOffset();
+
+			if (log.isPurged() || log.getDocLength() == 0) {
+				log.setDoc(null);
+			} else if (live.get((int) i)) {
+				log.setDoc(reader.readDoc(offset, log.getDocLength()));
+			} else {
+				log.setDoc(null);
+				log.setPurged(true);
+				purged++;
+			}
+
+			// create log assigns doc id using log count
+			if (writer.write(log) != docId)
+				throw new IOException("doc id mismatch at log index " + i);
+
+			if (log.getDoc() != null)
+				offsets.put(offset, log.getDocOffset());
+		}
+		return purged;
+	}
+
+	private void deleteOldGenerations(int colId, int current) {
+		File[] files = dbDir.listFiles();
+		if (files == null)
+			return;
+
+		String prefix = "col" + colId + ".";
+		for (File f : files) {
+			String n = f.getName();
+			if (!n.endsWith(".log") && !n.endsWith(".dat"))
+				continue;
+
+			String gen = n.substring(0, n.length() - 4);
+			if (gen.equals("col" + colId) || (gen.startsWith(prefix) && !gen.equals(prefix + current))) {
+				if (!f.delete())
+					logger.debug("araqne confdb: cannot delete old generation file [{}]", f.getAbsolutePath());
+			}
+		}
+	}
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+/**
+ * Durability level of commit. Collection documents and manifest are always
+ * flushed before change set append, so that readers never see change set
+ * which points to unwritten manifest.
+ */
+public enum Durability {
+	/**
+	 * leave change set in buffer until transaction ends
+	 */
+	None,
+
+	/**
+	 * flush change set to operating system at each commit
+	 */
+	Flush,
+
+	/**
+	 * force documents, manifest and change set to storage device at each
+	 * commit
+	 */
+	Fsync;
+}
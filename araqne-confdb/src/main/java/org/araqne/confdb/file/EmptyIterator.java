@@ -44,6 +44,10 @@ class EmptyIterator implements ConfigIterator {
 	public void setParser(ConfigParser parser) {
 	}
 
+	@Override
+	public void setProjection(String... fields) {
+	}
+
 	@Override
 	public List<Config> getConfigs(int offset, int limit) {
 		return new ArrayList<Config>();
@@ -17,18 +17,15 @@ package org.araqne.confdb.file;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
-import java.nio.charset.Charset;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
 import org.json.JSONException;
-import org.json.JSONWriter;
+import org.json.JSONSerializer;
 import org.araqne.codec.Base64;
 import org.araqne.codec.UnsupportedTypeException;
 import org.araqne.confdb.ConfigCollection;
@@ -56,8 +53,7 @@ public class Exporter {
 		logger.debug("araqne confdb: start export data");
 		db.lock();
 		try {
-			OutputStreamWriter writer = new OutputStreamWriter(os, Charset.forName("utf-8"));
-			JSONWriter jw = new JSONWriter(writer);
+			JSONSerializer jw = new JSONSerializer(os);
 
 			jw.object();
 
@@ -84,11 +80,15 @@ public class Exporter {
 				// doc list begin
 				jw.array();
 
+				// read documents as encoded views, without caching them
 				ConfigIterator it = col.findAll();
+				if (it instanceof FileConfigIterator)
+					((FileConfigIterator) it).setViewMode(true);
+
 				try {
 					while (it.hasNext()) {
 						Object doc = it.next().getDocument();
-						jw.value(insertType(doc));
+						writeTyped(jw, doc);
 					}
 				} finally {
 					it.close();
@@ -106,7 +106,7 @@ public class Exporter {
 
 			// end of master doc
 			jw.endObject();
-			writer.flush();
+			jw.flush();
 			logger.debug("araqne confdb: export complete");
 		} catch (JSONException e) {
 			throw new IOException(e);
@@ -115,82 +115,76 @@ public class Exporter {
 		}
 	}
 
-	private Object insertType(Object doc) {
+	private void writeTyped(JSONSerializer jw, Object doc) throws JSONException {
 		if (doc instanceof String) {
-			return createList("string", doc);
+			writeTyped(jw, "string", doc);
 		} else if (doc instanceof Integer) {
-			return createList("int", doc);
+			writeTyped(jw, "int", doc);
 		} else if (doc instanceof Boolean) {
-			return createList("bool", doc);
+			writeTyped(jw, "bool", doc);
 		} else if (doc instanceof Long) {
-			return createList("long", doc);
+			writeTyped(jw, "long", doc);
 		} else if (doc instanceof Inet4Address) {
-			return createList("ip4", ((Inet4Address) doc).getHostAddress());
+			writeTyped(jw, "ip4", ((Inet4Address) doc).getHostAddress());
 		} else if (doc instanceof Inet6Address) {
-			return createList("ip6", ((Inet6Address) doc).getHostAddress());
+			writeTyped(jw, "ip6", ((Inet6Address) doc).getHostAddress());
 		} else if (doc instanceof Double) {
-			return createList("double", doc);
+			writeTyped(jw, "double", doc);
 		} else if (doc instanceof Float) {
-			return createList("float", doc);
+			writeTyped(jw, "float", doc);
 		} else if (doc instanceof Date) {
 			Date docDate = (Date) doc;
-			return createList("date", sdf.format(docDate));
+			writeTyped(jw, "date", sdf.format(docDate));
 		} else if (doc instanceof Short) {
-			return createList("short", doc);
+			writeTyped(jw, "short", doc);
 		} else if (doc == null) {
-			return createList("null", doc);
+			writeTyped(jw, "null", doc);
 		} else if (doc instanceof Map) {
 			@SuppressWarnings("unchecked")
 			Map<String, Object> m = (Map<String, Object>) doc;
 
-			for (String name : m.keySet()) {
-				m.put(name, insertType(m.get(name)));
+			// write typed values directly, document may be cached or read-only
+			// view
+			jw.array().value("map").object();
+			for (Map.Entry<String, Object> e : m.entrySet()) {
+				jw.key(e.getKey());
+				writeTyped(jw, e.getValue());
 			}
-
-			return createList("map", m);
+			jw.endObject().endArray();
 		} else if (doc instanceof List) {
 			@SuppressWarnings("unchecked")
 			List<Object> l = (List<Object>) doc;
-			List<Object> newList = new ArrayList<Object>();
-
-			for (Object o : l) {
-				newList.add(insertType(o));
-			}
 
-			return createList("list", newList);
+			jw.array().value("list").array();
+			for (Object o : l)
+				writeTyped(jw, o);
+			jw.endArray().endArray();
 		} else if (doc.getClass().isArray()) {
-			return insertArrayType(doc);
+			writeArrayType(jw, doc);
 		} else {
 			throw new UnsupportedTypeException("unsupported value [" + doc + "], type [" + doc.getClass().getName() + "]");
 		}
 	}
 
-	private List<Object> createList(String type, Object doc) {
-		List<Object> l = new ArrayList<Object>(2);
-		l.add(type);
-		l.add(doc);
-
-		return l;
+	private void writeTyped(JSONSerializer jw, String type, Object value) throws JSONException {
+		jw.array().value(type).value(value).endArray();
 	}
 
-	private Object insertArrayType(Object doc) {
+	private void writeArrayType(JSONSerializer jw, Object doc) throws JSONException {
 		Class<?> c = doc.getClass().getComponentType();
 		if (c == byte.class) {
 			byte[] arr = (byte[]) doc;
-			return createList("blob", new String(Base64.encode(arr)));
+			writeTyped(jw, "blob", new String(Base64.encode(arr)));
 		} else if (c == int.class || c == double.class || c == float.class || c == long.class || c == short.class
 				|| c == boolean.class) {
-			return createList("list", doc);
+			writeTyped(jw, "list", doc);
 		} else if (c == char.class) {
 			throw new UnsupportedTypeException("unsupported data type [" + c.getName() + "]");
 		} else {
-			Object[] os = (Object[]) doc;
-			Object[] newOs = new Object[os.length];
-			for (int index = 0; index < os.length; index++) {
-				newOs[index] = insertType(os[index]);
-			}
-
-			return createList("list", newOs);
+			jw.array().value("list").array();
+			for (Object o : (Object[]) doc)
+				writeTyped(jw, o);
+			jw.endArray().endArray();
 		}
 	}
-}
\ No newline at end of file
+}
@@ -15,16 +15,19 @@
  */
 package org.araqne.confdb.file;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
 import org.araqne.api.PrimitiveConverter;
 import org.araqne.api.PrimitiveParseCallback;
+import org.araqne.codec.EncodedArray;
+import org.araqne.codec.EncodedMap;
+import org.araqne.codec.EncodingRule;
 import org.araqne.codec.UnsupportedTypeException;
 import org.araqne.confdb.Config;
 import org.araqne.confdb.ConfigCollection;
@@ -40,6 +43,13 @@ class FileConfig implements Config {
 	private Object doc;
 	private ConfigParser parser;
 
+	// true if document is shared with config cache, and should be copied
+	// before it is handed out
+	private boolean shared;
+
+	// encoded document which is not decoded yet, null if doc is decoded or set
+	private byte[] encoded;
+
 	public FileConfig(ConfigDatabase db, ConfigCollection col, int id, long rev, long prevRev, Object doc) {
 		this(db, col, id, rev, prevRev, doc, null);
 	}
@@ -81,6 +91,11 @@ class FileConfig implements Config {
 
 	@Override
 	public Object getDocument() {
+		decode();
+		if (shared) {
+			doc = duplicateDoc(doc);
+			shared = false;
+		}
 		return doc;
 	}
 
@@ -92,6 +107,13 @@ class FileConfig implements Config {
 	@SuppressWarnings("unchecked")
 	@Override
 	public <T> T getDocument(Class<T> cls, PrimitiveParseCallback callback) {
+		// parsed object can refer nested values of document, but flat document
+		// can be parsed without copy
+		decode();
+		Object doc = this.doc;
+		if (shared && !isFlat(doc))
+			doc = duplicateDoc(doc);
+
 		if (parser != null) {
 			Object o = parser.parse(doc, callback);
 			if (o == null || cls.isAssignableFrom(o.getClass()))
@@ -103,6 +125,43 @@ class FileConfig implements Config {
 	@Override
 	public void setDocument(Object doc) {
 		this.doc = doc;
+		this.shared = false;
+		this.encoded = null;
+	}
+
+	/**
+	 * Set encoded document, which is decoded on first access in the same form
+	 * as read documents. Update writes the encoded bytes as is while document
+	 * is not accessed.
+	 */
+	FileConfig setEncoded(byte[] encoded) {
+		this.doc = null;
+		this.shared = false;
+		this.encoded = encoded;
+		return this;
+	}
+
+	/**
+	 * @return the encoded document if it is not decoded yet, otherwise null
+	 */
+	byte[] getEncoded() {
+		return encoded;
+	}
+
+	private void decode() {
+		if (encoded != null) {
+			doc = EncodingRule.decode(ByteBuffer.wrap(encoded));
+			encoded = null;
+		}
+	}
+
+	/**
+	 * mark document as shared with config cache. document is copied on first
+	 * getDocument() call, so that caller cannot modify cached document
+	 */
+	FileConfig share() {
+		shared = true;
+		return this;
 	}
 
 	@Override
@@ -117,19 +176,35 @@ class FileConfig implements Config {
 
 	@Override
 	public String toString() {
+		decode();
 		return "id=" + id + ", rev=" + rev + ", prev=" + prevRev + ", doc=" + doc;
 	}
 
 	@Override
 	public Config duplicate() {
+		decode();
 		return new FileConfig(db, col, id, rev, prevRev, duplicateDoc(doc));
 	}
 
+	private static boolean isFlat(Object doc) {
+		if (!(doc instanceof Map))
+			return !(doc instanceof Collection) && (doc == null || !doc.getClass().isArray());
+
+		for (Object v : ((Map<?, ?>) doc).values())
+			if (v instanceof Map || v instanceof Collection || (v != null && v.getClass().isArray()))
+				return false;
+		return true;
+	}
+
 	@SuppressWarnings("unchecked")
 	private Object duplicateDoc(Object doc) {
 		if (doc == null)
 			return null;
 
+		// encoded views are immutable
+		if (doc instanceof EncodedMap || doc instanceof EncodedArray)
+			return doc;
+
 		if (doc instanceof Map) {
 			Map<String, Object> m = (Map<String, Object>) doc;
 			HashMap<String, Object> n = new HashMap<String, Object>(m.size());
@@ -146,7 +221,7 @@ class FileConfig implements Config {
 			}
 
 			return n;
-		} else if (doc instanceof Collections) {
+		} else if (doc instanceof Collection) {
 			Collection<Object> c = (Collection<Object>) doc;
 			ArrayList<Object> n = new ArrayList<Object>(c.size());
 
@@ -15,26 +15,66 @@
  */
 package org.araqne.confdb.file;
 
-import java.lang.ref.WeakReference;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
+import org.araqne.codec.EncodingRule;
 import org.araqne.confdb.Config;
 import org.araqne.confdb.ConfigCache;
 
+/**
+ * Decoded config cache bounded by estimated memory usage. Iterator caches
+ * configs by data file offset, so cached configs remain valid across
+ * commits. Configs put by ConfigCache interface are keyed by manifest id.
+ * Default cache shares max weight with config caches of all databases.
+ */
 public class FileConfigCache implements ConfigCache {
+	/**
+	 * default max weight in bytes, shared by all databases
+	 */
+	public static final long DEFAULT_MAX_WEIGHT = 32 * 1024 * 1024;
+
+	// decoded object is larger than encoded binary
+	private static final int DECODED_RATIO = 4;
+
+	private static final BoundedCache<SharedCache.OwnerKey<Object>, Config> sharedCache = newCache(DEFAULT_MAX_WEIGHT);
+
 	// collection name to id maping cache
 	private ConcurrentMap<String, Integer> nameMap;
 
-	// collection id to config cache map
-	private ConcurrentMap<Integer, WeakReference<ConcurrentMap<ConfigKey, Config>>> cache;
+	private SharedCache<Object, Config> cache;
 
 	private FileConfigDatabase db;
 
 	public FileConfigCache(FileConfigDatabase db) {
+		this(db, sharedCache);
+	}
+
+	/**
+	 * create config cache which does not share max weight with other databases
+	 */
+	public FileConfigCache(FileConfigDatabase db, long maxWeight) {
+		this(db, newCache(maxWeight));
+	}
+
+	private FileConfigCache(FileConfigDatabase db, BoundedCache<SharedCache.OwnerKey<Object>, Config> cache) {
 		this.db = db;
 		this.nameMap = new ConcurrentHashMap<String, Integer>();
-		this.cache = new ConcurrentHashMap<Integer, WeakReference<ConcurrentMap<ConfigKey, Config>>>();
+		this.cache = new SharedCache<Object, Config>(cache);
+	}
+
+	private static BoundedCache<SharedCache.OwnerKey<Object>, Config> newCache(long maxWeight) {
+		return SharedCache.newCache("config", maxWeight, new BoundedCache.Weigher<Object, Config>() {
+			@Override
+			public long weigh(Object key, Config value) {
+				int len = key instanceof OffsetKey ? ((OffsetKey) key).length : EncodingRule.lengthOf(value.getDocument());
+				return 96 + (long) len * DECODED_RATIO;
+			}
+		});
+	}
+
+	public BoundedCache<SharedCache.OwnerKey<Object>, Config> getCache() {
+		return cache.getCache();
 	}
 
 	/**
@@ -47,19 +87,7 @@ public class FileConfigCache implements ConfigCache {
 		if (colId == null)
 			return null;
 
-		WeakReference<ConcurrentMap<ConfigKey, Config>> ref = cache.get(colId);
-		if (ref == null)
-			return null;
-
-		ConcurrentMap<ConfigKey, Config> map = ref.get();
-		if (map == null)
-			return null;
-
-		Config c = map.get(new ConfigKey(manifestId, docId, rev));
-		if (c != null) {
-			return c;
-		}
-		return null;
+		return cache.get(new ConfigKey(colId, manifestId, docId, rev));
 	}
 
 	@Override
@@ -68,17 +96,23 @@ public class FileConfigCache implements ConfigCache {
 		if (colId == null)
 			return;
 
-		WeakReference<ConcurrentMap<ConfigKey, Config>> ref = cache.get(colId);
-		ConcurrentMap<ConfigKey, Config> configCache = null;
-		if (ref == null) {
-			configCache = createCollectionCache(colId);
-		} else {
-			configCache = ref.get();
-			if (configCache == null)
-				configCache = createCollectionCache(colId);
-		}
+		cache.put(new ConfigKey(colId, manifestId, c.getId(), c.getRevision()), c);
+	}
+
+	/**
+	 * CAUTION: you should NOT MODIFY config object
+	 */
+	public Config findEntry(int colId, RevLog log) {
+		return cache.get(new OffsetKey(colId, log.getDocOffset(), log.getDocLength()));
+	}
 
-		configCache.put(new ConfigKey(manifestId, c.getId(), c.getRevision()), c);
+	public void putEntry(int colId, RevLog log, Config c) {
+		cache.put(new OffsetKey(colId, log.getDocOffset(), log.getDocLength()), c);
+	}
+
+	public void clear() {
+		nameMap.clear();
+		cache.clear();
 	}
 
 	private Integer getCollectionId(String colName) {
@@ -91,19 +125,44 @@ public class FileConfigCache implements ConfigCache {
 		return colId;
 	}
 
-	private ConcurrentMap<ConfigKey, Config> createCollectionCache(int colId) {
-		ConcurrentMap<ConfigKey, Config> configCache = new ConcurrentHashMap<FileConfigCache.ConfigKey, Config>();
-		WeakReference<ConcurrentMap<ConfigKey, Config>> ref = new WeakReference<ConcurrentMap<ConfigKey, Config>>(configCache);
-		cache.put(colId, ref);
-		return configCache;
+	/**
+	 * data file offset is unique in append-only collection file
+	 */
+	private static class OffsetKey {
+		private int colId;
+		private long offset;
+		private int length;
+
+		public OffsetKey(int colId, long offset, int length) {
+			this.colId = colId;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * colId + (int) (offset ^ (offset >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof OffsetKey))
+				return false;
+			OffsetKey other = (OffsetKey) obj;
+			return colId == other.colId && offset == other.offset;
+		}
 	}
 
 	private static class ConfigKey {
+		private int colId;
 		private int manifestId;
 		private int id;
 		private long rev;
 
-		public ConfigKey(int manifestId, int id, long rev) {
+		public ConfigKey(int colId, int manifestId, int id, long rev) {
+			this.colId = colId;
 			this.manifestId = manifestId;
 			this.id = id;
 			this.rev = rev;
@@ -113,6 +172,7 @@ public class FileConfigCache implements ConfigCache {
 		public int hashCode() {
 			final int prime = 31;
 			int result = 1;
+			result = prime * result + colId;
 			result = prime * result + id;
 			result = prime * result + manifestId;
 			result = prime * result + (int) (rev ^ (rev >>> 32));
@@ -128,6 +188,8 @@ public class FileConfigCache implements ConfigCache {
 			if (getClass() != obj.getClass())
 				return false;
 			ConfigKey other = (ConfigKey) obj;
+			if (colId != other.colId)
+				return false;
 			if (id != other.id)
 				return false;
 			if (manifestId != other.manifestId)
@@ -18,9 +18,11 @@ package org.araqne.confdb.file;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+
+import org.araqne.api.PrimitiveConverter;
 import org.araqne.codec.EncodingRule;
 import org.araqne.confdb.CollectionEntry;
 import org.araqne.confdb.CommitOp;
@@ -31,7 +33,6 @@ import org.araqne.confdb.ConfigIterator;
 import org.araqne.confdb.ConfigTransaction;
 import org.araqne.confdb.Manifest;
 import org.araqne.confdb.Predicate;
-import org.araqne.confdb.RollbackException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,10 +55,6 @@ public class FileConfigCollection implements ConfigCollection {
 	 */
 	private CollectionEntry col;
 
-	private File logFile;
-
-	private File datFile;
-
 	public FileConfigCollection(FileConfigDatabase db, Integer changeset, CollectionEntry col) throws IOException {
 		File dbDir = db.getDbDirectory();
 		boolean created = dbDir.mkdirs();
@@ -67,9 +64,6 @@ public class FileConfigCollection implements ConfigCollection {
 		this.db = db;
 		this.col = col;
 		this.changeset = changeset;
-
-		logFile = new File(dbDir, "col" + col.getId() + ".log");
-		datFile = new File(dbDir, "col" + col.getId() + ".dat");
 	}
 
 	public int getId() {
@@ -141,17 +135,27 @@ public class FileConfigCollection implements ConfigCollection {
 
 	private ConfigIterator getIterator(Predicate pred) throws IOException {
 		Manifest manifest = db.getManifest(changeset);
-		RevLogReader reader = new RevLogReader(logFile, datFile);
+		RevLogReader reader = db.openCollection(col.getId(), true);
 		List<RevLog> snapshot = getSnapshot(manifest, reader);
 		if (logger.isDebugEnabled())
 			logger.debug("araqne confdb: db [{}], col [{}], snapshot size [{}]", new Object[] { db.getName(), col.getName(),
 					snapshot.size() });
 
+		// flashback mode does not use index
+		if (pred != null && changeset == null) {
+			try {
+				snapshot = db.getIndex(col.getId()).filter(manifest.getId(), pred, snapshot, reader);
+			} catch (IOException e) {
+				reader.close();
+				throw e;
+			}
+		}
+
 		return new FileConfigIterator(db, manifest, this, reader, snapshot, pred);
 	}
 
 	private List<RevLog> getSnapshot(Manifest manifest, RevLogReader reader) throws IOException {
-		List<RevLog> snapshot = db.getSnapshotCache(col.getId(), manifest.getId());
+		List<RevLog> snapshot = db.getSnapshotCache(col.getId(), reader.getGeneration(), manifest.getId());
 		if (snapshot != null) {
 			if (logger.isDebugEnabled())
 				logger.debug("araqne confdb: return cached snapshot, db [{}], col [{}], manifest [{}], snapshot size [{}]",
@@ -169,7 +173,7 @@ public class FileConfigCollection implements ConfigCollection {
 						&& manifest.containsDoc(col.getName(), log.getDocId(), log.getRev()))
 					snapshot.add(log);
 			}
-		} else if (manifest.getVersion() == 2) {
+		} else {
 			List<ConfigEntry> configs = manifest.getConfigEntries(col.getName());
 			for (ConfigEntry c : configs) {
 				RevLog log = reader.read(c.getIndex());
@@ -180,7 +184,7 @@ public class FileConfigCollection implements ConfigCollection {
 							new Object[] { db.getName(), col.getName(), manifest.getId(), log });
 			}
 
-			db.setSnapshotCache(col.getId(), manifest.getId(), snapshot);
+			db.setSnapshotCache(col.getId(), reader.getGeneration(), manifest.getId(), snapshot);
 		}
 
 		return snapshot;
@@ -192,25 +196,33 @@ public class FileConfigCollection implements ConfigCollection {
 	}
 
 	@Override
-	public Config add(Object doc, String committer, String log) {
-		ConfigTransaction xact = db.beginTransaction();
-		try {
-			Config c = add(xact, doc);
-			xact.commit(committer, log);
-			return c;
-		} catch (Throwable e) {
-			xact.rollback();
-			throw new RollbackException(e);
-		}
+	public Config add(final Object doc, String committer, String log) {
+		return db.commit(new WriteOperation() {
+			@Override
+			public Config run(ConfigTransaction xact) {
+				return add(xact, doc);
+			}
+		}, committer, log);
 	}
 
 	@Override
 	public Config add(ConfigTransaction xact, Object doc) {
+		return add(xact, doc, EncodingRule.encodeBytes(doc));
+	}
+
+	/**
+	 * add encoded document. document of returned config is decoded on first
+	 * access, in the same form as read documents
+	 */
+	Config addEncoded(ConfigTransaction xact, byte[] b) {
+		return add(xact, null, b).setEncoded(b);
+	}
+
+	private FileConfig add(ConfigTransaction xact, Object doc, byte[] b) {
 		try {
 			RevLogWriter writer = getWriter(xact);
 
-			ByteBuffer bb = encodeDocument(doc);
-			RevLog revlog = newLog(0, 0, CommitOp.CreateDoc, bb.array());
+			RevLog revlog = newLog(0, 0, CommitOp.CreateDoc, b);
 
 			// write collection log
 			int docId = writer.write(revlog);
@@ -218,19 +230,13 @@ public class FileConfigCollection implements ConfigCollection {
 
 			// write db changelog
 			xact.log(CommitOp.CreateDoc, col.getName(), docId, revlog.getRev(), index);
+			logIndex(xact, docId, new FileConfigIndex.Change(revlog.getDocOffset(), b, false));
 			return new FileConfig(db, this, docId, revlog.getRev(), revlog.getPrevRev(), doc);
 		} catch (IOException e) {
 			throw new IllegalStateException("cannot add object", e);
 		}
 	}
 
-	private ByteBuffer encodeDocument(Object doc) {
-		int len = EncodingRule.lengthOf(doc);
-		ByteBuffer bb = ByteBuffer.allocate(len);
-		EncodingRule.encode(bb, doc);
-		return bb;
-	}
-
 	@Override
 	public Config update(Config c) {
 		return update(c, false);
@@ -242,16 +248,13 @@ public class FileConfigCollection implements ConfigCollection {
 	}
 
 	@Override
-	public Config update(Config c, boolean checkConflict, String committer, String log) {
-		ConfigTransaction xact = db.beginTransaction();
-		try {
-			Config updated = update(xact, c, checkConflict);
-			xact.commit(committer, log);
-			return updated;
-		} catch (Throwable e) {
-			xact.rollback();
-			throw new RollbackException(e);
-		}
+	public Config update(final Config c, final boolean checkConflict, String committer, String log) {
+		return db.commit(new WriteOperation() {
+			@Override
+			public Config run(ConfigTransaction xact) {
+				return update(xact, c, checkConflict);
+			}
+		}, committer, log);
 	}
 
 	@Override
@@ -260,7 +263,7 @@ public class FileConfigCollection implements ConfigCollection {
 		try {
 			Manifest manifest = db.getManifest(changeset);
 			RevLogWriter writer = getWriter(xact);
-			reader = new RevLogReader(logFile, datFile);
+			reader = db.openCollection(col.getId(), true);
 			List<RevLog> snapshot = getSnapshot(manifest, reader);
 
 			// find any conflict (if common parent exists)
@@ -274,18 +277,23 @@ public class FileConfigCollection implements ConfigCollection {
 				}
 			}
 
-			ByteBuffer bb = encodeDocument(c.getDocument());
-			RevLog revlog = newLog(c.getId(), lastRev, CommitOp.UpdateDoc, bb.array());
+			// encoded document of setUpdate() is written as is
+			byte[] encoded = c instanceof FileConfig ? ((FileConfig) c).getEncoded() : null;
+			byte[] b = encoded != null ? encoded : EncodingRule.encodeBytes(c.getDocument());
+			RevLog revlog = newLog(c.getId(), lastRev, CommitOp.UpdateDoc, b);
 
 			// write collection log
 			int id = writer.write(revlog);
 			int index = writer.count() - 1;
 			xact.log(CommitOp.UpdateDoc, col.getName(), id, revlog.getRev(), index);
+			logIndex(xact, id, new FileConfigIndex.Change(revlog.getDocOffset(), revlog.getDoc(), false));
 
 			if (logger.isDebugEnabled())
 				logger.debug("araqne confdb: updated db [{}] col [{}] doc [{}]",
 						new Object[] { db.getName(), col.getName(), c.getDocument() });
 
+			if (encoded != null)
+				return new FileConfig(db, this, id, revlog.getRev(), revlog.getPrevRev(), null).setEncoded(encoded);
 			return new FileConfig(db, this, id, revlog.getRev(), revlog.getPrevRev(), c.getDocument());
 		} catch (IOException e) {
 			throw new IllegalStateException("cannot update object", e);
@@ -306,17 +314,13 @@ public class FileConfigCollection implements ConfigCollection {
 	}
 
 	@Override
-	public Config remove(Config c, boolean checkConflict, String committer, String log) {
-		ConfigTransaction xact = db.beginTransaction();
-		Config config = c;
-		try {
-			config = remove(xact, c, checkConflict);
-			xact.commit(committer, log);
-			return config;
-		} catch (Throwable e) {
-			xact.rollback();
-			throw new RollbackException(e);
-		}
+	public Config remove(final Config c, final boolean checkConflict, String committer, String log) {
+		return db.commit(new WriteOperation() {
+			@Override
+			public Config run(ConfigTransaction xact) {
+				return remove(xact, c, checkConflict);
+			}
+		}, committer, log);
 	}
 
 	@Override
@@ -331,12 +335,70 @@ public class FileConfigCollection implements ConfigCollection {
 			int id = writer.write(revlog);
 			int index = writer.count() - 1;
 			xact.log(CommitOp.DeleteDoc, col.getName(), id, revlog.getRev(), index);
+			logIndex(xact, id, new FileConfigIndex.Change(0, null, true));
 			return new FileConfig(db, this, id, revlog.getRev(), revlog.getPrevRev(), null);
 		} catch (IOException e) {
 			throw new IllegalStateException("cannot remove object", e);
 		}
 	}
 
+	private void logIndex(ConfigTransaction xact, int docId, FileConfigIndex.Change change) {
+		if (!db.getIndex(col.getId()).isEmpty())
+			((FileConfigTransaction) xact).logIndex(col.getId(), docId, change);
+	}
+
+	@Override
+	public void ensureIndex(String field) {
+		String path = PrimitiveConverter.toUnderscoreName(field);
+		FileConfigIndex index = db.getIndex(col.getId());
+		if (index.getFields().contains(path))
+			return;
+
+		db.lock();
+		RevLogReader reader = null;
+		try {
+			Manifest manifest = db.getManifest(null);
+			List<RevLog> snapshot = new ArrayList<RevLog>();
+			try {
+				reader = db.openCollection(col.getId(), true);
+				snapshot = getSnapshot(manifest, reader);
+			} catch (FileNotFoundException e) {
+				// collection has no data
+			}
+
+			index.addField(path, manifest.getId(), snapshot, reader);
+			index.save();
+			logger.info("araqne confdb: created index [{}] of db [{}] col [{}]", new Object[] { path, db.getName(), col.getName() });
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot create index " + path + " of collection " + col.getName(), e);
+		} finally {
+			if (reader != null)
+				reader.close();
+			db.unlock();
+		}
+	}
+
+	@Override
+	public void dropIndex(String field) {
+		String path = PrimitiveConverter.toUnderscoreName(field);
+		FileConfigIndex index = db.getIndex(col.getId());
+
+		db.lock();
+		try {
+			index.removeField(path);
+			index.save();
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot drop index " + path + " of collection " + col.getName(), e);
+		} finally {
+			db.unlock();
+		}
+	}
+
+	@Override
+	public Set<String> getIndexes() {
+		return db.getIndex(col.getId()).getFields();
+	}
+
 	private RevLog newLog(int id, long prev, CommitOp op, byte[] doc) {
 		RevLog log = new RevLog();
 		log.setDocId(id);
@@ -349,10 +411,15 @@ public class FileConfigCollection implements ConfigCollection {
 
 	private RevLogWriter getWriter(ConfigTransaction xact) throws IOException {
 		FileConfigTransaction fxact = (FileConfigTransaction) xact;
+		File dbDir = db.getDbDirectory();
+
+		// generation is not changed while transaction holds write lock
+		int gen = db.getGeneration(col.getId());
+		File logFile = CollectionFiles.getLogFile(dbDir, col.getId(), gen);
 		RevLogWriter writer = fxact.getWriters().get(logFile);
 
 		if (writer == null) {
-			writer = new RevLogWriter(logFile, datFile);
+			writer = db.getCollectionWriter(col.getId());
 			fxact.getWriters().put(logFile, writer);
 		}
 		return writer;
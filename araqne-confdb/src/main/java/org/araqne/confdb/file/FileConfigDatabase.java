@@ -21,16 +21,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
-import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -39,6 +43,7 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import org.araqne.api.PrimitiveConverter;
 import org.araqne.api.PrimitiveSerializeCallback;
+import org.araqne.codec.EncodingRule;
 import org.araqne.confdb.CollectionEntry;
 import org.araqne.confdb.CollectionName;
 import org.araqne.confdb.CommitLog;
@@ -49,6 +54,7 @@ import org.araqne.confdb.ConfigChange;
 import org.araqne.confdb.ConfigCollection;
 import org.araqne.confdb.ConfigDatabase;
 import org.araqne.confdb.ConfigDatabaseListener;
+import org.araqne.confdb.ConfigEntry;
 import org.araqne.confdb.ConfigIterator;
 import org.araqne.confdb.ConfigTransaction;
 import org.araqne.confdb.ConfigTransactionCache;
@@ -98,18 +104,71 @@ public class FileConfigDatabase implements ConfigDatabase {
 	 */
 	private int defaultTimeout = 5000;
 
+	private volatile Durability durability = Durability.Flush;
+
+	// batches implicit transactions, null if group commit is disabled
+	private volatile GroupCommitter groupCommitter;
+
+	// caches are shared by all databases, so memory usage is bounded
+	// regardless of the number of open databases
+	private static final BoundedCache<SharedCache.OwnerKey<Integer>, Integer> sharedChangeCache = SharedCache.newCache(
+			"changeset", 256 * 1024, new BoundedCache.Weigher<Integer, Integer>() {
+				@Override
+				public long weigh(Integer key, Integer value) {
+					return 64;
+				}
+			});
+
+	private static final BoundedCache<SharedCache.OwnerKey<Integer>, FileManifest> sharedManifestCache = SharedCache.newCache(
+			"manifest", getDefaultCacheSize("manifest", 8 * 1024 * 1024L, 32), new BoundedCache.Weigher<Integer, FileManifest>() {
+				@Override
+				public long weigh(Integer key, FileManifest value) {
+					return 128 + value.getCollectionNames().size() * 128L + value.getConfigCount() * 64L;
+				}
+			});
+
+	private static final BoundedCache<SharedCache.OwnerKey<SnapshotKey>, List<RevLog>> sharedSnapshotCache = SharedCache
+			.newCache("snapshot", getDefaultCacheSize("snapshot", 4 * 1024 * 1024L, 16),
+					new BoundedCache.Weigher<SnapshotKey, List<RevLog>>() {
+						@Override
+						public long weigh(SnapshotKey key, List<RevLog> value) {
+							return 64 + value.size() * 80L;
+						}
+					});
+
 	// change set rev to manifest id cache
-	private WeakReference<ConcurrentMap<Integer, Integer>> changeCache;
+	private SharedCache<Integer, Integer> changeCache;
 
 	// manifest id to manifest cache
-	private WeakReference<ConcurrentMap<Integer, FileManifest>> manifestCache;
+	private SharedCache<Integer, FileManifest> manifestCache;
 
 	// (collection id, manifest id) to snapshot cache
-	private WeakReference<ConcurrentMap<SnapshotKey, List<RevLog>>> snapshotCache;
+	private SharedCache<SnapshotKey, List<RevLog>> snapshotCache;
 
 	// config cache
 	private FileConfigCache configCache;
 
+	// collection id to persistent index
+	private ConcurrentMap<Integer, FileConfigIndex> indexes;
+
+	// collection id to current file generation
+	private ConcurrentMap<Integer, Integer> generations;
+
+	// number of recent change sets which compaction keeps readable
+	private volatile int compactionRetention = 1000;
+
+	// oldest retained change set of running compaction
+	private volatile int pendingHorizon;
+
+	private Compactor compactor;
+
+	// long-lived append writers, accessed in write locked context only
+	private Map<Integer, RevLogWriter> collectionWriters;
+	private RevLogWriter manifestWriter;
+	private RevLogWriter changeWriter;
+
+	private BackgroundCompactor backgroundCompactor;
+
 	private CopyOnWriteArraySet<ConfigDatabaseListener> listeners;
 
 	public FileConfigDatabase(File baseDir, String name) throws IOException {
@@ -122,12 +181,14 @@ public class FileConfigDatabase implements ConfigDatabase {
 		this.dbDir = new File(baseDir, name);
 		this.changeset = rev;
 		this.threadLock = new ReentrantLock();
-		this.changeCache = new WeakReference<ConcurrentMap<Integer, Integer>>(new ConcurrentHashMap<Integer, Integer>());
-		this.manifestCache = new WeakReference<ConcurrentMap<Integer, FileManifest>>(
-				new ConcurrentHashMap<Integer, FileManifest>());
-		this.snapshotCache = new WeakReference<ConcurrentMap<SnapshotKey, List<RevLog>>>(
-				new ConcurrentHashMap<SnapshotKey, List<RevLog>>());
+		this.changeCache = new SharedCache<Integer, Integer>(sharedChangeCache);
+		this.manifestCache = new SharedCache<Integer, FileManifest>(sharedManifestCache);
+		this.snapshotCache = new SharedCache<SnapshotKey, List<RevLog>>(sharedSnapshotCache);
 		this.configCache = new FileConfigCache(this);
+		this.indexes = new ConcurrentHashMap<Integer, FileConfigIndex>();
+		this.generations = new ConcurrentHashMap<Integer, Integer>();
+		this.compactor = new Compactor(this);
+		this.collectionWriters = new HashMap<Integer, RevLogWriter>();
 
 		changeLogFile = new File(dbDir, "changeset.log");
 		changeDatFile = new File(dbDir, "changeset.dat");
@@ -167,8 +228,11 @@ public class FileConfigDatabase implements ConfigDatabase {
 					throw new WriteLockTimeoutException();
 
 				processLock = channel.tryLock();
-				if (processLock != null)
+				if (processLock != null) {
+					// other process may have compacted collections
+					generations.clear();
 					break;
+				}
 				Thread.sleep(100);
 			}
 		} catch (IOException e) {
@@ -403,7 +467,8 @@ public class FileConfigDatabase implements ConfigDatabase {
 		int manifestId = 0;
 		RevLogReader reader = null;
 		try {
-			reader = new RevLogReader(changeLogFile, changeDatFile);
+			// specific revision lookup scans whole change log, use hash index
+			reader = new RevLogReader(changeLogFile, changeDatFile, rev != null);
 			RevLog revlog = null;
 
 			if (rev == null) {
@@ -441,16 +506,7 @@ public class FileConfigDatabase implements ConfigDatabase {
 				return cached;
 
 			reader = new RevLogReader(manifestLogFile, manifestDatFile);
-			RevLog revlog = reader.findDoc(manifestId);
-			byte[] doc = reader.readDoc(revlog.getDocOffset(), revlog.getDocLength());
-			// manifest id should be set here (id = revlog id)
-			FileManifest manifest = FileManifest.deserialize(doc, noConfigs);
-
-			// legacy format upgrade
-			if (manifest.getVersion() == 1)
-				FileManifest.upgradeManifest(manifest, dbDir);
-
-			manifest.setId(manifestId);
+			FileManifest manifest = FileManifest.readManifest(reader, manifestId, dbDir, noConfigs, this);
 
 			setManifestCache(manifest);
 			return manifest;
@@ -471,8 +527,8 @@ public class FileConfigDatabase implements ConfigDatabase {
 		RevLogReader manifestReader = null;
 		RevLogReader changeLogReader = null;
 		try {
-			manifestReader = new RevLogReader(manifestLogFile, manifestDatFile);
-			changeLogReader = new RevLogReader(changeLogFile, changeDatFile);
+			manifestReader = new RevLogReader(manifestLogFile, manifestDatFile, true);
+			changeLogReader = new RevLogReader(changeLogFile, changeDatFile, true);
 			FileManifestIterator manifestIterator = new FileManifestIterator(manifestReader, changeLogReader, dbDir, logRev);
 
 			return manifestIterator;
@@ -493,7 +549,7 @@ public class FileConfigDatabase implements ConfigDatabase {
 		List<CommitLog> commitLogs = new ArrayList<CommitLog>();
 		RevLogReader reader = null;
 		try {
-			reader = new RevLogReader(changeLogFile, changeDatFile);
+			reader = new RevLogReader(changeLogFile, changeDatFile, true);
 
 			ListIterator<RevLog> it = reader.iterator(offset);
 			for (long i = 0; i < limit; i++) {
@@ -531,6 +587,61 @@ public class FileConfigDatabase implements ConfigDatabase {
 		}
 	}
 
+	public Durability getDurability() {
+		return durability;
+	}
+
+	public void setDurability(Durability durability) {
+		if (durability == null)
+			throw new IllegalArgumentException("durability cannot be null");
+
+		this.durability = durability;
+	}
+
+	public GroupCommitter getGroupCommitter() {
+		return groupCommitter;
+	}
+
+	/**
+	 * Enable group commit of implicit transactions (e.g. add(doc) without
+	 * transaction). Concurrent operations are run in one transaction, and
+	 * operations of same committer and log message share one change set.
+	 * 
+	 * @param maxBatchSize
+	 *            the max number of operations in a batch. group commit is
+	 *            disabled if less than 2
+	 * @param maxDelay
+	 *            max milliseconds to wait for more operations before batch
+	 *            runs
+	 */
+	public void setGroupCommit(int maxBatchSize, int maxDelay) {
+		if (maxBatchSize < 2)
+			groupCommitter = null;
+		else
+			groupCommitter = new GroupCommitter(this, maxBatchSize, maxDelay);
+	}
+
+	/**
+	 * run write operation in implicit transaction
+	 */
+	Config commit(WriteOperation op, String committer, String log) {
+		// nested operation already holds write lock, and would wait leader
+		// forever
+		GroupCommitter gc = groupCommitter;
+		if (gc != null && !threadLock.isHeldByCurrentThread())
+			return gc.commit(op, committer, log);
+
+		ConfigTransaction xact = beginTransaction();
+		try {
+			Config c = op.run(xact);
+			xact.commit(committer, log);
+			return c;
+		} catch (Throwable t) {
+			xact.rollback();
+			throw new RollbackException(t);
+		}
+	}
+
 	@Override
 	public ConfigTransaction beginTransaction() {
 		return beginTransaction(defaultTimeout);
@@ -548,13 +659,21 @@ public class FileConfigDatabase implements ConfigDatabase {
 
 	@Override
 	public void rollback(int changeset, String committer, String log) {
+		int horizon = getRetainedChangeSet();
+		if (changeset < horizon)
+			throw new RollbackException(new IllegalStateException("change set " + changeset
+					+ " is purged by compaction, oldest change set is " + horizon));
+
 		Manifest manifest = getManifest(changeset);
 
 		try {
 			lock();
 			List<ConfigChange> emptyChangeSet = new ArrayList<ConfigChange>();
-			ChangeSetWriter.log(changeLogFile, changeDatFile, emptyChangeSet, manifest.getId(), committer, log);
+			RevLogWriter writer = getChangeSetWriter();
+			ChangeSetWriter.log(writer, emptyChangeSet, manifest.getId(), committer, log, new Date());
+			writer.commit(durability == Durability.Fsync ? Durability.Fsync : Durability.Flush);
 		} catch (IOException e) {
+			abortWriters();
 			throw new RollbackException(e);
 		} finally {
 			unlock();
@@ -568,6 +687,7 @@ public class FileConfigDatabase implements ConfigDatabase {
 	 * @throws IOException
 	 */
 	public void purge() throws IOException {
+		stopCompactor();
 		try {
 			clearAllCaches();
 			lock();
@@ -577,9 +697,12 @@ public class FileConfigDatabase implements ConfigDatabase {
 			// delete all collections
 			for (File f : dbDir.listFiles()) {
 				String n = f.getName();
-				if (n.startsWith("col") && (n.endsWith(".log") || n.endsWith(".dat")))
+				if (n.startsWith("col") && (n.endsWith(".log") || n.endsWith(".dat") || n.endsWith(".idx") || n.endsWith(".gen")))
 					f.delete();
 			}
+			closeWriters();
+			indexes.clear();
+			generations.clear();
 
 			// remove manifest and changelog
 			manifestDatFile.delete();
@@ -648,36 +771,20 @@ public class FileConfigDatabase implements ConfigDatabase {
 
 	@Override
 	public Config add(Object doc) {
-		if (doc == null)
-			throw new IllegalArgumentException("doc cannot be null");
-
-		ConfigTransaction xact = beginTransaction();
-		try {
-			ConfigCollection collection = ensureCollection(xact, doc.getClass());
-			Config c = collection.add(xact, PrimitiveConverter.serialize(doc, new CascadeUpdate(xact.getCache())));
-			xact.commit(null, null);
-			return c;
-		} catch (Throwable t) {
-			xact.rollback();
-			throw new RollbackException(t);
-		}
+		return add(doc, null, null);
 	}
 
 	@Override
-	public Config add(Object doc, String committer, String log) {
+	public Config add(final Object doc, String committer, String log) {
 		if (doc == null)
 			throw new IllegalArgumentException("doc cannot be null");
 
-		ConfigTransaction xact = beginTransaction();
-		try {
-			ConfigCollection collection = ensureCollection(xact, doc.getClass());
-			Config c = collection.add(xact, PrimitiveConverter.serialize(doc, new CascadeUpdate(xact.getCache())));
-			xact.commit(committer, log);
-			return c;
-		} catch (Throwable t) {
-			xact.rollback();
-			throw new RollbackException(t);
-		}
+		return commit(new WriteOperation() {
+			@Override
+			public Config run(ConfigTransaction xact) {
+				return add(xact, doc);
+			}
+		}, committer, log);
 	}
 
 	@Override
@@ -686,6 +793,13 @@ public class FileConfigDatabase implements ConfigDatabase {
 			throw new IllegalArgumentException("doc cannot be null");
 
 		ConfigCollection collection = ensureCollection(xact, doc.getClass());
+
+		// encode object directly, without intermediate map
+		if (collection instanceof FileConfigCollection) {
+			byte[] b = ObjectCodec.encode(doc, new CascadeUpdate(xact.getCache()));
+			return ((FileConfigCollection) collection).addEncoded(xact, b);
+		}
+
 		return collection.add(xact, PrimitiveConverter.serialize(doc, new CascadeUpdate(xact.getCache())));
 	}
 
@@ -729,10 +843,22 @@ public class FileConfigDatabase implements ConfigDatabase {
 		if (xact != null)
 			xact.getCache();
 
-		Object newDoc = PrimitiveConverter.serialize(doc, new CascadeUpdate(cache));
-		if (newDoc.equals(c.getDocument()))
+		// compare read-only views, since decoded arrays do not have value
+		// equality. encoded bytes are kept so that update writes them as is,
+		// and document is decoded in the same form as read documents when
+		// caller accesses it
+		byte[] b = ObjectCodec.encode(doc, new CascadeUpdate(cache));
+		byte[] old = c instanceof FileConfig ? ((FileConfig) c).getEncoded() : null;
+		if (old == null)
+			old = EncodingRule.encodeBytes(c.getDocument());
+
+		if (EncodingRule.decodeView(ByteBuffer.wrap(b)).equals(EncodingRule.decodeView(ByteBuffer.wrap(old))))
 			return false;
-		c.setDocument(newDoc);
+
+		if (c instanceof FileConfig)
+			((FileConfig) c).setEncoded(b);
+		else
+			c.setDocument(EncodingRule.decode(ByteBuffer.wrap(b)));
 		return true;
 	}
 
@@ -804,11 +930,19 @@ public class FileConfigDatabase implements ConfigDatabase {
 
 	@Override
 	public void shrink(int count) {
+		// hold thread lock until indexes are invalidated
+		lock();
 		try {
+			closeWriters();
 			new Shrinker(this).shrink(count);
 			clearAllCaches();
+			invalidateIndexes();
+			generations.clear();
+			pendingHorizon = 0;
 		} catch (IOException e) {
 			throw new IllegalStateException(e);
+		} finally {
+			unlock();
 		}
 	}
 
@@ -844,44 +978,72 @@ public class FileConfigDatabase implements ConfigDatabase {
 		}
 	}
 
-	private FileManifest getManifestCache(int rev) {
-		ConcurrentMap<Integer, FileManifest> manifestMap = manifestCache.get();
-		if (manifestMap == null)
-			return null;
-
-		FileManifest fileManifest = manifestMap.get(rev);
-		if (fileManifest == null)
-			return null;
-
-		return fileManifest;
+	FileManifest getManifestCache(int rev) {
+		return manifestCache.get(rev);
 	}
 
 	private void setManifestCache(FileManifest manifest) {
-		ConcurrentMap<Integer, FileManifest> manifestMap = manifestCache.get();
-		if (manifestMap == null) {
-			manifestMap = new ConcurrentHashMap<Integer, FileManifest>();
-			manifestCache = new WeakReference<ConcurrentMap<Integer, FileManifest>>(manifestMap);
-		}
-
-		manifestMap.put(manifest.getId(), manifest);
+		manifestCache.put(manifest.getId(), manifest);
 	}
 
 	private Integer getCachedManifestId(int rev) {
-		ConcurrentMap<Integer, Integer> changeMap = changeCache.get();
-		if (changeMap == null)
-			return null;
-
-		return changeMap.get(rev);
+		return changeCache.get(rev);
 	}
 
 	private void setChangeSetCache(int changeDocId, int manifestId) {
-		ConcurrentMap<Integer, Integer> changeMap = changeCache.get();
-		if (changeMap == null) {
-			changeMap = new ConcurrentHashMap<Integer, Integer>();
-			changeCache = new WeakReference<ConcurrentMap<Integer, Integer>>(changeMap);
+		changeCache.put(changeDocId, manifestId);
+	}
+
+	/**
+	 * @return the counters of change set, manifest, snapshot and config
+	 *         caches, which are shared by all databases
+	 */
+	public List<CacheStats> getCacheStats() {
+		List<CacheStats> stats = new ArrayList<CacheStats>();
+		stats.add(changeCache.getCache().getStats());
+		stats.add(manifestCache.getCache().getStats());
+		stats.add(snapshotCache.getCache().getStats());
+		stats.add(configCache.getCache().getStats());
+		return stats;
+	}
+
+	/**
+	 * Default cache size can be set using araqne.confdb.manifest_cache_size
+	 * and araqne.confdb.snapshot_cache_size system properties. Otherwise it is
+	 * 1/heapRatio of max heap, but not less than min bytes. The size is
+	 * shared by all databases in process.
+	 */
+	private static long getDefaultCacheSize(String name, long min, int heapRatio) {
+		String s = System.getProperty("araqne.confdb." + name + "_cache_size");
+		if (s != null) {
+			try {
+				return Long.parseLong(s);
+			} catch (NumberFormatException e) {
+				LoggerFactory.getLogger(FileConfigDatabase.class).warn("araqne confdb: invalid {} cache size [{}]", name, s);
+			}
 		}
 
-		changeMap.put(changeDocId, manifestId);
+		return Math.max(min, Runtime.getRuntime().maxMemory() / heapRatio);
+	}
+
+	/**
+	 * set max memory usage of cache in bytes. caches are shared by all
+	 * databases, so the size is applied to all databases.
+	 * 
+	 * @param name
+	 *            changeset, manifest, snapshot or config
+	 */
+	public void setCacheSize(String name, long maxWeight) {
+		if (name.equals("changeset"))
+			changeCache.getCache().setMaxWeight(maxWeight);
+		else if (name.equals("manifest"))
+			manifestCache.getCache().setMaxWeight(maxWeight);
+		else if (name.equals("snapshot"))
+			snapshotCache.getCache().setMaxWeight(maxWeight);
+		else if (name.equals("config"))
+			configCache.getCache().setMaxWeight(maxWeight);
+		else
+			throw new IllegalArgumentException("unknown cache: " + name);
 	}
 
 	@Override
@@ -894,37 +1056,501 @@ public class FileConfigDatabase implements ConfigDatabase {
 		return dbName + ", changeset=" + (changeset == null ? "tip" : changeset);
 	}
 
-	public List<RevLog> getSnapshotCache(int colId, int manifestId) {
-		ConcurrentMap<SnapshotKey, List<RevLog>> snapshotMap = snapshotCache.get();
-		if (snapshotMap == null) {
-			return null;
+	public List<RevLog> getSnapshotCache(int colId, int generation, int manifestId) {
+		return snapshotCache.get(new SnapshotKey(colId, generation, manifestId));
+	}
+
+	public void setSnapshotCache(int colId, int generation, int manifestId, List<RevLog> snapshot) {
+		snapshotCache.put(new SnapshotKey(colId, generation, manifestId), snapshot);
+	}
+
+	/**
+	 * Derive snapshots of new manifest from cached snapshots of base manifest
+	 * and change set, instead of reading all revision logs again. Should be
+	 * called after collection logs are flushed.
+	 */
+	void deriveSnapshots(int baseManifestId, FileManifest manifest, List<ConfigChange> changeSet) {
+		// collection id to changed doc ids
+		Map<Integer, Set<Integer>> changes = new HashMap<Integer, Set<Integer>>();
+		Set<Integer> recreated = new HashSet<Integer>();
+		for (ConfigChange c : changeSet) {
+			CommitOp op = c.getOperation();
+			if (op == CommitOp.CreateCol || op == CommitOp.DropCol) {
+				recreated.add(c.getColId());
+				continue;
+			}
+
+			Set<Integer> docIds = changes.get(c.getColId());
+			if (docIds == null) {
+				docIds = new HashSet<Integer>();
+				changes.put(c.getColId(), docIds);
+			}
+			docIds.add(c.getDocId());
 		}
 
-		return snapshotMap.get(new SnapshotKey(colId, manifestId));
+		for (String name : manifest.getCollectionNames()) {
+			int colId = manifest.getCollectionId(name);
+			if (recreated.contains(colId))
+				continue;
+
+			// generation is not changed in write locked context
+			int gen = getGeneration(colId);
+			List<RevLog> base = snapshotCache.peek(new SnapshotKey(colId, gen, baseManifestId));
+			if (base == null)
+				continue;
+
+			Set<Integer> docIds = changes.get(colId);
+			if (docIds == null) {
+				setSnapshotCache(colId, gen, manifest.getId(), base);
+				continue;
+			}
+
+			try {
+				setSnapshotCache(colId, gen, manifest.getId(), deriveSnapshot(colId, base, docIds, manifest));
+			} catch (IOException e) {
+				logger.warn("araqne confdb: cannot derive snapshot of db [" + dbName + "] col [" + colId + "]", e);
+			}
+		}
 	}
 
-	public void setSnapshotCache(int colId, int manifestId, List<RevLog> snapshot) {
-		ConcurrentMap<SnapshotKey, List<RevLog>> snapshotMap = snapshotCache.get();
-		if (snapshotMap == null) {
-			snapshotMap = new ConcurrentHashMap<SnapshotKey, List<RevLog>>();
-			snapshotCache = new WeakReference<ConcurrentMap<SnapshotKey, List<RevLog>>>(snapshotMap);
+	// merge changed revision logs into base snapshot, ordered by doc id
+	private List<RevLog> deriveSnapshot(int colId, List<RevLog> base, Set<Integer> docIds, FileManifest manifest)
+			throws IOException {
+		TreeMap<Integer, RevLog> updated = new TreeMap<Integer, RevLog>();
+		RevLogReader reader = null;
+		try {
+			reader = openCollection(colId, false);
+			for (Integer docId : docIds) {
+				ConfigEntry e = manifest.getConfigEntry(colId, docId);
+				if (e != null)
+					updated.put(docId, reader.read(e.getIndex()));
+			}
+		} finally {
+			if (reader != null)
+				reader.close();
+		}
+
+		List<RevLog> snapshot = new ArrayList<RevLog>(base.size() + updated.size());
+		Iterator<RevLog> it = updated.values().iterator();
+		RevLog next = it.hasNext() ? it.next() : null;
+		for (RevLog log : base) {
+			if (docIds.contains(log.getDocId()))
+				continue;
+
+			while (next != null && next.getDocId() < log.getDocId()) {
+				snapshot.add(next);
+				next = it.hasNext() ? it.next() : null;
+			}
+			snapshot.add(log);
 		}
 
-		snapshotMap.put(new SnapshotKey(colId, manifestId), snapshot);
+		while (next != null) {
+			snapshot.add(next);
+			next = it.hasNext() ? it.next() : null;
+		}
+
+		return snapshot;
+	}
+
+	FileConfigIndex getIndex(int colId) {
+		FileConfigIndex index = indexes.get(colId);
+		if (index != null)
+			return index;
+
+		index = new FileConfigIndex(new File(dbDir, "col" + colId + ".idx"));
+		try {
+			index.load();
+		} catch (Throwable t) {
+			// rebuilt on next commit or query
+			logger.warn("araqne confdb: cannot load index of db [" + dbName + "] col [" + colId + "]", t);
+			index.invalidate();
+		}
+
+		FileConfigIndex old = indexes.putIfAbsent(colId, index);
+		return old != null ? old : index;
+	}
+
+	/**
+	 * should be called in write locked context
+	 * 
+	 * @param changes
+	 *            collection id to (doc id to change) map
+	 */
+	void updateIndexes(int baseManifestId, int newManifestId, Map<Integer, Map<Integer, FileConfigIndex.Change>> changes) {
+		for (Integer colId : indexes.keySet()) {
+			FileConfigIndex index = indexes.get(colId);
+			if (!changes.containsKey(colId)) {
+				index.advance(baseManifestId, newManifestId);
+				continue;
+			}
+
+			index.apply(baseManifestId, newManifestId, changes.get(colId));
+			try {
+				index.save();
+			} catch (IOException e) {
+				logger.error("araqne confdb: cannot save index of db [" + dbName + "] col [" + colId + "]", e);
+			}
+		}
+	}
+
+	/**
+	 * doc ids and manifest ids are renumbered by shrink, mark all indexes as
+	 * stale. should be called in write locked context
+	 */
+	private void invalidateIndexes() {
+		File[] files = dbDir.listFiles();
+		if (files == null)
+			return;
+
+		for (File f : files) {
+			String n = f.getName();
+			if (!n.startsWith("col") || !n.endsWith(".idx"))
+				continue;
+
+			try {
+				FileConfigIndex index = getIndex(Integer.valueOf(n.substring(3, n.length() - 4)));
+				index.invalidate();
+				index.save();
+			} catch (NumberFormatException e) {
+			} catch (IOException e) {
+				logger.error("araqne confdb: cannot invalidate index file " + f.getAbsolutePath(), e);
+			}
+		}
+	}
+
+	/**
+	 * @return the current file generation of collection
+	 */
+	int getGeneration(int colId) {
+		Integer gen = generations.get(colId);
+		if (gen != null)
+			return gen;
+
+		return reloadGeneration(colId);
+	}
+
+	/**
+	 * read generation file again, other process may have compacted collection
+	 */
+	int reloadGeneration(int colId) {
+		try {
+			int gen = CollectionFiles.load(dbDir, colId).getGeneration();
+			generations.put(colId, gen);
+			return gen;
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot read generation of db " + dbName + " col " + colId, e);
+		}
+	}
+
+	/**
+	 * Open reader of current collection generation. Old generation files are
+	 * deleted after compaction, so open again if generation is swapped while
+	 * opening.
+	 */
+	RevLogReader openCollection(int colId, boolean mapped) throws IOException {
+		int gen = getGeneration(colId);
+		while (true) {
+			try {
+				RevLogReader reader = new RevLogReader(CollectionFiles.getLogFile(dbDir, colId, gen),
+						CollectionFiles.getDatFile(dbDir, colId, gen), mapped);
+				reader.setGeneration(gen);
+				return reader;
+			} catch (FileNotFoundException e) {
+				int current = reloadGeneration(colId);
+				if (current == gen)
+					throw e;
+				gen = current;
+			}
+		}
+	}
+
+	/**
+	 * swap to new generation, should be called in write locked context
+	 * 
+	 * @param offsets
+	 *            the old doc offset to new doc offset of copied revisions
+	 */
+	void swapGeneration(int colId, int generation, Map<Long, Long> offsets) {
+		generations.put(colId, generation);
+		closeWriter(collectionWriters.remove(colId), false);
+
+		FileConfigIndex index = getIndex(colId);
+		if (index.isEmpty())
+			return;
+
+		index.relocate(offsets);
+		try {
+			index.save();
+		} catch (IOException e) {
+			logger.error("araqne confdb: cannot save index of db [" + dbName + "] col [" + colId + "]", e);
+		}
+	}
+
+	/**
+	 * Return append writer of current collection generation. Writer is kept
+	 * open across transactions, so that commit does not open files and
+	 * allocate buffers again. Should be called in write locked context.
+	 */
+	RevLogWriter getCollectionWriter(int colId) throws IOException {
+		int gen = getGeneration(colId);
+		RevLogWriter writer = collectionWriters.get(colId);
+		writer = reuseWriter(writer, CollectionFiles.getLogFile(dbDir, colId, gen), CollectionFiles.getDatFile(dbDir, colId, gen));
+		collectionWriters.put(colId, writer);
+		return writer;
+	}
+
+	/**
+	 * should be called in write locked context
+	 */
+	RevLogWriter getManifestWriter() throws IOException {
+		manifestWriter = reuseWriter(manifestWriter, manifestLogFile, manifestDatFile);
+		return manifestWriter;
+	}
+
+	/**
+	 * should be called in write locked context
+	 */
+	RevLogWriter getChangeSetWriter() throws IOException {
+		changeWriter = reuseWriter(changeWriter, changeLogFile, changeDatFile);
+		return changeWriter;
+	}
+
+	private RevLogWriter reuseWriter(RevLogWriter writer, File logFile, File datFile) throws IOException {
+		if (writer != null) {
+			if (writer.getLogFile().equals(logFile) && writer.refresh())
+				return writer;
+
+			writer.close();
+		}
+
+		return new RevLogWriter(logFile, datFile);
+	}
+
+	/**
+	 * Close all append writers. Should be called in write locked context before
+	 * files are replaced or deleted.
+	 */
+	void closeWriters() {
+		for (RevLogWriter writer : collectionWriters.values())
+			closeWriter(writer, false);
+		collectionWriters.clear();
+
+		closeWriter(manifestWriter, false);
+		closeWriter(changeWriter, false);
+		manifestWriter = null;
+		changeWriter = null;
+	}
+
+	/**
+	 * Discard uncommitted logs of all append writers and close them. Should be
+	 * called in write locked context after failed transaction, so that
+	 * records of failed operations are not left in collection, manifest and
+	 * change set files.
+	 */
+	void abortWriters() {
+		for (RevLogWriter writer : collectionWriters.values())
+			closeWriter(writer, true);
+		collectionWriters.clear();
+
+		closeWriter(manifestWriter, true);
+		closeWriter(changeWriter, true);
+		manifestWriter = null;
+		changeWriter = null;
+	}
+
+	private void closeWriter(RevLogWriter writer, boolean abort) {
+		if (writer == null)
+			return;
+
+		if (abort)
+			writer.abort();
+		else
+			writer.close();
+	}
+
+	/**
+	 * @return the oldest change set which can be read or rolled back. older
+	 *         revisions are purged by compaction
+	 */
+	public int getRetainedChangeSet() {
+		int horizon = pendingHorizon;
+		File[] files = dbDir.listFiles();
+		if (files == null)
+			return horizon;
+
+		for (File f : files) {
+			String n = f.getName();
+			if (!n.startsWith("col") || !n.endsWith(".gen"))
+				continue;
+
+			try {
+				int colId = Integer.valueOf(n.substring(3, n.length() - 4));
+				horizon = Math.max(horizon, CollectionFiles.load(dbDir, colId).getHorizon());
+			} catch (NumberFormatException e) {
+			} catch (IOException e) {
+				logger.error("araqne confdb: cannot read generation file " + f.getAbsolutePath(), e);
+			}
+		}
+		return horizon;
+	}
+
+	/**
+	 * block rollback to purged change sets before compaction collects live
+	 * revisions. should be called in write locked context
+	 * 
+	 * @return the previous horizon
+	 */
+	int raiseHorizon(int horizon) {
+		int previous = pendingHorizon;
+		if (horizon > previous)
+			pendingHorizon = horizon;
+		return previous;
+	}
+
+	/**
+	 * restore horizon raised by skipped or failed compaction. should be called
+	 * in write locked context
+	 */
+	void restoreHorizon(int horizon, int previous) {
+		if (pendingHorizon == horizon)
+			pendingHorizon = previous;
+	}
+
+	public int getCompactionRetention() {
+		return compactionRetention;
+	}
+
+	/**
+	 * Set the number of recent change sets which compaction keeps. Revisions
+	 * which are referenced only by older change sets are purged, and you
+	 * cannot flashback or rollback to those change sets after compaction.
+	 * 
+	 * @param changeSets
+	 *            the number of retained change sets
+	 */
+	public void setCompactionRetention(int changeSets) {
+		if (changeSets < 1)
+			throw new IllegalArgumentException("retention should be positive");
+		this.compactionRetention = changeSets;
+	}
+
+	/**
+	 * Copy live revisions of collection into new generation files, and swap
+	 * generation. Readers and writers are not blocked except short swap.
+	 * 
+	 * @param colName
+	 *            the collection name
+	 * @return the compaction result
+	 */
+	public CompactionStats compact(String colName) {
+		try {
+			return compactor.compact(colName, 0);
+		} catch (IOException e) {
+			throw new IllegalStateException("cannot compact collection " + colName + " of database " + dbName, e);
+		}
+	}
+
+	/**
+	 * @return the total compaction counters of this database
+	 */
+	public CompactionStats getCompactionStats() {
+		return compactor.getStats();
+	}
+
+	/**
+	 * Compact collections periodically in background thread
+	 * 
+	 * @param interval
+	 *            the compaction interval in milliseconds
+	 * @param minReclaimRatio
+	 *            skip compaction if reclaimable ratio of data file is less
+	 *            than this ratio (0.0 ~ 1.0)
+	 */
+	public synchronized void startCompactor(long interval, double minReclaimRatio) {
+		if (interval <= 0)
+			throw new IllegalArgumentException("interval should be positive");
+
+		stopCompactor();
+		backgroundCompactor = new BackgroundCompactor(interval, minReclaimRatio);
+		backgroundCompactor.start();
+	}
+
+	public synchronized void stopCompactor() {
+		if (backgroundCompactor == null)
+			return;
+
+		backgroundCompactor.close();
+		backgroundCompactor = null;
+	}
+
+	private class BackgroundCompactor extends Thread {
+		private long interval;
+		private double minReclaimRatio;
+		private volatile boolean doStop;
+
+		public BackgroundCompactor(long interval, double minReclaimRatio) {
+			super("Araqne Confdb Compactor [" + dbName + "]");
+			setDaemon(true);
+			this.interval = interval;
+			this.minReclaimRatio = minReclaimRatio;
+		}
+
+		public void close() {
+			doStop = true;
+			interrupt();
+		}
+
+		private void compactAll() {
+			Set<String> names = null;
+			try {
+				names = getManifest(null, true).getCollectionNames();
+			} catch (Throwable t) {
+				logger.error("araqne confdb: cannot read manifest of db [" + dbName + "]", t);
+				return;
+			}
+
+			for (String name : names) {
+				if (doStop)
+					break;
+
+				try {
+					compactor.compact(name, minReclaimRatio);
+				} catch (Throwable t) {
+					logger.error("araqne confdb: cannot compact db [" + dbName + "] col [" + name + "]", t);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!doStop) {
+					Thread.sleep(interval);
+					compactAll();
+				}
+			} catch (InterruptedException e) {
+			}
+		}
 	}
 
 	private void clearAllCaches() {
+		changeCache.clear();
 		manifestCache.clear();
 		snapshotCache.clear();
-		configCache = new FileConfigCache(this);
+		configCache.clear();
 	}
 
+	/**
+	 * doc offsets of snapshot are valid only in the collection file generation
+	 */
 	private static class SnapshotKey {
 		private int colId;
+		private int generation;
 		private int manifestId;
 
-		public SnapshotKey(int colId, int manifestId) {
+		public SnapshotKey(int colId, int generation, int manifestId) {
 			this.colId = colId;
+			this.generation = generation;
 			this.manifestId = manifestId;
 		}
 
@@ -933,6 +1559,7 @@ public class FileConfigDatabase implements ConfigDatabase {
 			final int prime = 31;
 			int result = 1;
 			result = prime * result + colId;
+			result = prime * result + generation;
 			result = prime * result + manifestId;
 			return result;
 		}
@@ -948,6 +1575,8 @@ public class FileConfigDatabase implements ConfigDatabase {
 			SnapshotKey other = (SnapshotKey) obj;
 			if (colId != other.colId)
 				return false;
+			if (generation != other.generation)
+				return false;
 			if (manifestId != other.manifestId)
 				return false;
 			return true;
@@ -0,0 +1,409 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.araqne.codec.EncodingRule;
+import org.araqne.confdb.Predicate;
+import org.araqne.confdb.Predicates;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent equality index of a collection, stored as colN.idx file beside
+ * collection log. Index remembers the data file offset of each indexed
+ * document, and reconciles itself with the snapshot when it does not reflect
+ * the manifest of the snapshot (e.g. commit of other process). Only changed
+ * documents are decoded again in that case.
+ */
+class FileConfigIndex {
+	private final Logger logger = LoggerFactory.getLogger(FileConfigIndex.class.getName());
+
+	private final File file;
+
+	/**
+	 * manifest id which index reflects, -1 if stale
+	 */
+	private int manifestId = -1;
+
+	// doc id to data file offset of indexed revision
+	private Map<Integer, Long> docOffsets = new HashMap<Integer, Long>();
+
+	// underscore field path to field index
+	private Map<String, FieldIndex> fields = new TreeMap<String, FieldIndex>();
+
+	public FileConfigIndex(File file) {
+		this.file = file;
+	}
+
+	public synchronized boolean isEmpty() {
+		return fields.isEmpty();
+	}
+
+	public synchronized Set<String> getFields() {
+		return new TreeSet<String>(fields.keySet());
+	}
+
+	public synchronized int getManifestId() {
+		return manifestId;
+	}
+
+	/**
+	 * add field and rebuild whole index using snapshot of the manifest
+	 */
+	public synchronized void addField(String path, int manifestId, List<RevLog> snapshot, RevLogReader reader)
+			throws IOException {
+		fields.put(path, new FieldIndex(path));
+		invalidate();
+		reconcile(manifestId, snapshot, reader);
+	}
+
+	public synchronized void removeField(String path) {
+		fields.remove(path);
+	}
+
+	public synchronized void invalidate() {
+		manifestId = -1;
+		docOffsets.clear();
+		for (FieldIndex f : fields.values())
+			f.clear();
+	}
+
+	/**
+	 * Filter snapshot using equality terms of predicate. Returned snapshot is
+	 * superset of matched documents, and predicate should be evaluated again.
+	 * 
+	 * @return the filtered snapshot, or original snapshot if index is not
+	 *         applicable
+	 */
+	public synchronized List<RevLog> filter(int manifestId, Predicate pred, List<RevLog> snapshot, RevLogReader reader)
+			throws IOException {
+		if (pred == null || fields.isEmpty())
+			return snapshot;
+
+		Map<String, Set<Object>> terms = new HashMap<String, Set<Object>>();
+		if (!Predicates.collectTerms(pred, terms))
+			return snapshot;
+
+		boolean indexed = false;
+		for (String path : terms.keySet())
+			indexed |= fields.containsKey(path);
+
+		if (!indexed)
+			return snapshot;
+
+		// do not rewind index for old snapshot reader
+		if (this.manifestId != manifestId) {
+			if (manifestId < this.manifestId)
+				return snapshot;
+
+			reconcile(manifestId, snapshot, reader);
+		}
+
+		Set<Integer> candidates = null;
+		for (String path : terms.keySet()) {
+			FieldIndex f = fields.get(path);
+			if (f == null)
+				continue;
+
+			Set<Integer> docIds = new HashSet<Integer>();
+			for (Object value : terms.get(path))
+				f.lookup(value, docIds);
+
+			if (candidates == null)
+				candidates = docIds;
+			else
+				candidates.retainAll(docIds);
+		}
+
+		List<RevLog> filtered = new ArrayList<RevLog>(candidates.size());
+		for (RevLog log : snapshot)
+			if (candidates.contains(log.getDocId()))
+				filtered.add(log);
+
+		if (logger.isDebugEnabled())
+			logger.debug("araqne confdb: index [{}] filtered snapshot [{}] -> [{}]",
+					new Object[] { file.getName(), snapshot.size(), filtered.size() });
+
+		return filtered;
+	}
+
+	/**
+	 * apply committed document changes. manifest id is advanced only if index
+	 * reflected base manifest of the transaction
+	 */
+	public synchronized void apply(int baseManifestId, int newManifestId, Map<Integer, Change> changes) {
+		for (Integer docId : changes.keySet()) {
+			Change c = changes.get(docId);
+			if (c.removed)
+				remove(docId);
+			else
+				put(docId, c.docOffset, EncodingRule.decode(ByteBuffer.wrap(c.doc)));
+		}
+
+		advance(baseManifestId, newManifestId);
+	}
+
+	/**
+	 * commit which does not change this collection
+	 */
+	public synchronized void advance(int baseManifestId, int newManifestId) {
+		if (manifestId == baseManifestId)
+			manifestId = newManifestId;
+	}
+
+	/**
+	 * replace doc offsets after compaction, so that relocated documents are
+	 * not decoded again in reconcile
+	 */
+	public synchronized void relocate(Map<Long, Long> offsets) {
+		for (Map.Entry<Integer, Long> e : docOffsets.entrySet()) {
+			Long offset = offsets.get(e.getValue());
+			if (offset != null)
+				e.setValue(offset);
+		}
+	}
+
+	private void reconcile(int manifestId, List<RevLog> snapshot, RevLogReader reader) throws IOException {
+		int decoded = 0;
+		Set<Integer> live = new HashSet<Integer>();
+		for (RevLog log : snapshot) {
+			live.add(log.getDocId());
+
+			Long offset = docOffsets.get(log.getDocId());
+			if (offset != null && offset == log.getDocOffset())
+				continue;
+
+			byte[] b = reader.readDoc(log.getDocOffset(), log.getDocLength());
+			put(log.getDocId(), log.getDocOffset(), EncodingRule.decode(ByteBuffer.wrap(b)));
+			decoded++;
+		}
+
+		if (docOffsets.size() > live.size()) {
+			for (Integer docId : new ArrayList<Integer>(docOffsets.keySet()))
+				if (!live.contains(docId))
+					remove(docId);
+		}
+
+		this.manifestId = manifestId;
+		if (logger.isDebugEnabled())
+			logger.debug("araqne confdb: reconciled index [{}] for manifest [{}], decoded [{}]",
+					new Object[] { file.getName(), manifestId, decoded });
+	}
+
+	private void put(int docId, long docOffset, Object doc) {
+		docOffsets.put(docId, docOffset);
+		for (FieldIndex f : fields.values())
+			f.put(docId, doc);
+	}
+
+	private void remove(int docId) {
+		docOffsets.remove(docId);
+		for (FieldIndex f : fields.values())
+			f.remove(docId);
+	}
+
+	public synchronized void load() throws IOException {
+		if (!file.exists())
+			return;
+
+		byte[] b = new byte[(int) file.length()];
+		FileInputStream is = null;
+		try {
+			is = new FileInputStream(file);
+			int offset = 0;
+			while (offset < b.length) {
+				int len = is.read(b, offset, b.length - offset);
+				if (len < 0)
+					throw new IOException("unexpected end of index file: " + file.getAbsolutePath());
+				offset += len;
+			}
+		} finally {
+			if (is != null)
+				is.close();
+		}
+
+		Map<String, Object> m = EncodingRule.decodeMap(ByteBuffer.wrap(b));
+		invalidate();
+		fields.clear();
+
+		Object[] docs = (Object[]) m.get("docs");
+		for (int i = 0; i < docs.length; i += 2)
+			docOffsets.put((Integer) docs[i], (Long) docs[i + 1]);
+
+		for (Object o : (Object[]) m.get("fields")) {
+			Object[] arr = (Object[]) o;
+			FieldIndex f = new FieldIndex((String) arr[0]);
+			Object[] pairs = (Object[]) arr[1];
+			for (int i = 0; i < pairs.length; i += 2)
+				f.putValue((Integer) pairs[i], pairs[i + 1]);
+
+			fields.put(f.path, f);
+		}
+
+		manifestId = (Integer) m.get("manifest_id");
+	}
+
+	/**
+	 * should be called in write locked context
+	 */
+	public synchronized void save() throws IOException {
+		if (fields.isEmpty()) {
+			file.delete();
+			return;
+		}
+
+		Object[] docs = new Object[docOffsets.size() * 2];
+		int p = 0;
+		for (Integer docId : docOffsets.keySet()) {
+			docs[p++] = docId;
+			docs[p++] = docOffsets.get(docId);
+		}
+
+		List<Object> l = new ArrayList<Object>(fields.size());
+		for (FieldIndex f : fields.values()) {
+			Object[] pairs = new Object[f.docValues.size() * 2];
+			int i = 0;
+			for (Integer docId : f.docValues.keySet()) {
+				pairs[i++] = docId;
+				pairs[i++] = f.docValues.get(docId);
+			}
+			l.add(new Object[] { f.path, pairs });
+		}
+
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("ver", 1);
+		m.put("manifest_id", manifestId);
+		m.put("docs", docs);
+		m.put("fields", l);
+
+		byte[] b = EncodingRule.encodeBytes(m);
+
+		// write and rename for atomic replace
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		FileOutputStream os = null;
+		try {
+			os = new FileOutputStream(tmp);
+			os.write(b);
+			os.getFD().sync();
+		} finally {
+			if (os != null)
+				os.close();
+		}
+
+		file.delete();
+		if (!tmp.renameTo(file))
+			throw new IOException("cannot rename index file: " + tmp.getAbsolutePath());
+	}
+
+	/**
+	 * document change of a transaction. index keys are taken from the encoded
+	 * bytes which were written, not from the caller's object which can be
+	 * modified after commit
+	 */
+	public static class Change {
+		private long docOffset;
+		private byte[] doc;
+		private boolean removed;
+
+		public Change(long docOffset, byte[] doc, boolean removed) {
+			this.docOffset = docOffset;
+			this.doc = doc;
+			this.removed = removed;
+		}
+	}
+
+	private static class FieldIndex {
+		private String path;
+		private String[] keys;
+
+		// doc id to field value
+		private Map<Integer, Object> docValues = new HashMap<Integer, Object>();
+
+		// field value to doc ids
+		private Map<Object, Set<Integer>> valueDocs = new HashMap<Object, Set<Integer>>();
+
+		public FieldIndex(String path) {
+			this.path = path;
+			this.keys = path.split("/");
+		}
+
+		public void put(int docId, Object doc) {
+			remove(docId);
+			putValue(docId, getValue(doc));
+		}
+
+		private void putValue(int docId, Object value) {
+			docValues.put(docId, value);
+			Set<Integer> docIds = valueDocs.get(value);
+			if (docIds == null) {
+				docIds = new HashSet<Integer>();
+				valueDocs.put(value, docIds);
+			}
+			docIds.add(docId);
+		}
+
+		public void remove(int docId) {
+			if (!docValues.containsKey(docId))
+				return;
+
+			Object old = docValues.remove(docId);
+			Set<Integer> docIds = valueDocs.get(old);
+			if (docIds != null) {
+				docIds.remove(docId);
+				if (docIds.isEmpty())
+					valueDocs.remove(old);
+			}
+		}
+
+		public void lookup(Object value, Set<Integer> docIds) {
+			Set<Integer> s = valueDocs.get(value);
+			if (s != null)
+				docIds.addAll(s);
+		}
+
+		public void clear() {
+			docValues.clear();
+			valueDocs.clear();
+		}
+
+		// same as Predicates.getValue(), missing field is null
+		@SuppressWarnings("unchecked")
+		private Object getValue(Object doc) {
+			Object value = doc;
+			for (String k : keys) {
+				if (!(value instanceof Map))
+					return null;
+
+				value = ((Map<String, Object>) value).get(k);
+			}
+			return value;
+		}
+	}
+}
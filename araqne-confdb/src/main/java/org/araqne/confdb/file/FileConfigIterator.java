@@ -19,10 +19,13 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
+import org.araqne.api.PrimitiveConverter;
 import org.araqne.api.PrimitiveParseCallback;
 import org.araqne.codec.EncodingRule;
 import org.araqne.confdb.Config;
@@ -34,6 +37,7 @@ import org.araqne.confdb.ConfigParser;
 import org.araqne.confdb.Manifest;
 import org.araqne.confdb.ObjectBuilder;
 import org.araqne.confdb.Predicate;
+import org.araqne.confdb.Predicates;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -48,12 +52,27 @@ class FileConfigIterator implements ConfigIterator {
 	private final Logger logger = LoggerFactory.getLogger(FileConfigIterator.class.getName());
 	private ConfigDatabase db;
 	private ConfigCache cache;
+	private FileConfigCache offsetCache;
+	private int colId;
 	private int manifestId;
 	private ConfigCollection col;
 	private String colName;
 	private RevLogReader reader;
 	private Iterator<RevLog> it;
 	private Predicate pred;
+
+	// evaluate predicate against encoded document before decoding
+	private boolean encodedEval;
+
+	// underscore field paths of projection, null for whole document
+	private String[][] projection;
+
+	// return encoded map and array views instead of decoding whole document
+	private boolean viewMode;
+
+	// parse uncached documents into objects of this class directly
+	private Class<?> objectClass;
+	private PrimitiveParseCallback objectCallback;
 	private Config prefetch;
 	private boolean loaded;
 	private boolean closed;
@@ -65,10 +84,17 @@ class FileConfigIterator implements ConfigIterator {
 		this.manifestId = manifest.getId();
 		this.cache = db.getCache();
 		this.col = col;
+
+		// data file offset is stable across manifests
+		if (cache instanceof FileConfigCache && col instanceof FileConfigCollection) {
+			this.offsetCache = (FileConfigCache) cache;
+			this.colId = ((FileConfigCollection) col).getId();
+		}
 		this.colName = col.getName();
 		this.reader = reader;
 		this.it = snapshot.iterator();
 		this.pred = pred;
+		this.encodedEval = pred != null && Predicates.isEncodedEvaluable(pred);
 
 		if (logger.isDebugEnabled())
 			logger.debug("araqne confdb: db [{}], col [{}], snapshot size [{}], iterator hash code [{}]",
@@ -118,14 +144,15 @@ class FileConfigIterator implements ConfigIterator {
 		Config matched = null;
 		while (it.hasNext()) {
 			Config c = getNextConfig();
+			if (c == null)
+				continue;
+
 			if (logger.isDebugEnabled())
 				logger.debug("araqne confdb: db [{}], col [{}], config [{}]",
 						new Object[] { db.getName(), col.getName(), c.getDocument() });
 
-			if (pred == null || pred.eval(c)) {
-				matched = c.duplicate();
-				break;
-			}
+			matched = c;
+			break;
 		}
 
 		loaded = (matched != null);
@@ -136,22 +163,143 @@ class FileConfigIterator implements ConfigIterator {
 		return matched;
 	}
 
+	/**
+	 * @return the next config if matched, or null if predicate rejected it
+	 */
 	private Config getNextConfig() throws IOException {
 		RevLog log = it.next();
 
-		// check cache
-		Config cachedConfig = cache.findEntry(colName, manifestId, log.getDocId(), log.getRev());
+		Config cachedConfig = findCache(log);
 		if (cachedConfig != null) {
 			Object doc = cachedConfig.getDocument();
-			return new FileConfig(db, col, log.getDocId(), log.getRev(), log.getPrevRev(), doc, parser);
+			FileConfig config = new FileConfig(db, col, log.getDocId(), log.getRev(), log.getPrevRev(), doc, parser);
+			if (pred != null && !pred.eval(config))
+				return null;
+
+			// cached document is copied only when caller gets it
+			return project(config).share();
+		}
+
+		// fetch doc binary, and decode only if it matches
+		byte[] b = readDoc(log);
+		ByteBuffer bb = ByteBuffer.wrap(b);
+		if (encodedEval && !Predicates.eval(pred, bb))
+			return null;
+
+		// object is parsed from binary without intermediate map, and is not
+		// cached
+		if (objectClass != null && projection == null && (pred == null || encodedEval)) {
+			Object obj = ObjectCodec.decode(objectClass, bb, objectCallback);
+			return new FileConfig(db, col, log.getDocId(), log.getRev(), log.getPrevRev(), obj, parser);
+		}
+
+		// projected document is partial, do not cache it
+		if (projection != null && (pred == null || encodedEval) && b.length > 0 && b[0] == EncodingRule.MAP_TYPE) {
+			Map<String, Object> m = new HashMap<String, Object>();
+			for (String[] keys : projection) {
+				int pos = EncodingRule.findField(bb, keys);
+				if (pos < 0)
+					continue;
+
+				ByteBuffer value = bb.duplicate();
+				value.position(pos);
+				putValue(m, keys, EncodingRule.decode(value));
+			}
+			return new FileConfig(db, col, log.getDocId(), log.getRev(), log.getPrevRev(), m, parser);
 		}
 
-		// fetch doc binary and decode it
-		byte[] b = reader.readDoc(log.getDocOffset(), log.getDocLength());
-		Object doc = EncodingRule.decode(ByteBuffer.wrap(b));
+		// views share the read buffer and are not cached
+		if (viewMode) {
+			Object doc = EncodingRule.decodeView(bb);
+			FileConfig config = new FileConfig(db, col, log.getDocId(), log.getRev(), log.getPrevRev(), doc, parser);
+			if (!encodedEval && pred != null && !pred.eval(config))
+				return null;
+
+			return project(config);
+		}
+
+		// returned config should not be the cached instance, since it replaces
+		// document with copy on first access
+		Object doc = EncodingRule.decode(bb);
+		FileConfig cached = new FileConfig(db, col, log.getDocId(), log.getRev(), log.getPrevRev(), doc, parser);
+		if (offsetCache != null)
+			offsetCache.putEntry(colId, log, cached);
+		else
+			cache.putEntry(colName, manifestId, cached);
+
 		FileConfig config = new FileConfig(db, col, log.getDocId(), log.getRev(), log.getPrevRev(), doc, parser);
-		cache.putEntry(colName, manifestId, config);
-		return config;
+
+		if (!encodedEval && pred != null && !pred.eval(config))
+			return null;
+
+		return project(config).share();
+	}
+
+	private byte[] readDoc(RevLog log) throws IOException {
+		// flashback to change set older than compaction retention
+		if (log.isPurged())
+			throw new IllegalStateException("revision " + log.getRev() + " of doc " + log.getDocId() + " in collection "
+					+ colName + " is purged by compaction");
+
+		return reader.readDoc(log.getDocOffset(), log.getDocLength());
+	}
+
+	private Config findCache(RevLog log) {
+		if (offsetCache != null)
+			return offsetCache.findEntry(colId, log);
+		else
+			return cache.findEntry(colName, manifestId, log.getDocId(), log.getRev());
+	}
+
+	private boolean matches(RevLog log) throws IOException {
+		if (pred == null)
+			return true;
+
+		Config cachedConfig = findCache(log);
+		if (cachedConfig != null)
+			return pred.eval(new FileConfig(db, col, log.getDocId(), log.getRev(), log.getPrevRev(),
+					cachedConfig.getDocument(), parser));
+
+		byte[] b = readDoc(log);
+		return Predicates.eval(pred, ByteBuffer.wrap(b));
+	}
+
+	@SuppressWarnings("unchecked")
+	private FileConfig project(FileConfig config) {
+		Object doc = config.getDocument();
+		if (projection == null || !(doc instanceof Map))
+			return config;
+
+		Map<String, Object> m = new HashMap<String, Object>();
+		for (String[] keys : projection) {
+			Object value = doc;
+			boolean found = true;
+			for (String k : keys) {
+				if (!(value instanceof Map) || !((Map<String, Object>) value).containsKey(k)) {
+					found = false;
+					break;
+				}
+				value = ((Map<String, Object>) value).get(k);
+			}
+
+			if (found)
+				putValue(m, keys, value);
+		}
+
+		return new FileConfig(db, col, config.getId(), config.getRevision(), config.getPrevRevision(), m, parser);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void putValue(Map<String, Object> m, String[] keys, Object value) {
+		for (int i = 0; i < keys.length - 1; i++) {
+			Object child = m.get(keys[i]);
+			if (!(child instanceof Map)) {
+				child = new HashMap<String, Object>();
+				m.put(keys[i], child);
+			}
+			m = (Map<String, Object>) child;
+		}
+		m.put(keys[keys.length - 1], value);
 	}
 
 	@Override
@@ -164,6 +312,28 @@ class FileConfigIterator implements ConfigIterator {
 		this.parser = parser;
 	}
 
+	/**
+	 * Read-mostly consumers such as export can iterate documents as
+	 * {@link org.araqne.codec.EncodedMap} and
+	 * {@link org.araqne.codec.EncodedArray} views. Views are read-only, and
+	 * fields are decoded on access.
+	 */
+	void setViewMode(boolean viewMode) {
+		this.viewMode = viewMode;
+	}
+
+	@Override
+	public void setProjection(String... fields) {
+		if (fields == null) {
+			projection = null;
+			return;
+		}
+
+		projection = new String[fields.length][];
+		for (int i = 0; i < fields.length; i++)
+			projection[i] = PrimitiveConverter.toUnderscoreName(fields[i]).split("/");
+	}
+
 	@Override
 	public List<Config> getConfigs(int offset, int limit) {
 		try {
@@ -212,6 +382,11 @@ class FileConfigIterator implements ConfigIterator {
 
 	@Override
 	public <T> Collection<T> getDocuments(Class<T> cls, PrimitiveParseCallback callback, int offset, int limit) {
+		if (parser == null) {
+			objectClass = cls;
+			objectCallback = callback;
+		}
+
 		try {
 			int p = 0;
 			int count = 0;
@@ -267,8 +442,11 @@ class FileConfigIterator implements ConfigIterator {
 
 		try {
 			while (it.hasNext()) {
-				Config c = getNextConfig();
-				if (pred == null || pred.eval(c))
+				// no need to decode documents if predicate is encoded evaluable
+				if (pred == null || encodedEval) {
+					if (matches(it.next()))
+						total++;
+				} else if (getNextConfig() != null)
 					total++;
 			}
 		} catch (IOException e) {
@@ -16,8 +16,11 @@
 package org.araqne.confdb.file;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -35,33 +38,34 @@ public class FileConfigTransaction implements ConfigTransaction {
 
 	private Manifest manifest;
 
-	private List<ConfigChange> changeSet;
+	private int baseManifestId;
 
-	private File changeLogFile;
-	private File changeDatFile;
-	private File manifestLogFile;
-	private File manifestDatFile;
+	private List<ConfigChange> changeSet;
 
 	private Map<File, RevLogWriter> writers;
+	private RevLogWriter manifestWriter;
+	private RevLogWriter changeWriter;
 	private ConfigTransactionCache cache;
 
+	// collection id to (doc id to change) map for index maintenance
+	private Map<Integer, Map<Integer, FileConfigIndex.Change>> indexChanges;
+
+	// true if write lock is released by close() or rollback()
+	private boolean closed;
+
 	public FileConfigTransaction(FileConfigDatabase db, int timeout) {
 		db.lock(timeout);
 
 		this.db = db;
 		this.cache = new FileConfigTransactionCache();
-		File dbDir = db.getDbDirectory();
 
 		// TODO: apply changeset rev
 		manifest = ((FileManifest) db.getManifest(null)).duplicate();
+		baseManifestId = manifest.getId();
 		changeSet = new ArrayList<ConfigChange>();
 
-		changeLogFile = new File(dbDir, "changeset.log");
-		changeDatFile = new File(dbDir, "changeset.dat");
-		manifestLogFile = new File(dbDir, "manifest.log");
-		manifestDatFile = new File(dbDir, "manifest.dat");
-
 		writers = new HashMap<File, RevLogWriter>();
+		indexChanges = new HashMap<Integer, Map<Integer, FileConfigIndex.Change>>();
 	}
 
 	@Deprecated
@@ -114,24 +118,94 @@ public class FileConfigTransaction implements ConfigTransaction {
 		changeSet.add(new ConfigChange(op, col.getName(), col.getId(), docId));
 	}
 
+	/**
+	 * log document change of indexed collection. applied to index at commit
+	 */
+	public void logIndex(int colId, int docId, FileConfigIndex.Change change) {
+		Map<Integer, FileConfigIndex.Change> changes = indexChanges.get(colId);
+		if (changes == null) {
+			changes = new LinkedHashMap<Integer, FileConfigIndex.Change>();
+			indexChanges.put(colId, changes);
+		}
+		changes.put(docId, change);
+	}
+
 	@Override
 	public void commit(String committer, String log) {
 		try {
-			Manifest manifest = FileManifest.writeManifest(this.manifest, manifestLogFile, manifestDatFile);
-			ChangeSetWriter.log(changeLogFile, changeDatFile, changeSet, manifest.getId(), committer, log);
+			flush(committer, log);
 			// do not move this code to finally block. rollback should be called
 			// after exception throwing
-			closeWriters();
-			db.unlock();
+			close();
 		} catch (Exception e) {
 			throw new IllegalStateException(e);
 		}
 	}
 
+	/**
+	 * Write manifest and change set of logged changes, but keep writers and
+	 * write lock. Group commit calls this for each change set of a batch, and
+	 * ends transaction using close().
+	 */
+	void flush(String committer, String log) throws IOException {
+		Durability durability = db.getDurability();
+
+		// documents and manifest should be visible before change set
+		Durability barrier = durability == Durability.Fsync ? Durability.Fsync : Durability.Flush;
+		for (RevLogWriter writer : writers.values())
+			writer.commit(barrier);
+
+		if (manifestWriter == null)
+			manifestWriter = db.getManifestWriter();
+
+		Manifest manifest = FileManifest.writeManifest(this.manifest, manifestWriter);
+		manifestWriter.commit(barrier);
+
+		if (changeWriter == null)
+			changeWriter = db.getChangeSetWriter();
+
+		ChangeSetWriter.log(changeWriter, changeSet, manifest.getId(), committer, log, new Date());
+		changeWriter.commit(durability);
+
+		db.updateIndexes(baseManifestId, manifest.getId(), indexChanges);
+		db.deriveSnapshots(baseManifestId, (FileManifest) manifest, changeSet);
+
+		baseManifestId = manifest.getId();
+		changeSet = new ArrayList<ConfigChange>();
+		indexChanges = new HashMap<Integer, Map<Integer, FileConfigIndex.Change>>();
+	}
+
+	/**
+	 * Release writers and write lock after flush(). If writers cannot be
+	 * released, write lock is kept and rollback() should be called.
+	 */
+	void close() {
+		try {
+			releaseWriters();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+
+		closed = true;
+		db.unlock();
+	}
+
 	@Override
 	public void rollback() {
-		closeWriters();
-		db.unlock();
+		if (closed)
+			return;
+
+		writers.clear();
+		manifestWriter = null;
+		changeWriter = null;
+
+		// discard logs of shared writers after last flush()
+		closed = true;
+		try {
+			db.abortWriters();
+		} finally {
+			db.unlock();
+		}
 	}
 
 	@Override
@@ -139,11 +213,22 @@ public class FileConfigTransaction implements ConfigTransaction {
 		return cache;
 	}
 
-	private void closeWriters() {
-		for (RevLogWriter writer : writers.values()) {
-			writer.close();
-		}
+	// writers are owned by database and kept open. flush in order of
+	// documents, manifest and change set
+	private void releaseWriters() throws IOException {
+		for (RevLogWriter writer : writers.values())
+			writer.flush();
 
 		writers.clear();
+
+		if (manifestWriter != null) {
+			manifestWriter.flush();
+			manifestWriter = null;
+		}
+
+		if (changeWriter != null) {
+			changeWriter.flush();
+			changeWriter = null;
+		}
 	}
 }
@@ -35,6 +35,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 class FileManifest implements Manifest {
+	/**
+	 * max number of deltas between full manifest checkpoints
+	 */
+	public static final int CHECKPOINT_INTERVAL = 64;
+
 	private int version;
 
 	private int id;
@@ -44,11 +49,30 @@ class FileManifest implements Manifest {
 	// col id -> (doc id -> entry) map
 	private Map<Integer, Map<Integer, ConfigEntry>> configMap = new TreeMap<Integer, Map<Integer, ConfigEntry>>();
 
+	// the number of deltas since checkpoint
+	private int depth;
+
+	// true if changes should be written as delta
+	private boolean tracking;
+
+	// changes since last written manifest, null if checkpoint is required
+	private ManifestDelta delta;
+
+	/**
+	 * duplicate manifest for transaction. changes of duplicated manifest are
+	 * tracked and written as delta.
+	 */
 	public FileManifest duplicate() {
 		FileManifest dup = new FileManifest();
 
 		dup.id = id;
 		dup.version = version;
+		dup.depth = depth;
+		dup.tracking = true;
+
+		// legacy or empty manifest is upgraded by checkpoint
+		if (version >= 3 && id > 0)
+			dup.delta = new ManifestDelta(id, depth + 1);
 		dup.colMap = new TreeMap<Integer, CollectionEntry>(colMap);
 		dup.configMap = new TreeMap<Integer, Map<Integer, ConfigEntry>>();
 
@@ -64,15 +88,17 @@ class FileManifest implements Manifest {
 		final Logger logger = LoggerFactory.getLogger(FileManifest.class);
 		for (String name : manifest.getCollectionNames()) {
 			CollectionEntry col = manifest.getCollectionEntry(name);
-			File logFile = new File(dbDir, "col" + col.getId() + ".log");
-			File datFile = new File(dbDir, "col" + col.getId() + ".dat");
-
-			if (!logFile.exists() || !datFile.exists())
-				continue;
-
 			RevLogReader reader = null;
 			try {
-				reader = new RevLogReader(logFile, datFile);
+				// compaction keeps log index of all revisions
+				int gen = CollectionFiles.load(dbDir, col.getId()).getGeneration();
+				File logFile = CollectionFiles.getLogFile(dbDir, col.getId(), gen);
+				File datFile = CollectionFiles.getDatFile(dbDir, col.getId(), gen);
+
+				if (!logFile.exists() || !datFile.exists())
+					continue;
+
+				reader = new RevLogReader(logFile, datFile, true);
 				// build map
 				Map<ConfigEntry, Long> indexMap = new HashMap<ConfigEntry, Long>();
 				long count = reader.count();
@@ -113,11 +139,96 @@ class FileManifest implements Manifest {
 		RevLog log = new RevLog();
 		log.setRev(1);
 		log.setOperation(CommitOp.CreateDoc);
-		log.setDoc(manifest.serialize());
 
-		manifest.setId(writer.write(log));
-		return manifest;
+		if (!(manifest instanceof FileManifest)) {
+			log.setDoc(manifest.serialize());
+			manifest.setId(writer.write(log));
+			return manifest;
+		}
+
+		FileManifest m = (FileManifest) manifest;
+		ManifestDelta delta = m.delta;
+
+		// write checkpoint if delta is as large as full manifest
+		boolean checkpoint = delta == null || delta.getDepth() > CHECKPOINT_INTERVAL
+				|| delta.size() * 2 > m.getConfigCount();
 
+		log.setDoc(checkpoint ? m.serialize() : delta.serialize());
+
+		int id = writer.write(log);
+		m.setId(id);
+		m.setVersion(3);
+		m.depth = checkpoint ? 0 : delta.getDepth();
+		m.delta = m.tracking ? new ManifestDelta(id, m.depth + 1) : null;
+		return m;
+	}
+
+	/**
+	 * Read manifest of specified id. Delta manifest is reconstructed by
+	 * applying deltas to the nearest checkpoint, or cached manifest if
+	 * database is specified.
+	 */
+	public static FileManifest readManifest(RevLogReader reader, int manifestId, File dbDir, boolean noConfigs,
+			FileConfigDatabase db) throws IOException {
+		List<ManifestDelta> deltas = new ArrayList<ManifestDelta>();
+		FileManifest base = null;
+		int id = manifestId;
+
+		while (true) {
+			FileManifest cached = db != null && id != manifestId ? db.getManifestCache(id) : null;
+			if (cached != null) {
+				base = cached.duplicate();
+				base.tracking = false;
+				base.delta = null;
+				break;
+			}
+
+			byte[] doc = readDoc(reader, id);
+			Object o = EncodingRule.decode(ByteBuffer.wrap(doc), new FileManifestCodec());
+			if (o instanceof ManifestDelta) {
+				ManifestDelta delta = (ManifestDelta) o;
+				delta.setId(id);
+				deltas.add(delta);
+				id = delta.getBaseId();
+				continue;
+			}
+
+			base = deserialize(doc, noConfigs);
+
+			// legacy format upgrade
+			if (base.getVersion() == 1)
+				upgradeManifest(base, dbDir);
+
+			base.setId(id);
+			break;
+		}
+
+		for (int i = deltas.size() - 1; i >= 0; i--) {
+			ManifestDelta delta = deltas.get(i);
+			delta.applyTo(base);
+			base.setId(delta.getId());
+			base.depth = delta.getDepth();
+		}
+
+		return base;
+	}
+
+	private static byte[] readDoc(RevLogReader reader, int manifestId) throws IOException {
+		// manifest id is sequential log index, fallback to lookup
+		RevLog revlog = null;
+		if (manifestId > 0 && manifestId <= reader.count()) {
+			revlog = reader.read(manifestId - 1);
+			if (revlog.getDocId() != manifestId)
+				revlog = null;
+		}
+
+		if (revlog == null)
+			revlog = reader.findDoc(manifestId);
+
+		if (revlog == null)
+			throw new IOException("manifest-broken");
+
+		return reader.readDoc(revlog.getDocOffset(), revlog.getDocLength());
 	}
 
 	public FileManifest() {
@@ -146,12 +257,18 @@ class FileManifest implements Manifest {
 	public void add(CollectionEntry e) {
 		colMap.put(e.getId(), e);
 		configMap.put(e.getId(), new TreeMap<Integer, ConfigEntry>());
+
+		if (delta != null)
+			delta.add(e);
 	}
 
 	@Override
 	public void remove(CollectionEntry e) {
 		colMap.remove(e.getId());
 		configMap.remove(e.getId());
+
+		if (delta != null)
+			delta.remove(e);
 	}
 
 	@Override
@@ -162,8 +279,8 @@ class FileManifest implements Manifest {
 
 		m.put(e.getDocId(), e);
 
-		if (m.size() > 65535)
-			throw new IllegalStateException("cannot add more than 65535 docs");
+		if (delta != null)
+			delta.add(e);
 	}
 
 	@Override
@@ -173,6 +290,9 @@ class FileManifest implements Manifest {
 			throw new IllegalStateException("col not found: " + e.getColId());
 
 		m.remove(e.getDocId());
+
+		if (delta != null)
+			delta.remove(e);
 	}
 
 	@Override
@@ -203,6 +323,24 @@ class FileManifest implements Manifest {
 		return new ArrayList<ConfigEntry>(m.values());
 	}
 
+	/**
+	 * @return the config entry, or null if not found
+	 */
+	public ConfigEntry getConfigEntry(int colId, int docId) {
+		Map<Integer, ConfigEntry> m = configMap.get(colId);
+		return m == null ? null : m.get(docId);
+	}
+
+	/**
+	 * @return the number of config entries of all collections
+	 */
+	public int getConfigCount() {
+		int count = 0;
+		for (Map<Integer, ConfigEntry> m : configMap.values())
+			count += m.size();
+		return count;
+	}
+
 	public String getCollectionName(int id) {
 		CollectionEntry e = colMap.get(id);
 		if (e == null)
@@ -243,6 +381,9 @@ class FileManifest implements Manifest {
 		if (doc instanceof FileManifest)
 			return (FileManifest) doc;
 
+		if (doc instanceof ManifestDelta)
+			throw new IOException("manifest delta cannot be read without base manifest");
+
 		@SuppressWarnings("unchecked")
 		Map<String, Object> m = (Map<String, Object>) doc;
 		FileManifest manifest = new FileManifest();
@@ -25,9 +25,16 @@ import org.araqne.confdb.CollectionEntry;
 import org.araqne.confdb.ConfigEntry;
 
 public class FileManifestCodec implements CustomCodec {
+	private static final byte CHECKPOINT = 0;
+	private static final byte DELTA = 1;
 
 	@Override
 	public void encode(ByteBuffer bb, Object value) {
+		if (value instanceof ManifestDelta) {
+			encodeDelta(bb, (ManifestDelta) value);
+			return;
+		}
+
 		if (!(value instanceof FileManifest))
 			throw new UnsupportedTypeException(value.toString());
 
@@ -35,34 +42,74 @@ public class FileManifestCodec implements CustomCodec {
 
 		// type byte
 		bb.put((byte) 200);
-		
-		// version 2
-		bb.put((byte) 2);
-		
+
+		// version 3, full checkpoint
+		bb.put((byte) 3);
+		bb.put(CHECKPOINT);
+
 		// collection count
-		bb.putShort((short) manifest.getCollectionNames().size());
+		bb.putInt(manifest.getCollectionNames().size());
 
 		try {
 			for (String colName : manifest.getCollectionNames()) {
 				CollectionEntry colEntry = manifest.getCollectionEntry(colName);
 				byte[] nameBytes = colName.getBytes("utf-8");
-				bb.putShort((short) colEntry.getId());
+				bb.putInt(colEntry.getId());
 				bb.putShort((short) nameBytes.length);
 				bb.put(nameBytes);
 
 				List<ConfigEntry> configs = manifest.getConfigEntries(colName);
-				bb.putShort((short) configs.size());
+				bb.putInt(configs.size());
 
-				for (ConfigEntry config : configs) {
-					bb.putInt(config.getDocId());
-					bb.putLong(config.getRev());
-					bb.putInt(config.getIndex());
+				for (ConfigEntry config : configs)
+					encodeConfig(bb, config);
+			}
+		} catch (UnsupportedEncodingException e) {
+		}
+	}
+
+	private void encodeDelta(ByteBuffer bb, ManifestDelta delta) {
+		bb.put((byte) 200);
+		bb.put((byte) 3);
+		bb.put(DELTA);
+
+		bb.putInt(delta.getBaseId());
+		bb.putInt(delta.getDepth());
+		bb.putInt(delta.size());
+
+		try {
+			for (ManifestDelta.Op op : delta.getOps()) {
+				bb.put((byte) op.getCode());
+				switch (op.getCode()) {
+				case ManifestDelta.ADD_COL:
+					byte[] nameBytes = op.getCollectionEntry().getName().getBytes("utf-8");
+					bb.putInt(op.getCollectionEntry().getId());
+					bb.putShort((short) nameBytes.length);
+					bb.put(nameBytes);
+					break;
+				case ManifestDelta.REMOVE_COL:
+					bb.putInt(op.getCollectionEntry().getId());
+					break;
+				case ManifestDelta.ADD_CONFIG:
+					bb.putInt(op.getConfigEntry().getColId());
+					encodeConfig(bb, op.getConfigEntry());
+					break;
+				case ManifestDelta.REMOVE_CONFIG:
+					bb.putInt(op.getConfigEntry().getColId());
+					bb.putInt(op.getConfigEntry().getDocId());
+					break;
 				}
 			}
 		} catch (UnsupportedEncodingException e) {
 		}
 	}
 
+	private void encodeConfig(ByteBuffer bb, ConfigEntry config) {
+		bb.putInt(config.getDocId());
+		bb.putLong(config.getRev());
+		bb.putInt(config.getIndex());
+	}
+
 	@Override
 	public Object decode(ByteBuffer bb) {
 		byte type = bb.get();
@@ -70,6 +117,13 @@ public class FileManifestCodec implements CustomCodec {
 			throw new UnsupportedTypeException("not supported type: " + type);
 
 		int version = bb.get();
+		if (version == 3) {
+			byte kind = bb.get();
+			if (kind == DELTA)
+				return decodeDelta(bb);
+			return decodeCheckpoint(bb);
+		}
+
 		int colCount = bb.getShort() & 0xffff;
 
 		FileManifest manifest = new FileManifest();
@@ -96,15 +150,90 @@ public class FileManifestCodec implements CustomCodec {
 		return manifest;
 	}
 
+	private FileManifest decodeCheckpoint(ByteBuffer bb) {
+		FileManifest manifest = new FileManifest();
+		manifest.setVersion(3);
+
+		int colCount = bb.getInt();
+		for (int i = 0; i < colCount; i++) {
+			int colId = bb.getInt();
+			String name = decodeName(bb);
+			manifest.add(new CollectionEntry(colId, name));
+
+			int configCount = bb.getInt();
+			for (int j = 0; j < configCount; j++)
+				manifest.add(decodeConfig(bb, colId));
+		}
+
+		return manifest;
+	}
+
+	private ManifestDelta decodeDelta(ByteBuffer bb) {
+		int baseId = bb.getInt();
+		int depth = bb.getInt();
+		int count = bb.getInt();
+
+		ManifestDelta delta = new ManifestDelta(baseId, depth);
+		for (int i = 0; i < count; i++) {
+			int code = bb.get();
+			switch (code) {
+			case ManifestDelta.ADD_COL: {
+				int colId = bb.getInt();
+				delta.add(new CollectionEntry(colId, decodeName(bb)));
+				break;
+			}
+			case ManifestDelta.REMOVE_COL:
+				delta.remove(new CollectionEntry(bb.getInt(), null));
+				break;
+			case ManifestDelta.ADD_CONFIG: {
+				int colId = bb.getInt();
+				delta.add(decodeConfig(bb, colId));
+				break;
+			}
+			case ManifestDelta.REMOVE_CONFIG: {
+				int colId = bb.getInt();
+				delta.remove(new ConfigEntry(colId, bb.getInt(), 0));
+				break;
+			}
+			default:
+				throw new UnsupportedTypeException("not supported manifest delta op: " + code);
+			}
+		}
+
+		return delta;
+	}
+
+	private String decodeName(ByteBuffer bb) {
+		int nameLength = bb.getShort() & 0xffff;
+		byte[] nameBytes = new byte[nameLength];
+		bb.get(nameBytes);
+		try {
+			return new String(nameBytes, "utf-8");
+		} catch (UnsupportedEncodingException e) {
+			return new String(nameBytes);
+		}
+	}
+
+	private ConfigEntry decodeConfig(ByteBuffer bb, int colId) {
+		int docId = bb.getInt();
+		long rev = bb.getLong();
+		int index = bb.getInt();
+		return new ConfigEntry(colId, docId, rev, index);
+	}
+
 	@Override
 	public int lengthOf(Object value) {
+		if (value instanceof ManifestDelta)
+			return lengthOfDelta((ManifestDelta) value);
+
 		FileManifest manifest = (FileManifest) value;
 
-		int total = 4; // type 1byte + version 1byte + col count 2byte
+		// type 1byte + version 1byte + kind 1byte + col count 4byte
+		int total = 7;
 		try {
 			for (String colName : manifest.getCollectionNames()) {
-				// col id (2b), name len (2b), name, config count (2b)
-				total += 6 + colName.getBytes("utf-8").length;
+				// col id (4b), name len (2b), name, config count (4b)
+				total += 10 + colName.getBytes("utf-8").length;
 				total += 16 * manifest.getConfigEntries(colName).size();
 			}
 		} catch (UnsupportedEncodingException e) {
@@ -113,6 +242,33 @@ public class FileManifestCodec implements CustomCodec {
 		return total;
 	}
 
+	private int lengthOfDelta(ManifestDelta delta) {
+		// type, version, kind, base id (4b), depth (4b), op count (4b)
+		int total = 15;
+		try {
+			for (ManifestDelta.Op op : delta.getOps()) {
+				total++;
+				switch (op.getCode()) {
+				case ManifestDelta.ADD_COL:
+					total += 6 + op.getCollectionEntry().getName().getBytes("utf-8").length;
+					break;
+				case ManifestDelta.REMOVE_COL:
+					total += 4;
+					break;
+				case ManifestDelta.ADD_CONFIG:
+					total += 20;
+					break;
+				case ManifestDelta.REMOVE_CONFIG:
+					total += 8;
+					break;
+				}
+			}
+		} catch (UnsupportedEncodingException e) {
+		}
+
+		return total;
+	}
+
 	@Override
 	public int getObjectLength(ByteBuffer bb) {
 		return 0;
@@ -48,15 +48,7 @@ public class FileManifestIterator implements ManifestIterator {
 	public Manifest next() {
 		try {
 			int manifestId = it.next();
-			RevLog revlog = manifestReader.findDoc(manifestId);
-			byte[] doc = manifestReader.readDoc(revlog.getDocOffset(), revlog.getDocLength());
-			FileManifest manifest = FileManifest.deserialize(doc);
-
-			if (manifest.getVersion() == 1)
-				FileManifest.upgradeManifest(manifest, dbDir);
-
-			manifest.setId(manifestId);
-			return manifest;
+			return FileManifest.readManifest(manifestReader, manifestId, dbDir, false, null);
 		} catch (IOException e) {
 			throw new IllegalStateException(e);
 		}
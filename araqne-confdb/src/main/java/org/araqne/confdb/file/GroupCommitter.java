@@ -0,0 +1,298 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.araqne.confdb.Config;
+import org.araqne.confdb.RollbackException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Batches concurrent implicit transactions into one write lock acquisition.
+ * First waiting committer becomes leader and runs queued operations in a
+ * shared transaction, and consecutive operations of same committer and log
+ * message are committed as one manifest and change set append. Other
+ * committers wait until their operations are committed by leader.
+ * <p>
+ * If an operation fails, the transaction is rolled back so that partial
+ * writes of the failed operation are discarded, and operations which are not
+ * flushed yet are run again in new transaction. Leader does not wait for
+ * more operations unless other committers were seen recently.
+ */
+class GroupCommitter {
+	private final Logger logger = LoggerFactory.getLogger(GroupCommitter.class.getName());
+
+	private final FileConfigDatabase db;
+
+	private final int maxBatchSize;
+
+	/**
+	 * max milliseconds to wait for more operations before batch run
+	 */
+	private final int maxDelay;
+
+	private final LinkedList<Request> queue = new LinkedList<Request>();
+
+	// true if any committer is running batch
+	private boolean leading;
+
+	// size of the last batch, batch is not delayed if it was not contended
+	private int lastBatchSize;
+
+	private long batchCount;
+	private long commitCount;
+	private long requestCount;
+
+	public GroupCommitter(FileConfigDatabase db, int maxBatchSize, int maxDelay) {
+		if (maxBatchSize < 1)
+			throw new IllegalArgumentException("max batch size should be positive: " + maxBatchSize);
+		if (maxDelay < 0)
+			throw new IllegalArgumentException("max delay should not be negative: " + maxDelay);
+
+		this.db = db;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelay = maxDelay;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	public int getMaxDelay() {
+		return maxDelay;
+	}
+
+	public synchronized long getBatchCount() {
+		return batchCount;
+	}
+
+	/**
+	 * @return the number of written change sets
+	 */
+	public synchronized long getCommitCount() {
+		return commitCount;
+	}
+
+	public synchronized long getRequestCount() {
+		return requestCount;
+	}
+
+	public Config commit(WriteOperation op, String committer, String log) {
+		Request req = new Request(op, committer, log);
+		boolean interrupted = false;
+		boolean leader = false;
+
+		synchronized (this) {
+			queue.add(req);
+			requestCount++;
+
+			// wake leader which is waiting for more operations
+			notifyAll();
+
+			while (!req.done && leading) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					// operation may be running already, keep waiting
+					interrupted = true;
+				}
+			}
+
+			if (!req.done) {
+				leading = true;
+				leader = true;
+			}
+		}
+
+		if (leader) {
+			try {
+				while (!req.done) {
+					List<Request> batch = nextBatch();
+					runBatch(batch);
+
+					synchronized (this) {
+						notifyAll();
+					}
+				}
+			} finally {
+				// hand over to one of remaining committers
+				synchronized (this) {
+					leading = false;
+					notifyAll();
+				}
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+
+		if (req.error != null)
+			throw new RollbackException(req.error);
+
+		return req.result;
+	}
+
+	private synchronized List<Request> nextBatch() {
+		long deadline = System.currentTimeMillis() + maxDelay;
+		boolean contended = queue.size() > 1 || lastBatchSize > 1;
+		while (contended && queue.size() < maxBatchSize) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				break;
+
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		List<Request> batch = new ArrayList<Request>(Math.min(queue.size(), maxBatchSize));
+		while (!queue.isEmpty() && batch.size() < maxBatchSize)
+			batch.add(queue.removeFirst());
+
+		lastBatchSize = batch.size();
+		batchCount++;
+		return batch;
+	}
+
+	private void runBatch(List<Request> batch) {
+		// each retry completes at least one request
+		while (!batch.isEmpty())
+			batch = runOnce(batch);
+	}
+
+	/**
+	 * @return the requests which should be run again in new transaction
+	 */
+	private List<Request> runOnce(List<Request> batch) {
+		FileConfigTransaction xact = null;
+		try {
+			xact = (FileConfigTransaction) db.beginTransaction();
+		} catch (Throwable t) {
+			fail(batch, t);
+			return new ArrayList<Request>();
+		}
+
+		List<Request> pending = new ArrayList<Request>();
+		int i = 0;
+		try {
+			for (; i < batch.size(); i++) {
+				Request req = batch.get(i);
+				if (!pending.isEmpty() && !pending.get(0).isSameCommit(req))
+					flush(xact, pending);
+
+				try {
+					req.result = req.op.run(xact);
+					pending.add(req);
+				} catch (Throwable t) {
+					// discard partial writes of failed operation, and run
+					// other unflushed operations again
+					xact.rollback();
+					complete(req, t);
+
+					List<Request> retry = new ArrayList<Request>(pending);
+					retry.addAll(batch.subList(i + 1, batch.size()));
+					for (Request r : retry)
+						r.result = null;
+					return retry;
+				}
+			}
+
+			if (!pending.isEmpty())
+				flush(xact, pending);
+		} catch (Throwable t) {
+			logger.error("araqne confdb: cannot commit batch of db [" + db.getName() + "]", t);
+			xact.rollback();
+
+			// flushed requests are completed already
+			List<Request> failed = new ArrayList<Request>(pending);
+			failed.addAll(batch.subList(i, batch.size()));
+			fail(failed, t);
+			return new ArrayList<Request>();
+		}
+
+		try {
+			xact.close();
+		} catch (Throwable t) {
+			// all change sets are committed, release write lock
+			logger.error("araqne confdb: cannot release writers of db [" + db.getName() + "]", t);
+			xact.rollback();
+		}
+		return new ArrayList<Request>();
+	}
+
+	private void flush(FileConfigTransaction xact, List<Request> pending) throws Exception {
+		Request first = pending.get(0);
+		xact.flush(first.committer, first.log);
+
+		synchronized (this) {
+			commitCount++;
+		}
+
+		for (Request req : pending)
+			complete(req, null);
+
+		if (logger.isDebugEnabled())
+			logger.debug("araqne confdb: group committed [{}] operations of db [{}]", pending.size(), db.getName());
+
+		pending.clear();
+	}
+
+	private void fail(List<Request> batch, Throwable t) {
+		for (Request req : batch)
+			if (!req.done)
+				complete(req, t);
+	}
+
+	private synchronized void complete(Request req, Throwable error) {
+		if (error != null)
+			req.result = null;
+
+		req.error = error;
+		req.done = true;
+	}
+
+	private static class Request {
+		private WriteOperation op;
+		private String committer;
+		private String log;
+
+		// guarded by committer monitor
+		private boolean done;
+		private Config result;
+		private Throwable error;
+
+		public Request(WriteOperation op, String committer, String log) {
+			this.op = op;
+			this.committer = committer;
+			this.log = log;
+		}
+
+		public boolean isSameCommit(Request o) {
+			return equals(committer, o.committer) && equals(log, o.log);
+		}
+
+		private static boolean equals(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+}
@@ -15,14 +15,12 @@
  */
 package org.araqne.confdb.file;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.UnknownHostException;
-import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -32,10 +30,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
+import org.json.JSONReader;
 import org.araqne.codec.Base64;
 import org.araqne.codec.EncodingRule;
 import org.araqne.confdb.CollectionEntry;
@@ -49,6 +45,10 @@ import org.slf4j.LoggerFactory;
 public class Importer {
 	private final Logger logger = LoggerFactory.getLogger(Importer.class.getName());
 	FileConfigDatabase db;
+	private SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ssZ");
+
+	// shared writers which are committed after change set is written
+	private List<RevLogWriter> writers = new ArrayList<RevLogWriter>();
 
 	public Importer(FileConfigDatabase db) {
 		this.db = db;
@@ -61,10 +61,12 @@ public class Importer {
 		logger.debug("araqne confdb: start import data");
 		db.lock();
 
+		boolean completed = false;
 		try {
-			JSONTokener t = new JSONTokener(new InputStreamReader(is, Charset.forName("utf-8")));
+			JSONReader r = new JSONReader(new InputStreamReader(is, Charset.forName("utf-8")));
+			r.beginObject();
 
-			Map<String, Object> metadata = parseMetadata(t);
+			Map<String, Object> metadata = parseMetadata(r);
 			Integer version = (Integer) metadata.get("version");
 			if (version != 1)
 				throw new ParseException("unsupported confdb data format version: " + version, -1);
@@ -72,101 +74,70 @@ public class Importer {
 			Manifest manifest = db.getManifest(null);
 			List<ConfigChange> configChanges = new ArrayList<ConfigChange>();
 
-			char comma = t.nextClean();
-			if (comma == ',')
-				parseCollections(t, manifest, configChanges);
+			if (r.hasNext())
+				parseCollections(r, manifest, configChanges);
 
 			writeManifestLog(manifest);
 			writeChangeLog(configChanges, manifest.getId());
+			for (RevLogWriter writer : writers)
+				writer.commit(Durability.Flush);
+
 			logger.debug("araqne confdb: import complete");
+			completed = true;
 		} catch (JSONException e) {
 			throw new ParseException(e.getMessage(), 0);
 		} finally {
+			// discard partially imported logs
+			if (!completed)
+				db.abortWriters();
 			db.unlock();
 		}
 	}
 
-	private void parseCollections(JSONTokener t, Manifest manifest, List<ConfigChange> configChanges) throws JSONException,
+	private void parseCollections(JSONReader r, Manifest manifest, List<ConfigChange> configChanges) throws JSONException,
 			ParseException, IOException {
-		Object key = t.nextValue();
+		String key = r.nextName();
 		if (!key.equals("collections"))
 			throw new ParseException("collections should be placed after metadata: token is " + key, -1);
 
 		// "collections":{"COLNAME":["list",[...]]}
-		t.nextClean(); // :
-		t.nextClean(); // {
-
-		if (t.nextClean() == '}')
+		r.beginObject();
+		if (!r.hasNext())
 			return;
-		t.back();
 
-		int i = 0;
 		List<String> importColNames = new ArrayList<String>();
-		while (true) {
-			if (i++ != 0)
-				t.nextClean();
-
-			String colName = (String) t.nextValue();
+		while (r.hasNext()) {
+			String colName = r.nextName();
 			importColNames.add(colName);
 			CollectionEntry collectionEntry = checkCollectionEntry(manifest, colName);
 			manifest.add(collectionEntry);
 
-			t.nextTo('[');
-			t.nextClean();
+			r.beginArray();
 
 			// type token (should be 'list')
-			t.nextValue();
-			t.nextTo("[");
-			t.nextClean();
-
-			// check empty config list
-			char c = t.nextClean();
-			if (c == ']') {
-				t.nextClean(); // last ']'
-				char marker = t.nextClean(); // ',' or '}'
-				if (marker == '}')
-					break;
-				else
-					t.back();
-
-				continue;
-			}
-
-			t.back();
-
-			int collectionId = collectionEntry.getId();
-			RevLogWriter writer = null;
-			try {
-				File logFile = new File(db.getDbDirectory(), "col" + collectionId + ".log");
-				File datFile = new File(db.getDbDirectory(), "col" + collectionId + ".dat");
-
-				writer = new RevLogWriter(logFile, datFile);
-
-				while (true) {
-					@SuppressWarnings("unchecked")
-					Object doc = removeType((List<Object>) parse((JSONArray) t.nextValue()));
+			r.skipValue();
+			r.beginArray();
+
+			// write each document as soon as it is parsed
+			if (r.hasNext()) {
+				int collectionId = collectionEntry.getId();
+				RevLogWriter writer = db.getCollectionWriter(collectionId);
+				while (r.hasNext()) {
+					Object doc = parseTyped(r);
 					ConfigEntry configEntry = writeConfigEntry(writer, doc, collectionId);
 					configChanges.add(new ConfigChange(CommitOp.CreateDoc, colName, collectionEntry.getId(), configEntry
 							.getDocId()));
 					manifest.add(configEntry);
-
-					// check next list item
-					char delimiter = t.nextClean();
-					if (delimiter == ']')
-						break;
 				}
-			} finally {
-				if (writer != null)
-					writer.close();
+				writer.flush();
+				writers.add(writer);
 			}
 
-			// end of list
-			t.nextClean();
-
-			char delimiter = t.nextClean();
-			if (delimiter == '}')
-				break;
+			// end of doc list and typed list
+			r.endArray();
+			r.endArray();
 		}
+		r.endObject();
 
 		for (String colName : db.getCollectionNames()) {
 			if (importColNames.contains(colName))
@@ -176,17 +147,16 @@ public class Importer {
 		}
 	}
 
-	private Map<String, Object> parseMetadata(JSONTokener x) throws JSONException, IOException {
-		if (x.nextClean() != '{') {
-			throw x.syntaxError("A JSONObject text must begin with '{'");
-		}
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> parseMetadata(JSONReader r) throws JSONException {
+		if (!r.hasNext() || !r.nextName().equals("metadata"))
+			throw r.syntaxError("confdb metadata should be placed first");
 
-		Object key = x.nextValue();
-		if (!key.equals("metadata"))
-			throw x.syntaxError("confdb metadata should be placed first");
+		Object metadata = r.nextValue();
+		if (!(metadata instanceof Map))
+			throw r.syntaxError("confdb metadata should be an object");
 
-		x.nextClean();
-		return parse((JSONObject) x.nextValue());
+		return (Map<String, Object>) metadata;
 	}
 
 	private CollectionEntry checkCollectionEntry(Manifest manifest, String colName) {
@@ -200,39 +170,24 @@ public class Importer {
 	}
 
 	private void writeChangeLog(List<ConfigChange> configChanges, int manifestId) throws IOException {
-		File changeLogFile = new File(db.getDbDirectory(), "changeset.log");
-		File changeDatFile = new File(db.getDbDirectory(), "changeset.dat");
-		RevLogWriter changeLogWriter = null;
-		try {
-			changeLogWriter = new RevLogWriter(changeLogFile, changeDatFile);
-			ChangeSetWriter.log(changeLogWriter, configChanges, manifestId, null, "import", new Date());
-		} finally {
-			if (changeLogWriter != null)
-				changeLogWriter.close();
-		}
+		RevLogWriter changeLogWriter = db.getChangeSetWriter();
+		ChangeSetWriter.log(changeLogWriter, configChanges, manifestId, null, "import", new Date());
+		changeLogWriter.flush();
+		writers.add(changeLogWriter);
 	}
 
 	private int writeManifestLog(Manifest newManifest) throws IOException {
-		File manifestLogFile = new File(db.getDbDirectory(), "manifest.log");
-		File manifestDatFile = new File(db.getDbDirectory(), "manifest.dat");
-		int manifestId = 0;
-		RevLogWriter manifestWriter = null;
-
-		try {
-			manifestWriter = new RevLogWriter(manifestLogFile, manifestDatFile);
-			manifestId = FileManifest.writeManifest(newManifest, manifestWriter).getId();
-		} finally {
-			if (manifestWriter != null)
-				manifestWriter.close();
-		}
+		RevLogWriter manifestWriter = db.getManifestWriter();
+		int manifestId = FileManifest.writeManifest(newManifest, manifestWriter).getId();
+		manifestWriter.flush();
+		writers.add(manifestWriter);
 		return manifestId;
 	}
 
 	private ConfigEntry writeConfigEntry(RevLogWriter writer, Object doc, int collectionId) throws IOException {
 
-		ByteBuffer bb = encodeDocument(doc);
 		RevLog log = new RevLog();
-		log.setDoc(bb.array());
+		log.setDoc(EncodingRule.encodeBytes(doc));
 		log.setRev(1);
 		log.setOperation(CommitOp.CreateDoc);
 		int docId = writer.write(log);
@@ -241,74 +196,58 @@ public class Importer {
 		return new ConfigEntry(collectionId, docId, 0, index);
 	}
 
-	private ByteBuffer encodeDocument(Object doc) {
-		int len = EncodingRule.lengthOf(doc);
-		ByteBuffer bb = ByteBuffer.allocate(len);
-		EncodingRule.encode(bb, doc);
-		return bb;
-	}
+	/**
+	 * parse ["type", value] pair of exported document
+	 */
+	private Object parseTyped(JSONReader r) throws JSONException, ParseException {
+		if (r.peek() != JSONReader.Token.BEGIN_ARRAY)
+			throw new ParseException("typed value should be a list: token is " + r.peek(), 0);
 
-	private Map<String, Object> parse(JSONObject jsonObject) throws IOException {
-		Map<String, Object> m = new HashMap<String, Object>();
-		String[] names = JSONObject.getNames(jsonObject);
-		if (names == null)
-			return m;
-
-		for (String key : names) {
-			try {
-				Object value = jsonObject.get(key);
-				if (value == JSONObject.NULL)
-					value = null;
-				else if (value instanceof JSONArray)
-					value = parse((JSONArray) value);
-				else if (value instanceof JSONObject)
-					value = parse((JSONObject) value);
-
-				m.put(key, value);
-			} catch (JSONException e) {
-				logger.error("araqne confdb: cannot parse json", e);
-				throw new IOException(e);
-			}
-		}
+		r.beginArray();
+		if (!r.hasNext())
+			throw new ParseException("list size should be 2", 0);
 
-		return m;
-	}
+		String type = r.nextString();
+		if (!r.hasNext())
+			throw new ParseException("list size should be 2", 0);
 
-	private Object parse(JSONArray jsonarray) throws IOException {
-		List<Object> list = new ArrayList<Object>();
-		for (int i = 0; i < jsonarray.length(); i++) {
-			try {
-				Object o = jsonarray.get(i);
-				if (o == JSONObject.NULL)
-					list.add(null);
-				else if (o instanceof JSONArray)
-					list.add(parse((JSONArray) o));
-				else if (o instanceof JSONObject)
-					list.add(parse((JSONObject) o));
+		Object value;
+		if (type.equals("map")) {
+			Map<String, Object> m = new HashMap<String, Object>();
+			r.beginObject();
+			while (r.hasNext()) {
+				String name = r.nextName();
+				m.put(name, parseTyped(r));
+			}
+			r.endObject();
+			value = m;
+		} else if (type.equals("list")) {
+			List<Object> l = new ArrayList<Object>();
+			r.beginArray();
+			while (r.hasNext()) {
+				// primitive array elements are exported without type
+				if (r.peek() == JSONReader.Token.BEGIN_ARRAY)
+					l.add(parseTyped(r));
 				else
-					list.add(o);
-			} catch (JSONException e) {
-				logger.error("araqne confdb: cannot parse json", e);
-				throw new IOException(e);
+					l.add(r.nextValue());
 			}
+			r.endArray();
+			value = l;
+		} else if (type.equals("null")) {
+			r.skipValue();
+			value = null;
+		} else {
+			value = removeType(type, r.nextValue());
 		}
-		return list;
-	}
-
-	@SuppressWarnings("unchecked")
-	private Object removeType(List<Object> l) throws ParseException {
-		if (l == null)
-			throw new ParseException("list can not be null", 0);
 
-		if (l.size() != 2)
+		if (r.hasNext())
 			throw new ParseException("list size should be 2", 0);
+		r.endArray();
+		return value;
+	}
 
-		String type = (String) l.get(0);
-		Object value = l.get(1);
-
-		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ssZ");
+	private Object removeType(String type, Object value) throws ParseException {
 		try {
-
 			if (type.equals("string")) {
 				return (String) value;
 			} else if (type.equals("int")) {
@@ -322,31 +261,13 @@ public class Importer {
 			} else if (type.equals("ip6")) {
 				return (Inet6Address) Inet6Address.getByName((String) value);
 			} else if (type.equals("double")) {
-				return (Double) value;
+				return Double.valueOf(value.toString());
 			} else if (type.equals("float")) {
 				return Float.valueOf(value.toString());
 			} else if (type.equals("date")) {
 				return dateFormat.parse((String) value);
 			} else if (type.equals("short")) {
 				return Short.valueOf(value.toString());
-			} else if (type.equals("map")) {
-				Map<String, Object> m = (Map<String, Object>) value;
-
-				for (String name : m.keySet()) {
-					List<Object> v = (List<Object>) m.get(name);
-					m.put(name, removeType(v));
-				}
-
-				return m;
-			} else if (type.equals("list")) {
-				List<Object> newList = new ArrayList<Object>();
-				List<Object> values = (List<Object>) value;
-				for (Object o : values)
-					newList.add(removeType((List<Object>) o));
-
-				return newList;
-			} else if (type.equals("null")) {
-				return null;
 			} else if (type.equals("blob")) {
 				String byteString = (String) value;
 
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.araqne.codec.EncodingRule;
+import org.araqne.confdb.CollectionEntry;
+import org.araqne.confdb.ConfigEntry;
+
+/**
+ * Changes of manifest since base manifest. Manifest version 3 writes delta
+ * instead of full manifest, and full checkpoint is written periodically.
+ * Manifest is reconstructed by applying deltas to the nearest checkpoint.
+ */
+class ManifestDelta {
+	public static final int ADD_COL = 1;
+	public static final int REMOVE_COL = 2;
+	public static final int ADD_CONFIG = 3;
+	public static final int REMOVE_CONFIG = 4;
+
+	/**
+	 * manifest id of this delta, set when read
+	 */
+	private int id;
+
+	private int baseId;
+
+	/**
+	 * the number of deltas since checkpoint, including this delta
+	 */
+	private int depth;
+
+	private List<Op> ops = new ArrayList<Op>();
+
+	public ManifestDelta(int baseId, int depth) {
+		this.baseId = baseId;
+		this.depth = depth;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public int getBaseId() {
+		return baseId;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public int size() {
+		return ops.size();
+	}
+
+	public List<Op> getOps() {
+		return ops;
+	}
+
+	public void add(CollectionEntry e) {
+		ops.add(new Op(ADD_COL, e, null));
+	}
+
+	public void remove(CollectionEntry e) {
+		ops.add(new Op(REMOVE_COL, e, null));
+	}
+
+	public void add(ConfigEntry e) {
+		ops.add(new Op(ADD_CONFIG, null, e));
+	}
+
+	public void remove(ConfigEntry e) {
+		ops.add(new Op(REMOVE_CONFIG, null, e));
+	}
+
+	/**
+	 * apply changes in order. target manifest should not track delta
+	 */
+	public void applyTo(FileManifest manifest) {
+		for (Op op : ops) {
+			switch (op.code) {
+			case ADD_COL:
+				manifest.add(op.col);
+				break;
+			case REMOVE_COL:
+				manifest.remove(op.col);
+				break;
+			case ADD_CONFIG:
+				manifest.add(op.config);
+				break;
+			case REMOVE_CONFIG:
+				manifest.remove(op.config);
+				break;
+			}
+		}
+	}
+
+	public byte[] serialize() {
+		FileManifestCodec codec = new FileManifestCodec();
+		int len = EncodingRule.lengthOf(this, codec);
+		ByteBuffer bb = ByteBuffer.allocate(len);
+		EncodingRule.encode(bb, this, codec);
+		return bb.array();
+	}
+
+	public static class Op {
+		private int code;
+		private CollectionEntry col;
+		private ConfigEntry config;
+
+		public Op(int code, CollectionEntry col, ConfigEntry config) {
+			this.code = code;
+			this.col = col;
+			this.config = config;
+		}
+
+		public int getCode() {
+			return code;
+		}
+
+		public CollectionEntry getCollectionEntry() {
+			return col;
+		}
+
+		public ConfigEntry getConfigEntry() {
+			return config;
+		}
+	}
+}
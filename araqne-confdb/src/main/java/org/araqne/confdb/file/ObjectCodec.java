@@ -0,0 +1,132 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.araqne.api.PrimitiveConverter;
+import org.araqne.api.PrimitiveMapper;
+import org.araqne.api.PrimitiveMapper.FieldMapping;
+import org.araqne.api.PrimitiveParseCallback;
+import org.araqne.api.PrimitiveSerializeCallback;
+import org.araqne.api.PrimitiveWriter;
+import org.araqne.codec.BinaryEncoder;
+import org.araqne.codec.EncodingRule;
+
+/**
+ * Converts object to binary document and vice versa without building
+ * intermediate map tree. Encoded bytes are same as encoding the result of
+ * {@link PrimitiveConverter#serialize(Object, PrimitiveSerializeCallback)},
+ * and decoded object is same as
+ * {@link PrimitiveConverter#parse(Class, Object, PrimitiveParseCallback)} of
+ * decoded document.
+ */
+class ObjectCodec {
+	private ObjectCodec() {
+	}
+
+	public static byte[] encode(Object obj, PrimitiveSerializeCallback callback) {
+		BinaryEncoder encoder = BinaryEncoder.acquire();
+		try {
+			PrimitiveConverter.serialize(obj, new EncoderWriter(encoder), callback);
+			return encoder.toByteArray();
+		} finally {
+			encoder.release();
+		}
+	}
+
+	/**
+	 * @param bb
+	 *            the buffer positioned at the document. position moves to the
+	 *            end of document.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T decode(Class<T> cls, ByteBuffer bb, PrimitiveParseCallback callback) {
+		if (cls.equals(Object.class) || bb.get(bb.position()) != EncodingRule.MAP_TYPE)
+			return (T) EncodingRule.decode(bb);
+
+		PrimitiveMapper mapper = PrimitiveMapper.get(cls);
+		T n = mapper.newInstance();
+
+		bb.get();
+		int length = (int) EncodingRule.decodeRawNumber(bb);
+		int end = bb.position() + length;
+		while (bb.position() < end) {
+			String key = EncodingRule.decodeString(bb);
+			FieldMapping f = mapper.getField(key);
+			if (f == null) {
+				bb.position(bb.position() + EncodingRule.getObjectLength(bb));
+				continue;
+			}
+
+			if (f.isNestedObject() && bb.get(bb.position()) == EncodingRule.MAP_TYPE)
+				f.set(n, decode(f.getType(), bb, callback), callback);
+			else
+				f.set(n, EncodingRule.decode(bb), callback);
+		}
+
+		return n;
+	}
+
+	private static class EncoderWriter implements PrimitiveWriter {
+		private BinaryEncoder encoder;
+
+		// length prefix offsets of open maps and arrays
+		private int[] starts = new int[8];
+		private int depth;
+
+		public EncoderWriter(BinaryEncoder encoder) {
+			this.encoder = encoder;
+		}
+
+		@Override
+		public void beginMap() {
+			push(encoder.beginMap());
+		}
+
+		@Override
+		public void key(String key) {
+			encoder.writeKey(key);
+		}
+
+		@Override
+		public void endMap() {
+			encoder.end(starts[--depth]);
+		}
+
+		@Override
+		public void beginArray() {
+			push(encoder.beginArray());
+		}
+
+		@Override
+		public void endArray() {
+			encoder.end(starts[--depth]);
+		}
+
+		@Override
+		public void value(Object value) {
+			encoder.encode(value);
+		}
+
+		private void push(int start) {
+			if (depth == starts.length)
+				starts = Arrays.copyOf(starts, depth * 2);
+			starts[depth++] = start;
+		}
+	}
+}
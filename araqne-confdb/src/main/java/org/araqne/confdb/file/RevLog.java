@@ -20,6 +20,11 @@ import java.nio.ByteBuffer;
 import org.araqne.confdb.CommitOp;
 
 public class RevLog {
+	/**
+	 * flag bit of padding byte, doc binary is removed by compaction
+	 */
+	private static final int PURGED_FLAG = 0x1;
+
 	/**
 	 * revision of database for conflict check (8byte)
 	 */
@@ -50,6 +55,11 @@ public class RevLog {
 	 */
 	private int docLength;
 
+	/**
+	 * doc binary is removed by compaction, and only log header remains
+	 */
+	private boolean purged;
+
 	/**
 	 * raw doc binary
 	 */
@@ -103,6 +113,14 @@ public class RevLog {
 		this.docLength = docLength;
 	}
 
+	public boolean isPurged() {
+		return purged;
+	}
+
+	public void setPurged(boolean purged) {
+		this.purged = purged;
+	}
+
 	public byte[] getDoc() {
 		return doc;
 	}
@@ -122,7 +140,7 @@ public class RevLog {
 		bb.putLong(rev);
 		bb.putLong(prevRev);
 		bb.put((byte) operation.getCode());
-		bb.put((byte) 0);
+		bb.put((byte) (purged ? PURGED_FLAG : 0));
 		bb.putInt(docId);
 		bb.putLong(docOffset);
 		bb.putInt((int) docLength);
@@ -141,7 +159,7 @@ public class RevLog {
 		log.setRev(bb.getLong());
 		log.setPrevRev(bb.getLong());
 		log.setOperation(CommitOp.parse(bb.get()));
-		bb.get(); // padding
+		log.setPurged((bb.get() & PURGED_FLAG) != 0); // flags
 		log.setDocId(bb.getInt());
 		log.setDocOffset(bb.getLong());
 		log.setDocLength(bb.getInt());
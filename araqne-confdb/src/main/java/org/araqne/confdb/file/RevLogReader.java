@@ -19,13 +19,23 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.ListIterator;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Reads collection log (.log) and doc (.dat) file pair. In mapped mode, both
+ * files are mapped into memory at open time and doc id / revision lookups are
+ * served from hash index which is built on first lookup. Mapped reader does
+ * not see records appended after open.
+ */
 public class RevLogReader {
 	private static final byte[] MAGIC_STRING = "KRAKEN_CONFDB".getBytes();
 	private static final int REV_LOG_SIZE = 34;
@@ -44,38 +54,120 @@ public class RevLogReader {
 	private RandomAccessFile docRaf;
 	private int docHeaderLength;
 
+	/**
+	 * logical offset of first doc, non-zero only for compacted generation
+	 */
+	private long docBase;
+
+	/**
+	 * collection file generation which reader is opened for
+	 */
+	private int generation;
+
 	/**
 	 * collection log buffer
 	 */
 	private byte[] buffer;
 
+	/**
+	 * mapped log and doc file (mapped mode only)
+	 */
+	private MappedByteBuffer logMap;
+	private MappedByteBuffer docMap;
+
+	/**
+	 * doc id to latest log index, and revision to latest log index (mapped
+	 * mode only, lazy built)
+	 */
+	private Map<Integer, Long> docIndex;
+	private Map<Long, Long> revIndex;
+
 	public RevLogReader(File logFile, File docFile) throws IOException {
+		this(logFile, docFile, false);
+	}
+
+	public RevLogReader(File logFile, File docFile, boolean mapped) throws IOException {
 		this.logRaf = new RandomAccessFile(logFile, "r");
-		byte[] logHeader = new byte[16];
-		this.logRaf.read(logHeader);
-		if (!Arrays.equals(Arrays.copyOf(logHeader, 13), MAGIC_STRING))
-			throw new IOException("invalid log file");
-		if (logHeader[13] != 0x2)
-			throw new IOException("invalid log file version");
-		this.logHeaderLength = 16 + ((logHeader[14] & 0xFF) << 8 + (logHeader[15] & 0xFF));
-
-		this.docRaf = new RandomAccessFile(docFile, "r");
-		byte[] docHeader = new byte[16];
-		this.docRaf.read(docHeader);
-		if (!Arrays.equals(Arrays.copyOf(docHeader, 13), MAGIC_STRING))
-			throw new IOException("invalid doc file");
-		if (docHeader[13] != 0x3)
-			throw new IOException("invalid doc file version");
-		this.docHeaderLength = 16 + ((docHeader[14] & 0xFF) << 8 + (docHeader[15] & 0xFF));
+		try {
+			this.docRaf = new RandomAccessFile(docFile, "r");
+		} catch (IOException e) {
+			logRaf.close();
+			throw e;
+		}
+
+		try {
+			this.logHeaderLength = readHeader(logRaf, (byte) 0x2, "log");
+			this.docHeaderLength = readHeader(docRaf, (byte) 0x3, "doc");
+			if (docHeaderLength == 24) {
+				docRaf.seek(16);
+				this.docBase = docRaf.readLong();
+			}
+
+			// mapping is not possible for 2GB+ file, fallback to file i/o
+			if (mapped && logRaf.length() <= Integer.MAX_VALUE && docRaf.length() <= Integer.MAX_VALUE) {
+				this.logMap = logRaf.getChannel().map(MapMode.READ_ONLY, 0, logRaf.length());
+				this.docMap = docRaf.getChannel().map(MapMode.READ_ONLY, 0, docRaf.length());
+
+				// mapping is valid after channel close
+				logRaf.close();
+				docRaf.close();
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
 
 		this.buffer = new byte[REV_LOG_SIZE];
 	}
 
+	private static int readHeader(RandomAccessFile raf, byte version, String type) throws IOException {
+		byte[] header = new byte[16];
+		raf.read(header);
+		if (!Arrays.equals(Arrays.copyOf(header, 13), MAGIC_STRING))
+			throw new IOException("invalid " + type + " file");
+		if (header[13] != version)
+			throw new IOException("invalid " + type + " file version");
+		return 16 + ((header[14] & 0xFF) << 8) + (header[15] & 0xFF);
+	}
+
+	public long getDocBase() {
+		return docBase;
+	}
+
+	/**
+	 * @return the logical offset of doc file end
+	 */
+	public long getDocEnd() throws IOException {
+		long length = docMap != null ? docMap.capacity() : docRaf.length();
+		return docBase + length - docHeaderLength;
+	}
+
+	int getGeneration() {
+		return generation;
+	}
+
+	void setGeneration(int generation) {
+		this.generation = generation;
+	}
+
+	public boolean isMapped() {
+		return logMap != null;
+	}
+
 	public long count() throws IOException {
+		if (logMap != null)
+			return (logMap.capacity() - logHeaderLength) / REV_LOG_SIZE;
+
 		return (logRaf.length() - logHeaderLength) / REV_LOG_SIZE;
 	}
 
 	public RevLog findDoc(int docId) throws IOException {
+		if (logMap != null) {
+			buildIndex();
+			Long index = docIndex.get(docId);
+			return index != null ? read(index) : null;
+		}
+
 		Iterator<RevLog> it = iterator();
 		while (it.hasNext()) {
 			RevLog log = it.next();
@@ -87,6 +179,12 @@ public class RevLogReader {
 	}
 
 	public RevLog findRev(long rev) throws IOException {
+		if (logMap != null) {
+			buildIndex();
+			Long index = revIndex.get(rev);
+			return index != null ? read(index) : null;
+		}
+
 		Iterator<RevLog> it = iterator();
 		while (it.hasNext()) {
 			RevLog log = it.next();
@@ -97,6 +195,26 @@ public class RevLogReader {
 		return null;
 	}
 
+	private void buildIndex() throws IOException {
+		if (docIndex != null)
+			return;
+
+		long count = count();
+		int capacity = (int) Math.min(count * 4 / 3 + 1, Integer.MAX_VALUE);
+		docIndex = new HashMap<Integer, Long>(capacity);
+		revIndex = new HashMap<Long, Long>(capacity);
+
+		// later log overwrites earlier one, same as backward scan result
+		for (long index = 0; index < count; index++) {
+			int pos = (int) (logHeaderLength + index * REV_LOG_SIZE);
+			// rev (8), prev rev (8), op (1), padding (1), doc id (4)
+			long rev = logMap.getLong(pos);
+			int docId = logMap.getInt(pos + 18);
+			docIndex.put(docId, index);
+			revIndex.put(rev, index);
+		}
+	}
+
 	/**
 	 * read() does not return doc binary data. You should explicitly read doc
 	 * binary using readDoc()
@@ -107,16 +225,34 @@ public class RevLogReader {
 	 * @throws IOException
 	 */
 	public RevLog read(long index) throws IOException {
-		logRaf.seek(logHeaderLength + index * REV_LOG_SIZE);
-		logRaf.read(buffer);
-		ByteBuffer bb = ByteBuffer.wrap(buffer);
-		return RevLog.deserialize(bb);
+		RevLog log = null;
+		if (logMap != null) {
+			logMap.position((int) (logHeaderLength + index * REV_LOG_SIZE));
+			log = RevLog.deserialize(logMap);
+		} else {
+			logRaf.seek(logHeaderLength + index * REV_LOG_SIZE);
+			logRaf.read(buffer);
+			log = RevLog.deserialize(ByteBuffer.wrap(buffer));
+		}
+
+		// log file has physical offset
+		log.setDocOffset(docBase + log.getDocOffset());
+		return log;
 	}
 
 	public byte[] readDoc(long offset, int length) throws IOException {
 		byte[] buf = new byte[length];
+		offset -= docBase;
+		if (offset < 0)
+			throw new IOException("doc offset is not in this generation: " + (offset + docBase));
 
 		// skip also len(4) and option(4) field
+		if (docMap != null) {
+			docMap.position((int) (docHeaderLength + offset + 8));
+			docMap.get(buf);
+			return buf;
+		}
+
 		docRaf.seek(docHeaderLength + offset + 8);
 		docRaf.read(buf);
 
@@ -133,11 +269,18 @@ public class RevLogReader {
 
 	public void close() {
 		try {
-			logRaf.close();
-			docRaf.close();
+			if (logRaf != null)
+				logRaf.close();
+			if (docRaf != null)
+				docRaf.close();
 		} catch (IOException e) {
 			logger.error("araqne confdb: cannot close index file", e);
 		}
+
+		logMap = null;
+		docMap = null;
+		docIndex = null;
+		revIndex = null;
 	}
 
 	public class RevLogIterator implements ListIterator<RevLog> {
@@ -15,51 +15,85 @@
  */
 package org.araqne.confdb.file;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
 import org.araqne.confdb.CommitOp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Appends revision logs and document binaries using file channels. Small
+ * documents and log records are staged in direct buffers, and large documents
+ * are written with the staged header in one gathering write. Database keeps
+ * writer open across transactions, and calls refresh() before reuse.
+ */
 public class RevLogWriter {
 	private static final byte[] MAGIC_STRING = "KRAKEN_CONFDB".getBytes();
 	private static final int COL_LOG_SIZE = 34;
+	private static final int DOC_BASE_HEADER_LENGTH = 24;
+	private static final int LOG_BUFFER_SIZE = COL_LOG_SIZE * 120;
+	private static final int DAT_BUFFER_SIZE = 16384;
 
 	private final Logger logger = LoggerFactory.getLogger(RevLogReader.class.getName());
 
+	private final File logFile;
+	private final File datFile;
+
 	/**
 	 * collection log file handle
 	 */
-	private FileOutputStream logFileOutput;
-	private BufferedOutputStream logOutput;
+	private RandomAccessFile logRaf;
+	private FileChannel logChannel;
 	private long logFileLength;
 	private int logHeaderLength;
 
 	/**
 	 * doc file handle
 	 */
-	private FileOutputStream datFileOutput;
-	private BufferedOutputStream datOutput;
+	private RandomAccessFile datRaf;
+	private FileChannel datChannel;
 	private long datFileLength;
 	private final int datHeaderLength;
 
+	/**
+	 * logical offset of first doc, written as 8 byte dat option by compaction.
+	 * log file stores physical offset, and base is added when it is read
+	 */
+	private long datBase;
+
 	/**
 	 * collection log buffer
 	 */
 	private byte[] buffer;
 
+	/**
+	 * staged log records and doc binaries which are not written to channel
+	 * yet. doc buffer is always written before log buffer.
+	 */
+	private ByteBuffer logBuffer;
+	private ByteBuffer datBuffer;
+	private ByteBuffer[] gather;
+
+	/**
+	 * file lengths at last refresh() or commit(). abort() discards logs and
+	 * docs appended after these lengths
+	 */
+	private long committedLogLength;
+	private long committedDatLength;
+
 	public RevLogWriter(File logFile, File datFile) throws IOException {
 		this(logFile, datFile, null, null);
 	}
 
 	public RevLogWriter(File logFile, File datFile, byte[] logOption, byte[] datOption) throws IOException {
+		this.logFile = logFile;
+		this.datFile = datFile;
+
 		logFile.getParentFile().mkdirs();
 		datFile.getParentFile().mkdirs();
 		boolean logExists = logFile.exists();
@@ -75,8 +109,8 @@ public class RevLogWriter {
 		if (datOption == null)
 			datOption = new byte[0];
 
-		RandomAccessFile logRaf = new RandomAccessFile(logFile, "rw");
 		try {
+			logRaf = new RandomAccessFile(logFile, "rw");
 			if (!logExists) {
 				byte[] b = Arrays.copyOf(MAGIC_STRING, 16);
 				b[13] = 0x2; // version 1, log
@@ -91,12 +125,8 @@ public class RevLogWriter {
 				byte b2 = logRaf.readByte();
 				this.logHeaderLength = 16 + ((b1 & 0xFF) << 8) + (b2 & 0xFF);
 			}
-		} finally {
-			logRaf.close();
-		}
 
-		RandomAccessFile datRaf = new RandomAccessFile(datFile, "rw");
-		try {
+			datRaf = new RandomAccessFile(datFile, "rw");
 			if (!datExists) {
 				byte[] b = Arrays.copyOf(MAGIC_STRING, 16);
 				b[13] = 0x3; // version 1, dat
@@ -111,49 +141,102 @@ public class RevLogWriter {
 				byte b2 = datRaf.readByte();
 				this.datHeaderLength = 16 + ((b1 & 0xFF) << 8) + (b2 & 0xFF);
 			}
-		} finally {
-			datRaf.close();
+
+			if (datHeaderLength == DOC_BASE_HEADER_LENGTH) {
+				datRaf.seek(16);
+				this.datBase = datRaf.readLong();
+			}
+
+			this.logChannel = logRaf.getChannel();
+			this.datChannel = datRaf.getChannel();
+			refresh();
+		} catch (IOException e) {
+			close();
+			throw e;
 		}
 
 		this.buffer = new byte[COL_LOG_SIZE];
-		this.datFileLength = datFile.length();
-		this.logFileLength = logFile.length();
-
-		this.logFileOutput = new FileOutputStream(logFile, true);
-		this.datFileOutput = new FileOutputStream(datFile, true);
-		this.logOutput = new BufferedOutputStream(logFileOutput);
-		this.datOutput = new BufferedOutputStream(datFileOutput);
+		this.logBuffer = ByteBuffer.allocateDirect(LOG_BUFFER_SIZE);
+		this.datBuffer = ByteBuffer.allocateDirect(DAT_BUFFER_SIZE);
+		this.gather = new ByteBuffer[2];
 
 		// TODO: check signature and collection metadata (e.g. version, name)
 	}
 
+	public File getLogFile() {
+		return logFile;
+	}
+
+	/**
+	 * Reload file lengths, since other process or database instance may have
+	 * appended logs after last use. Should be called in write locked context,
+	 * and buffers should be flushed.
+	 * 
+	 * @return false if files are removed or replaced (e.g. shrink), and writer
+	 *         should be opened again
+	 */
+	public boolean refresh() throws IOException {
+		long logSize = logChannel.size();
+		long datSize = datChannel.size();
+		if (!logFile.exists() || !datFile.exists() || logFile.length() != logSize || datFile.length() != datSize)
+			return false;
+
+		logFileLength = logSize;
+		datFileLength = datSize;
+		committedLogLength = logSize;
+		committedDatLength = datSize;
+		logChannel.position(logSize);
+		datChannel.position(datSize);
+		return true;
+	}
+
 	public int write(RevLog log) throws IOException {
 		byte[] doc = log.getDoc();
+		int docLength = doc == null ? 0 : doc.length;
 
 		// append doc binary data
-		ByteBuffer hbb = ByteBuffer.allocate(8);
-		hbb.putInt(doc == null ? 0 : doc.length);
-		hbb.putInt(0); // option
+		if (datBuffer.remaining() < 8)
+			flushDat();
+
+		datBuffer.putInt(docLength);
+		datBuffer.putInt(0); // option
 
-		datOutput.write(hbb.array());
-		if (doc != null)
-			datOutput.write(doc);
+		if (docLength <= datBuffer.remaining()) {
+			if (doc != null)
+				datBuffer.put(doc);
+		} else {
+			// write staged docs, header and large doc at once
+			datBuffer.flip();
+			gather[0] = datBuffer;
+			gather[1] = ByteBuffer.wrap(doc);
+			while (gather[1].hasRemaining())
+				datChannel.write(gather);
+
+			gather[1] = null;
+			datBuffer.clear();
+		}
 
 		// append collection log
-		log.setDocOffset(datFileLength - datHeaderLength);
-		log.setDocLength(doc == null ? 0 : doc.length);
+		long offset = datFileLength - datHeaderLength;
+		log.setDocOffset(offset);
+		log.setDocLength(docLength);
 
-		if (doc != null)
-			datFileLength += 8 + doc.length;
+		// length header is written for empty doc too
+		datFileLength += 8 + docLength;
 
 		if (log.getOperation() == CommitOp.CreateDoc)
 			log.setDocId((int) ((logFileLength - logHeaderLength) / COL_LOG_SIZE) + 1);
 
 		ByteBuffer bb = ByteBuffer.wrap(buffer);
 		log.serialize(bb);
-		logOutput.write(bb.array());
+
+		if (logBuffer.remaining() < COL_LOG_SIZE)
+			flush();
+
+		logBuffer.put(buffer);
 
 		logFileLength += COL_LOG_SIZE;
+		log.setDocOffset(datBase + offset);
 
 		return log.getDocId();
 	}
@@ -165,22 +248,121 @@ public class RevLogWriter {
 		return (int) ((logFileLength - logHeaderLength) / COL_LOG_SIZE);
 	}
 
+	/**
+	 * write staged docs and logs to operating system
+	 */
+	public void flush() throws IOException {
+		flushDat();
+
+		logBuffer.flip();
+		while (logBuffer.hasRemaining())
+			logChannel.write(logBuffer);
+		logBuffer.clear();
+	}
+
+	private void flushDat() throws IOException {
+		datBuffer.flip();
+		while (datBuffer.hasRemaining())
+			datChannel.write(datBuffer);
+		datBuffer.clear();
+	}
+
 	public void sync() throws IOException {
-		datOutput.flush();
-		logOutput.flush();
+		flush();
+
+		datChannel.force(true);
+		logChannel.force(true);
+	}
+
+	/**
+	 * make written logs durable as requested. data file is always written
+	 * before log file.
+	 */
+	public void commit(Durability durability) throws IOException {
+		if (durability == Durability.Fsync)
+			sync();
+		else if (durability == Durability.Flush)
+			flush();
 
-		datFileOutput.getFD().sync();
-		logFileOutput.getFD().sync();
+		committedLogLength = logFileLength;
+		committedDatLength = datFileLength;
+	}
+
+	/**
+	 * Discard logs and docs which are written after last commit, and close
+	 * files. Staged bytes of committed logs are written, and uncommitted bytes
+	 * which are already written to channel are truncated.
+	 */
+	public void abort() {
+		try {
+			if (logBuffer != null && logChannel != null && datChannel != null) {
+				abort(datChannel, datBuffer, committedDatLength);
+				abort(logChannel, logBuffer, committedLogLength);
+				logFileLength = committedLogLength;
+				datFileLength = committedDatLength;
+			}
+		} catch (IOException e) {
+			logger.error("araqne confdb: cannot discard uncommitted logs of " + logFile.getAbsolutePath(), e);
+		}
+
+		closeFile(datRaf, "doc file");
+		closeFile(logRaf, "log file");
+	}
+
+	private void abort(FileChannel channel, ByteBuffer staged, long committedLength) throws IOException {
+		long written = channel.position();
+		if (committedLength >= written) {
+			staged.flip();
+			staged.limit((int) (committedLength - written));
+			while (staged.hasRemaining())
+				channel.write(staged);
+		} else {
+			channel.truncate(committedLength);
+		}
+		staged.clear();
+	}
+
+	/**
+	 * Set logical offset of first doc. Used by compaction after new generation
+	 * is written, so that doc offsets never overlap with old generation.
+	 * 
+	 * @param datFile
+	 *            the dat file which is created with 8 byte option
+	 * @param base
+	 *            the logical offset of first doc
+	 */
+	static void setDocBase(File datFile, long base) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(datFile, "rw");
+		try {
+			raf.seek(14);
+			int optionLength = ((raf.readByte() & 0xFF) << 8) + (raf.readByte() & 0xFF);
+			if (16 + optionLength != DOC_BASE_HEADER_LENGTH)
+				throw new IOException("dat file has no doc base option: " + datFile.getAbsolutePath());
+
+			raf.writeLong(base);
+		} finally {
+			raf.close();
+		}
 	}
 
 	public void close() {
-		closeOutput(datOutput, "doc file");
-		closeOutput(logOutput, "log file");
+		try {
+			if (logBuffer != null && logChannel != null && datChannel != null)
+				flush();
+		} catch (IOException e) {
+			logger.error("araqne confdb: cannot flush log file " + logFile.getAbsolutePath(), e);
+		}
+
+		closeFile(datRaf, "doc file");
+		closeFile(logRaf, "log file");
 	}
 
-	private void closeOutput(OutputStream os, String target) {
+	private void closeFile(RandomAccessFile raf, String target) {
+		if (raf == null)
+			return;
+
 		try {
-			os.close();
+			raf.close();
 		} catch (IOException e) {
 			logger.error("araqne confdb: cannot close " + target, e);
 		}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per database view of bounded cache which can be shared by all databases in
+ * process. Keys are qualified by owner view, so each database sees its own
+ * entries only, while max weight and eviction order are process-wide. Entries
+ * of unused database are evicted as other databases put entries.
+ */
+public class SharedCache<K, V> {
+	private static final AtomicInteger lastOwner = new AtomicInteger();
+
+	private final int owner;
+	private final BoundedCache<OwnerKey<K>, V> cache;
+
+	public SharedCache(BoundedCache<OwnerKey<K>, V> cache) {
+		this.owner = lastOwner.incrementAndGet();
+		this.cache = cache;
+	}
+
+	/**
+	 * @return the new bounded cache which weighs unqualified keys
+	 */
+	public static <K, V> BoundedCache<OwnerKey<K>, V> newCache(String name, long maxWeight, final BoundedCache.Weigher<K, V> weigher) {
+		return new BoundedCache<OwnerKey<K>, V>(name, maxWeight, new BoundedCache.Weigher<OwnerKey<K>, V>() {
+			@Override
+			public long weigh(OwnerKey<K> key, V value) {
+				return weigher.weigh(key.key, value);
+			}
+		});
+	}
+
+	/**
+	 * @return the underlying cache. max weight and stats are shared by all
+	 *         views
+	 */
+	public BoundedCache<OwnerKey<K>, V> getCache() {
+		return cache;
+	}
+
+	public V get(K key) {
+		return cache.get(new OwnerKey<K>(owner, key));
+	}
+
+	public V peek(K key) {
+		return cache.peek(new OwnerKey<K>(owner, key));
+	}
+
+	public void put(K key, V value) {
+		cache.put(new OwnerKey<K>(owner, key), value);
+	}
+
+	public void remove(K key) {
+		cache.remove(new OwnerKey<K>(owner, key));
+	}
+
+	/**
+	 * remove entries of this view only
+	 */
+	public void clear() {
+		cache.removeAll(new BoundedCache.KeyFilter<OwnerKey<K>>() {
+			@Override
+			public boolean matches(OwnerKey<K> key) {
+				return key.owner == owner;
+			}
+		});
+	}
+
+	public static class OwnerKey<K> {
+		private final int owner;
+		private final K key;
+
+		public OwnerKey(int owner, K key) {
+			this.owner = owner;
+			this.key = key;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * owner + key.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof OwnerKey))
+				return false;
+			OwnerKey<?> other = (OwnerKey<?>) obj;
+			return owner == other.owner && key.equals(other.key);
+		}
+	}
+}
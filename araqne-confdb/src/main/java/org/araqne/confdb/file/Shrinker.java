@@ -154,8 +154,14 @@ public class Shrinker {
 			collectionIds.add(c.getColId());
 		}
 
-		for (Integer i : collectionIds)
-			renameTo("col" + i);
+		for (Integer i : collectionIds) {
+			int gen = db.getGeneration(i);
+			renameTo(CollectionFiles.getBaseName(i, gen));
+
+			// change sets are renumbered
+			if (gen > 0)
+				new CollectionFiles(i, gen, 0).save(dbDir);
+		}
 
 		renameTo("manifest");
 		renameTo("changeset");
@@ -248,15 +254,17 @@ public class Shrinker {
 						reader.close();
 					if (writer != null)
 						writer.close();
-					writer = new RevLogWriter(new File(dbDir, "new_col" + c.getColId() + ".log"), new File(dbDir, "new_col"
-							+ c.getColId() + ".dat"));
-					reader = new RevLogReader(new File(dbDir, "col" + c.getColId() + ".log"), new File(dbDir, "col"
-							+ c.getColId() + ".dat"));
+					String name = CollectionFiles.getBaseName(c.getColId(), db.getGeneration(c.getColId()));
+					writer = new RevLogWriter(new File(dbDir, "new_" + name + ".log"), new File(dbDir, "new_" + name + ".dat"));
+					reader = new RevLogReader(new File(dbDir, name + ".log"), new File(dbDir, name + ".dat"), true);
 					collectionId = c.getColId();
 				}
 
 				int newIndex;
 				RevLog log = reader.read(c.getIndex());
+				if (log.isPurged())
+					throw new IOException("revision " + c + " is purged by compaction");
+
 				log.setDoc(reader.readDoc(log.getDocOffset(), log.getDocLength()));
 				if (log.getOperation() != CommitOp.CreateDoc && log.getDocId() != lastDocId) {
 					RevLog fakeLog = log;
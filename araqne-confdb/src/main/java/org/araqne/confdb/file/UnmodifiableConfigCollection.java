@@ -15,6 +15,8 @@
  */
 package org.araqne.confdb.file;
 
+import java.util.Set;
+
 import org.araqne.confdb.Config;
 import org.araqne.confdb.ConfigCollection;
 import org.araqne.confdb.ConfigIterator;
@@ -118,4 +120,19 @@ public class UnmodifiableConfigCollection implements ConfigCollection {
 	public Config remove(ConfigTransaction xact, Config c, boolean ignoreConflict) {
 		throw new IllegalStateException(CANNOT_MODIFY_MSG);
 	}
+
+	@Override
+	public void ensureIndex(String field) {
+		throw new IllegalStateException(CANNOT_MODIFY_MSG);
+	}
+
+	@Override
+	public void dropIndex(String field) {
+		throw new IllegalStateException(CANNOT_MODIFY_MSG);
+	}
+
+	@Override
+	public Set<String> getIndexes() {
+		return col.getIndexes();
+	}
 }
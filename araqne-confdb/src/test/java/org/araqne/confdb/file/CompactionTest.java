@@ -0,0 +1,198 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.araqne.confdb.Config;
+import org.araqne.confdb.ConfigCollection;
+import org.araqne.confdb.ConfigIterator;
+import org.araqne.confdb.Predicates;
+import org.araqne.confdb.RollbackException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompactionTest {
+	private File workingDir;
+	private FileConfigDatabase db;
+	private FileConfigCollection col;
+
+	@Before
+	public void setup() throws IOException {
+		workingDir = new File(System.getProperty("user.dir"));
+		db = new FileConfigDatabase(workingDir, "testdb7");
+		col = (FileConfigCollection) db.ensureCollection("testcol7");
+	}
+
+	@After
+	public void teardown() throws IOException {
+		db.purge();
+	}
+
+	@Test
+	public void testCompaction() throws IOException {
+		List<Config> configs = new ArrayList<Config>();
+		for (int i = 0; i < 10; i++)
+			configs.add(col.add(newDoc(i, 0)));
+
+		for (int round = 1; round <= 5; round++) {
+			for (Config c : configs) {
+				c.setDocument(newDoc((Integer) getDoc(c).get("id"), round));
+				col.update(c);
+			}
+			configs = new ArrayList<Config>(col.findAll().getConfigs(0, Integer.MAX_VALUE));
+		}
+
+		int oldChangeSet = (int) db.getCommitCount() - 5;
+		db.setCompactionRetention(1);
+		File oldDat = CollectionFiles.getDatFile(db.getDbDirectory(), col.getId(), 0);
+		long oldLength = oldDat.length();
+
+		CompactionStats stats = db.compact("testcol7");
+		assertEquals(1, stats.getRuns());
+		assertEquals(50, stats.getPurgedRevisions());
+		assertTrue(stats.getReclaimedBytes() > 0);
+		assertFalse(oldDat.exists());
+
+		File newDat = CollectionFiles.getDatFile(db.getDbDirectory(), col.getId(), 1);
+		assertTrue(newDat.length() < oldLength);
+
+		// latest revisions are readable
+		assertLatest(col, 10, 5);
+		assertEquals(10, col.count(Predicates.field("round", 5)));
+
+		// purged change set cannot be rolled back
+		try {
+			db.rollback(oldChangeSet);
+			fail();
+		} catch (RollbackException e) {
+		}
+
+		// write after compaction, and reopen
+		Config c = col.findOne(Predicates.field("id", 3));
+		c.setDocument(newDoc(3, 6));
+		col.update(c);
+		col.add(newDoc(10, 6));
+
+		FileConfigDatabase db2 = new FileConfigDatabase(workingDir, "testdb7");
+		assertEquals(1, db2.getGeneration(col.getId()));
+		assertEquals(11, db2.getCollection("testcol7").count());
+		assertEquals(6, getDoc(db2.getCollection("testcol7").findOne(Predicates.field("id", 3))).get("round"));
+
+		// previous revision of updated doc
+		stats = db.compact("testcol7");
+		assertEquals(1, stats.getPurgedRevisions());
+
+		// nothing to reclaim
+		stats = db.compact("testcol7");
+		assertEquals(0, stats.getRuns());
+		assertEquals(1, stats.getSkips());
+		assertEquals(2, db.getCompactionStats().getRuns());
+		assertEquals(11, col.count());
+	}
+
+	@Test
+	public void testSkippedCompactionKeepsHorizon() {
+		for (int i = 0; i < 5; i++)
+			col.add(newDoc(i, 0));
+
+		int oldChangeSet = (int) db.getCommitCount() - 3;
+		db.setCompactionRetention(1);
+
+		// nothing to reclaim, old change sets are still readable
+		CompactionStats stats = db.compact("testcol7");
+		assertEquals(0, stats.getRuns());
+		assertEquals(1, stats.getSkips());
+		assertEquals(db.getName(), stats.getName());
+		assertEquals(0, db.getRetainedChangeSet());
+
+		db.rollback(oldChangeSet);
+		assertEquals(2, col.count());
+	}
+
+	@Test
+	public void testReaderContinuesOnOldGeneration() {
+		for (int i = 0; i < 10; i++) {
+			Config c = col.add(newDoc(i, 0));
+			c.setDocument(newDoc(i, 1));
+			col.update(c);
+		}
+
+		db.setCompactionRetention(1);
+		ConfigIterator it = col.findAll();
+		assertTrue(it.hasNext());
+
+		db.compact("testcol7");
+		assertEquals(10, it.getDocuments().size());
+		assertLatest(col, 10, 1);
+	}
+
+	@Test
+	public void testIndexAfterCompaction() {
+		col.ensureIndex("round");
+		for (int i = 0; i < 10; i++) {
+			Config c = col.add(newDoc(i, 0));
+			c.setDocument(newDoc(i, i % 2 + 1));
+			col.update(c);
+		}
+
+		db.setCompactionRetention(1);
+		db.compact("testcol7");
+		db.compact("testcol7");
+
+		assertEquals(5, col.find(Predicates.field("round", 2)).count());
+		assertEquals(0, col.find(Predicates.field("round", 0)).count());
+	}
+
+	private void assertLatest(ConfigCollection col, int count, int round) {
+		int found = 0;
+		ConfigIterator it = col.findAll();
+		try {
+			while (it.hasNext()) {
+				Map<String, Object> m = getDoc(it.next());
+				assertEquals(found++, m.get("id"));
+				assertEquals(round, m.get("round"));
+			}
+		} finally {
+			it.close();
+		}
+		assertEquals(count, found);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> getDoc(Config c) {
+		return (Map<String, Object>) c.getDocument();
+	}
+
+	private Map<String, Object> newDoc(int id, int round) {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("id", id);
+		m.put("round", round);
+		m.put("payload", "payload of doc " + id + " round " + round);
+		return m;
+	}
+}
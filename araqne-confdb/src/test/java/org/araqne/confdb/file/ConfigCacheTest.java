@@ -17,11 +17,15 @@ package org.araqne.confdb.file;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.After;
@@ -29,6 +33,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.araqne.confdb.Config;
 import org.araqne.confdb.ConfigCollection;
+import org.araqne.confdb.ConfigTransaction;
 
 public class ConfigCacheTest {
 	private FileConfigDatabase db;
@@ -125,4 +130,187 @@ public class ConfigCacheTest {
 		assertEquals("second", docs.iterator().next().name);
 	}
 
+	@Test
+	public void testBoundedCache() {
+		BoundedCache<Integer, String> c = new BoundedCache<Integer, String>("test", 100,
+				new BoundedCache.Weigher<Integer, String>() {
+					@Override
+					public long weigh(Integer key, String value) {
+						return value.length();
+					}
+				});
+
+		// promote hot entries to protected segment
+		c.put(1, "0123456789");
+		c.put(2, "0123456789");
+		assertEquals("0123456789", c.get(1));
+		assertEquals("0123456789", c.get(2));
+
+		// scan should evict probation entries only
+		for (int i = 100; i < 120; i++)
+			c.put(i, "0123456789");
+
+		assertNotNull(c.get(1));
+		assertNotNull(c.get(2));
+		assertNull(c.get(100));
+
+		CacheStats stats = c.getStats();
+		assertEquals(10, stats.getCount());
+		assertEquals(100, stats.getWeight());
+		assertEquals(12, stats.getEvictions());
+		assertEquals(4, stats.getHits());
+		assertEquals(1, stats.getMisses());
+
+		// too large entry is cached alone
+		c.put(3, new String(new char[101]));
+		assertNotNull(c.get(3));
+		assertNull(c.get(1));
+
+		stats = c.getStats();
+		assertEquals(1, stats.getCount());
+		assertEquals(101, stats.getWeight());
+
+		// and evicted by next entry
+		c.put(4, "0123456789");
+		assertNull(c.get(3));
+		assertNotNull(c.get(4));
+	}
+
+	@Test
+	public void testLargeSnapshot() throws IOException {
+		long maxWeight = getStats(db, "snapshot").getMaxWeight();
+		db.setCacheSize("snapshot", 4096);
+		try {
+			FileConfigDatabase db2 = new FileConfigDatabase(db.getDbDirectory().getParentFile(), "testdb1");
+			FileConfigCollection col2 = (FileConfigCollection) db2.getCollection("testcol1");
+
+			// snapshot of 100 docs is heavier than cache budget
+			ConfigTransaction xact = db2.beginTransaction();
+			for (int i = 0; i < 100; i++)
+				col2.add(xact, "doc" + i);
+			xact.commit(null, null);
+
+			assertEquals(100, col2.findAll().getDocuments().size());
+
+			int manifestId = db2.getManifest(null).getId();
+			int gen = db2.getGeneration(col2.getId());
+			List<RevLog> snapshot = db2.getSnapshotCache(col2.getId(), gen, manifestId);
+			assertNotNull(snapshot);
+			assertEquals(100, snapshot.size());
+			assertEquals(4096, getStats(db2, "snapshot").getMaxWeight());
+		} finally {
+			db.setCacheSize("snapshot", maxWeight);
+		}
+	}
+
+	@Test
+	public void testSharedCache() throws IOException {
+		FileConfigDatabase db2 = new FileConfigDatabase(db.getDbDirectory().getParentFile(), "testshared");
+		try {
+			db2.ensureCollection("testcol2").add("other");
+			db2.getCollection("testcol2").findAll().getDocuments();
+			col.add("hello");
+			col.findAll().getDocuments();
+
+			// one budget is shared by all databases
+			CacheStats stats = getStats(db2, "config");
+			assertEquals(getConfigStats().getMaxWeight(), stats.getMaxWeight());
+			assertEquals(getConfigStats().getCount(), stats.getCount());
+
+			// clear removes entries of own database only
+			long hits = getConfigStats().getHits();
+			((FileConfigCache) db2.getCache()).clear();
+			col.findAll().getDocuments();
+			assertEquals(hits + 1, getConfigStats().getHits());
+		} finally {
+			db2.purge();
+		}
+	}
+
+	@Test
+	public void testCacheAcrossCommits() {
+		col.add("hello");
+		col.add("world");
+		col.findAll().getDocuments();
+
+		// cached configs are reused after other commit
+		col.add("again");
+		CacheStats before = getConfigStats();
+		col.findAll().getDocuments();
+		CacheStats after = getConfigStats();
+		assertEquals(before.getHits() + 2, after.getHits());
+		assertEquals(before.getMisses() + 1, after.getMisses());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testCachedDocumentIsolation() {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("name", "xeraph");
+		m.put("tags", new Object[] { "a", "b" });
+		m.put("ext", new HashMap<String, Object>());
+		col.add(m);
+
+		// first read decodes and caches, second read hits cache
+		for (int i = 0; i < 2; i++) {
+			Map<String, Object> doc = (Map<String, Object>) col.findOne(null).getDocument();
+			assertEquals("xeraph", doc.get("name"));
+			assertEquals(0, ((Map<String, Object>) doc.get("ext")).size());
+
+			doc.put("name", "modified");
+			((Object[]) doc.get("tags"))[0] = "modified";
+			((Map<String, Object>) doc.get("ext")).put("key", "value");
+		}
+
+		Map<String, Object> doc = (Map<String, Object>) col.findOne(null).getDocument();
+		assertEquals("xeraph", doc.get("name"));
+		assertEquals("a", ((Object[]) doc.get("tags"))[0]);
+		assertEquals(0, ((Map<String, Object>) doc.get("ext")).size());
+
+		CustomType t = col.findOne(null).getDocument(CustomType.class);
+		t.ext.put("key", "value");
+		assertEquals(0, ((Map<String, Object>) col.findOne(null).getDocument(CustomType.class).ext).size());
+	}
+
+	@Test
+	public void testSnapshotDerivation() {
+		Config c1 = col.add("one");
+		Config c2 = col.add("two");
+		col.add("three");
+		col.findAll().getDocuments();
+
+		FileConfigCollection fcol = (FileConfigCollection) col;
+		c1.setDocument("one, again");
+		col.update(c1);
+		col.remove(c2);
+		col.add("four");
+
+		// snapshot of tip is derived at commit without reading collection
+		int manifestId = db.getManifest(null).getId();
+		int gen = db.getGeneration(fcol.getId());
+		List<RevLog> snapshot = db.getSnapshotCache(fcol.getId(), gen, manifestId);
+		assertNotNull(snapshot);
+		assertEquals(3, snapshot.size());
+		assertEquals(1, snapshot.get(0).getDocId());
+		assertEquals(2, snapshot.get(0).getRev());
+		assertEquals(3, snapshot.get(1).getDocId());
+		assertEquals(6, snapshot.get(2).getDocId());
+
+		assertEquals(Arrays.asList("one, again", "three", "four"), new ArrayList<Object>(col.findAll().getDocuments()));
+
+		// untouched collection shares snapshot
+		db.ensureCollection("othercol").add("other");
+		assertEquals(snapshot, db.getSnapshotCache(fcol.getId(), gen, db.getManifest(null).getId()));
+	}
+
+	private CacheStats getConfigStats() {
+		return getStats(db, "config");
+	}
+
+	private CacheStats getStats(FileConfigDatabase db, String name) {
+		for (CacheStats s : db.getCacheStats())
+			if (s.getName().equals(name))
+				return s;
+		return null;
+	}
 }
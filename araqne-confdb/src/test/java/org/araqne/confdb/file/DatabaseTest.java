@@ -19,10 +19,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
@@ -90,6 +97,68 @@ public class DatabaseTest {
 		assertEquals(1, col.count());
 	}
 
+	@Test
+	public void testRollbackDiscardsLogs() {
+		Config first = col.add("xeraph");
+
+		ConfigTransaction xact = db.beginTransaction();
+		col.add(xact, "discarded");
+		xact.rollback();
+
+		// rolled back log record should not take doc id
+		Config second = col.add("8con");
+		assertEquals(first.getId() + 1, second.getId());
+		assertEquals(2, col.count());
+	}
+
+	@Test
+	public void testWriterFlushFailure() throws Exception {
+		db.setDurability(Durability.None);
+
+		FileConfigTransaction xact = (FileConfigTransaction) db.beginTransaction();
+		col.add(xact, "xeraph");
+
+		// staged change set cannot be flushed
+		closeChannel(getField(db, "changeWriter"), "logChannel");
+
+		try {
+			xact.commit("xeraph", "second");
+			fail("commit should fail when writer cannot be flushed");
+		} catch (IllegalStateException e) {
+		}
+
+		// write lock is released once, by rollback
+		xact.rollback();
+		xact.rollback();
+
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					col.add("after failure");
+				} catch (Throwable t) {
+					errors.add(t);
+				}
+			}
+		};
+		t.start();
+		t.join(10000);
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(1, col.count());
+		assertEquals("after failure", col.findAll().next().getDocument());
+	}
+
+	private static Object getField(Object o, String name) throws Exception {
+		Field f = o.getClass().getDeclaredField(name);
+		f.setAccessible(true);
+		return f.get(o);
+	}
+
+	private static void closeChannel(Object writer, String name) throws Exception {
+		((FileChannel) getField(writer, name)).close();
+	}
+
 	@Test
 	public void testTransaction() throws IOException {
 		assertEquals(0, col.count());
@@ -261,4 +330,45 @@ public class DatabaseTest {
 		while (it.hasNext())
 			it.next();
 	}
+
+	@Test
+	public void testProjection() {
+		for (int i = 0; i < 10; i++) {
+			Map<String, Object> server = new HashMap<String, Object>();
+			server.put("host", "host" + i);
+			server.put("port", 8000 + i % 2);
+
+			Map<String, Object> m = new HashMap<String, Object>();
+			m.put("name", "server" + i);
+			m.put("description", "long description " + i);
+			m.put("server", server);
+			col.add(m);
+		}
+
+		// evaluated against encoded documents, no cache
+		((FileConfigCache) db.getCache()).clear();
+		assertEquals(5, col.find(Predicates.field("server/port", 8001)).count());
+		assertEquals(10, col.find(Predicates.has("server/host")).count());
+		assertEquals(0, col.find(Predicates.not(Predicates.has("name"))).count());
+
+		for (int pass = 0; pass < 2; pass++) {
+			ConfigIterator it = col.find(Predicates.field("server/port", 8001));
+			it.setProjection("name", "server/host");
+			List<Object> docs = new ArrayList<Object>(it.getDocuments());
+			assertEquals(5, docs.size());
+
+			@SuppressWarnings("unchecked")
+			Map<String, Object> doc = (Map<String, Object>) docs.get(0);
+			assertEquals(2, doc.size());
+			assertEquals("server1", doc.get("name"));
+
+			@SuppressWarnings("unchecked")
+			Map<String, Object> server = (Map<String, Object>) doc.get("server");
+			assertEquals(1, server.size());
+			assertEquals("host1", server.get("host"));
+
+			// second pass reads from cache
+			col.findAll().getDocuments();
+		}
+	}
 }
@@ -15,11 +15,17 @@
  */
 package org.araqne.confdb.file;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import org.junit.Test;
 import org.araqne.codec.EncodingRule;
 import org.araqne.confdb.CollectionEntry;
+import org.araqne.confdb.ConfigCollection;
 import org.araqne.confdb.ConfigEntry;
 
 public class FileManifestCodecTest {
@@ -41,6 +47,85 @@ public class FileManifestCodecTest {
 		System.out.println(decoded);
 	}
 
+	@Test
+	public void testLargeCollection() {
+		FileManifest manifest = new FileManifest();
+		manifest.add(new CollectionEntry(70000, "col1"));
+		for (int i = 1; i <= 70000; i++)
+			manifest.add(new ConfigEntry(70000, i, i, i - 1));
+
+		FileManifest decoded = (FileManifest) decode(manifest);
+		assertEquals(3, decoded.getVersion());
+		assertEquals(70000, decoded.getConfigEntries("col1").size());
+		assertEquals(70000, decoded.getCollectionId("col1"));
+	}
+
+	@Test
+	public void testDelta() {
+		ManifestDelta delta = new ManifestDelta(10, 3);
+		delta.add(new CollectionEntry(3, "col3"));
+		delta.add(new ConfigEntry(3, 1, 5, 0));
+		delta.remove(new ConfigEntry(1, 2, 1));
+		delta.remove(new CollectionEntry(2, "col2"));
+
+		ManifestDelta decoded = (ManifestDelta) decode(delta);
+		assertEquals(10, decoded.getBaseId());
+		assertEquals(3, decoded.getDepth());
+		assertEquals(4, decoded.size());
+
+		FileManifest manifest = getManifest();
+		decoded.applyTo(manifest);
+		assertEquals(2, manifest.getCollectionNames().size());
+		assertEquals(1, manifest.getConfigEntries("col1").size());
+		assertEquals(5, manifest.getConfigEntries("col3").get(0).getRev());
+	}
+
+	@Test
+	public void testDeltaReplay() throws IOException {
+		File workingDir = new File(System.getProperty("user.dir"));
+		FileConfigDatabase db = new FileConfigDatabase(workingDir, "testdb6");
+		try {
+			ConfigCollection col = db.ensureCollection("testcol6");
+			int count = FileManifest.CHECKPOINT_INTERVAL * 3;
+			for (int i = 0; i < count; i++)
+				col.add("doc" + i);
+
+			// count delta records
+			File dir = db.getDbDirectory();
+			RevLogReader reader = new RevLogReader(new File(dir, "manifest.log"), new File(dir, "manifest.dat"));
+			int deltas = 0;
+			try {
+				for (long i = 0; i < reader.count(); i++) {
+					RevLog log = reader.read(i);
+					byte[] b = reader.readDoc(log.getDocOffset(), log.getDocLength());
+					if (EncodingRule.decode(ByteBuffer.wrap(b), new FileManifestCodec()) instanceof ManifestDelta)
+						deltas++;
+				}
+			} finally {
+				reader.close();
+			}
+			assertTrue(deltas > count / 2);
+
+			// reconstruct from checkpoint without cache
+			FileConfigDatabase db2 = new FileConfigDatabase(workingDir, "testdb6");
+			assertEquals(count, db2.getManifest(null).getConfigEntries("testcol6").size());
+			assertEquals(count, db2.getCollection("testcol6").count());
+
+			// change set 1 creates collection
+			assertEquals(9, db2.getManifest(10).getConfigEntries("testcol6").size());
+		} finally {
+			db.purge();
+		}
+	}
+
+	private Object decode(Object value) {
+		FileManifestCodec codec = new FileManifestCodec();
+		ByteBuffer bb = ByteBuffer.allocate(EncodingRule.lengthOf(value, codec));
+		EncodingRule.encode(bb, value, codec);
+		bb.flip();
+		return EncodingRule.decode(bb, codec);
+	}
+
 	private FileManifest getManifest() {
 		FileManifest manifest = new FileManifest();
 		manifest.setVersion(2);
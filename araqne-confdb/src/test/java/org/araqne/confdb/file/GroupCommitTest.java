@@ -0,0 +1,212 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.araqne.confdb.CommitLog;
+import org.araqne.confdb.Config;
+import org.araqne.confdb.ConfigChange;
+import org.araqne.confdb.ConfigCollection;
+import org.araqne.confdb.ConfigIterator;
+import org.araqne.confdb.ConfigTransaction;
+import org.araqne.confdb.Predicates;
+import org.araqne.confdb.RollbackException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GroupCommitTest {
+	private FileConfigDatabase db;
+	private ConfigCollection col;
+
+	@Before
+	public void setup() throws IOException {
+		File workingDir = new File(System.getProperty("user.dir"));
+		db = new FileConfigDatabase(workingDir, "testdb5");
+		col = db.ensureCollection("testcol5");
+	}
+
+	@After
+	public void teardown() throws IOException {
+		db.purge();
+	}
+
+	@Test
+	public void testConcurrentCommit() throws Exception {
+		db.setDurability(Durability.Fsync);
+		db.setGroupCommit(16, 5);
+
+		final int threadCount = 8;
+		final int docCount = 20;
+		final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < threadCount; i++) {
+			final String committer = "user" + i;
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int j = 0; j < docCount; j++)
+							col.add(committer + "-" + j, committer, "add");
+					} catch (Throwable t) {
+						errors.add(t);
+					}
+				}
+			};
+			threads.add(t);
+			t.start();
+		}
+
+		for (Thread t : threads)
+			t.join();
+
+		assertTrue(errors.isEmpty());
+		assertEquals(threadCount * docCount, col.count());
+		assertEquals(1, col.count(Predicates.eq("user3-7")));
+
+		GroupCommitter gc = db.getGroupCommitter();
+		assertEquals(threadCount * docCount, gc.getRequestCount());
+		assertTrue(gc.getBatchCount() <= gc.getCommitCount());
+
+		// each change set belongs to one committer
+		int changes = 0;
+		for (CommitLog log : db.getCommitLogs()) {
+			if (!"add".equals(log.getMessage()))
+				continue;
+
+			for (ConfigChange c : log.getChangeSet())
+				assertTrue(((String) findDoc(c.getDocId())).startsWith(log.getCommitter() + "-"));
+			changes += log.getChangeSet().size();
+		}
+		assertEquals(threadCount * docCount, changes);
+	}
+
+	@Test
+	public void testFailedOperation() {
+		db.setGroupCommit(4, 0);
+
+		Config c = col.add("hello world");
+		c.setDocument("goodbye world");
+		col.update(c);
+
+		// conflict should not affect other operations
+		c.setDocument("hello, world");
+		try {
+			col.update(c, true);
+			fail();
+		} catch (RollbackException e) {
+		}
+
+		col.add("hello again");
+		assertEquals(2, col.count());
+		assertNull(col.findOne(Predicates.eq("hello, world")));
+	}
+
+	@Test
+	public void testFailedOperationInBatch() throws Exception {
+		db.setGroupCommit(16, 0);
+		final GroupCommitter gc = db.getGroupCommitter();
+		final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+
+		// hold write lock, so that following operations are queued
+		ConfigTransaction xact = db.beginTransaction();
+
+		Thread first = startCommit(gc, "first", false, errors);
+		waitRequests(gc, 1);
+		Thread failing = startCommit(gc, "failing", true, errors);
+		waitRequests(gc, 2);
+		Thread last = startCommit(gc, "last", false, errors);
+		waitRequests(gc, 3);
+
+		xact.rollback();
+		first.join();
+		failing.join();
+		last.join();
+
+		assertEquals(1, errors.size());
+		assertTrue(errors.get(0) instanceof RollbackException);
+
+		// partial write of failed operation should not be committed
+		assertEquals(2, col.count());
+		assertNull(col.findOne(Predicates.eq("failing")));
+		assertEquals(1, col.count(Predicates.eq("last")));
+	}
+
+	@Test
+	public void testUncontendedCommit() {
+		db.setGroupCommit(16, 2000);
+
+		long begin = System.currentTimeMillis();
+		col.add("hello world");
+		col.add("goodbye world");
+
+		// lone writer should not wait for batch
+		assertTrue(System.currentTimeMillis() - begin < 1000);
+		assertEquals(2, col.count());
+	}
+
+	private Thread startCommit(final GroupCommitter gc, final String doc, final boolean fail, final List<Throwable> errors) {
+		Thread t = new Thread() {
+			@Override
+			public void run() {
+				try {
+					gc.commit(new WriteOperation() {
+						@Override
+						public Config run(ConfigTransaction xact) {
+							Config c = col.add(xact, doc);
+							if (fail)
+								throw new IllegalStateException("failed after write");
+							return c;
+						}
+					}, null, null);
+				} catch (Throwable t) {
+					errors.add(t);
+				}
+			}
+		};
+		t.start();
+		return t;
+	}
+
+	private void waitRequests(GroupCommitter gc, long count) throws InterruptedException {
+		while (gc.getRequestCount() < count)
+			Thread.sleep(10);
+	}
+
+	private Object findDoc(int docId) {
+		ConfigIterator it = col.findAll();
+		try {
+			while (it.hasNext()) {
+				Config c = it.next();
+				if (c.getId() == docId)
+					return c.getDocument();
+			}
+			return null;
+		} finally {
+			it.close();
+		}
+	}
+}
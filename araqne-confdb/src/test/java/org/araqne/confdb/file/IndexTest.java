@@ -0,0 +1,144 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.araqne.confdb.Config;
+import org.araqne.confdb.ConfigCollection;
+import org.araqne.confdb.ConfigTransaction;
+import org.araqne.confdb.Predicates;
+
+public class IndexTest {
+	private File workingDir;
+	private FileConfigDatabase db;
+	private ConfigCollection col;
+
+	@Before
+	public void setup() throws IOException {
+		workingDir = new File(System.getProperty("user.dir"));
+		db = new FileConfigDatabase(workingDir, "testdb4");
+		col = db.ensureCollection("testcol4");
+	}
+
+	@After
+	public void teardown() throws IOException {
+		db.purge();
+	}
+
+	@Test
+	public void testIndexLookup() {
+		for (int i = 0; i < 10; i++)
+			col.add(doc("user" + i, i % 3));
+
+		col.ensureIndex("name");
+		col.ensureIndex("groupId");
+		assertEquals(2, col.getIndexes().size());
+		assertTrue(col.getIndexes().contains("group_id"));
+
+		assertEquals("user3", name(col.findOne(Predicates.field("name", "user3"))));
+		assertNull(col.findOne(Predicates.field("name", "nobody")));
+		assertEquals(4, col.count(Predicates.field("group_id", 0)));
+		assertEquals(2, col.count(Predicates.in("name", Arrays.asList("user1", "user2", "nobody"))));
+		assertEquals(1, col.count(Predicates.and(Predicates.field("name", "user4"), Predicates.field("group_id", 1))));
+		assertEquals(0, col.count(Predicates.and(Predicates.field("name", "user4"), Predicates.field("group_id", 2))));
+	}
+
+	@Test
+	public void testIndexMaintenance() throws IOException {
+		Config c1 = col.add(doc("xeraph", 1));
+		Config c2 = col.add(doc("stania", 1));
+		col.ensureIndex("name");
+
+		col.add(doc("8con", 2));
+		c1.setDocument(doc("delmitz", 1));
+		col.update(c1);
+		col.remove(c2);
+
+		// commit of other collection should not break index
+		db.ensureCollection("othercol").add("hello");
+
+		assertNull(col.findOne(Predicates.field("name", "xeraph")));
+		assertNull(col.findOne(Predicates.field("name", "stania")));
+		assertNotNull(col.findOne(Predicates.field("name", "delmitz")));
+		assertNotNull(col.findOne(Predicates.field("name", "8con")));
+
+		// persisted index should be loaded by new instance
+		FileConfigDatabase db2 = new FileConfigDatabase(workingDir, "testdb4");
+		ConfigCollection col2 = db2.getCollection("testcol4");
+		assertTrue(col2.getIndexes().contains("name"));
+		assertNotNull(col2.findOne(Predicates.field("name", "delmitz")));
+
+		// other instance commit should be reconciled
+		col2.add(doc("crimsonair", 3));
+		assertNotNull(col.findOne(Predicates.field("name", "crimsonair")));
+
+		col.dropIndex("name");
+		assertTrue(col.getIndexes().isEmpty());
+		assertNotNull(col.findOne(Predicates.field("name", "crimsonair")));
+	}
+
+	@Test
+	public void testIndexUsesStoredDocument() {
+		col.ensureIndex("name");
+
+		// caller's object is modified after write, but before commit
+		Map<String, Object> m = doc("xeraph", 1);
+		ConfigTransaction xact = db.beginTransaction();
+		col.add(xact, m);
+		m.put("name", "modified");
+		xact.commit(null, null);
+
+		assertNotNull(col.findOne(Predicates.field("name", "xeraph")));
+		assertNull(col.findOne(Predicates.field("name", "modified")));
+
+		Config c = col.findOne(Predicates.field("name", "xeraph"));
+		Map<String, Object> updated = doc("stania", 1);
+		c.setDocument(updated);
+		xact = db.beginTransaction();
+		col.update(xact, c, false);
+		updated.put("name", "modified");
+		xact.commit(null, null);
+
+		assertNull(col.findOne(Predicates.field("name", "xeraph")));
+		assertNotNull(col.findOne(Predicates.field("name", "stania")));
+		assertNull(col.findOne(Predicates.field("name", "modified")));
+	}
+
+	private Map<String, Object> doc(String name, int groupId) {
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("name", name);
+		m.put("group_id", groupId);
+		return m;
+	}
+
+	@SuppressWarnings("unchecked")
+	private String name(Config c) {
+		return (String) ((Map<String, Object>) c.getDocument()).get("name");
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2011 Future Systems, Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.confdb.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.araqne.api.CollectionTypeHint;
+import org.araqne.api.FieldOption;
+import org.araqne.api.PrimitiveConverter;
+import org.araqne.codec.EncodingRule;
+import org.araqne.confdb.Config;
+import org.araqne.confdb.ConfigCollection;
+import org.junit.Test;
+
+public class ObjectCodecTest {
+	@Test
+	public void sameAsTwoStepCodec() {
+		Server s = newServer("web", 8080);
+
+		byte[] expected = EncodingRule.encodeBytes(PrimitiveConverter.serialize(s));
+		byte[] encoded = ObjectCodec.encode(s, null);
+		assertArrayEquals(expected, encoded);
+
+		Server decoded = ObjectCodec.decode(Server.class, ByteBuffer.wrap(encoded), null);
+		assertServer(s, decoded);
+	}
+
+	@Test
+	public void addAndGetDocuments() throws IOException {
+		File workingDir = new File(System.getProperty("user.dir"));
+		FileConfigDatabase db = new FileConfigDatabase(workingDir, "testdb7");
+		try {
+			Server s1 = newServer("web", 8080);
+			Server s2 = newServer("was", 9090);
+			Config c1 = db.add(s1);
+			db.add(s2);
+
+			ConfigCollection col = db.getCollection(Server.class);
+			Collection<Server> servers = col.findAll().getDocuments(Server.class);
+			assertEquals(2, servers.size());
+
+			List<Server> l = new ArrayList<Server>(servers);
+			assertServer(s1, l.get(0));
+			assertServer(s2, l.get(1));
+
+			// unchanged object is not updated
+			assertEquals(c1, db.update(c1, s1));
+
+			s1.port = 8443;
+			Config updated = db.update(c1, s1);
+			assertEquals(8443, col.findOne(null).getDocument(Server.class).port);
+			assertTrue(updated.getRevision() > c1.getRevision());
+		} finally {
+			db.purge();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void returnedDocumentsAreDecoded() throws IOException {
+		File workingDir = new File(System.getProperty("user.dir"));
+		FileConfigDatabase db = new FileConfigDatabase(workingDir, "testdb7");
+		try {
+			Server s = newServer("web", 8080);
+			Config added = db.add(s);
+			assertDocument(added.getDocument());
+
+			s.port = 8443;
+			Config updated = db.update(added, s);
+			assertDocument(updated.getDocument());
+			assertDocument(added.getDocument());
+			assertEquals(8443, ((Map<String, Object>) updated.getDocument()).get("port"));
+
+			// read back document has same form
+			Config read = db.getCollection(Server.class).findOne(null);
+			assertDocument(read.getDocument());
+			assertArrayEquals(new Object[] { "web1", "web2" }, (Object[]) ((Map<String, Object>) read.getDocument()).get("aliases"));
+		} finally {
+			db.purge();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void assertDocument(Object doc) {
+		assertEquals(HashMap.class, doc.getClass());
+		Map<String, Object> m = (Map<String, Object>) doc;
+		Object[] aliases = (Object[]) m.get("aliases");
+		assertEquals(2, aliases.length);
+		assertTrue(m.get("owner") instanceof HashMap);
+
+		// caller can modify returned document
+		m.put("description", "modified");
+	}
+
+	private Server newServer(String name, int port) {
+		Server s = new Server();
+		s.name = name;
+		s.port = port;
+		s.created = new Date(1380000000000L);
+		s.state = State.Running;
+		s.secret = "skip";
+		s.owner = new Owner();
+		s.owner.name = "xeraph";
+		s.aliases.add(name + "1");
+		s.aliases.add(name + "2");
+		Owner admin = new Owner();
+		admin.name = "admin";
+		s.admins.add(admin);
+		s.props.put("k", "v");
+		return s;
+	}
+
+	private void assertServer(Server expected, Server actual) {
+		assertEquals(expected.name, actual.name);
+		assertEquals(expected.port, actual.port);
+		assertEquals(expected.created, actual.created);
+		assertEquals(expected.state, actual.state);
+		assertNull(actual.secret);
+		assertNull(actual.description);
+		assertEquals(expected.owner.name, actual.owner.name);
+		assertEquals(expected.aliases, actual.aliases);
+		assertEquals(expected.admins.get(0).name, actual.admins.get(0).name);
+		assertEquals(expected.props, actual.props);
+	}
+
+	public static enum State {
+		Running, Stopped
+	}
+
+	public static class Owner {
+		private String name;
+	}
+
+	public static class Server {
+		@FieldOption(name = "server_name")
+		private String name;
+		private int port;
+		private Date created;
+		private State state;
+		private String description;
+
+		@FieldOption(skip = true)
+		private String secret;
+
+		private Owner owner;
+		private List<String> aliases = new ArrayList<String>();
+
+		@CollectionTypeHint(Owner.class)
+		private List<Owner> admins = new ArrayList<Owner>();
+
+		private Map<String, Object> props = new HashMap<String, Object>();
+	}
+}
@@ -17,6 +17,7 @@ package org.araqne.confdb.file;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 
 import org.junit.After;
 import org.junit.Before;
@@ -171,6 +172,80 @@ public class RevLogTest {
 		assertEquals(CommitOp.CreateDoc, read.getOperation());
 	}
 
+	@Test
+	public void testMappedLookup() throws IOException {
+		RevLog log1 = newLog(1, 0, "hello world");
+		RevLog log2 = newLog(2, 1, "goodbye world");
+		int doc1 = writer.write(log1);
+		int doc2 = writer.write(log2);
+
+		// update doc1, latest revision should be found
+		RevLog log3 = newLog(3, 1, "hello, world");
+		log3.setOperation(CommitOp.UpdateDoc);
+		log3.setDocId(doc1);
+		writer.write(log3);
+		writer.sync();
+
+		RevLogReader mapped = new RevLogReader(logFile, datFile, true);
+		try {
+			assertTrue(mapped.isMapped());
+			assertEquals(3, mapped.count());
+
+			RevLog read1 = mapped.findDoc(doc1);
+			assertEquals(3, read1.getRev());
+			assertEquals("hello, world", new String(mapped.readDoc(read1.getDocOffset(), read1.getDocLength())));
+
+			RevLog read2 = mapped.findRev(2);
+			assertEquals(doc2, read2.getDocId());
+			assertEquals("goodbye world", new String(mapped.readDoc(read2.getDocOffset(), read2.getDocLength())));
+
+			assertNull(mapped.findDoc(1000));
+			assertNull(mapped.findRev(1000));
+		} finally {
+			mapped.close();
+		}
+	}
+
+	@Test
+	public void testLargeDoc() throws IOException {
+		char[] c = new char[40000];
+		Arrays.fill(c, 'a');
+		String large = new String(c);
+
+		writer.write(newLog(1, 0, "small"));
+		writer.write(newLog(2, 1, large));
+		writer.write(newLog(3, 2, "tail"));
+		writer.sync();
+
+		assertEquals(large, readDoc(reader.read(1)));
+		assertEquals("tail", readDoc(reader.read(2)));
+	}
+
+	@Test
+	public void testRefresh() throws IOException {
+		writer.write(newLog(1, 0, "hello world"));
+		writer.flush();
+
+		// append using other writer
+		RevLogWriter other = new RevLogWriter(logFile, datFile);
+		other.write(newLog(2, 1, "goodbye world"));
+		other.close();
+
+		assertTrue(writer.refresh());
+		assertEquals(2, writer.count());
+		assertEquals(3, writer.write(newLog(3, 2, "hello again")));
+		writer.sync();
+		assertEquals("hello again", readDoc(reader.read(2)));
+
+		// replaced file should not be reused
+		logFile.delete();
+		assertFalse(writer.refresh());
+	}
+
+	private String readDoc(RevLog log) throws IOException {
+		return new String(reader.readDoc(log.getDocOffset(), log.getDocLength()));
+	}
+
 	private RevLog newLog(int rev, int prev, String doc) {
 		RevLog log = new RevLog();
 		log.setRev(rev);
@@ -16,6 +16,8 @@
 package org.araqne.confdb.file;
 
 import static org.junit.Assert.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -135,6 +137,51 @@ public class ShrinkTest {
 		new File(db.getDbDirectory(), "export_" + logs.get(logs.size() - 1).getRev() + ".txt").delete();
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testExportImportRoundTrip() throws IOException {
+		Map<String, Object> child = new HashMap<String, Object>();
+		child.put("name", "quote \" backslash \\ slash / tab \t newline \n");
+		child.put("unicode", "\u0001\u001f \uD55C\uAE00 \u2028");
+		child.put("empty", "");
+
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("min_long", Long.MIN_VALUE);
+		m.put("max_long", Long.MAX_VALUE);
+		m.put("min_int", Integer.MIN_VALUE);
+		m.put("small_double", 1.5e-300);
+		m.put("child", child);
+		m.put("children", Arrays.asList((Object) child, Arrays.asList(1, 2, 3), new ArrayList<Object>()));
+		m.put("longs", new long[] { Long.MIN_VALUE, 0, Long.MAX_VALUE });
+		m.put("blob", new byte[] { 0, -1, 127, -128 });
+		col1.add(m);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		db.exportData(os);
+		db.purge();
+		db.importData(new ByteArrayInputStream(os.toByteArray()));
+
+		List<Object> docs = getDocument("testcol1");
+		assertEquals(2, docs.size());
+		Map<String, Object> imported = (Map<String, Object>) docs.get(0);
+
+		assertEquals(Long.MIN_VALUE, imported.get("min_long"));
+		assertEquals(Long.MAX_VALUE, imported.get("max_long"));
+		assertEquals(Integer.MIN_VALUE, imported.get("min_int"));
+		assertEquals(1.5e-300, imported.get("small_double"));
+		assertEquals(child, imported.get("child"));
+
+		// lists are decoded as object arrays
+		Object[] children = (Object[]) imported.get("children");
+		assertEquals(3, children.length);
+		assertEquals(child, children[0]);
+		assertArrayEquals(new Object[] { 1, 2, 3 }, (Object[]) children[1]);
+		assertEquals(0, ((Object[]) children[2]).length);
+
+		assertArrayEquals(new Object[] { Long.MIN_VALUE, 0L, Long.MAX_VALUE }, (Object[]) imported.get("longs"));
+		assertArrayEquals(new byte[] { 0, -1, 127, -128 }, (byte[]) imported.get("blob"));
+	}
+
 	@Test
 	public void testCreateLogShrink() throws IOException {
 		for (int id = 0; id < 10; id++)
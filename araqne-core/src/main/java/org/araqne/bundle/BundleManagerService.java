@@ -42,6 +42,7 @@ import org.araqne.api.BundleStatus;
 import org.araqne.api.KeyStoreManager;
 import org.araqne.api.MavenArtifact;
 import org.araqne.api.MavenResolveException;
+import org.araqne.api.PrimitiveConverter;
 import org.araqne.api.ProgressMonitor;
 import org.araqne.api.Version;
 import org.araqne.confdb.ConfigService;
@@ -580,6 +581,10 @@ public class BundleManagerService implements SynchronousBundleListener, BundleMa
 			logger.info(String.format("Starting %s [%d] bundle.", bundle.getSymbolicName(), bundle.getBundleId()));
 		} else if (event.getType() == BundleEvent.STOPPED) {
 			logger.info(String.format("Stopping %s [%d] bundle.", bundle.getSymbolicName(), bundle.getBundleId()));
+		} else if (event.getType() == BundleEvent.UNINSTALLED || event.getType() == BundleEvent.UPDATED
+				|| event.getType() == BundleEvent.UNRESOLVED) {
+			// release classes of old bundle class loader
+			PrimitiveConverter.clearCache();
 		}
 	}
 
@@ -1,13 +1,14 @@
 package org.araqne.logger;
 
 import java.io.File;
+import java.io.Flushable;
 import java.io.IOException;
 
 import org.apache.log4j.DailyRollingFileAppender;
 import org.apache.log4j.Layout;
 import org.apache.log4j.spi.LoggingEvent;
 
-public class AraqneFileAppender extends DailyRollingFileAppender {
+public class AraqneFileAppender extends DailyRollingFileAppender implements Flushable {
 	private long lastCheckTime;
 	private long lastLogTime;
 
@@ -27,6 +28,15 @@ public class AraqneFileAppender extends DailyRollingFileAppender {
 		super.append(event);
 	}
 
+	/**
+	 * flush buffered logs when immediate flush is turned off
+	 */
+	@Override
+	public synchronized void flush() {
+		if (qw != null)
+			qw.flush();
+	}
+
 	private void checkFilehandler() {
 		long now = System.currentTimeMillis();
 		if (now - lastCheckTime > 60000) {
@@ -19,6 +19,8 @@ import org.araqne.api.Script;
 import org.araqne.api.ScriptArgument;
 import org.araqne.api.ScriptContext;
 import org.araqne.api.ScriptUsage;
+import org.slf4j.impl.AraqneLogDispatcher;
+import org.slf4j.impl.AraqneLogDispatcher.OverflowPolicy;
 import org.slf4j.impl.AraqneLoggerFactory;
 import org.slf4j.impl.StaticLoggerBinder;
 
@@ -109,6 +111,44 @@ public class LoggerScript implements Script {
 		context.println("set");
 	}
 
+	@ScriptUsage(description = "switch async logging mode and overflow policy", arguments = {
+			@ScriptArgument(name = "switch", type = "string", description = "on or off", autocompletion = OnOffAutoCompleter.class),
+			@ScriptArgument(name = "overflow policy", type = "string", description = "block, drop_lowest, or drop_newest", optional = true, autocompletion = OverflowPolicyAutoCompleter.class) })
+	public void async(String[] args) {
+		OverflowPolicy policy = null;
+		if (args.length > 1) {
+			policy = AraqneLoggerFactory.parsePolicy(args[1]);
+			if (policy == null) {
+				context.println("invalid overflow policy");
+				return;
+			}
+		}
+
+		loggerFactory.setAsync(args[0].equalsIgnoreCase("on"));
+		if (policy != null)
+			loggerFactory.getDispatcher().setPolicy(policy);
+
+		context.println("set");
+	}
+
+	@ScriptUsage(description = "print log queue and drop counters")
+	public void stats(String[] args) {
+		AraqneLogDispatcher dispatcher = loggerFactory.getDispatcher();
+		long[] drops = dispatcher.getDropCounts();
+
+		context.println("Log Queue Stats");
+		context.println("-----------------");
+		context.println("async: " + (loggerFactory.isAsync() ? "on" : "off") + ", overflow policy: "
+				+ dispatcher.getPolicy().name().toLowerCase());
+		context.println("queued: " + dispatcher.getQueued() + "/" + dispatcher.getCapacity() + ", max queued: "
+				+ dispatcher.getMaxQueued());
+		context.println("received: " + dispatcher.getReceived() + ", written: " + dispatcher.getWritten());
+		context.println("dropped: debug=" + drops[0] + ", info=" + drops[1] + ", warn=" + drops[2] + ", error="
+				+ drops[3]);
+		context.println("monitor dropped: " + loggerFactory.getMonitorDropCount());
+		context.println("sink errors: " + dispatcher.getSinkErrorCount());
+	}
+
 	public void tail(String[] args) throws InterruptedException {
 		AraqneLogMonitor monitor = new AraqneLogMonitor(context, loggerFactory);
 		Thread t = new Thread(monitor);
@@ -36,6 +36,8 @@ import org.araqne.confdb.ConfigDatabase;
 import org.araqne.confdb.ConfigIterator;
 import org.araqne.confdb.ConfigService;
 import org.araqne.confdb.Manifest;
+import org.araqne.confdb.file.CacheStats;
+import org.araqne.confdb.file.FileConfigDatabase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -268,6 +270,68 @@ public class ConfScript implements Script {
 		}
 	}
 
+	@ScriptUsage(description = "print cache stats, or set cache size", arguments = {
+			@ScriptArgument(name = "database name", type = "string", description = "database name"),
+			@ScriptArgument(name = "cache name", type = "string", description = "changeset, manifest, snapshot or config", optional = true),
+			@ScriptArgument(name = "max size", type = "integer", description = "max cache size in bytes", optional = true) })
+	public void cache(String[] args) {
+		ConfigDatabase db = conf.getDatabase(args[0]);
+		if (db == null) {
+			context.println("database not found");
+			return;
+		}
+
+		if (!(db instanceof FileConfigDatabase)) {
+			context.println("cache stats not supported");
+			return;
+		}
+
+		FileConfigDatabase fdb = (FileConfigDatabase) db;
+		if (args.length > 2) {
+			try {
+				fdb.setCacheSize(args[1], Long.parseLong(args[2]));
+				context.println("set");
+			} catch (IllegalArgumentException e) {
+				context.println(e.getMessage());
+			}
+			return;
+		}
+
+		context.println("Caches");
+		context.println("--------");
+		for (CacheStats stats : fdb.getCacheStats())
+			context.println(stats);
+	}
+
+	@ScriptUsage(description = "compact collection data files, or print compaction stats", arguments = {
+			@ScriptArgument(name = "database name", type = "string", description = "database name"),
+			@ScriptArgument(name = "collection name", type = "string", description = "collection name", optional = true) })
+	public void compact(String[] args) {
+		ConfigDatabase db = conf.getDatabase(args[0]);
+		if (db == null) {
+			context.println("database not found");
+			return;
+		}
+
+		if (!(db instanceof FileConfigDatabase)) {
+			context.println("compaction not supported");
+			return;
+		}
+
+		FileConfigDatabase fdb = (FileConfigDatabase) db;
+		if (args.length > 1) {
+			try {
+				context.println(fdb.compact(args[1]));
+			} catch (Exception e) {
+				logger.error("araqne core: failed to compact [" + db.getName() + "]", e);
+				context.println("failed to compact [" + db.getName() + "], " + e.getMessage());
+			}
+			return;
+		}
+
+		context.println(fdb.getCompactionStats());
+	}
+
 	@ScriptUsage(description = "export db data", arguments = {
 			@ScriptArgument(name = "database name", type = "string", description = "database name"),
 			@ScriptArgument(name = "file path", type = "string", description = "export file path", autocompletion = PathAutoCompleter.class),
@@ -16,14 +16,28 @@
 package org.slf4j.impl;
 
 import java.util.Date;
+import java.util.Map;
+
+import org.slf4j.helpers.MessageFormatter;
 
 public class AraqneLog {
 	private String source;
 	private long bootTime;
-	private Date date;
+	private long time;
+	private volatile Date date;
 	private int level;
-	private String message;
+	private volatile String message;
 	private Throwable throwable;
+	private String threadName;
+
+	// message format and arguments, substituted on first getMessage()
+	private String format;
+	private Object[] args;
+
+	// log4j diagnostic contexts of logging thread, captured for async append
+	private boolean contextCaptured;
+	private String ndc;
+	private Map<?, ?> mdc;
 
 	public AraqneLog() {
 	}
@@ -31,12 +45,29 @@ public class AraqneLog {
 	public AraqneLog(String source, long bootTime, Date date, int level, String message, Throwable throwable) {
 		this.source = source;
 		this.bootTime = bootTime;
+		this.time = date.getTime();
 		this.date = date;
 		this.level = level;
 		this.message = message;
 		this.throwable = throwable;
 	}
 
+	/**
+	 * create log with unformatted message. date and message are built when
+	 * they are requested.
+	 */
+	public AraqneLog(String source, long bootTime, long time, int level, String format, Object[] args, Throwable throwable) {
+		this.source = source;
+		this.bootTime = bootTime;
+		this.time = time;
+		this.level = level;
+		this.format = format;
+		this.args = args;
+		this.throwable = throwable;
+		if (args == null)
+			this.message = format;
+	}
+
 	public String getSource() {
 		return source;
 	}
@@ -53,11 +84,21 @@ public class AraqneLog {
 		this.bootTime = bootTime;
 	}
 
+	public long getTime() {
+		return time;
+	}
+
 	public Date getDate() {
-		return date;
+		Date d = date;
+		if (d == null) {
+			d = new Date(time);
+			date = d;
+		}
+		return d;
 	}
 
 	public void setDate(Date date) {
+		this.time = date != null ? date.getTime() : 0;
 		this.date = date;
 	}
 
@@ -70,10 +111,17 @@ public class AraqneLog {
 	}
 
 	public String getMessage() {
-		return message;
+		String m = message;
+		if (m == null && format != null) {
+			m = MessageFormatter.arrayFormat(format, args);
+			message = m;
+		}
+		return m;
 	}
 
 	public void setMessage(String message) {
+		this.format = null;
+		this.args = null;
 		this.message = message;
 	}
 
@@ -84,4 +132,30 @@ public class AraqneLog {
 	public void setThrowable(Throwable throwable) {
 		this.throwable = throwable;
 	}
+
+	public String getThreadName() {
+		return threadName;
+	}
+
+	public void setThreadName(String threadName) {
+		this.threadName = threadName;
+	}
+
+	public boolean isContextCaptured() {
+		return contextCaptured;
+	}
+
+	public String getNdc() {
+		return ndc;
+	}
+
+	public Map<?, ?> getMdc() {
+		return mdc;
+	}
+
+	public void setContext(String ndc, Map<?, ?> mdc) {
+		this.contextCaptured = true;
+		this.ndc = ndc;
+		this.mdc = mdc;
+	}
 }
@@ -0,0 +1,434 @@
+/*
+ * Copyright 2009 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.slf4j.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Priority;
+
+/**
+ * Bounded queue of logs and a single writer thread which drains it in
+ * batches. Each log is passed to the sink with append flag, which tells
+ * whether log4j appenders are not called yet for the log. Overflow policy
+ * decides what happens when the queue is full.
+ * <p>
+ * Logs are queued per level and stamped with a sequence number, so writer
+ * thread merges them in arrival order and the oldest log of the lowest level
+ * is found and removed in constant time.
+ */
+public class AraqneLogDispatcher implements Runnable {
+	public enum OverflowPolicy {
+		/**
+		 * wait until writer thread makes room
+		 */
+		BLOCK,
+
+		/**
+		 * discard oldest log of the lowest level, or new log if its level is
+		 * not higher than all queued logs. levels are compared as debug, info,
+		 * warn and error, and trace is regarded as debug.
+		 */
+		DROP_LOWEST_LEVEL,
+
+		/**
+		 * discard new log
+		 */
+		DROP_NEWEST
+	}
+
+	public interface Sink {
+		void write(AraqneLog log, boolean append);
+
+		/**
+		 * called after each batch
+		 */
+		void flush();
+	}
+
+	private static final int BATCH_SIZE = 256;
+
+	// queue and drop counter index of debug, info, warn and error
+	private static final int LEVELS = 4;
+
+	private final Sink sink;
+	private final int capacity;
+	private final LevelQueue[] queues = new LevelQueue[LEVELS];
+	private int count;
+
+	// sequence number of next queued log
+	private long seq;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	private volatile OverflowPolicy policy;
+	private boolean accepting;
+	private boolean stopping;
+	private Thread thread;
+
+	// guarded by lock
+	private long received;
+	private int maxQueued;
+	private long[] drops = new long[LEVELS];
+
+	// updated by writer thread only
+	private volatile long written;
+	private volatile long sinkErrors;
+
+	public AraqneLogDispatcher(Sink sink, int capacity, OverflowPolicy policy) {
+		if (capacity <= 0)
+			throw new IllegalArgumentException("capacity should be positive");
+		if (policy == null)
+			throw new IllegalArgumentException("overflow policy should be not null");
+
+		this.sink = sink;
+		this.capacity = capacity;
+		this.policy = policy;
+
+		for (int i = 0; i < LEVELS; i++)
+			queues[i] = new LevelQueue(capacity);
+	}
+
+	public void start() {
+		lock.lock();
+		try {
+			if (thread != null)
+				return;
+
+			accepting = true;
+			stopping = false;
+			thread = new Thread(this, "Araqne Log Writer");
+			thread.start();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * stop accepting logs, and wait until queued logs are written
+	 */
+	public void stop(long timeout) throws InterruptedException {
+		Thread t = null;
+		lock.lock();
+		try {
+			t = thread;
+			stopping = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		if (t != null)
+			t.join(timeout);
+	}
+
+	public boolean isRunning() {
+		lock.lock();
+		try {
+			return accepting;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return false if writer thread is not running, and caller should
+	 *         handle the log by itself. dropped log is regarded as handled.
+	 */
+	public boolean offer(AraqneLog log, boolean append) {
+		lock.lock();
+		try {
+			if (!accepting || stopping)
+				return false;
+
+			received++;
+			int level = toIndex(log.getLevel());
+			while (count == capacity) {
+				OverflowPolicy p = policy;
+
+				// writer thread cannot wait for itself
+				if (p == OverflowPolicy.BLOCK && Thread.currentThread() == thread)
+					p = OverflowPolicy.DROP_NEWEST;
+
+				if (p == OverflowPolicy.BLOCK) {
+					try {
+						notFull.await(100, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						drops[level]++;
+						return true;
+					}
+
+					if (stopping) {
+						received--;
+						return false;
+					}
+				} else if (p == OverflowPolicy.DROP_NEWEST) {
+					drops[level]++;
+					return true;
+				} else {
+					int lowest = 0;
+					while (queues[lowest].size == 0)
+						lowest++;
+
+					if (level <= lowest) {
+						drops[level]++;
+						return true;
+					}
+
+					queues[lowest].remove();
+					count--;
+					drops[lowest]++;
+				}
+			}
+
+			queues[level].add(log, append, seq++);
+			count++;
+			if (count > maxQueued)
+				maxQueued = count;
+
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void run() {
+		AraqneLog[] batch = new AraqneLog[BATCH_SIZE];
+		boolean[] batchAppends = new boolean[BATCH_SIZE];
+
+		while (true) {
+			int n = 0;
+			lock.lock();
+			try {
+				while (count == 0 && !stopping) {
+					try {
+						notEmpty.await();
+					} catch (InterruptedException e) {
+						stopping = true;
+					}
+				}
+
+				if (count == 0) {
+					accepting = false;
+					thread = null;
+					notFull.signalAll();
+					break;
+				}
+
+				n = Math.min(count, BATCH_SIZE);
+				for (int i = 0; i < n; i++) {
+					LevelQueue q = oldest();
+					batchAppends[i] = q.appends[q.head];
+					batch[i] = q.remove();
+				}
+
+				count -= n;
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+
+			for (int i = 0; i < n; i++) {
+				try {
+					sink.write(batch[i], batchAppends[i]);
+				} catch (Throwable t) {
+					sinkFailed(t);
+				}
+				batch[i] = null;
+			}
+
+			try {
+				sink.flush();
+			} catch (Throwable t) {
+				sinkFailed(t);
+			}
+
+			written += n;
+		}
+	}
+
+	public OverflowPolicy getPolicy() {
+		return policy;
+	}
+
+	public void setPolicy(OverflowPolicy policy) {
+		if (policy == null)
+			throw new IllegalArgumentException("overflow policy should be not null");
+
+		this.policy = policy;
+		lock.lock();
+		try {
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public int getQueued() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getMaxQueued() {
+		lock.lock();
+		try {
+			return maxQueued;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getReceived() {
+		lock.lock();
+		try {
+			return received;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getWritten() {
+		return written;
+	}
+
+	/**
+	 * @return count of exceptions thrown by sink write and flush
+	 */
+	public long getSinkErrorCount() {
+		return sinkErrors;
+	}
+
+	/**
+	 * @return dropped count of debug, info, warn and error logs
+	 */
+	public long[] getDropCounts() {
+		lock.lock();
+		try {
+			return drops.clone();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getDropCount() {
+		long total = 0;
+		for (long l : getDropCounts())
+			total += l;
+		return total;
+	}
+
+	private void sinkFailed(Throwable t) {
+		// cannot log failure of logging, report first one to stderr
+		if (sinkErrors++ == 0) {
+			System.err.println("araqne logger: log sink failed, see log stats for error count");
+			t.printStackTrace();
+		}
+	}
+
+	private static int toIndex(int level) {
+		if (level >= Priority.ERROR_INT)
+			return 3;
+		if (level >= Priority.WARN_INT)
+			return 2;
+		if (level >= Priority.INFO_INT)
+			return 1;
+		return 0;
+	}
+
+	/**
+	 * @return level queue which has the oldest log
+	 */
+	private LevelQueue oldest() {
+		LevelQueue oldest = null;
+		for (LevelQueue q : queues) {
+			if (q.size > 0 && (oldest == null || q.seqs[q.head] < oldest.seqs[oldest.head]))
+				oldest = q;
+		}
+		return oldest;
+	}
+
+	/**
+	 * growable ring of logs of same level
+	 */
+	private static class LevelQueue {
+		private final int capacity;
+		private AraqneLog[] logs;
+		private boolean[] appends;
+		private long[] seqs;
+		private int head;
+		private int size;
+
+		public LevelQueue(int capacity) {
+			this.capacity = capacity;
+			int initial = Math.min(capacity, 16);
+			logs = new AraqneLog[initial];
+			appends = new boolean[initial];
+			seqs = new long[initial];
+		}
+
+		public void add(AraqneLog log, boolean append, long seq) {
+			if (size == logs.length)
+				grow();
+
+			int p = (head + size) % logs.length;
+			logs[p] = log;
+			appends[p] = append;
+			seqs[p] = seq;
+			size++;
+		}
+
+		public AraqneLog remove() {
+			AraqneLog log = logs[head];
+			logs[head] = null;
+			head = (head + 1) % logs.length;
+			size--;
+			return log;
+		}
+
+		private void grow() {
+			int len = (int) Math.min((long) logs.length * 2, capacity);
+			AraqneLog[] newLogs = new AraqneLog[len];
+			boolean[] newAppends = new boolean[len];
+			long[] newSeqs = new long[len];
+			for (int i = 0; i < size; i++) {
+				int p = (head + i) % logs.length;
+				newLogs[i] = logs[p];
+				newAppends[i] = appends[p];
+				newSeqs[i] = seqs[p];
+			}
+
+			logs = newLogs;
+			appends = newAppends;
+			seqs = newSeqs;
+			head = 0;
+		}
+	}
+}
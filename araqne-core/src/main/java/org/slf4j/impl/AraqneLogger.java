@@ -15,22 +15,16 @@
  */
 package org.slf4j.impl;
 
-import java.io.ByteArrayOutputStream;
-import java.io.PrintStream;
 import java.io.Serializable;
-import java.util.Date;
-import java.util.concurrent.BlockingQueue;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.Priority;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.ServiceReference;
 import org.slf4j.Marker;
-import org.slf4j.helpers.MessageFormatter;
 
 public class AraqneLogger extends org.apache.felix.framework.Logger implements org.slf4j.Logger, Serializable {
 	private static final long serialVersionUID = 1L;
-	private static long bootTime = System.currentTimeMillis();
 	public static final String LINE_SEPARATOR = System.getProperty("line.separator");
 	private static int INFO = Priority.INFO_INT;
 	private static int WARN = Priority.WARN_INT;
@@ -39,17 +33,15 @@ public class AraqneLogger extends org.apache.felix.framework.Logger implements o
 	private static int TRACE = Priority.DEBUG_INT;
 
 	private String name;
+	private transient Logger log4jLogger;
 	private boolean isDebugEnabled = false;
 	private boolean isTraceEnabled = false;
 	private boolean isInfoEnabled = true;
 	private boolean isWarnEnabled = true;
 	private boolean isErrorEnabled = true;
 
-	private BlockingQueue<AraqneLog> queue;
-
-	public AraqneLogger(String name, BlockingQueue<AraqneLog> queue) {
+	public AraqneLogger(String name) {
 		this.name = name;
-		this.queue = queue;
 	}
 
 	@Override
@@ -247,40 +239,13 @@ public class AraqneLogger extends org.apache.felix.framework.Logger implements o
 			internalLog(WARN, msg, null);
 	}
 
-	@SuppressWarnings("deprecation")
 	private void internalLog(int level, String message, Throwable t) {
-		Date date = new Date();
-		Priority priority = Priority.toPriority(level);
-		if (t != null) {
-			getLogger().log(priority, message + "\n" + makeStackTrace(t));
-		} else {
-			getLogger().log(priority, message);
-		}
-
-		long timeOffset = System.currentTimeMillis() - bootTime;
-
-		queue.add(new AraqneLog(name, timeOffset, date, level, message, t));
-	}
-
-	private String makeStackTrace(Throwable t) {
-		if (t == null)
-			return "";
-		try {
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			t.printStackTrace(new PrintStream(out));
-			out.flush();
-			return new String(out.toByteArray());
-		} catch (Exception e) {
-			return "";
-		}
-	}
-
-	private Logger getLogger() {
-		return Logger.getLogger(name);
+		AraqneLoggerFactory.INSTANCE.log(this, level, message, null, t);
 	}
 
 	/**
-	 * For formatted messages, first substitute arguments and then log.
+	 * For formatted messages, arguments are substituted when the message is
+	 * actually written or monitored.
 	 * 
 	 * @param level
 	 * @param format
@@ -288,20 +253,30 @@ public class AraqneLogger extends org.apache.felix.framework.Logger implements o
 	 * @param param2
 	 */
 	private void formatAndLog(int level, String format, Object arg1, Object arg2) {
-		String message = MessageFormatter.format(format, arg1, arg2);
-		internalLog(level, message, null);
+		AraqneLoggerFactory factory = AraqneLoggerFactory.INSTANCE;
+		if (factory.isWanted(this, level))
+			factory.log(this, level, format, new Object[] { arg1, arg2 }, null);
 	}
 
 	/**
-	 * For formatted messages, first substitute arguments and then log.
+	 * For formatted messages, arguments are substituted when the message is
+	 * actually written or monitored.
 	 * 
 	 * @param level
 	 * @param format
 	 * @param argArray
 	 */
 	private void formatAndLog(int level, String format, Object[] argArray) {
-		String message = MessageFormatter.arrayFormat(format, argArray);
-		internalLog(level, message, null);
+		AraqneLoggerFactory.INSTANCE.log(this, level, format, argArray, null);
+	}
+
+	Logger getLogger() {
+		Logger logger = log4jLogger;
+		if (logger == null) {
+			logger = Logger.getLogger(name);
+			log4jLogger = logger;
+		}
+		return logger;
 	}
 
 	/**
@@ -15,8 +15,13 @@
  */
 package org.slf4j.impl;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,59 +29,242 @@ import java.util.Random;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.log4j.Level;
+import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.WriterAppender;
+import org.apache.log4j.spi.LoggingEvent;
 import org.slf4j.ILoggerFactory;
 import org.slf4j.Logger;
+import org.slf4j.impl.AraqneLogDispatcher.OverflowPolicy;
 
-public class AraqneLoggerFactory implements ILoggerFactory, Runnable {
+/**
+ * Logs are passed to log4j and connected log monitors through bounded
+ * dispatcher. In async mode (araqne.log.async=true), log4j appenders are also
+ * called by the dispatcher thread, so logging threads do not wait for file
+ * I/O. Queue size and overflow policy can be set using araqne.log.queue_size
+ * and araqne.log.overflow (block, drop_lowest or drop_newest) system
+ * properties.
+ */
+public class AraqneLoggerFactory implements ILoggerFactory, AraqneLogDispatcher.Sink {
 	final static AraqneLoggerFactory INSTANCE = new AraqneLoggerFactory();
 
+	private static final String FQCN = AraqneLogger.class.getName();
+	private static final int MONITOR_CAPACITY = 10000;
+	private static long bootTime = System.currentTimeMillis();
+
 	private Map<String, AraqneLogger> loggerMap;
-	private LinkedBlockingQueue<AraqneLog> queue;
-	private Thread t;
-	private boolean doStop = false;
+	private AraqneLogDispatcher dispatcher;
+	private volatile boolean async;
 	private Map<Integer, BlockingQueue<AraqneLog>> monitors;
+	private AtomicLong monitorDrops = new AtomicLong();
 	private Random rand;
 
 	private AraqneLoggerFactory() {
 		loggerMap = new HashMap<String, AraqneLogger>();
-		queue = new LinkedBlockingQueue<AraqneLog>();
 		monitors = new ConcurrentHashMap<Integer, BlockingQueue<AraqneLog>>();
 		rand = new Random(System.currentTimeMillis());
+
+		int queueSize = 8192;
+		try {
+			queueSize = Integer.parseInt(System.getProperty("araqne.log.queue_size"));
+		} catch (Exception e) {
+			// ignore
+		}
+
+		OverflowPolicy policy = parsePolicy(System.getProperty("araqne.log.overflow"));
+		if (policy == null)
+			policy = OverflowPolicy.BLOCK;
+
+		async = Boolean.parseBoolean(System.getProperty("araqne.log.async"));
+		dispatcher = new AraqneLogDispatcher(this, queueSize, policy);
 	}
 
 	public void start() {
-		t = new Thread(this, "Araqne Log Monitor");
-		t.start();
+		dispatcher.start();
+		setImmediateFlush(!async);
 	}
 
 	public void stop() {
-		doStop = true;
-		t.interrupt();
+		try {
+			dispatcher.stop(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		setImmediateFlush(true);
+	}
+
+	public boolean isAsync() {
+		return async;
+	}
+
+	public void setAsync(boolean async) {
+		this.async = async;
+		setImmediateFlush(!async);
+	}
+
+	public AraqneLogDispatcher getDispatcher() {
+		return dispatcher;
+	}
+
+	public long getMonitorDropCount() {
+		return monitorDrops.get();
+	}
+
+	/**
+	 * @return block, drop_lowest or drop_newest policy, or null if unknown
+	 */
+	public static OverflowPolicy parsePolicy(String s) {
+		if (s == null)
+			return null;
+		if (s.equalsIgnoreCase("block"))
+			return OverflowPolicy.BLOCK;
+		if (s.equalsIgnoreCase("drop_lowest"))
+			return OverflowPolicy.DROP_LOWEST_LEVEL;
+		if (s.equalsIgnoreCase("drop_newest"))
+			return OverflowPolicy.DROP_NEWEST;
+		return null;
+	}
+
+	/**
+	 * @return true if log4j logger accepts the level or any monitor exists
+	 */
+	boolean isWanted(AraqneLogger logger, int level) {
+		return !monitors.isEmpty() || isEnabled(logger.getLogger(), level);
+	}
+
+	/**
+	 * Log message with unformatted arguments. Nothing is allocated if neither
+	 * log4j nor monitors want the log. Message is formatted by the writer
+	 * thread in async mode, unless arguments are mutable.
+	 */
+	void log(AraqneLogger logger, int level, String format, Object[] args, Throwable t) {
+		boolean enabled = isEnabled(logger.getLogger(), level);
+		boolean monitored = !monitors.isEmpty();
+		if (!enabled && !monitored)
+			return;
+
+		long now = System.currentTimeMillis();
+		AraqneLog log = new AraqneLog(logger.getName(), now - bootTime, now, level, format, args, t);
+		log.setThreadName(Thread.currentThread().getName());
+
+		if (async) {
+			// arguments can be modified after return
+			if (args != null && !isImmutable(args))
+				log.getMessage();
+
+			// diagnostic contexts belong to logging thread
+			if (enabled)
+				captureContext(log);
+
+			if (dispatcher.offer(log, enabled))
+				return;
+		}
+
+		if (enabled)
+			append(logger.getLogger(), log);
+
+		if (monitored)
+			dispatcher.offer(log, false);
 	}
 
 	@Override
-	public void run() {
-		try {
-			while (true) {
+	public void write(AraqneLog log, boolean append) {
+		if (append)
+			append(org.apache.log4j.Logger.getLogger(log.getSource()), log);
+
+		if (monitors.isEmpty())
+			return;
+
+		for (BlockingQueue<AraqneLog> monitor : monitors.values()) {
+			if (!monitor.offer(log))
+				monitorDrops.incrementAndGet();
+		}
+	}
+
+	@Override
+	public void flush() {
+		if (!async)
+			return;
+
+		Enumeration<?> e = org.apache.log4j.Logger.getRootLogger().getAllAppenders();
+		while (e.hasMoreElements()) {
+			Object appender = e.nextElement();
+			if (appender instanceof Flushable) {
 				try {
-					AraqneLog log = queue.poll(100, TimeUnit.MILLISECONDS);
-					if (doStop)
-						break;
-
-					if (log == null)
-						continue;
-
-					for (BlockingQueue<AraqneLog> monitor : monitors.values()) {
-						monitor.add(log);
-					}
-				} catch (InterruptedException e) {
-					break;
+					((Flushable) appender).flush();
+				} catch (IOException ex) {
 				}
 			}
-		} finally {
-			doStop = false;
+		}
+	}
+
+	/**
+	 * flushable appenders are flushed after each batch in async mode
+	 */
+	private void setImmediateFlush(boolean immediateFlush) {
+		Enumeration<?> e = org.apache.log4j.Logger.getRootLogger().getAllAppenders();
+		while (e.hasMoreElements()) {
+			Object appender = e.nextElement();
+			if (appender instanceof WriterAppender && appender instanceof Flushable)
+				((WriterAppender) appender).setImmediateFlush(immediateFlush);
+		}
+	}
+
+	/**
+	 * same as log4j Logger.log(), but keeps timestamp and thread name of
+	 * original logging call
+	 */
+	private void append(org.apache.log4j.Logger logger, AraqneLog log) {
+		if (!isEnabled(logger, log.getLevel()))
+			return;
+
+		Level level = Level.toLevel(log.getLevel());
+
+		String message = log.getMessage();
+		if (log.getThrowable() != null)
+			message = message + "\n" + makeStackTrace(log.getThrowable());
+
+		String ndc = log.isContextCaptured() ? log.getNdc() : NDC.get();
+		Map<?, ?> mdc = log.isContextCaptured() ? log.getMdc() : MDC.getContext();
+		logger.callAppenders(new LoggingEvent(FQCN, logger, log.getDate().getTime(), level, message, log.getThreadName(),
+				null, ndc, null, mdc));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void captureContext(AraqneLog log) {
+		Map<?, ?> mdc = MDC.getContext();
+		log.setContext(NDC.get(), mdc != null && !mdc.isEmpty() ? new HashMap<Object, Object>((Map<Object, Object>) mdc)
+				: null);
+	}
+
+	private static boolean isEnabled(org.apache.log4j.Logger logger, int level) {
+		if (logger.getLoggerRepository().isDisabled(level))
+			return false;
+
+		return Level.toLevel(level).isGreaterOrEqual(logger.getEffectiveLevel());
+	}
+
+	private static boolean isImmutable(Object[] args) {
+		for (Object o : args) {
+			if (o == null || o instanceof String || o instanceof Number || o instanceof Boolean
+					|| o instanceof Character || o instanceof Enum || o instanceof Class)
+				continue;
+			return false;
+		}
+		return true;
+	}
+
+	private String makeStackTrace(Throwable t) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			t.printStackTrace(new PrintStream(out));
+			out.flush();
+			return new String(out.toByteArray());
+		} catch (Exception e) {
+			return "";
 		}
 	}
 
@@ -87,7 +275,7 @@ public class AraqneLoggerFactory implements ILoggerFactory, Runnable {
 		synchronized (this) {
 			logger = loggerMap.get(name);
 			if (logger == null) {
-				logger = new AraqneLogger(name, queue);
+				logger = new AraqneLogger(name);
 				loggerMap.put(name, logger);
 			}
 		}
@@ -137,7 +325,7 @@ public class AraqneLoggerFactory implements ILoggerFactory, Runnable {
 
 	public int createMonitor() {
 		int monitorId = rand.nextInt(10000);
-		monitors.put(monitorId, new LinkedBlockingQueue<AraqneLog>());
+		monitors.put(monitorId, new LinkedBlockingQueue<AraqneLog>(MONITOR_CAPACITY));
 		return monitorId;
 	}
 
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2009 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.slf4j.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.log4j.Priority;
+import org.junit.Test;
+import org.slf4j.impl.AraqneLogDispatcher.OverflowPolicy;
+
+public class AraqneLogDispatcherTest {
+	@Test
+	public void testDropLowestLevel() throws InterruptedException {
+		BlockingSink sink = new BlockingSink();
+		AraqneLogDispatcher dispatcher = new AraqneLogDispatcher(sink, 3, OverflowPolicy.DROP_LOWEST_LEVEL);
+		dispatcher.start();
+
+		// writer thread holds first log until released
+		assertTrue(dispatcher.offer(newLog("hold", Priority.INFO_INT), true));
+		sink.taken.await();
+
+		dispatcher.offer(newLog("debug1", Priority.DEBUG_INT), true);
+		dispatcher.offer(newLog("warn1", Priority.WARN_INT), true);
+		dispatcher.offer(newLog("debug2", Priority.DEBUG_INT), true);
+
+		// oldest debug log makes room for error, and new debug log is dropped
+		dispatcher.offer(newLog("error1", Priority.ERROR_INT), true);
+		dispatcher.offer(newLog("debug3", Priority.DEBUG_INT), true);
+
+		assertEquals(3, dispatcher.getQueued());
+		assertArrayEquals(new long[] { 2, 0, 0, 0 }, dispatcher.getDropCounts());
+
+		sink.release.countDown();
+		dispatcher.stop(5000);
+
+		assertFalse(dispatcher.isRunning());
+		assertEquals(4, dispatcher.getWritten());
+		assertEquals(6, dispatcher.getReceived());
+		assertEquals("[hold, warn1, debug2, error1]", sink.messages.toString());
+	}
+
+	@Test
+	public void testDropNewest() throws InterruptedException {
+		BlockingSink sink = new BlockingSink();
+		AraqneLogDispatcher dispatcher = new AraqneLogDispatcher(sink, 2, OverflowPolicy.DROP_NEWEST);
+		dispatcher.start();
+
+		dispatcher.offer(newLog("hold", Priority.INFO_INT), true);
+		sink.taken.await();
+
+		for (int i = 0; i < 5; i++)
+			dispatcher.offer(newLog("error" + i, Priority.ERROR_INT), true);
+
+		assertArrayEquals(new long[] { 0, 0, 0, 3 }, dispatcher.getDropCounts());
+
+		sink.release.countDown();
+		dispatcher.stop(5000);
+		assertEquals("[hold, error0, error1]", sink.messages.toString());
+
+		// caller should log by itself after stop
+		assertFalse(dispatcher.offer(newLog("late", Priority.INFO_INT), true));
+	}
+
+	@Test
+	public void testDropLowestLevelOrder() throws InterruptedException {
+		BlockingSink sink = new BlockingSink();
+		AraqneLogDispatcher dispatcher = new AraqneLogDispatcher(sink, 4, OverflowPolicy.DROP_LOWEST_LEVEL);
+		dispatcher.start();
+
+		dispatcher.offer(newLog("hold", Priority.INFO_INT), true);
+		sink.taken.await();
+
+		dispatcher.offer(newLog("info1", Priority.INFO_INT), true);
+		dispatcher.offer(newLog("warn1", Priority.WARN_INT), true);
+		dispatcher.offer(newLog("info2", Priority.INFO_INT), true);
+		dispatcher.offer(newLog("trace1", Priority.DEBUG_INT - 1), true);
+
+		// trace is dropped first, then oldest info logs
+		dispatcher.offer(newLog("error1", Priority.ERROR_INT), true);
+		dispatcher.offer(newLog("warn2", Priority.WARN_INT), true);
+		dispatcher.offer(newLog("error2", Priority.ERROR_INT), true);
+		dispatcher.offer(newLog("info3", Priority.INFO_INT), true);
+
+		assertEquals(4, dispatcher.getQueued());
+		assertArrayEquals(new long[] { 1, 3, 0, 0 }, dispatcher.getDropCounts());
+
+		sink.release.countDown();
+		dispatcher.stop(5000);
+		assertEquals("[hold, warn1, error1, warn2, error2]", sink.messages.toString());
+	}
+
+	@Test
+	public void testSinkErrorCount() throws InterruptedException {
+		AraqneLogDispatcher.Sink sink = new AraqneLogDispatcher.Sink() {
+			@Override
+			public void write(AraqneLog log, boolean append) {
+				if (log.getLevel() == Priority.ERROR_INT)
+					throw new IllegalStateException("sink failure test");
+			}
+
+			@Override
+			public void flush() {
+			}
+		};
+
+		AraqneLogDispatcher dispatcher = new AraqneLogDispatcher(sink, 10, OverflowPolicy.BLOCK);
+		dispatcher.start();
+		dispatcher.offer(newLog("error1", Priority.ERROR_INT), true);
+		dispatcher.offer(newLog("info1", Priority.INFO_INT), true);
+		dispatcher.offer(newLog("error2", Priority.ERROR_INT), true);
+		dispatcher.stop(5000);
+
+		assertEquals(3, dispatcher.getWritten());
+		assertEquals(2, dispatcher.getSinkErrorCount());
+	}
+
+	@Test
+	public void testLazyMessage() {
+		AraqneLog log = new AraqneLog("test", 0, 1000, Priority.INFO_INT, "{} of {}", new Object[] { 1, "two" }, null);
+		assertEquals("1 of two", log.getMessage());
+		assertEquals(1000, log.getDate().getTime());
+
+		AraqneLog plain = new AraqneLog("test", 0, 1000, Priority.INFO_INT, "{} as is", null, null);
+		assertEquals("{} as is", plain.getMessage());
+	}
+
+	private AraqneLog newLog(String msg, int level) {
+		return new AraqneLog("test", 0, new Date(), level, msg, null);
+	}
+
+	private static class BlockingSink implements AraqneLogDispatcher.Sink {
+		private CountDownLatch taken = new CountDownLatch(1);
+		private CountDownLatch release = new CountDownLatch(1);
+		private List<String> messages = new ArrayList<String>();
+
+		@Override
+		public void write(AraqneLog log, boolean append) {
+			messages.add(log.getMessage());
+			taken.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			}
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+}
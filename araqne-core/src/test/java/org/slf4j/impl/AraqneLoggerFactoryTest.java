@@ -0,0 +1,112 @@
+/*
+ * Copyright 2009 NCHOVY
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.slf4j.impl;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.MDC;
+import org.apache.log4j.NDC;
+import org.apache.log4j.spi.LoggingEvent;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+public class AraqneLoggerFactoryTest {
+	@Test
+	public void testLevelChange() {
+		AraqneLoggerFactory factory = AraqneLoggerFactory.INSTANCE;
+		org.apache.log4j.Logger log4jLogger = org.apache.log4j.Logger.getLogger("level.change.test");
+		log4jLogger.setLevel(Level.WARN);
+		log4jLogger.setAdditivity(false);
+
+		CollectingAppender appender = new CollectingAppender();
+		log4jLogger.addAppender(appender);
+
+		Logger logger = factory.getLogger("level.change.test");
+		logger.info("info1");
+		logger.warn("warn1");
+
+		// level set by log4j directly takes effect immediately
+		log4jLogger.setLevel(Level.INFO);
+		logger.info("info2");
+
+		// parent level is inherited when own level is cleared
+		org.apache.log4j.Logger parent = org.apache.log4j.Logger.getLogger("level.change");
+		parent.setLevel(Level.ERROR);
+		log4jLogger.setLevel(null);
+		logger.warn("warn2");
+		parent.setLevel(Level.WARN);
+		logger.warn("warn3");
+
+		assertEquals("[warn1, info2, warn3]", appender.messages.toString());
+	}
+
+	@Test
+	public void testAsyncContext() {
+		AraqneLoggerFactory factory = AraqneLoggerFactory.INSTANCE;
+		org.apache.log4j.Logger log4jLogger = org.apache.log4j.Logger.getLogger("async.context.test");
+		log4jLogger.setLevel(Level.INFO);
+		log4jLogger.setAdditivity(false);
+
+		CollectingAppender appender = new CollectingAppender();
+		log4jLogger.addAppender(appender);
+
+		boolean async = factory.isAsync();
+		factory.setAsync(true);
+		factory.start();
+		try {
+			Logger logger = factory.getLogger("async.context.test");
+			MDC.put("user", "alice");
+			NDC.push("request1");
+			logger.info("context {}", 1);
+			MDC.remove("user");
+			NDC.pop();
+		} finally {
+			factory.stop();
+			factory.setAsync(async);
+		}
+
+		assertEquals("[context 1]", appender.messages.toString());
+		LoggingEvent event = appender.events.get(0);
+		assertEquals("alice", event.getMDC("user"));
+		assertEquals("request1", event.getNDC());
+		assertEquals(Thread.currentThread().getName(), event.getThreadName());
+	}
+
+	private static class CollectingAppender extends AppenderSkeleton {
+		private List<LoggingEvent> events = new ArrayList<LoggingEvent>();
+		private List<String> messages = new ArrayList<String>();
+
+		@Override
+		protected synchronized void append(LoggingEvent event) {
+			events.add(event);
+			messages.add(event.getRenderedMessage());
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean requiresLayout() {
+			return false;
+		}
+	}
+}
@@ -15,6 +15,7 @@
  */
 package org.araqne.cron;
 
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -38,4 +39,26 @@ public interface CronService {
 
 	List<String> getJobList();
 
+	/**
+	 * returns ids of schedules which fire in [from, to), grouped by firing
+	 * time in ascending order
+	 * 
+	 * @since 1.8.7
+	 */
+	Map<Date, List<Integer>> getTimeline(Date from, Date to);
+
+	/**
+	 * returns execution metrics of scheduled jobs, keyed by schedule id
+	 * 
+	 * @since 1.8.7
+	 */
+	Map<Integer, ExecutionStats> getScheduleStats();
+
+	/**
+	 * returns metrics of worker pool which runs scheduled jobs
+	 * 
+	 * @since 1.8.7
+	 */
+	PoolStats getPoolStats();
+
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2009 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.cron;
+
+/**
+ * Snapshot of execution metrics of a cron schedule or a tick timer. Latency
+ * is the delay from scheduled time to actual start, and duration is the
+ * running time of the task.
+ * 
+ * @since 1.8.7
+ */
+public class ExecutionStats {
+	private String name;
+
+	/**
+	 * due occurrences
+	 */
+	private long fired;
+
+	private long started;
+	private long completed;
+	private long failed;
+
+	/**
+	 * fired while previous run is not finished
+	 */
+	private long overlapped;
+
+	/**
+	 * discarded by skip overlap policy
+	 */
+	private long skipped;
+
+	/**
+	 * deferred by queue overlap policy
+	 */
+	private long queued;
+
+	/**
+	 * discarded because scheduler was late
+	 */
+	private long misfired;
+
+	/**
+	 * rejected by full worker pool, or run by caller thread for tick timer
+	 */
+	private long rejected;
+
+	/**
+	 * task service was not active
+	 */
+	private long inactive;
+
+	private int running;
+	private Histogram latency;
+	private Histogram duration;
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public long getFired() {
+		return fired;
+	}
+
+	public void setFired(long fired) {
+		this.fired = fired;
+	}
+
+	public long getStarted() {
+		return started;
+	}
+
+	public void setStarted(long started) {
+		this.started = started;
+	}
+
+	public long getCompleted() {
+		return completed;
+	}
+
+	public void setCompleted(long completed) {
+		this.completed = completed;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	public void setFailed(long failed) {
+		this.failed = failed;
+	}
+
+	public long getOverlapped() {
+		return overlapped;
+	}
+
+	public void setOverlapped(long overlapped) {
+		this.overlapped = overlapped;
+	}
+
+	public long getSkipped() {
+		return skipped;
+	}
+
+	public void setSkipped(long skipped) {
+		this.skipped = skipped;
+	}
+
+	public long getQueued() {
+		return queued;
+	}
+
+	public void setQueued(long queued) {
+		this.queued = queued;
+	}
+
+	public long getMisfired() {
+		return misfired;
+	}
+
+	public void setMisfired(long misfired) {
+		this.misfired = misfired;
+	}
+
+	public long getRejected() {
+		return rejected;
+	}
+
+	public void setRejected(long rejected) {
+		this.rejected = rejected;
+	}
+
+	public long getInactive() {
+		return inactive;
+	}
+
+	public void setInactive(long inactive) {
+		this.inactive = inactive;
+	}
+
+	public int getRunning() {
+		return running;
+	}
+
+	public void setRunning(int running) {
+		this.running = running;
+	}
+
+	public Histogram getLatency() {
+		return latency;
+	}
+
+	public void setLatency(Histogram latency) {
+		this.latency = latency;
+	}
+
+	public Histogram getDuration() {
+		return duration;
+	}
+
+	public void setDuration(Histogram duration) {
+		this.duration = duration;
+	}
+
+	@Override
+	public String toString() {
+		return "name=" + name + ", fired=" + fired + ", started=" + started + ", completed=" + completed + ", failed="
+				+ failed + ", running=" + running + ", overlapped=" + overlapped + ", skipped=" + skipped + ", queued="
+				+ queued + ", misfired=" + misfired + ", rejected=" + rejected + ", inactive=" + inactive;
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2009 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.cron;
+
+/**
+ * Snapshot of millisecond histogram with exponential buckets. Bucket i counts
+ * values not greater than bound i and greater than bound i-1, and the last
+ * bucket counts values greater than the last bound.
+ * 
+ * @since 1.8.7
+ */
+public class Histogram {
+	private final long[] bounds;
+	private final long[] counts;
+	private final long count;
+	private final long sum;
+	private final long max;
+
+	public Histogram(long[] bounds, long[] counts, long count, long sum, long max) {
+		if (counts.length != bounds.length + 1)
+			throw new IllegalArgumentException("counts should have one more bucket than bounds");
+
+		this.bounds = bounds;
+		this.counts = counts;
+		this.count = count;
+		this.sum = sum;
+		this.max = max;
+	}
+
+	public long[] getBounds() {
+		return bounds.clone();
+	}
+
+	public long[] getCounts() {
+		return counts.clone();
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getSum() {
+		return sum;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * @param p
+	 *            0 to 100
+	 * @return upper bound of the bucket which contains the percentile, or max
+	 *         value if it is in the last bucket
+	 */
+	public long getPercentile(double p) {
+		long total = 0;
+		for (long c : counts)
+			total += c;
+		if (total == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(total * p / 100.0);
+		long seen = 0;
+		for (int i = 0; i < bounds.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(bounds[i], max);
+		}
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d, mean=%.1fms, p50=%dms, p90=%dms, p99=%dms, max=%dms", count, getMean(),
+				getPercentile(50), getPercentile(90), getPercentile(99), max);
+	}
+}
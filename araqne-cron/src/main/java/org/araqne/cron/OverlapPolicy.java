@@ -0,0 +1,54 @@
+/*
+ * Copyright 2009 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.cron;
+
+/**
+ * Decides what scheduler does when a schedule fires while its previous run is
+ * not finished yet.
+ * 
+ * @since 1.8.7
+ */
+public enum OverlapPolicy {
+	/**
+	 * run again in another worker thread. same as previous versions.
+	 */
+	CONCURRENT,
+
+	/**
+	 * discard the firing
+	 */
+	SKIP,
+
+	/**
+	 * run once more after the previous run is finished. overlapped firings
+	 * are coalesced into one pending run.
+	 */
+	QUEUE;
+
+	/**
+	 * parse case-insensitive policy name
+	 * 
+	 * @throws IllegalArgumentException
+	 *             when name is unknown
+	 */
+	public static OverlapPolicy parse(String name) {
+		for (OverlapPolicy p : values())
+			if (p.name().equalsIgnoreCase(name))
+				return p;
+
+		throw new IllegalArgumentException("unknown overlap policy: " + name);
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2009 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.cron;
+
+/**
+ * Snapshot of worker pool of cron scheduler or tick service.
+ * 
+ * @since 1.8.7
+ */
+public class PoolStats {
+	private int poolSize;
+	private int maxPoolSize;
+	private int largestPoolSize;
+	private int activeCount;
+	private int queueSize;
+	private int queueCapacity;
+	private long completedTasks;
+	private long rejectedTasks;
+
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public int getMaxPoolSize() {
+		return maxPoolSize;
+	}
+
+	public void setMaxPoolSize(int maxPoolSize) {
+		this.maxPoolSize = maxPoolSize;
+	}
+
+	public int getLargestPoolSize() {
+		return largestPoolSize;
+	}
+
+	public void setLargestPoolSize(int largestPoolSize) {
+		this.largestPoolSize = largestPoolSize;
+	}
+
+	public int getActiveCount() {
+		return activeCount;
+	}
+
+	public void setActiveCount(int activeCount) {
+		this.activeCount = activeCount;
+	}
+
+	/**
+	 * @return number of tasks waiting for idle worker
+	 */
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public void setQueueSize(int queueSize) {
+		this.queueSize = queueSize;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public long getCompletedTasks() {
+		return completedTasks;
+	}
+
+	public void setCompletedTasks(long completedTasks) {
+		this.completedTasks = completedTasks;
+	}
+
+	public long getRejectedTasks() {
+		return rejectedTasks;
+	}
+
+	public void setRejectedTasks(long rejectedTasks) {
+		this.rejectedTasks = rejectedTasks;
+	}
+
+	@Override
+	public String toString() {
+		return "pool=" + poolSize + "/" + maxPoolSize + ", largest=" + largestPoolSize + ", active=" + activeCount
+				+ ", queue=" + queueSize + "/" + queueCapacity + ", completed=" + completedTasks + ", rejected="
+				+ rejectedTasks;
+	}
+}
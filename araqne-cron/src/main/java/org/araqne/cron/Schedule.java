@@ -40,10 +40,16 @@ public final class Schedule {
 	 */
 	private final Object tag;
 
+	/**
+	 * @since 1.8.7
+	 */
+	private final OverlapPolicy overlapPolicy;
+
 	private Schedule() {
 		this.map = null;
 		this.taskName = null;
 		this.tag = null;
+		this.overlapPolicy = OverlapPolicy.CONCURRENT;
 	}
 
 	private Schedule(Builder builder) {
@@ -63,6 +69,7 @@ public final class Schedule {
 		this.map.put(Type.DAY_OF_WEEK.toString(), dow);
 		this.taskName = builder.taskName;
 		this.tag = builder.tag;
+		this.overlapPolicy = builder.overlapPolicy;
 	}
 
 	/**
@@ -76,12 +83,24 @@ public final class Schedule {
 		return tag;
 	}
 
+	/**
+	 * returns what to do when the schedule fires while previous run is not
+	 * finished
+	 * 
+	 * @since 1.8.7
+	 */
+	public OverlapPolicy getOverlapPolicy() {
+		return overlapPolicy;
+	}
+
 	@Override
 	public String toString() {
 		String line = String.format("%8s %8s %8s %8s %8s / %8s", map.get("Minute"), map.get("Hour"), map.get("DayOfMonth"),
 				map.get("Month"), map.get("DayOfWeek"), taskName);
 		if (tag != null)
 			line += ", tag " + tag;
+		if (overlapPolicy != OverlapPolicy.CONCURRENT)
+			line += ", overlap " + overlapPolicy.name().toLowerCase();
 		return line;
 	}
 
@@ -116,6 +135,7 @@ public final class Schedule {
 		private final Map<String, CronField> map;
 		private final String taskName;
 		private final Object tag;
+		private OverlapPolicy overlapPolicy = OverlapPolicy.CONCURRENT;
 
 		public Builder(String taskName) {
 			this(taskName, null);
@@ -153,6 +173,19 @@ public final class Schedule {
 			return this;
 		}
 
+		/**
+		 * Set overlap policy. default is {@link OverlapPolicy#CONCURRENT}.
+		 * 
+		 * @since 1.8.7
+		 */
+		public Builder setOverlapPolicy(OverlapPolicy overlapPolicy) {
+			if (overlapPolicy == null)
+				throw new IllegalArgumentException("overlap policy should be not null");
+
+			this.overlapPolicy = overlapPolicy;
+			return this;
+		}
+
 		/**
 		 * returns schedule object representing scheduling rule of current build
 		 * object. e.g. new
@@ -23,4 +23,18 @@ public interface TickService {
 	void addTimer(TickTimer timer);
 
 	void removeTimer(TickTimer timer);
+
+	/**
+	 * returns execution metrics of registered timers in registration order
+	 * 
+	 * @since 1.8.7
+	 */
+	List<ExecutionStats> getTimerStats();
+
+	/**
+	 * returns metrics of thread pool which runs timers
+	 * 
+	 * @since 1.8.7
+	 */
+	PoolStats getPoolStats();
 }
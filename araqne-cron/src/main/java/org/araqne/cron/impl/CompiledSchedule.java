@@ -0,0 +1,288 @@
+/*
+ * Copyright 2009 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.cron.impl;
+
+import java.util.TimeZone;
+
+import org.araqne.cron.Schedule;
+
+/**
+ * Schedule compiled into bitmasks of each cron field. Next occurrence is
+ * calculated with civil date arithmetic on the masks, so it does not allocate
+ * any Calendar or Date. Day matches if day of month or day of week matches, as
+ * NextOccurenceCalculator did. Local time is converted by the time zone, and a
+ * local time skipped by daylight saving is shifted forward like lenient
+ * Calendar.
+ * <p>
+ * Compiled schedule is immutable and thread-safe.
+ * 
+ * @since 1.8.7
+ */
+public final class CompiledSchedule {
+	private static final long MINUTE = 60 * 1000L;
+	private static final long DAY = 24 * 60 * MINUTE;
+
+	// give up after 30 years of months, e.g. "0 0 30 2 *"
+	private static final int MAX_MONTHS = 12 * 30;
+
+	// max daylight saving amount in the world is 2 hours
+	private static final long DST_MARGIN = 3 * 60 * MINUTE;
+
+	private final Schedule schedule;
+	private final TimeZone timeZone;
+	private final long minutes;
+	private final int hours;
+	private final int daysOfMonth;
+	private final int months;
+
+	// day of month mask for each weekday of the 1st day
+	private final int[] weekdayMasks = new int[7];
+
+	public CompiledSchedule(Schedule schedule) {
+		this(schedule, TimeZone.getDefault());
+	}
+
+	public CompiledSchedule(Schedule schedule, TimeZone timeZone) {
+		this.schedule = schedule;
+		this.timeZone = timeZone;
+		this.minutes = schedule.get(CronField.Type.MINUTE).toLong();
+		this.hours = (int) schedule.get(CronField.Type.HOUR).toLong();
+		this.daysOfMonth = (int) schedule.get(CronField.Type.DAY_OF_MONTH).toLong();
+		this.months = (int) schedule.get(CronField.Type.MONTH).toLong();
+
+		int daysOfWeek = (int) schedule.get(CronField.Type.DAY_OF_WEEK).toLong();
+		for (int first = 0; first < 7; first++) {
+			int mask = 0;
+			for (int i = 0; i < 31; i++)
+				if ((daysOfWeek & (1 << ((first + i) % 7))) != 0)
+					mask |= 1 << i;
+			weekdayMasks[first] = mask;
+		}
+	}
+
+	public Schedule getSchedule() {
+		return schedule;
+	}
+
+	public TimeZone getTimeZone() {
+		return timeZone;
+	}
+
+	/**
+	 * returns the first occurrence at or after the minute of given time.
+	 * 
+	 * @return epoch millis of the occurrence, or -1 if schedule never occurs
+	 */
+	public long next(long time) {
+		long lower = floorDiv(time, MINUTE) * MINUTE;
+		int offset = timeZone.getOffset(lower);
+		long next = search(lower + offset, lower);
+		if (next < 0)
+			return -1;
+
+		// clock is set back before the occurrence, and local times after the
+		// transition can be repeated
+		int nextOffset = timeZone.getOffset(next);
+		if (nextOffset < offset) {
+			long repeated = search(lower + nextOffset, lower);
+			if (repeated >= 0 && repeated < next)
+				return repeated;
+		}
+
+		return next;
+	}
+
+	/**
+	 * search local date fields from given local time, and returns the first
+	 * occurrence at or after lower bound
+	 */
+	private long search(long local, long lower) {
+		long days = floorDiv(local, DAY);
+		int minuteOfDay = (int) ((local - days * DAY) / MINUTE);
+		int hour = minuteOfDay / 60;
+		int minute = minuteOfDay % 60;
+
+		// civil date, from days since epoch
+		long z = days + 719468;
+		long era = floorDiv(z, 146097);
+		int doe = (int) (z - era * 146097);
+		int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		int mp = (5 * doy + 2) / 153;
+		int day = doy - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+		int skippedMonths = 0;
+		while (skippedMonths <= MAX_MONTHS) {
+			if ((months & (1 << (month - 1))) == 0 || day > 31) {
+				if (++month > 12) {
+					month = 1;
+					year++;
+				}
+				day = 1;
+				hour = 0;
+				minute = 0;
+				skippedMonths++;
+				continue;
+			}
+
+			long first = daysFromCivil(year, month, 1);
+			int length = lengthOfMonth(year, month);
+			int dayMask = (daysOfMonth | weekdayMasks[(int) floorMod(first + 4, 7)]) & ((1 << length) - 1);
+			int d = nextBit(dayMask, day - 1);
+			if (d < 0) {
+				day = 32;
+				continue;
+			}
+
+			if (d + 1 != day) {
+				day = d + 1;
+				hour = 0;
+				minute = 0;
+			}
+
+			int h = hour < 24 ? nextBit(hours, hour) : -1;
+			if (h < 0) {
+				day++;
+				hour = 0;
+				minute = 0;
+				continue;
+			}
+
+			if (h != hour) {
+				hour = h;
+				minute = 0;
+			}
+
+			int m = minute < 60 ? nextBit(minutes, minute) : -1;
+			if (m < 0) {
+				hour++;
+				minute = 0;
+				continue;
+			}
+			minute = m;
+
+			local = (first + day - 1) * DAY + (hour * 60 + minute) * MINUTE;
+			long utc = toUtc(local, lower);
+			if (utc >= 0)
+				return utc;
+
+			// local time already passed in repeated hour
+			minute++;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * fill the array with next occurrences at or after the minute of given
+	 * time.
+	 * 
+	 * @return number of occurrences filled
+	 */
+	public int next(long time, long[] occurrences) {
+		int count = 0;
+		while (count < occurrences.length) {
+			long next = next(time);
+			if (next < 0)
+				break;
+
+			occurrences[count++] = next;
+			time = next + MINUTE;
+		}
+		return count;
+	}
+
+	/**
+	 * returns the earliest instant at or after lower bound, or -1. repeated
+	 * local time has two instants, and skipped local time is shifted by
+	 * daylight saving amount.
+	 */
+	private long toUtc(long local, long lower) {
+		int raw = timeZone.getRawOffset();
+		int before = timeZone.getOffset(local - raw - DST_MARGIN);
+		int after = timeZone.getOffset(local - raw + DST_MARGIN);
+
+		long early = local - Math.max(before, after);
+		long late = local - Math.min(before, after);
+		boolean earlyValid = timeZone.getOffset(early) == Math.max(before, after);
+		boolean lateValid = timeZone.getOffset(late) == Math.min(before, after);
+
+		if (earlyValid && early >= lower)
+			return early;
+		if (lateValid && late >= lower)
+			return late;
+
+		// skipped by daylight saving
+		if (!earlyValid && !lateValid) {
+			long shifted = local - before;
+			return shifted >= lower ? shifted : -1;
+		}
+
+		return -1;
+	}
+
+	private static int nextBit(long mask, int from) {
+		long m = mask & (-1L << from);
+		return m == 0 ? -1 : Long.numberOfTrailingZeros(m);
+	}
+
+	private static int nextBit(int mask, int from) {
+		int m = mask & (-1 << from);
+		return m == 0 ? -1 : Integer.numberOfTrailingZeros(m);
+	}
+
+	private static long daysFromCivil(long year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = floorDiv(y, 400);
+		int yoe = (int) (y - era * 400);
+		int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097 + doe - 719468;
+	}
+
+	private static int lengthOfMonth(long year, int month) {
+		switch (month) {
+		case 2:
+			boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+			return leap ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		if ((x % y != 0) && ((x ^ y) < 0))
+			q--;
+		return q;
+	}
+
+	private static long floorMod(long x, long y) {
+		return x - floorDiv(x, y) * y;
+	}
+
+	@Override
+	public String toString() {
+		return schedule + " (" + timeZone.getID() + ")";
+	}
+}
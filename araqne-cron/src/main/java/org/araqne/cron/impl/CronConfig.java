@@ -30,6 +30,7 @@ import org.araqne.confdb.ConfigIterator;
 import org.araqne.confdb.ConfigService;
 import org.araqne.confdb.ConfigTransaction;
 import org.araqne.confdb.Predicates;
+import org.araqne.cron.OverlapPolicy;
 import org.araqne.cron.Schedule;
 
 /**
@@ -73,6 +74,7 @@ public class CronConfig {
 		info.month = schedule.get(CronField.Type.MONTH).toString();
 		info.dayOfWeek = schedule.get(CronField.Type.DAY_OF_WEEK).toString();
 		info.tag = schedule.getTag();
+		info.overlap = schedule.getOverlapPolicy().name().toLowerCase();
 		db.add(info);
 
 		return info.id;
@@ -92,6 +94,7 @@ public class CronConfig {
 				info.month = schedule.get(CronField.Type.MONTH).toString();
 				info.dayOfWeek = schedule.get(CronField.Type.DAY_OF_WEEK).toString();
 				info.tag = schedule.getTag();
+				info.overlap = schedule.getOverlapPolicy().name().toLowerCase();
 				db.add(xact, info);
 				addedSchedules.put(info.id, schedule);
 			}
@@ -154,6 +157,8 @@ public class CronConfig {
 			builder.set(CronField.Type.DAY_OF_MONTH, schedule.dayOfMonth);
 			builder.set(CronField.Type.MONTH, schedule.month);
 			builder.set(CronField.Type.DAY_OF_WEEK, schedule.dayOfWeek);
+			if (schedule.overlap != null)
+				builder.setOverlapPolicy(OverlapPolicy.parse(schedule.overlap));
 			map.put(schedule.id, builder.build());
 		}
 		return map;
@@ -169,5 +174,8 @@ public class CronConfig {
 		private String dayOfMonth;
 		private String month;
 		private String dayOfWeek;
+
+		// null for schedules saved before 1.8.7
+		private String overlap;
 	}
 }
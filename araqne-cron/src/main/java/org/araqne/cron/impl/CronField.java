@@ -272,6 +272,19 @@ public final class CronField {
 		return dow2month;
 	}
 
+	/**
+	 * returns bitmap as long value. bit 0 represents the first value of the
+	 * field, e.g. January for month and 1st for day of month.
+	 * 
+	 * @since 1.8.7
+	 */
+	public long toLong() {
+		long l = 0;
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+			l |= 1L << i;
+		return l;
+	}
+
 	@Override
 	public String toString() {
 		return this.exp;
@@ -16,9 +16,13 @@
 package org.araqne.cron.impl;
 
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 
 import org.araqne.api.Script;
@@ -26,6 +30,8 @@ import org.araqne.api.ScriptArgument;
 import org.araqne.api.ScriptContext;
 import org.araqne.api.ScriptUsage;
 import org.araqne.cron.CronService;
+import org.araqne.cron.ExecutionStats;
+import org.araqne.cron.OverlapPolicy;
 import org.araqne.cron.Schedule;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.InvalidSyntaxException;
@@ -79,6 +85,56 @@ public class CronScript implements Script {
 		}
 	}
 
+	@ScriptUsage(description = "view firing timeline of cron schedules", arguments = { @ScriptArgument(name = "minutes", type = "int", description = "time range from now, 60 by default", optional = true) })
+	public void timeline(String[] args) {
+		int minutes = 60;
+		try {
+			if (args.length > 0)
+				minutes = Integer.parseInt(args[0]);
+		} catch (NumberFormatException e) {
+			context.println("minutes should be number.");
+			return;
+		}
+
+		context.println("Cron Timeline");
+		context.println("---------------");
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		Date from = new Date();
+		Date to = new Date(from.getTime() + minutes * 60 * 1000L);
+		for (Entry<Date, List<Integer>> e : manager.getTimeline(from, to).entrySet())
+			context.println(dateFormat.format(e.getKey()) + " " + e.getValue());
+	}
+
+	@ScriptUsage(description = "view execution metrics of cron schedules", arguments = { @ScriptArgument(name = "id", type = "int", description = "cron schedule id", optional = true) })
+	public void stats(String[] args) {
+		Integer id = null;
+		try {
+			if (args.length > 0)
+				id = Integer.valueOf(args[0]);
+		} catch (NumberFormatException e) {
+			context.println("id should be number.");
+			return;
+		}
+
+		context.println("Cron Worker Pool");
+		context.println("------------------");
+		context.println(manager.getPoolStats().toString());
+		context.println("");
+
+		context.println("Cron Schedule Stats");
+		context.println("---------------------");
+		for (Entry<Integer, ExecutionStats> e : manager.getScheduleStats().entrySet()) {
+			if (id != null && !id.equals(e.getKey()))
+				continue;
+
+			ExecutionStats stats = e.getValue();
+			context.println("[" + e.getKey() + "] " + stats);
+			context.println("  latency: " + stats.getLatency());
+			context.println("  duration: " + stats.getDuration());
+		}
+	}
+
 	@ScriptUsage(description = "register new cron schedule", arguments = {
 			@ScriptArgument(name = "min", type = "string", description = "(0 - 59)"),
 			@ScriptArgument(name = "hour", type = "string", description = "(0 - 23)"),
@@ -86,7 +142,8 @@ public class CronScript implements Script {
 			@ScriptArgument(name = "month", type = "string", description = "(1 - 12)"),
 			@ScriptArgument(name = "day_of_week", type = "string", description = "(0 - 6) (Sunday=0)"),
 			@ScriptArgument(name = "task", type = "string", description = "Runnable instance name"),
-			@ScriptArgument(name = "tag", type = "string", description = "Schedule tag", optional = true) })
+			@ScriptArgument(name = "tag", type = "string", description = "Schedule tag", optional = true),
+			@ScriptArgument(name = "overlap", type = "string", description = "concurrent (default), skip or queue", optional = true) })
 	public void register(String[] args) {
 		try {
 			Schedule.Builder builder = null;
@@ -99,12 +156,16 @@ public class CronScript implements Script {
 			builder.set(CronField.Type.DAY_OF_MONTH, args[2]);
 			builder.set(CronField.Type.MONTH, args[3]);
 			builder.set(CronField.Type.DAY_OF_WEEK, args[4]);
+			if (args.length > 7)
+				builder.setOverlapPolicy(OverlapPolicy.parse(args[7]));
 			int id = manager.registerSchedule(builder.build());
 
 			context.printf("new schedule [%s] registered.\n", id);
 		} catch (ParseException e) {
 			context.println("register error: " + e.toString());
 			logger.warn("cron script: register error", e);
+		} catch (IllegalArgumentException e) {
+			context.println("register error: " + e.getMessage());
 		}
 	}
 
@@ -154,12 +215,17 @@ public class CronScript implements Script {
 
 			for (int i = 0; i < refs.length; i++) {
 				Runnable runnable = (Runnable) bundleContext.getService(refs[i]);
+				if (runnable == null)
+					continue;
+
 				try {
 					runnable.run();
 					context.println("run completed.");
 				} catch (Exception e) {
 					context.println("error: " + e.toString());
 					logger.warn("cron script: run error", e);
+				} finally {
+					bundleContext.ungetService(refs[i]);
 				}
 			}
 		} catch (InvalidSyntaxException e) {
@@ -16,6 +16,8 @@
 package org.araqne.cron.impl;
 
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -33,10 +35,10 @@ import org.apache.felix.ipojo.annotations.Validate;
 import org.araqne.confdb.ConfigService;
 import org.araqne.cron.CronService;
 import org.araqne.cron.DuplicatedScheduleException;
+import org.araqne.cron.ExecutionStats;
+import org.araqne.cron.PoolStats;
 import org.araqne.cron.Schedule;
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.InvalidSyntaxException;
-import org.osgi.framework.ServiceReference;
 
 /**
  * This class provides implementation for the {@link CronService} interface.
@@ -47,7 +49,6 @@ import org.osgi.framework.ServiceReference;
 @Component(name = "cron-service")
 @Provides
 public class CronServiceImpl implements CronService {
-	private static BundleContext bundleContext;
 	/**
 	 * schedule id to Schedule mapping.
 	 */
@@ -61,14 +62,12 @@ public class CronServiceImpl implements CronService {
 
 	public CronServiceImpl(BundleContext context) throws ParseException {
 		tracker = new JobServiceTracker(context, this);
-		bundleContext = context;
 		this.config = new CronConfig(conf);
 		refreshMap();
 	}
 
 	public CronServiceImpl(BundleContext context, ConfigService conf) throws ParseException {
 		tracker = new JobServiceTracker(context, this);
-		bundleContext = context;
 		this.config = new CronConfig(conf);
 		refreshMap();
 		validate();
@@ -76,7 +75,7 @@ public class CronServiceImpl implements CronService {
 
 	@Validate
 	public void validate() {
-		scheduler.start(getMap());
+		scheduler.start(getMap(), tracker);
 		tracker.open();
 	}
 
@@ -172,28 +171,26 @@ public class CronServiceImpl implements CronService {
 		return scheduler.getJobList();
 	}
 
-	public static Runnable getRef(String Name) throws InvalidSyntaxException {
-		return getRef(bundleContext, Name);
+	@Override
+	public Map<Integer, ExecutionStats> getScheduleStats() {
+		return scheduler.getStats();
 	}
 
-	/**
-	 * get reference of current active Runnable given its instance name.
-	 * 
-	 * @param context
-	 * @param instanceName
-	 *            instance name of the Runnable
-	 * @return
-	 * @throws InvalidSyntaxException
-	 *             when given instance name is not a valid string.
-	 */
-	private static Runnable getRef(BundleContext context, String instanceName) throws InvalidSyntaxException {
-		ServiceReference<?>[] refs = context.getServiceReferences(Runnable.class.getName(), "(instance.name=" + instanceName
-				+ ")");
-		if (refs == null || refs.length == 0) {
-			throw new NullPointerException();
-		}
+	@Override
+	public PoolStats getPoolStats() {
+		return scheduler.getPoolStats();
+	}
 
-		Runnable task = ((Runnable) context.getService(refs[0]));
-		return task;
+	@Override
+	public Map<Date, List<Integer>> getTimeline(Date from, Date to) {
+		CronTimeline timeline = scheduler.getTimeline(from.getTime(), to.getTime());
+		Map<Date, List<Integer>> m = new TreeMap<Date, List<Integer>>();
+		for (int i = 0; i < timeline.size(); i++) {
+			List<Integer> ids = new ArrayList<Integer>();
+			for (int id : timeline.getScheduleIds(i))
+				ids.add(id);
+			m.put(new Date(timeline.getTime(i)), ids);
+		}
+		return m;
 	}
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2009 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.cron.impl;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/**
+ * Firing timeline of schedules in a time range, grouped by minute. Scheduler
+ * can wake up once for each entry and run all the schedules of it.
+ * 
+ * @since 1.8.7
+ */
+public class CronTimeline {
+	private final long from;
+	private final long to;
+	private final long[] times;
+	private final int[][] scheduleIds;
+
+	private CronTimeline(long from, long to, long[] times, int[][] scheduleIds) {
+		this.from = from;
+		this.to = to;
+		this.times = times;
+		this.scheduleIds = scheduleIds;
+	}
+
+	/**
+	 * precompute occurrences of all schedules in [from, to)
+	 * 
+	 * @param schedules
+	 *            schedule id to compiled schedule mapping
+	 */
+	public static CronTimeline build(Map<Integer, CompiledSchedule> schedules, long from, long to) {
+		TreeMap<Long, List<Integer>> m = new TreeMap<Long, List<Integer>>();
+		for (Entry<Integer, CompiledSchedule> e : schedules.entrySet()) {
+			CompiledSchedule schedule = e.getValue();
+			long time = schedule.next(from);
+			while (time >= 0 && time < to) {
+				List<Integer> ids = m.get(time);
+				if (ids == null) {
+					ids = new ArrayList<Integer>();
+					m.put(time, ids);
+				}
+				ids.add(e.getKey());
+				time = schedule.next(time + 60 * 1000);
+			}
+		}
+
+		long[] times = new long[m.size()];
+		int[][] scheduleIds = new int[m.size()][];
+		int i = 0;
+		for (Entry<Long, List<Integer>> e : m.entrySet()) {
+			times[i] = e.getKey();
+			List<Integer> ids = e.getValue();
+			scheduleIds[i] = new int[ids.size()];
+			for (int j = 0; j < ids.size(); j++)
+				scheduleIds[i][j] = ids.get(j);
+			i++;
+		}
+
+		return new CronTimeline(from, to, times, scheduleIds);
+	}
+
+	public long getFrom() {
+		return from;
+	}
+
+	public long getTo() {
+		return to;
+	}
+
+	/**
+	 * @return number of distinct firing times
+	 */
+	public int size() {
+		return times.length;
+	}
+
+	public long getTime(int index) {
+		return times[index];
+	}
+
+	public int[] getScheduleIds(int index) {
+		return scheduleIds[index];
+	}
+
+	/**
+	 * @return index of the first firing time at or after given time, or -1
+	 */
+	public int indexOf(long time) {
+		int low = 0;
+		int high = times.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (times[mid] < time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low < times.length ? low : -1;
+	}
+
+	@Override
+	public String toString() {
+		return "timeline " + new Date(from) + " ~ " + new Date(to) + ", " + times.length + " firing times";
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2009 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.cron.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.araqne.cron.ExecutionStats;
+
+/**
+ * Collects execution metrics of a cron schedule or a tick timer. All methods
+ * are thread-safe.
+ * 
+ * @since 1.8.7
+ */
+public class ExecutionRecorder {
+	private final String name;
+	private final AtomicLong fired = new AtomicLong();
+	private final AtomicLong started = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong overlapped = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+	private final AtomicLong queued = new AtomicLong();
+	private final AtomicLong misfired = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong inactive = new AtomicLong();
+	private final AtomicInteger running = new AtomicInteger();
+	private final HistogramRecorder latency = new HistogramRecorder();
+	private final HistogramRecorder duration = new HistogramRecorder();
+
+	public ExecutionRecorder(String name) {
+		this.name = name;
+	}
+
+	public void fired() {
+		fired.incrementAndGet();
+	}
+
+	public void overlapped() {
+		overlapped.incrementAndGet();
+	}
+
+	public void skipped() {
+		skipped.incrementAndGet();
+	}
+
+	public void queued() {
+		queued.incrementAndGet();
+	}
+
+	public void misfired() {
+		misfired.incrementAndGet();
+	}
+
+	public void rejected() {
+		rejected.incrementAndGet();
+	}
+
+	public void inactive() {
+		inactive.incrementAndGet();
+	}
+
+	/**
+	 * @param latency
+	 *            milliseconds from scheduled time
+	 * @return true if previous run is not finished yet
+	 */
+	public boolean started(long latency) {
+		started.incrementAndGet();
+		this.latency.record(latency);
+		return running.incrementAndGet() > 1;
+	}
+
+	/**
+	 * @param elapsed
+	 *            milliseconds
+	 */
+	public void finished(long elapsed, boolean success) {
+		running.decrementAndGet();
+		duration.record(elapsed);
+		if (success)
+			completed.incrementAndGet();
+		else
+			failed.incrementAndGet();
+	}
+
+	public ExecutionStats snapshot() {
+		ExecutionStats stats = new ExecutionStats();
+		stats.setName(name);
+		stats.setFired(fired.get());
+		stats.setStarted(started.get());
+		stats.setCompleted(completed.get());
+		stats.setFailed(failed.get());
+		stats.setOverlapped(overlapped.get());
+		stats.setSkipped(skipped.get());
+		stats.setQueued(queued.get());
+		stats.setMisfired(misfired.get());
+		stats.setRejected(rejected.get());
+		stats.setInactive(inactive.get());
+		stats.setRunning(running.get());
+		stats.setLatency(latency.snapshot());
+		stats.setDuration(duration.snapshot());
+		return stats;
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2009 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.cron.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.araqne.cron.Histogram;
+
+/**
+ * Lock-free millisecond histogram with fixed exponential buckets.
+ * 
+ * @since 1.8.7
+ */
+public class HistogramRecorder {
+	private static final long[] BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000,
+			300000 };
+
+	private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param value
+	 *            milliseconds. negative value is recorded as 0.
+	 */
+	public void record(long value) {
+		if (value < 0)
+			value = 0;
+
+		int i = 0;
+		while (i < BOUNDS.length && value > BOUNDS[i])
+			i++;
+
+		counts.incrementAndGet(i);
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long m = max.get();
+		while (value > m && !max.compareAndSet(m, value))
+			m = max.get();
+	}
+
+	public Histogram snapshot() {
+		long[] c = new long[counts.length()];
+		for (int i = 0; i < c.length; i++)
+			c[i] = counts.get(i);
+		return new Histogram(BOUNDS.clone(), c, count.get(), sum.get(), max.get());
+	}
+}
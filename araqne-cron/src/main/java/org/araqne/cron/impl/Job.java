@@ -15,13 +15,9 @@
  */
 package org.araqne.cron.impl;
 
-import java.lang.reflect.Method;
 import java.util.Date;
 
 import org.araqne.cron.Schedule;
-import org.osgi.framework.InvalidSyntaxException;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 /**
  * Job class used as a component of cron scheduler
@@ -30,14 +26,19 @@ import org.slf4j.LoggerFactory;
  * @since 1.0.0
  */
 public class Job implements Comparable<Job>, Cloneable {
-	private final Logger logger = LoggerFactory.getLogger(Job.class);
 	public final int scheduleId;
 	public final Schedule schedule;
 	public Date date;
 
+	// shared by clones
+	private final CompiledSchedule compiled;
+	private final ExecutionRecorder recorder;
+
 	public Job(int schduleId, Schedule schedule) {
 		this.scheduleId = schduleId;
 		this.schedule = schedule;
+		this.compiled = new CompiledSchedule(schedule);
+		this.recorder = new ExecutionRecorder(schedule.getTaskName());
 		this.setNextOccurence();
 	}
 
@@ -65,12 +66,30 @@ public class Job implements Comparable<Job>, Cloneable {
 		return this.date.compareTo(o.date);
 	}
 
+	/**
+	 * schedule which never occurs (e.g. "0 0 30 2 *") gets the max date.
+	 */
 	public void setNextOccurence(Date now) {
-		this.date = NextOccurenceCalculator.getNextOccurence(schedule, now);
+		long next = compiled.next(now.getTime());
+		this.date = new Date(next < 0 ? Long.MAX_VALUE : next);
 	}
 
 	public void setNextOccurence() {
-		this.date = NextOccurenceCalculator.getNextOccurence(schedule, new Date());
+		setNextOccurence(new Date());
+	}
+
+	/**
+	 * @since 1.8.7
+	 */
+	public CompiledSchedule getCompiledSchedule() {
+		return compiled;
+	}
+
+	/**
+	 * @since 1.8.7
+	 */
+	public ExecutionRecorder getRecorder() {
+		return recorder;
 	}
 
 	public String toString() {
@@ -91,22 +110,14 @@ public class Job implements Comparable<Job>, Cloneable {
 		}
 	}
 
-	public void run() throws NullPointerException, InvalidSyntaxException {
-		Runnable task = CronServiceImpl.getRef(this.schedule.getTaskName());
-		if (task == null) {
-			throw new NullPointerException("runnable not active");
-		}
-
-		try {
-			// @since 1.8.0
-			Method method = task.getClass().getMethod("run", Schedule.class);
-			method.invoke(task, schedule);
-			return;
-		} catch (Throwable t) {
-			logger.debug("araqne cron: cannot invoke run(Schedule) method", t);
-		}
-
-		task.run();
+	/**
+	 * run bound task with the schedule
+	 * 
+	 * @throws Exception
+	 *             thrown by the task
+	 */
+	public void run(TaskBinding binding) throws Exception {
+		binding.run(schedule);
 	}
 
 	@Override
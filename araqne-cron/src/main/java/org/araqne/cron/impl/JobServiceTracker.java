@@ -38,22 +38,40 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Inspects new or removed Runnable services and manages schedules
- * automatically.
+ * automatically. Tracked services are also bound to their instance names, so
+ * scheduler can run tasks without service lookup. Service object is released
+ * by the tracker when the service is removed.
  * 
  * @author xeraph
  * 
  */
-public class JobServiceTracker extends ServiceTracker {
+public class JobServiceTracker extends ServiceTracker<Runnable, Runnable> {
 	private final Logger logger = LoggerFactory.getLogger(JobServiceTracker.class.getName());
 
 	private CronService cronService;
 	private ConcurrentMap<String, List<Integer>> scheduleMap;
 
+	/**
+	 * instance name to task binding mapping
+	 */
+	private ConcurrentMap<String, TaskBinding> bindings;
+
 	public JobServiceTracker(BundleContext bundleContext, CronService cronService) {
-		super(bundleContext, Runnable.class.getName(), null);
+		super(bundleContext, Runnable.class, null);
 
 		this.cronService = cronService;
 		this.scheduleMap = new ConcurrentHashMap<String, List<Integer>>();
+		this.bindings = new ConcurrentHashMap<String, TaskBinding>();
+	}
+
+	/**
+	 * @return binding of active Runnable service, or null
+	 * @since 1.8.7
+	 */
+	public TaskBinding getBinding(String instanceName) {
+		if (instanceName == null)
+			return null;
+		return bindings.get(instanceName);
 	}
 
 	/**
@@ -61,9 +79,14 @@ public class JobServiceTracker extends ServiceTracker {
 	 * automatically.
 	 */
 	@Override
-	public Object addingService(ServiceReference reference) {
-		Object service = super.addingService(reference);
+	public Runnable addingService(ServiceReference<Runnable> reference) {
+		Runnable service = super.addingService(reference);
+		if (service == null)
+			return null;
+
 		String instanceName = (String) reference.getProperty("instance.name");
+		bind(instanceName, reference, service);
+
 		List<Integer> schedules = new ArrayList<Integer>();
 
 		Annotation[] annotations = service.getClass().getAnnotations();
@@ -120,10 +143,27 @@ public class JobServiceTracker extends ServiceTracker {
 	 * removes schedules that registered automatically when service is removed.
 	 */
 	@Override
-	public void removedService(ServiceReference reference, Object service) {
+	public void modifiedService(ServiceReference<Runnable> reference, Runnable service) {
+		String instanceName = (String) reference.getProperty("instance.name");
+		for (TaskBinding binding : bindings.values()) {
+			if (binding.getReference() == reference && !binding.getInstanceName().equals(instanceName))
+				unbind(binding);
+		}
+
+		bind(instanceName, reference, service);
+		super.modifiedService(reference, service);
+	}
+
+	@Override
+	public void removedService(ServiceReference<Runnable> reference, Runnable service) {
 		String instanceName = (String) reference.getProperty("instance.name");
+		for (TaskBinding binding : bindings.values()) {
+			if (binding.getReference() == reference)
+				unbind(binding);
+		}
+
 		if (instanceName != null) {
-			List<Integer> schedules = scheduleMap.get(instanceName);
+			List<Integer> schedules = scheduleMap.remove(instanceName);
 			if (schedules != null) {
 				for (Integer id : schedules) {
 					logger.trace("cron: removing schedule {}", id);
@@ -134,4 +174,39 @@ public class JobServiceTracker extends ServiceTracker {
 
 		super.removedService(reference, service);
 	}
+
+	private void bind(String instanceName, ServiceReference<Runnable> reference, Runnable service) {
+		if (instanceName == null)
+			return;
+
+		// first one wins when instance name is duplicated
+		TaskBinding binding = new TaskBinding(instanceName, reference, service);
+		if (bindings.putIfAbsent(instanceName, binding) == null)
+			logger.trace("cron: bound {}", binding);
+	}
+
+	/**
+	 * remove binding, and bind other service of same instance name if any
+	 */
+	private void unbind(TaskBinding binding) {
+		if (!bindings.remove(binding.getInstanceName(), binding))
+			return;
+
+		logger.trace("cron: unbound {}", binding);
+
+		ServiceReference<Runnable>[] refs = getServiceReferences();
+		if (refs == null)
+			return;
+
+		for (ServiceReference<Runnable> ref : refs) {
+			if (ref == binding.getReference() || !binding.getInstanceName().equals(ref.getProperty("instance.name")))
+				continue;
+
+			Runnable service = getService(ref);
+			if (service != null) {
+				bind(binding.getInstanceName(), ref, service);
+				break;
+			}
+		}
+	}
 }
@@ -18,38 +18,139 @@ package org.araqne.cron.impl;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.araqne.cron.ExecutionStats;
+import org.araqne.cron.OverlapPolicy;
+import org.araqne.cron.PoolStats;
 import org.araqne.cron.Schedule;
-import org.osgi.framework.InvalidSyntaxException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Cron scheduler that checks and runs registered cron jobs. singleton class.
+ * <p>
+ * Scheduler thread sleeps until the next occurrence of the first job in the
+ * scheduling queue, and it is woken up when schedules are added or removed.
+ * Due jobs are run by a bounded worker pool. Pool size, pool queue size and
+ * misfire threshold (in seconds) can be configured with araqne.cron.pool_size,
+ * araqne.cron.queue_size and araqne.cron.misfire_threshold system properties.
  * 
  * @author periphery
  * @since 1.0.0
  */
 public class Scheduler {
-	private final Logger logger = LoggerFactory.getLogger(CronConfig.class.getName());
-	private PriorityQueue<Job> queue;
-	private final Thread loop = new Thread(new Loop(), "Cron Scheduler");
-	private volatile boolean running;
+	// wall clock can be adjusted while waiting
+	private static final long MAX_WAIT = 60 * 1000;
 
-	public void start(Map<Integer, Schedule> map) {
-		queue = reset(map);
-		running = true;
-		loop.start();
+	private final Logger logger = LoggerFactory.getLogger(Scheduler.class.getName());
+	private final int poolSize;
+	private final int queueSize;
+	private final long misfireThreshold;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+
+	private volatile JobServiceTracker tracker;
+	private final AtomicLong rejectedTasks = new AtomicLong();
+
+	// guarded by lock
+	private PriorityQueue<Job> queue = new PriorityQueue<Job>();
+	private Map<Integer, Slot> slots = new HashMap<Integer, Slot>();
+	private ThreadPoolExecutor workers;
+	private Thread loop;
+	private boolean running;
+
+	public Scheduler() {
+		this(getProperty("araqne.cron.pool_size", 8), getProperty("araqne.cron.queue_size", 1000), getProperty(
+				"araqne.cron.misfire_threshold", 60) * 1000L);
+	}
+
+	/**
+	 * @param poolSize
+	 *            max number of concurrently running jobs
+	 * @param queueSize
+	 *            max number of due jobs waiting for idle worker
+	 * @param misfireThreshold
+	 *            due job is discarded if scheduler is late more than this
+	 *            milliseconds
+	 */
+	public Scheduler(int poolSize, int queueSize, long misfireThreshold) {
+		if (poolSize <= 0)
+			throw new IllegalArgumentException("pool size should be positive");
+		if (queueSize <= 0)
+			throw new IllegalArgumentException("queue size should be positive");
+
+		this.poolSize = poolSize;
+		this.queueSize = queueSize;
+		this.misfireThreshold = misfireThreshold;
+	}
+
+	private static int getProperty(String name, int defaultValue) {
+		try {
+			return Integer.parseInt(System.getProperty(name));
+		} catch (Exception e) {
+			return defaultValue;
+		}
 	}
 
+	/**
+	 * @param tracker
+	 *            resolves task of schedule when job is run
+	 */
+	public void start(Map<Integer, Schedule> map, JobServiceTracker tracker) {
+		lock.lock();
+		try {
+			if (running)
+				return;
+
+			this.tracker = tracker;
+			queue = reset(map);
+			slots.clear();
+			workers = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(
+					queueSize), new RunnerFactory());
+			workers.allowCoreThreadTimeOut(true);
+
+			running = true;
+			loop = new Thread(new Loop(), "Cron Scheduler");
+			loop.start();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * stop scheduler thread. running jobs are not interrupted, but queued jobs
+	 * are still run by worker pool.
+	 */
 	public void stop() {
-		running = false;
-		loop.interrupt();
+		lock.lock();
+		try {
+			if (!running)
+				return;
+
+			running = false;
+			loop = null;
+			workers.shutdown();
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	private PriorityQueue<Job> reset(Map<Integer, Schedule> map) {
@@ -71,17 +172,25 @@ public class Scheduler {
 	 */
 	public void put(int id, Schedule sche) {
 		Job job = new Job(id, sche);
-		synchronized (queue) {
+		lock.lock();
+		try {
 			queue.add(job);
+			changed.signal();
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	public void puts(Map<Integer, Schedule> schedules) {
-		synchronized (queue) {
+		lock.lock();
+		try {
 			for (Integer id : schedules.keySet()) {
 				Job job = new Job(id, schedules.get(id));
 				queue.add(job);
 			}
+			changed.signal();
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -92,11 +201,16 @@ public class Scheduler {
 	 *            id of the deleting schedule
 	 */
 	public void remove(int id) {
-		synchronized (queue) {
+		lock.lock();
+		try {
 			for (Object job : queue.toArray()) {
 				if (((Job) job).getScheduleId() == id)
 					queue.remove(job);
 			}
+			release(id);
+			changed.signal();
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -107,11 +221,17 @@ public class Scheduler {
 	 * @param ids
 	 */
 	public void removes(Set<Integer> ids) {
-		synchronized (queue) {
+		lock.lock();
+		try {
 			for (Object job : queue.toArray()) {
 				if (ids.contains(((Job) job).getScheduleId()))
 					queue.remove(job);
 			}
+			for (Integer id : ids)
+				release(id);
+			changed.signal();
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -121,7 +241,14 @@ public class Scheduler {
 	 * @return list of scheduling queue entries.
 	 */
 	public List<String> getJobList() {
-		Object[] sorted = queue.toArray();
+		Object[] sorted = null;
+		lock.lock();
+		try {
+			sorted = queue.toArray();
+		} finally {
+			lock.unlock();
+		}
+
 		Arrays.sort(sorted);
 		List<String> result = new ArrayList<String>();
 		for (Object job : sorted) {
@@ -131,80 +258,256 @@ public class Scheduler {
 	}
 
 	/**
-	 * this class is used as a thread that periodically checks and runs
-	 * scheduled tasks. the thread busy waits, sleeping for 10 seconds and
-	 * checks whether the first task in the scheduling queue is time for
-	 * execution. if so, it generates child thread to run the task. If the
-	 * 'Schedule.running' is set to false when this thread wakes up, the thread
-	 * terminates itself, meaning that there can be time gap between setting the
-	 * 'Scheduler.running' to false and the actual stopping of the loop thread.
+	 * precompute firing timeline of scheduled jobs in [from, to)
+	 * 
+	 * @since 1.8.7
+	 */
+	public CronTimeline getTimeline(long from, long to) {
+		Map<Integer, CompiledSchedule> schedules = new HashMap<Integer, CompiledSchedule>();
+		lock.lock();
+		try {
+			for (Job job : queue)
+				schedules.put(job.getScheduleId(), job.getCompiledSchedule());
+		} finally {
+			lock.unlock();
+		}
+
+		return CronTimeline.build(schedules, from, to);
+	}
+
+	/**
+	 * @return schedule id to execution stats mapping of scheduled jobs
+	 * @since 1.8.7
+	 */
+	public Map<Integer, ExecutionStats> getStats() {
+		Map<Integer, ExecutionStats> stats = new TreeMap<Integer, ExecutionStats>();
+		lock.lock();
+		try {
+			for (Job job : queue)
+				stats.put(job.getScheduleId(), job.getRecorder().snapshot());
+		} finally {
+			lock.unlock();
+		}
+		return stats;
+	}
+
+	/**
+	 * @since 1.8.7
+	 */
+	public PoolStats getPoolStats() {
+		PoolStats stats = new PoolStats();
+		stats.setQueueCapacity(queueSize);
+		stats.setMaxPoolSize(poolSize);
+		stats.setRejectedTasks(rejectedTasks.get());
+
+		ThreadPoolExecutor executor = null;
+		lock.lock();
+		try {
+			executor = workers;
+		} finally {
+			lock.unlock();
+		}
+
+		if (executor != null) {
+			stats.setPoolSize(executor.getPoolSize());
+			stats.setLargestPoolSize(executor.getLargestPoolSize());
+			stats.setActiveCount(executor.getActiveCount());
+			stats.setQueueSize(executor.getQueue().size());
+			stats.setCompletedTasks(executor.getCompletedTaskCount());
+		}
+		return stats;
+	}
+
+	private void release(int id) {
+		Slot slot = slots.get(id);
+		if (slot == null)
+			return;
+
+		// running job releases slot when it finishes
+		slot.pending = null;
+		slot.removed = true;
+		if (slot.running == 0)
+			slots.remove(id);
+	}
+
+	/**
+	 * called with lock held
+	 */
+	private void fire(Job job, long now) {
+		ExecutionRecorder recorder = job.getRecorder();
+		recorder.fired();
+
+		long late = now - job.date.getTime();
+		if (late > misfireThreshold) {
+			recorder.misfired();
+			logger.warn("araqne cron: discard misfired job " + job + ", " + late + "ms late");
+			return;
+		}
+
+		Slot slot = slots.get(job.getScheduleId());
+		if (slot == null) {
+			slot = new Slot(job.getScheduleId());
+			slots.put(job.getScheduleId(), slot);
+		}
+
+		if (slot.running > 0) {
+			recorder.overlapped();
+			OverlapPolicy policy = job.schedule.getOverlapPolicy();
+			if (policy == OverlapPolicy.SKIP) {
+				recorder.skipped();
+				logger.debug("araqne cron: skip job {}, previous run is not finished", job);
+				return;
+			} else if (policy == OverlapPolicy.QUEUE) {
+				recorder.queued();
+				logger.debug("araqne cron: queue job {}, previous run is not finished", job);
+				slot.pending = job.clone();
+				return;
+			}
+		}
+
+		submit(slot, job.clone());
+	}
+
+	/**
+	 * called with lock held
+	 */
+	private void submit(Slot slot, Job job) {
+		slot.running++;
+		try {
+			workers.execute(new Runner(slot, job));
+		} catch (RejectedExecutionException e) {
+			slot.running--;
+			rejectedTasks.incrementAndGet();
+			job.getRecorder().rejected();
+			logger.warn("araqne cron: discard job " + job + ", worker pool is full or stopped");
+		}
+	}
+
+	private void finish(Slot slot) {
+		lock.lock();
+		try {
+			slot.running--;
+			if (slot.pending != null && running) {
+				Job pending = slot.pending;
+				slot.pending = null;
+				submit(slot, pending);
+			}
+
+			if (slot.removed && slot.running == 0 && slots.get(slot.scheduleId) == slot)
+				slots.remove(slot.scheduleId);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * this class is used as a thread that waits until the first job in the
+	 * scheduling queue is due, and hands it over to the worker pool. next
+	 * occurrence is calculated from the current time, so occurrences missed
+	 * while the scheduler was late are coalesced into one run.
 	 * 
 	 * @author periphery
 	 * 
 	 */
 	private class Loop implements Runnable {
-		private int SLEEP_TIME = 10; // sec.
-
 		@Override
 		public void run() {
 			logger.info("araqne cron: scheduler started");
-			loop();
-		}
-
-		private void loop() {
-			while (running) {
-				checkAndRun();
-				try {
-					Thread.sleep(this.SLEEP_TIME * 1000); // sleep for 10 sec
-				} catch (InterruptedException e) {
-					logger.debug("araqne cron: scheduler Thread.sleep interrupted.");
-				}
+			lock.lock();
+			try {
+				loop();
+			} catch (InterruptedException e) {
+				logger.debug("araqne cron: scheduler interrupted.");
+			} finally {
+				lock.unlock();
 			}
 			logger.info("araqne cron: scheduler stopped");
 		}
 
-		private void checkAndRun() {
-			synchronized (queue) {
-				if (itIsTime()) {
-					Job first = queue.poll();
-					Thread runner = new Thread(new Runner(first.clone()), "Cron Runner");
-					runner.start();
+		private void loop() throws InterruptedException {
+			// previous loop may be still waiting when scheduler is restarted
+			while (running && loop == Thread.currentThread()) {
+				Job first = queue.peek();
+				if (first == null) {
+					changed.await(MAX_WAIT, TimeUnit.MILLISECONDS);
+					continue;
+				}
 
-					// set base time as 1 min after current time
-					first.setNextOccurence(new Date(new Date().getTime() + 60 * 1000));
-					queue.add(first);
-					// recursive call to check next Job
-					checkAndRun();
+				long now = System.currentTimeMillis();
+				long delay = first.date.getTime() - now;
+				if (delay > 0) {
+					changed.await(Math.min(delay, MAX_WAIT), TimeUnit.MILLISECONDS);
+					continue;
 				}
+
+				queue.poll();
+				fire(first, now);
+
+				// set base time as 1 min after current time
+				first.setNextOccurence(new Date(now + 60 * 1000));
+				queue.add(first);
 			}
 		}
+	}
 
-		public boolean itIsTime() {
-			try {
-				return queue.peek().isTimeToDo();
-			} catch (Exception e) { // empty queue
-				return false;
-			}
+	/**
+	 * running state of a schedule, guarded by lock
+	 */
+	private static class Slot {
+		private final int scheduleId;
+		private int running;
+		private Job pending;
+		private boolean removed;
+
+		public Slot(int scheduleId) {
+			this.scheduleId = scheduleId;
 		}
 	}
 
 	private class Runner implements Runnable {
+		private final Slot slot;
 		private final Job job;
 
-		public Runner(Job job) {
+		public Runner(Slot slot, Job job) {
+			this.slot = slot;
 			this.job = job;
 		}
 
 		@Override
 		public void run() {
+			ExecutionRecorder recorder = job.getRecorder();
 			try {
-				logger.debug("Cron: run registered task " + job);
-				job.run();
-			} catch (NullPointerException e) {
-				logger.debug("Cron: unable to run " + job + ". runnable \'" + job.schedule.getTaskName() + "\' is not active.");
-			} catch (InvalidSyntaxException e) {
-				logger.warn("Cron: scheduler instance.name syntax error.", e);
+				TaskBinding binding = tracker.getBinding(job.schedule.getTaskName());
+				if (binding == null) {
+					recorder.inactive();
+					logger.debug("Cron: unable to run {}. runnable '{}' is not active.", job, job.schedule.getTaskName());
+					return;
+				}
+
+				logger.debug("Cron: run registered task {}", job);
+				long begin = System.currentTimeMillis();
+				recorder.started(begin - job.date.getTime());
+				boolean success = false;
+				try {
+					job.run(binding);
+					success = true;
+				} finally {
+					recorder.finished(System.currentTimeMillis() - begin, success);
+				}
+			} catch (Throwable t) {
+				logger.warn("Cron: task " + job + " failed", t);
+			} finally {
+				finish(slot);
 			}
 		}
 	}
+
+	private static class RunnerFactory implements ThreadFactory {
+		private final AtomicInteger seq = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			return new Thread(r, "Cron Runner " + seq.incrementAndGet());
+		}
+	}
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2009 NCHOVY
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.cron.impl;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.araqne.cron.CronTask;
+import org.araqne.cron.Schedule;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Runnable service bound to its instance name. How to invoke the task is
+ * resolved once when the service is tracked. {@link CronTask} is called
+ * directly, and run(Schedule) method of other class is looked up once.
+ * 
+ * @since 1.8.7
+ */
+public final class TaskBinding {
+	private final String instanceName;
+	private final ServiceReference<?> reference;
+	private final Runnable task;
+
+	// run(Schedule) of non-CronTask class, or null
+	private final Method method;
+
+	public TaskBinding(String instanceName, ServiceReference<?> reference, Runnable task) {
+		this.instanceName = instanceName;
+		this.reference = reference;
+		this.task = task;
+		this.method = task instanceof CronTask ? null : findMethod(task.getClass());
+	}
+
+	private static Method findMethod(Class<?> clazz) {
+		try {
+			// @since 1.8.0
+			Method method = clazz.getMethod("run", Schedule.class);
+			if (!Modifier.isPublic(clazz.getModifiers()))
+				method.setAccessible(true);
+			return method;
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (SecurityException e) {
+			return null;
+		}
+	}
+
+	public String getInstanceName() {
+		return instanceName;
+	}
+
+	public ServiceReference<?> getReference() {
+		return reference;
+	}
+
+	public Runnable getTask() {
+		return task;
+	}
+
+	/**
+	 * run task with schedule if it accepts one
+	 * 
+	 * @throws Exception
+	 *             thrown by the task
+	 */
+	public void run(Schedule schedule) throws Exception {
+		if (task instanceof CronTask) {
+			((CronTask) task).run(schedule);
+		} else if (method != null) {
+			try {
+				method.invoke(task, schedule);
+			} catch (InvocationTargetException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Exception)
+					throw (Exception) cause;
+				if (cause instanceof Error)
+					throw (Error) cause;
+				throw e;
+			}
+		} else {
+			task.run();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "task " + instanceName + ", " + task.getClass().getName();
+	}
+}
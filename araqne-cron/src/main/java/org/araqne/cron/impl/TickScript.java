@@ -2,6 +2,8 @@ package org.araqne.cron.impl;
 
 import org.araqne.api.Script;
 import org.araqne.api.ScriptContext;
+import org.araqne.api.ScriptUsage;
+import org.araqne.cron.ExecutionStats;
 import org.araqne.cron.TickService;
 import org.araqne.cron.TickTimer;
 
@@ -30,4 +32,20 @@ public class TickScript implements Script {
 			context.println(timer + ", interval: " + timer.getInterval() + "ms");
 		}
 	}
+
+	@ScriptUsage(description = "view execution metrics of tick timers")
+	public void stats(String[] args) {
+		context.println("Tick Worker Pool");
+		context.println("------------------");
+		context.println(tickService.getPoolStats().toString());
+		context.println("");
+
+		context.println("Tick Timer Stats");
+		context.println("------------------");
+		for (ExecutionStats stats : tickService.getTimerStats()) {
+			context.println(stats.toString());
+			context.println("  latency: " + stats.getLatency());
+			context.println("  duration: " + stats.getDuration());
+		}
+	}
 }
@@ -16,33 +16,55 @@
 package org.araqne.cron.impl;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.Map;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor.CallerRunsPolicy;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Invalidate;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Validate;
+import org.araqne.cron.ExecutionStats;
+import org.araqne.cron.PoolStats;
 import org.araqne.cron.TickService;
 import org.araqne.cron.TickTimer;
+import org.araqne.cron.impl.TimingWheel.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Tick timers are kept in a hierarchical timing wheel of 10ms resolution.
+ * Ticker thread sleeps until the next occupied wheel slot, and wheel time is
+ * driven by monotonic clock. If wall clock moves 5 seconds or more against
+ * monotonic clock, all timers are notified and rescheduled from now.
+ */
 @Component(name = "tick-service")
 @Provides(specifications = { TickService.class })
 public class TickServiceImpl implements TickService, Runnable {
+	private static final long RESOLUTION = 10; // msec
+	private static final long MAX_WAIT = 1000; // msec
+
 	private final Logger slog = LoggerFactory.getLogger(TickServiceImpl.class);
 
-	private CopyOnWriteArraySet<TickTimer> listeners = new CopyOnWriteArraySet<TickTimer>();
-	private PriorityQueue<DelayedEvent> queue = new PriorityQueue<DelayedEvent>();
-	private HashMap<TickTimer, DelayedEvent> eventMap = new HashMap<TickTimer, DelayedEvent>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+
+	private final long baseNanos = System.nanoTime();
+
+	// guarded by lock
+	private TimingWheel<TimerEntry> wheel = new TimingWheel<TimerEntry>();
+	private Map<TickTimer, Timeout<TimerEntry>> timeouts = new LinkedHashMap<TickTimer, Timeout<TimerEntry>>();
+
+	// run by ticker thread when pool is exhausted
+	private final AtomicLong rejectedTasks = new AtomicLong();
 
 	private volatile boolean doStop;
 
@@ -50,12 +72,14 @@ public class TickServiceImpl implements TickService, Runnable {
 	private ThreadPoolExecutor executor;
 
 	private long lastTime;
+	private long lastNanos;
 
 	@Validate
 	public void start() {
 		executor = new ThreadPoolExecutor(0, 200, 10L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
 				new NamedThreadFactory());
-		executor.setRejectedExecutionHandler(new CallerRunsPolicy());
+		executor.setRejectedExecutionHandler(new CountingCallerRunsPolicy());
+		doStop = false;
 		ticker = new Thread(this, "Ticker");
 		ticker.start();
 	}
@@ -63,55 +87,44 @@ public class TickServiceImpl implements TickService, Runnable {
 	@Invalidate
 	public void stop() {
 		doStop = true;
+		lock.lock();
+		try {
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
 	public void run() {
-		doStop = false;
-
 		try {
 			slog.info("araqne cron: ticker started");
 
 			lastTime = System.currentTimeMillis();
+			lastNanos = System.nanoTime();
 			while (!doStop) {
 				try {
 					long now = System.currentTimeMillis();
+					long nanos = System.nanoTime();
 
-					if (Math.abs(now - lastTime) >= 5000)
+					long drift = (now - lastTime) - (nanos - lastNanos) / 1000000L;
+					if (Math.abs(drift) >= 5000)
 						handleClockReset(lastTime, now);
 
 					lastTime = now;
-
-					List<TickTimer> targets = new ArrayList<TickTimer>();
-					synchronized (queue) {
-						while (true) {
-							DelayedEvent ev = null;
-							ev = queue.peek();
-							if (ev == null)
-								break;
-
-							if (ev.scheduleTime <= now) {
-								eventMap.remove(ev.timer);
-								queue.poll();
-
-								try {
-									executor.execute(ev);
-								} catch (OutOfMemoryError e) {
-									slog.error("araqne cron: cannot invoke tick timer [{}] interval [{}], error msg [{}]",
-											new Object[] { ev.timer, ev.timer.getInterval(), e.getMessage() });
-								}
-
-								targets.add(ev.timer);
-							} else {
-								break;
-							}
+					lastNanos = nanos;
+
+					for (TickEvent ev : expire(toTick(nanos))) {
+						try {
+							executor.execute(ev);
+						} catch (OutOfMemoryError e) {
+							TickTimer target = ev.entry.timer;
+							slog.error("araqne cron: cannot invoke tick timer [{}] interval [{}], error msg [{}]", new Object[] {
+									target, target.getInterval(), e.getMessage() });
 						}
 					}
 
-					for (TickTimer target : targets)
-						queueNextTick(now, target);
-
-					Thread.sleep(10);
+					waitNextTick();
 				} catch (InterruptedException e) {
 					if (slog.isDebugEnabled())
 						slog.debug("araqne cron: tick interrupted");
@@ -127,77 +140,198 @@ public class TickServiceImpl implements TickService, Runnable {
 		}
 	}
 
-	private void queueNextTick(long baseTime, TickTimer listener) {
-		synchronized (queue) {
-			DelayedEvent ev = new DelayedEvent(baseTime + listener.getInterval(), listener);
-			eventMap.put(listener, ev);
-			queue.add(ev);
+	/**
+	 * advance wheel and queue next tick of expired timers
+	 */
+	private List<TickEvent> expire(long tick) {
+		List<Timeout<TimerEntry>> expired = new ArrayList<Timeout<TimerEntry>>();
+		List<TickEvent> targets = new ArrayList<TickEvent>();
+
+		lock.lock();
+		try {
+			wheel.advance(tick, expired);
+			for (Timeout<TimerEntry> t : expired) {
+				TimerEntry entry = t.getValue();
+				entry.recorder.fired();
+				targets.add(new TickEvent(entry, t.getDeadline()));
+				wheel.reschedule(t, tick + toTicks(entry.timer.getInterval()));
+			}
+		} finally {
+			lock.unlock();
 		}
+
+		return targets;
 	}
 
-	private void handleClockReset(long oldTime, long newTime) {
-		synchronized (queue) {
-			queue.clear();
-			eventMap.clear();
+	private void waitNextTick() throws InterruptedException {
+		lock.lock();
+		try {
+			if (doStop)
+				return;
+
+			// nothing to detect clock reset for
+			if (timeouts.isEmpty()) {
+				changed.await();
+				lastTime = System.currentTimeMillis();
+				lastNanos = System.nanoTime();
+				return;
+			}
+
+			long next = wheel.nextTick();
+			long delay = MAX_WAIT * 1000000L;
+			if (next != Long.MAX_VALUE)
+				delay = Math.min(delay, next * RESOLUTION * 1000000L - (System.nanoTime() - baseNanos));
+
+			if (delay > 0)
+				changed.awaitNanos(delay);
+		} finally {
+			lock.unlock();
 		}
+	}
+
+	private long toTick(long nanos) {
+		return (nanos - baseNanos) / (RESOLUTION * 1000000L);
+	}
 
-		long now = System.currentTimeMillis();
-		for (TickTimer listener : listeners) {
+	private static long toTicks(int interval) {
+		return Math.max(1, (interval + RESOLUTION - 1) / RESOLUTION);
+	}
+
+	private void handleClockReset(long oldTime, long newTime) {
+		List<TickTimer> listeners = getTimers();
+		for (TickTimer listener : listeners)
 			listener.onResetClock(oldTime, newTime);
-			queueNextTick(now, listener);
+
+		lock.lock();
+		try {
+			long tick = toTick(System.nanoTime());
+			for (TickTimer listener : listeners) {
+				Timeout<TimerEntry> t = timeouts.get(listener);
+				if (t != null)
+					wheel.reschedule(t, tick + toTicks(listener.getInterval()));
+			}
+		} finally {
+			lock.unlock();
 		}
 	}
 
 	@Override
 	public List<TickTimer> getTimers() {
-		return new ArrayList<TickTimer>(listeners);
+		lock.lock();
+		try {
+			return new ArrayList<TickTimer>(timeouts.keySet());
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
 	public void addTimer(TickTimer listener) {
-		boolean added = listeners.add(listener);
-		if (!added)
-			throw new IllegalStateException("duplicated tick listener: " + listener);
+		lock.lock();
+		try {
+			if (timeouts.containsKey(listener))
+				throw new IllegalStateException("duplicated tick listener: " + listener);
 
-		queueNextTick(System.currentTimeMillis(), listener);
+			long tick = toTick(System.nanoTime());
+			TimerEntry entry = new TimerEntry(listener);
+			timeouts.put(listener, wheel.schedule(entry, tick + toTicks(listener.getInterval())));
+			changed.signal();
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	@Override
 	public void removeTimer(TickTimer listener) {
-		boolean removed = listeners.remove(listener);
-		if (!removed)
-			throw new IllegalStateException("tick listener not found: " + listener);
-
-		synchronized (queue) {
-			DelayedEvent ev = eventMap.remove(listener);
-			if (ev != null) {
-				queue.remove(ev);
-			}
+		lock.lock();
+		try {
+			Timeout<TimerEntry> t = timeouts.remove(listener);
+			if (t == null)
+				throw new IllegalStateException("tick listener not found: " + listener);
+
+			wheel.cancel(t);
+		} finally {
+			lock.unlock();
 		}
 	}
 
-	private class DelayedEvent implements Comparable<DelayedEvent>, Runnable {
-		private long scheduleTime;
-		private TickTimer timer;
+	@Override
+	public List<ExecutionStats> getTimerStats() {
+		List<ExecutionStats> stats = new ArrayList<ExecutionStats>();
+		lock.lock();
+		try {
+			for (Timeout<TimerEntry> t : timeouts.values())
+				stats.add(t.getValue().recorder.snapshot());
+		} finally {
+			lock.unlock();
+		}
+		return stats;
+	}
+
+	@Override
+	public PoolStats getPoolStats() {
+		PoolStats stats = new PoolStats();
+		stats.setRejectedTasks(rejectedTasks.get());
+
+		ThreadPoolExecutor e = executor;
+		if (e != null) {
+			stats.setPoolSize(e.getPoolSize());
+			stats.setMaxPoolSize(e.getMaximumPoolSize());
+			stats.setLargestPoolSize(e.getLargestPoolSize());
+			stats.setActiveCount(e.getActiveCount());
+			stats.setCompletedTasks(e.getCompletedTaskCount());
+		}
+		return stats;
+	}
 
-		public DelayedEvent(long scheduleTime, TickTimer timer) {
-			this.scheduleTime = scheduleTime;
+	private static class TimerEntry {
+		private final TickTimer timer;
+		private final ExecutionRecorder recorder;
+
+		public TimerEntry(TickTimer timer) {
 			this.timer = timer;
+			this.recorder = new ExecutionRecorder(timer.toString());
 		}
+	}
 
-		@Override
-		public int compareTo(DelayedEvent o) {
-			return (int) (scheduleTime - o.scheduleTime);
+	private class TickEvent implements Runnable {
+		private TimerEntry entry;
+		private long deadline;
+
+		public TickEvent(TimerEntry entry, long deadline) {
+			this.entry = entry;
+			this.deadline = deadline;
 		}
 
 		@Override
 		public void run() {
-			timer.onTick();
+			long begin = System.nanoTime();
+			ExecutionRecorder recorder = entry.recorder;
+			if (recorder.started((begin - baseNanos) / 1000000L - deadline * RESOLUTION))
+				recorder.overlapped();
+
+			boolean success = false;
+			try {
+				entry.timer.onTick();
+				success = true;
+			} finally {
+				recorder.finished((System.nanoTime() - begin) / 1000000L, success);
+			}
 		}
 
 		@Override
 		public String toString() {
-			return "tick " + scheduleTime + ", timer " + timer;
+			return "tick timer " + entry.timer;
+		}
+	}
+
+	private class CountingCallerRunsPolicy extends CallerRunsPolicy {
+		@Override
+		public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+			rejectedTasks.incrementAndGet();
+			if (r instanceof TickEvent)
+				((TickEvent) r).entry.recorder.rejected();
+			super.rejectedExecution(r, e);
 		}
 	}
 
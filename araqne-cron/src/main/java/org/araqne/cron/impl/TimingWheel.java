@@ -0,0 +1,243 @@
+/**
+ * Copyright 2014 Eediom Inc.
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.araqne.cron.impl;
+
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel of 4 levels with 256 slots each. Time is measured
+ * in abstract ticks. Slot of level n spans 256^n ticks, and timeouts of upper
+ * levels are cascaded down when lower level wraps around, as in the Linux
+ * kernel timer. Schedule and cancel take constant time, and each timeout is
+ * moved at most 3 times before it expires. Empty ticks are skipped when lower
+ * levels are empty.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class TimingWheel<T> {
+	private static final int LEVELS = 4;
+	private static final int SLOT_BITS = 8;
+	private static final int SLOTS = 1 << SLOT_BITS;
+	private static final int SLOT_MASK = SLOTS - 1;
+	private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+	public static class Timeout<T> {
+		private final T value;
+		private long deadline;
+		private int level = -1;
+		private Timeout<T> prev;
+		private Timeout<T> next;
+
+		private Timeout(T value) {
+			this.value = value;
+		}
+
+		public T getValue() {
+			return value;
+		}
+
+		public long getDeadline() {
+			return deadline;
+		}
+
+		public boolean isScheduled() {
+			return prev != null;
+		}
+	}
+
+	// circular list sentinels
+	private final Timeout<T>[][] wheels;
+	private final int[] counts = new int[LEVELS];
+	private long current;
+
+	public TimingWheel() {
+		this(0);
+	}
+
+	/**
+	 * @param current
+	 *            last processed tick
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public TimingWheel(long current) {
+		this.current = current;
+		this.wheels = new Timeout[LEVELS][SLOTS];
+		for (int i = 0; i < LEVELS; i++) {
+			for (int j = 0; j < SLOTS; j++) {
+				Timeout<T> head = new Timeout<T>(null);
+				head.prev = head;
+				head.next = head;
+				wheels[i][j] = head;
+			}
+		}
+	}
+
+	/**
+	 * @return last processed tick
+	 */
+	public long getCurrentTick() {
+		return current;
+	}
+
+	public int size() {
+		int total = 0;
+		for (int c : counts)
+			total += c;
+		return total;
+	}
+
+	/**
+	 * @param deadline
+	 *            tick to expire. past deadline expires at the next tick.
+	 */
+	public Timeout<T> schedule(T value, long deadline) {
+		Timeout<T> t = new Timeout<T>(value);
+		t.deadline = Math.max(deadline, current + 1);
+		link(t);
+		return t;
+	}
+
+	/**
+	 * cancel and schedule again with new deadline. expired timeout can be
+	 * reused.
+	 */
+	public void reschedule(Timeout<T> t, long deadline) {
+		cancel(t);
+		t.deadline = Math.max(deadline, current + 1);
+		link(t);
+	}
+
+	/**
+	 * @return false if timeout is already expired or cancelled
+	 */
+	public boolean cancel(Timeout<T> t) {
+		if (t.prev == null)
+			return false;
+
+		unlink(t);
+		return true;
+	}
+
+	/**
+	 * Process ticks until the given tick, and add expired timeouts to the list
+	 * in deadline order.
+	 */
+	public void advance(long tick, List<Timeout<T>> expired) {
+		while (current < tick) {
+			// skip ticks which cannot expire or cascade anything
+			int lowest = 0;
+			while (lowest < LEVELS && counts[lowest] == 0)
+				lowest++;
+
+			if (lowest == LEVELS) {
+				current = tick;
+				break;
+			} else if (lowest > 0) {
+				int bits = SLOT_BITS * lowest;
+				long skip = (((current >>> bits) + 1) << bits) - 1;
+				if (skip >= tick) {
+					current = tick;
+					break;
+				}
+				current = Math.max(current, skip);
+			}
+
+			current++;
+			int index = (int) (current & SLOT_MASK);
+
+			// cascade upper levels before expiring lower level
+			if (index == 0) {
+				for (int level = 1; level < LEVELS; level++) {
+					int slot = (int) ((current >>> (SLOT_BITS * level)) & SLOT_MASK);
+					cascade(wheels[level][slot]);
+					if (slot != 0)
+						break;
+				}
+			}
+
+			Timeout<T> head = wheels[0][index];
+			while (head.next != head) {
+				Timeout<T> t = head.next;
+				unlink(t);
+				expired.add(t);
+			}
+		}
+	}
+
+	/**
+	 * @return the earliest tick which may expire or cascade timeouts, or
+	 *         Long.MAX_VALUE if wheel is empty
+	 */
+	public long nextTick() {
+		long next = Long.MAX_VALUE;
+
+		boolean upper = false;
+		for (int level = 1; level < LEVELS; level++)
+			upper |= counts[level] > 0;
+
+		// next cascade
+		if (upper)
+			next = (current | SLOT_MASK) + 1;
+
+		if (counts[0] > 0) {
+			for (long tick = current + 1; tick <= current + SLOTS; tick++) {
+				if (tick >= next)
+					break;
+
+				Timeout<T> head = wheels[0][(int) (tick & SLOT_MASK)];
+				if (head.next != head)
+					return tick;
+			}
+		}
+
+		return next;
+	}
+
+	private void cascade(Timeout<T> head) {
+		while (head.next != head) {
+			Timeout<T> t = head.next;
+			unlink(t);
+			link(t);
+		}
+	}
+
+	private void link(Timeout<T> t) {
+		long delta = Math.min(t.deadline - current, MAX_DELTA);
+		long deadline = current + delta;
+
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1))))
+			level++;
+
+		int slot = (int) ((deadline >>> (SLOT_BITS * level)) & SLOT_MASK);
+		Timeout<T> head = wheels[level][slot];
+		t.level = level;
+		t.prev = head.prev;
+		t.next = head;
+		head.prev.next = t;
+		head.prev = t;
+		counts[level]++;
+	}
+
+	private void unlink(Timeout<T> t) {
+		t.prev.next = t.next;
+		t.next.prev = t.prev;
+		t.prev = null;
+		t.next = null;
+		counts[t.level]--;
+		t.level = -1;
+	}
+}
@@ -0,0 +1,84 @@
+package org.araqne.cron.test;
+
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.araqne.cron.Schedule;
+import org.araqne.cron.impl.CompiledSchedule;
+import org.araqne.cron.impl.CronTimeline;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CompiledScheduleTest {
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+	private static final TimeZone BERLIN = TimeZone.getTimeZone("Europe/Berlin");
+
+	@Test
+	public void testNext() throws Exception {
+		assertEquals("2009-02-28 00:00", next("0 0 * * *", "2009-02-27 20:14:30", UTC));
+		assertEquals("2009-02-27 21:03", next("3,17,20 */3 * * *", "2009-02-27 20:14:00", UTC));
+		assertEquals("2009-03-01 00:00", next("* * 31 * 0", "2009-02-27 20:14:00", UTC));
+		assertEquals("2009-03-02 00:00", next("0 0 5,28 3 1", "2009-02-27 20:14:00", UTC));
+
+		// day changes, then hour and minute restart from the first value
+		assertEquals("2013-12-15 00:00", next("*/5 * 1 12 0", "2013-12-14 17:36:19", UTC));
+
+		// current minute is included
+		assertEquals("2009-02-27 20:14", next("* * * * *", "2009-02-27 20:14:59", UTC));
+
+		// leap day
+		assertEquals("2020-02-29 23:00", next("0 23 29 2 *", "2017-06-09 16:01:14", UTC));
+		assertEquals(-1, new CompiledSchedule(new Schedule.Builder("t").build("0 0 31 2 *"), UTC).next(0));
+	}
+
+	@Test
+	public void testDaylightSaving() throws Exception {
+		// 02:30 does not exist, and shifted to 03:30 CEST
+		assertEquals("2015-03-29 03:30", next("30 2 * * *", "2015-03-29 00:00:00", BERLIN));
+
+		// 02:30 CEST and 02:30 CET
+		CompiledSchedule s = new CompiledSchedule(new Schedule.Builder("t").build("30 2 * * *"), BERLIN);
+		long[] occurrences = new long[3];
+		long first = s.next(parse("2015-10-25 00:00:00", BERLIN));
+		assertEquals(3, s.next(first + 60 * 1000, occurrences));
+		assertEquals(60 * 60 * 1000L, occurrences[0] - first);
+		assertEquals("2015-10-26 02:30", format(occurrences[1], BERLIN));
+	}
+
+	@Test
+	public void testTimeline() throws Exception {
+		Map<Integer, CompiledSchedule> schedules = new HashMap<Integer, CompiledSchedule>();
+		schedules.put(1, new CompiledSchedule(new Schedule.Builder("a").build("*/10 * * * *"), UTC));
+		schedules.put(2, new CompiledSchedule(new Schedule.Builder("b").build("0,15 * * * *"), UTC));
+		schedules.put(3, new CompiledSchedule(new Schedule.Builder("c").build("0 0 1 1 *"), UTC));
+
+		long from = parse("2014-05-05 10:00:00", UTC);
+		CronTimeline timeline = CronTimeline.build(schedules, from, from + 60 * 60 * 1000L);
+		assertEquals(7, timeline.size());
+		assertEquals(from, timeline.getTime(0));
+		assertEquals(2, timeline.getScheduleIds(0).length);
+		assertEquals("2014-05-05 10:15", format(timeline.getTime(2), UTC));
+		assertEquals(2, timeline.indexOf(from + 11 * 60 * 1000L));
+		assertEquals(-1, timeline.indexOf(from + 51 * 60 * 1000L));
+	}
+
+	private static String next(String exp, String time, TimeZone tz) throws Exception {
+		CompiledSchedule s = new CompiledSchedule(new Schedule.Builder("t").build(exp), tz);
+		return format(s.next(parse(time, tz)), tz);
+	}
+
+	private static long parse(String s, TimeZone tz) throws Exception {
+		SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		f.setTimeZone(tz);
+		return f.parse(s).getTime();
+	}
+
+	private static String format(long time, TimeZone tz) {
+		SimpleDateFormat f = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		f.setTimeZone(tz);
+		return f.format(time);
+	}
+}
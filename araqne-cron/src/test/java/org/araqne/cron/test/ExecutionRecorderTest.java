@@ -0,0 +1,48 @@
+package org.araqne.cron.test;
+
+import org.araqne.cron.ExecutionStats;
+import org.araqne.cron.Histogram;
+import org.araqne.cron.impl.ExecutionRecorder;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ExecutionRecorderTest {
+	@Test
+	public void testCounters() {
+		ExecutionRecorder recorder = new ExecutionRecorder("test");
+		recorder.fired();
+		assertFalse(recorder.started(3));
+		assertTrue(recorder.started(7));
+		recorder.finished(10, true);
+		recorder.finished(20, false);
+
+		ExecutionStats stats = recorder.snapshot();
+		assertEquals("test", stats.getName());
+		assertEquals(1, stats.getFired());
+		assertEquals(2, stats.getStarted());
+		assertEquals(1, stats.getCompleted());
+		assertEquals(1, stats.getFailed());
+		assertEquals(0, stats.getRunning());
+	}
+
+	@Test
+	public void testPercentile() {
+		ExecutionRecorder recorder = new ExecutionRecorder("test");
+		for (int i = 1; i <= 100; i++) {
+			recorder.started(i);
+			recorder.finished(0, true);
+		}
+
+		Histogram latency = recorder.snapshot().getLatency();
+		assertEquals(100, latency.getCount());
+		assertEquals(5050, latency.getSum());
+		assertEquals(100, latency.getMax());
+		assertEquals(50.5, latency.getMean(), 0.001);
+
+		// bucket upper bounds
+		assertEquals(50, latency.getPercentile(50));
+		assertEquals(100, latency.getPercentile(90));
+		assertEquals(100, latency.getPercentile(100));
+	}
+}
@@ -18,6 +18,7 @@ package org.araqne.cron.test;
 import java.text.ParseException;
 
 import org.junit.Test;
+import org.araqne.cron.OverlapPolicy;
 import org.araqne.cron.Schedule;
 import org.araqne.cron.impl.CronField;
 import org.osgi.framework.InvalidSyntaxException;
@@ -156,4 +157,15 @@ public class ScheduleBuildTest {
 		} catch (Exception e) {
 		}
 	}
+
+	@Test
+	public void testOverlapPolicy() throws Exception {
+		Schedule concurrent = new Schedule.Builder("daily").build("0 0 * * *");
+		Schedule skip = new Schedule.Builder("daily").setOverlapPolicy(OverlapPolicy.SKIP).build("0 0 * * *");
+
+		assertEquals(OverlapPolicy.CONCURRENT, concurrent.getOverlapPolicy());
+		assertEquals(OverlapPolicy.SKIP, skip.getOverlapPolicy());
+		assertFalse(concurrent.equals(skip));
+		assertEquals(OverlapPolicy.QUEUE, OverlapPolicy.parse("queue"));
+	}
 }
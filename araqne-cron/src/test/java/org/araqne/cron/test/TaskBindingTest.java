@@ -0,0 +1,71 @@
+package org.araqne.cron.test;
+
+import org.araqne.cron.CronTask;
+import org.araqne.cron.Schedule;
+import org.araqne.cron.impl.TaskBinding;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TaskBindingTest {
+	@Test
+	public void testInvoke() throws Exception {
+		Schedule schedule = new Schedule.Builder("task").buildDaily();
+
+		Task task = new Task();
+		new TaskBinding("task", null, task).run(schedule);
+		assertSame(schedule, task.schedule);
+		assertEquals(1, task.count);
+
+		ScheduleAware aware = new ScheduleAware();
+		new TaskBinding("task", null, aware).run(schedule);
+		assertSame(schedule, aware.schedule);
+		assertEquals(0, aware.count);
+
+		ScheduleAware plain = new ScheduleAware() {
+		};
+		new TaskBinding("task", null, plain).run(schedule);
+		assertSame(schedule, plain.schedule);
+	}
+
+	@Test
+	public void testException() throws Exception {
+		ScheduleAware aware = new ScheduleAware();
+		aware.fail = true;
+		try {
+			new TaskBinding("task", null, aware).run(null);
+			fail();
+		} catch (IllegalStateException e) {
+			// task should not be run again without schedule
+			assertEquals(0, aware.count);
+		}
+	}
+
+	private static class Task extends CronTask {
+		private Schedule schedule;
+		private int count;
+
+		@Override
+		public void run(Schedule schedule) {
+			this.schedule = schedule;
+			count++;
+		}
+	}
+
+	public static class ScheduleAware implements Runnable {
+		private Schedule schedule;
+		private int count;
+		private boolean fail;
+
+		@Override
+		public void run() {
+			count++;
+		}
+
+		public void run(Schedule schedule) {
+			if (fail)
+				throw new IllegalStateException("fail");
+			this.schedule = schedule;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package org.araqne.cron.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.araqne.cron.impl.TimingWheel;
+import org.araqne.cron.impl.TimingWheel.Timeout;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+	@Test
+	public void testExpireOrder() {
+		TimingWheel<Long> wheel = new TimingWheel<Long>(100);
+		Random r = new Random(1);
+		long[] deadlines = new long[2000];
+		for (int i = 0; i < deadlines.length; i++) {
+			// cover all levels
+			long delta = 1 + (long) (r.nextDouble() * (1L << (8 * (1 + i % 4))));
+			deadlines[i] = 100 + delta;
+			wheel.schedule(deadlines[i], deadlines[i]);
+		}
+		assertEquals(deadlines.length, wheel.size());
+
+		List<Timeout<Long>> expired = new ArrayList<Timeout<Long>>();
+		long tick = 100;
+		while (wheel.size() > 0) {
+			long next = wheel.nextTick();
+			assertTrue(next > tick);
+			tick = next;
+
+			expired.clear();
+			wheel.advance(tick, expired);
+			for (Timeout<Long> t : expired) {
+				assertEquals(tick, (long) t.getValue());
+				assertFalse(t.isScheduled());
+			}
+		}
+		assertEquals(Long.MAX_VALUE, wheel.nextTick());
+	}
+
+	@Test
+	public void testCancelAndReschedule() {
+		TimingWheel<String> wheel = new TimingWheel<String>();
+		Timeout<String> a = wheel.schedule("a", 10);
+		Timeout<String> b = wheel.schedule("b", 70000);
+		Timeout<String> c = wheel.schedule("c", 0);
+
+		assertTrue(wheel.cancel(a));
+		assertFalse(wheel.cancel(a));
+		assertEquals(1, c.getDeadline());
+
+		List<Timeout<String>> expired = new ArrayList<Timeout<String>>();
+		wheel.advance(69999, expired);
+		assertEquals(1, expired.size());
+		assertEquals("c", expired.get(0).getValue());
+
+		wheel.reschedule(b, 70005);
+		wheel.reschedule(c, 70003);
+		expired.clear();
+		wheel.advance(70004, expired);
+		assertEquals(1, expired.size());
+		assertEquals("c", expired.get(0).getValue());
+
+		expired.clear();
+		wheel.advance(70005, expired);
+		assertEquals(1, expired.size());
+		assertEquals(0, wheel.size());
+	}
+}
@@ -0,0 +1,546 @@
+package org.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A JSONReader reads a JSON text as a stream of tokens. Unlike JSONTokener, it
+ * reads the source through its own character buffer and never materializes
+ * the whole tree, so large texts can be processed with bounded memory. Use
+ * peek() to inspect the next token, consume it using the matching method,
+ * and skipValue() to discard a value without building it.
+ *
+ * <pre>
+ * JSONReader r = new JSONReader(reader);
+ * r.beginObject();
+ * while (r.hasNext()) {
+ * 	String name = r.nextName();
+ * 	Object value = r.nextValue();
+ * }
+ * r.endObject();
+ * </pre>
+ */
+public class JSONReader {
+	public enum Token {
+		BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+	}
+
+	private static final String DELIMITERS = ",:]}/\\\"[{;=#";
+
+	// lexical scopes
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private final Reader reader;
+	private final char[] buf;
+	private int pos;
+	private int limit;
+
+	// characters consumed before current buffer, for error position
+	private long consumed;
+
+	private int[] stack = new int[32];
+	private int depth;
+
+	private Token peeked;
+
+	// text of peeked name, string or literal token
+	private String peekedText;
+
+	// do not build strings while skipping
+	private boolean skipping;
+
+	private final StringBuilder sb = new StringBuilder();
+
+	public JSONReader(Reader reader) {
+		this(reader, 8192);
+	}
+
+	public JSONReader(Reader reader, int bufferSize) {
+		if (reader == null)
+			throw new IllegalArgumentException("reader should not be null");
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("buffer size should be positive");
+
+		this.reader = reader;
+		this.buf = new char[bufferSize];
+		stack[depth++] = EMPTY_DOCUMENT;
+	}
+
+	/**
+	 * Returns the type of the next token without consuming it.
+	 */
+	public Token peek() throws JSONException {
+		if (peeked != null)
+			return peeked;
+
+		int c;
+		switch (stack[depth - 1]) {
+		case EMPTY_DOCUMENT:
+			stack[depth - 1] = NONEMPTY_DOCUMENT;
+			break;
+		case NONEMPTY_DOCUMENT:
+			if (nextClean() != -1)
+				throw syntaxError("Unexpected data after end of text");
+			return peeked = Token.END_DOCUMENT;
+		case EMPTY_ARRAY:
+			stack[depth - 1] = NONEMPTY_ARRAY;
+			c = nextClean();
+			if (c == ']')
+				return peeked = Token.END_ARRAY;
+			if (c != -1)
+				pos--;
+			break;
+		case NONEMPTY_ARRAY:
+			c = nextClean();
+			if (c == ']')
+				return peeked = Token.END_ARRAY;
+			if (c != ',')
+				throw syntaxError("Expected ',' or ']'");
+			break;
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			c = nextClean();
+			if (c == '}')
+				return peeked = Token.END_OBJECT;
+			if (stack[depth - 1] == NONEMPTY_OBJECT) {
+				if (c != ',')
+					throw syntaxError("Expected ',' or '}'");
+				c = nextClean();
+			}
+			if (c != '"' && c != '\'')
+				throw syntaxError("Expected a name");
+
+			stack[depth - 1] = DANGLING_NAME;
+			peekedText = readString((char) c);
+			return peeked = Token.NAME;
+		case DANGLING_NAME:
+			stack[depth - 1] = NONEMPTY_OBJECT;
+			if (nextClean() != ':')
+				throw syntaxError("Expected ':' after a name");
+			break;
+		}
+
+		c = nextClean();
+		switch (c) {
+		case -1:
+			throw syntaxError("Unexpected end of text");
+		case '{':
+			return peeked = Token.BEGIN_OBJECT;
+		case '[':
+			return peeked = Token.BEGIN_ARRAY;
+		case '"':
+		case '\'':
+			peekedText = readString((char) c);
+			return peeked = Token.STRING;
+		}
+
+		String s = readLiteral((char) c);
+		if (s.length() == 0)
+			throw syntaxError("Missing value");
+
+		peekedText = s;
+		if (s.equalsIgnoreCase("true") || s.equalsIgnoreCase("false"))
+			return peeked = Token.BOOLEAN;
+		if (s.equalsIgnoreCase("null"))
+			return peeked = Token.NULL;
+		if (!isNumber(s))
+			throw syntaxError("Invalid literal [" + s + "]");
+		return peeked = Token.NUMBER;
+	}
+
+	/**
+	 * Returns true if current array or object has more elements.
+	 */
+	public boolean hasNext() throws JSONException {
+		Token t = peek();
+		return t != Token.END_OBJECT && t != Token.END_ARRAY && t != Token.END_DOCUMENT;
+	}
+
+	public void beginObject() throws JSONException {
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	public void endObject() throws JSONException {
+		expect(Token.END_OBJECT);
+		depth--;
+	}
+
+	public void beginArray() throws JSONException {
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	public void endArray() throws JSONException {
+		expect(Token.END_ARRAY);
+		depth--;
+	}
+
+	public String nextName() throws JSONException {
+		expect(Token.NAME);
+		return consumeText();
+	}
+
+	/**
+	 * Returns the string value, or the literal text of number value.
+	 */
+	public String nextString() throws JSONException {
+		Token t = peek();
+		if (t != Token.STRING && t != Token.NUMBER)
+			throw syntaxError("Expected a string but was " + t);
+		peeked = null;
+		return consumeText();
+	}
+
+	/**
+	 * Returns Integer, Long or Double in the same way as JSONObject parses
+	 * unquoted numbers.
+	 */
+	public Number nextNumber() throws JSONException {
+		expect(Token.NUMBER);
+		Object o = JSONObject.stringToValue(consumeText());
+		if (!(o instanceof Number))
+			throw syntaxError("Invalid number [" + o + "]");
+		return (Number) o;
+	}
+
+	public boolean nextBoolean() throws JSONException {
+		expect(Token.BOOLEAN);
+		return consumeText().equalsIgnoreCase("true");
+	}
+
+	public void nextNull() throws JSONException {
+		expect(Token.NULL);
+		consumeText();
+	}
+
+	/**
+	 * Reads next value as String, Number, Boolean, null, Map&lt;String,
+	 * Object&gt; or List&lt;Object&gt;. Nested values are built from this
+	 * reader, so only the returned value is held in memory.
+	 */
+	public Object nextValue() throws JSONException {
+		switch (peek()) {
+		case BEGIN_OBJECT:
+			Map<String, Object> m = new HashMap<String, Object>();
+			beginObject();
+			while (hasNext()) {
+				String name = nextName();
+				m.put(name, nextValue());
+			}
+			endObject();
+			return m;
+		case BEGIN_ARRAY:
+			List<Object> l = new ArrayList<Object>();
+			beginArray();
+			while (hasNext())
+				l.add(nextValue());
+			endArray();
+			return l;
+		case STRING:
+			return nextString();
+		case NUMBER:
+			return nextNumber();
+		case BOOLEAN:
+			return nextBoolean();
+		case NULL:
+			nextNull();
+			return null;
+		default:
+			throw syntaxError("Expected a value but was " + peek());
+		}
+	}
+
+	/**
+	 * Skips next value, including all nested values of object or array,
+	 * without building strings. If next token is a name, skips the name and
+	 * its value.
+	 */
+	public void skipValue() throws JSONException {
+		skipping = true;
+		try {
+			int level = 0;
+			do {
+				Token t = peek();
+				peeked = null;
+				peekedText = null;
+				switch (t) {
+				case BEGIN_OBJECT:
+					push(EMPTY_OBJECT);
+					level++;
+					break;
+				case BEGIN_ARRAY:
+					push(EMPTY_ARRAY);
+					level++;
+					break;
+				case END_OBJECT:
+				case END_ARRAY:
+					if (level == 0)
+						throw syntaxError("Expected a value but was " + t);
+					depth--;
+					level--;
+					break;
+				case END_DOCUMENT:
+					throw syntaxError("Unexpected end of text");
+				default:
+					// name or scalar value
+					break;
+				}
+			} while (level != 0 || stack[depth - 1] == DANGLING_NAME);
+		} finally {
+			skipping = false;
+		}
+	}
+
+	/**
+	 * Returns nesting depth of current position. Top level is 0.
+	 */
+	public int getDepth() {
+		return depth - 1;
+	}
+
+	public void close() throws IOException {
+		peeked = null;
+		depth = 1;
+		stack[0] = NONEMPTY_DOCUMENT;
+		reader.close();
+	}
+
+	/**
+	 * Make a JSONException to signal a syntax error.
+	 *
+	 * @param message
+	 *            The error message.
+	 * @return A JSONException object, suitable for throwing
+	 */
+	public JSONException syntaxError(String message) {
+		return new JSONException(message + toString());
+	}
+
+	/**
+	 * Make a printable string of this JSONReader.
+	 *
+	 * @return " at character [index]"
+	 */
+	@Override
+	public String toString() {
+		return " at character " + (consumed + pos);
+	}
+
+	private void expect(Token t) throws JSONException {
+		Token p = peek();
+		if (p != t)
+			throw syntaxError("Expected " + t + " but was " + p);
+		peeked = null;
+	}
+
+	private String consumeText() {
+		String s = peekedText;
+		peekedText = null;
+		return s;
+	}
+
+	private void push(int scope) {
+		if (depth == stack.length) {
+			int[] newStack = new int[depth * 2];
+			System.arraycopy(stack, 0, newStack, 0, depth);
+			stack = newStack;
+		}
+		stack[depth++] = scope;
+	}
+
+	private boolean fill() throws JSONException {
+		consumed += limit;
+		pos = 0;
+		limit = 0;
+		try {
+			int len = reader.read(buf, 0, buf.length);
+			if (len > 0)
+				limit = len;
+		} catch (IOException e) {
+			throw new JSONException(e);
+		}
+		return limit > 0;
+	}
+
+	private int next() throws JSONException {
+		if (pos == limit && !fill())
+			return -1;
+		return buf[pos++];
+	}
+
+	private int nextClean() throws JSONException {
+		for (;;) {
+			if (pos == limit && !fill())
+				return -1;
+
+			char c = buf[pos++];
+			if (c > ' ')
+				return c;
+		}
+	}
+
+	/**
+	 * read string after opening quote. returns null while skipping
+	 */
+	private String readString(char quote) throws JSONException {
+		StringBuilder builder = null;
+		for (;;) {
+			int start = pos;
+			while (pos < limit) {
+				char c = buf[pos++];
+				if (c == quote) {
+					if (skipping)
+						return null;
+					if (builder == null)
+						return new String(buf, start, pos - start - 1);
+
+					builder.append(buf, start, pos - start - 1);
+					return builder.toString();
+				} else if (c == '\\') {
+					if (builder == null) {
+						builder = sb;
+						builder.setLength(0);
+					}
+					if (!skipping)
+						builder.append(buf, start, pos - start - 1);
+
+					char unescaped = readEscape();
+					if (!skipping)
+						builder.append(unescaped);
+					start = pos;
+				} else if (c == '\n' || c == '\r') {
+					throw syntaxError("Unterminated string");
+				}
+			}
+
+			if (builder == null) {
+				builder = sb;
+				builder.setLength(0);
+			}
+			if (!skipping)
+				builder.append(buf, start, pos - start);
+
+			if (!fill())
+				throw syntaxError("Unterminated string");
+		}
+	}
+
+	private char readEscape() throws JSONException {
+		int c = next();
+		switch (c) {
+		case -1:
+			throw syntaxError("Unterminated string");
+		case 'b':
+			return '\b';
+		case 't':
+			return '\t';
+		case 'n':
+			return '\n';
+		case 'f':
+			return '\f';
+		case 'r':
+			return '\r';
+		case 'u':
+			return readHex(4);
+		case 'x':
+			return readHex(2);
+		default:
+			return (char) c;
+		}
+	}
+
+	private char readHex(int digits) throws JSONException {
+		int value = 0;
+		for (int i = 0; i < digits; i++) {
+			int c = next();
+			int h = c < 0 ? -1 : JSONTokener.dehexchar((char) c);
+			if (h < 0)
+				throw syntaxError("Illegal escape");
+			value = (value << 4) | h;
+		}
+		return (char) value;
+	}
+
+	/**
+	 * check JSON number syntax: -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?
+	 */
+	private static boolean isNumber(String s) {
+		int len = s.length();
+		int i = 0;
+		if (s.charAt(i) == '-')
+			i++;
+
+		if (i < len && s.charAt(i) == '0') {
+			i++;
+		} else {
+			int end = skipDigits(s, i);
+			if (end == i)
+				return false;
+			i = end;
+		}
+
+		if (i < len && s.charAt(i) == '.') {
+			int end = skipDigits(s, ++i);
+			if (end == i)
+				return false;
+			i = end;
+		}
+
+		if (i < len && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+			i++;
+			if (i < len && (s.charAt(i) == '+' || s.charAt(i) == '-'))
+				i++;
+			int end = skipDigits(s, i);
+			if (end == i)
+				return false;
+			i = end;
+		}
+
+		return i == len;
+	}
+
+	private static int skipDigits(String s, int i) {
+		while (i < s.length() && s.charAt(i) >= '0' && s.charAt(i) <= '9')
+			i++;
+		return i;
+	}
+
+	/**
+	 * read unquoted text until formatting character
+	 */
+	private String readLiteral(char first) throws JSONException {
+		if (first < ' ' || DELIMITERS.indexOf(first) >= 0) {
+			pos--;
+			return "";
+		}
+
+		sb.setLength(0);
+		sb.append(first);
+		for (;;) {
+			int start = pos;
+			while (pos < limit) {
+				char c = buf[pos];
+				if (c <= ' ' || DELIMITERS.indexOf(c) >= 0) {
+					sb.append(buf, start, pos - start);
+					return sb.toString();
+				}
+				pos++;
+			}
+
+			sb.append(buf, start, pos - start);
+			if (!fill())
+				return sb.toString();
+		}
+	}
+}
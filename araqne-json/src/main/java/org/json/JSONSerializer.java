@@ -0,0 +1,450 @@
+package org.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * JSONSerializer writes JSON text directly to a writer through its own char
+ * buffer. It has the same call sequence as JSONWriter, but it does not track
+ * keys of each object, escapes strings into the buffer without intermediate
+ * strings, and writes maps, collections, arrays and beans without building
+ * JSONObject or JSONArray. Getters of bean classes are discovered once and
+ * cached per class. Numbers are formatted in the same way as JSONObject.
+ * <p>
+ * Output is buffered, so flush() should be called after the last value.
+ * JSONSerializer is not thread-safe.
+ */
+public class JSONSerializer {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	// class loaders can be released when memory is low, and bean classes are
+	// weakly referenced
+	private static final Map<Class<?>, SoftReference<Accessor[]>> accessorCache = Collections
+			.synchronizedMap(new WeakHashMap<Class<?>, SoftReference<Accessor[]>>());
+
+	private static final byte ARRAY = 1;
+	private static final byte KEY = 2;
+	private static final byte VALUE = 3;
+
+	// longest unit written without flush is a long value of 20 chars
+	private static final int MIN_BUFFER_SIZE = 32;
+
+	private final Writer writer;
+	private final char[] buf;
+	private int pos;
+
+	private byte[] scopes = new byte[32];
+	private int depth;
+	private boolean comma;
+
+	private SimpleDateFormat dateFormat;
+
+	public JSONSerializer(OutputStream os) {
+		this(new OutputStreamWriter(os, Charset.forName("utf-8")));
+	}
+
+	public JSONSerializer(Writer writer) {
+		this(writer, 8192);
+	}
+
+	public JSONSerializer(Writer writer, int bufferSize) {
+		if (writer == null)
+			throw new IllegalArgumentException("writer should not be null");
+		if (bufferSize < MIN_BUFFER_SIZE)
+			throw new IllegalArgumentException("buffer size should be at least " + MIN_BUFFER_SIZE);
+
+		this.writer = writer;
+		this.buf = new char[bufferSize];
+	}
+
+	public JSONSerializer object() throws JSONException {
+		beginValue();
+		push(KEY);
+		write('{');
+		comma = false;
+		return this;
+	}
+
+	public JSONSerializer endObject() throws JSONException {
+		if (depth == 0 || scopes[depth - 1] != KEY)
+			throw new JSONException("Misplaced endObject.");
+		depth--;
+		write('}');
+		comma = true;
+		return this;
+	}
+
+	public JSONSerializer array() throws JSONException {
+		beginValue();
+		push(ARRAY);
+		write('[');
+		comma = false;
+		return this;
+	}
+
+	public JSONSerializer endArray() throws JSONException {
+		if (depth == 0 || scopes[depth - 1] != ARRAY)
+			throw new JSONException("Misplaced endArray.");
+		depth--;
+		write(']');
+		comma = true;
+		return this;
+	}
+
+	public JSONSerializer key(String s) throws JSONException {
+		if (s == null)
+			throw new JSONException("Null key.");
+		if (depth == 0 || scopes[depth - 1] != KEY)
+			throw new JSONException("Misplaced key.");
+
+		if (comma)
+			write(',');
+		writeString(s);
+		write(':');
+		scopes[depth - 1] = VALUE;
+		comma = false;
+		return this;
+	}
+
+	public JSONSerializer value(boolean b) throws JSONException {
+		beginValue();
+		writeRaw(b ? "true" : "false");
+		comma = true;
+		return this;
+	}
+
+	public JSONSerializer value(long l) throws JSONException {
+		beginValue();
+		writeLong(l);
+		comma = true;
+		return this;
+	}
+
+	public JSONSerializer value(double d) throws JSONException {
+		return value(new Double(d));
+	}
+
+	/**
+	 * Write any value, including map, collection, array and bean. Date is
+	 * written as "yyyy-MM-dd HH:mm:ssZ" string like JSONConverter. Other
+	 * objects of system classes are written as quoted toString().
+	 * <p>
+	 * Warning: This method assumes that the data structure is acyclical.
+	 */
+	@SuppressWarnings("unchecked")
+	public JSONSerializer value(Object o) throws JSONException {
+		if (o instanceof Map) {
+			object();
+			for (Map.Entry<Object, Object> e : ((Map<Object, Object>) o).entrySet()) {
+				key(String.valueOf(e.getKey()));
+				value(e.getValue());
+			}
+			return endObject();
+		} else if (o instanceof Collection) {
+			array();
+			for (Object child : (Collection<Object>) o)
+				value(child);
+			return endArray();
+		} else if (o instanceof Object[]) {
+			array();
+			for (Object child : (Object[]) o)
+				value(child);
+			return endArray();
+		} else if (o != null && o.getClass().isArray()) {
+			array();
+			int len = Array.getLength(o);
+			for (int i = 0; i < len; i++)
+				value(Array.get(o, i));
+			return endArray();
+		}
+
+		beginValue();
+		if (o == null || o == JSONObject.NULL) {
+			writeRaw("null");
+		} else if (o instanceof String) {
+			writeString((String) o);
+		} else if (o instanceof Integer || o instanceof Long || o instanceof Short || o instanceof Byte) {
+			writeLong(((Number) o).longValue());
+		} else if (o instanceof Number) {
+			writeRaw(JSONObject.numberToString((Number) o));
+		} else if (o instanceof Boolean) {
+			writeRaw(((Boolean) o) ? "true" : "false");
+		} else if (o instanceof Date) {
+			if (dateFormat == null)
+				dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ssZ");
+			writeString(dateFormat.format((Date) o));
+		} else if (o instanceof JSONString || o instanceof JSONObject || o instanceof JSONArray) {
+			writeRaw(JSONObject.valueToString(o));
+		} else if (o.getClass().getClassLoader() == null || o.getClass().getName().startsWith("java")) {
+			writeString(o.toString());
+		} else {
+			writeBean(o);
+		}
+		comma = true;
+		return this;
+	}
+
+	/**
+	 * Write buffered text to the underlying writer, and flush it.
+	 */
+	public void flush() throws JSONException {
+		try {
+			flushBuffer();
+			writer.flush();
+		} catch (IOException e) {
+			throw new JSONException(e);
+		}
+	}
+
+	/**
+	 * Remove cached getters of all classes
+	 */
+	public static void clearCache() {
+		accessorCache.clear();
+	}
+
+	private void beginValue() throws JSONException {
+		if (depth == 0) {
+			if (comma)
+				throw new JSONException("Value out of sequence.");
+			return;
+		}
+
+		byte scope = scopes[depth - 1];
+		if (scope == KEY)
+			throw new JSONException("Value out of sequence.");
+
+		if (scope == VALUE)
+			scopes[depth - 1] = KEY;
+		else if (comma)
+			write(',');
+	}
+
+	private void push(byte scope) {
+		if (depth == scopes.length) {
+			byte[] newScopes = new byte[depth * 2];
+			System.arraycopy(scopes, 0, newScopes, 0, depth);
+			scopes = newScopes;
+		}
+		scopes[depth++] = scope;
+	}
+
+	private void writeBean(Object bean) throws JSONException {
+		write('{');
+		boolean first = true;
+		for (Accessor a : getAccessors(bean.getClass())) {
+			Object result;
+			try {
+				result = a.method.invoke(bean, (Object[]) null);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+
+			if (!first)
+				write(',');
+			first = false;
+			writeRaw(a.quotedKey);
+
+			// nested value should not see comma of this bean
+			push(ARRAY);
+			comma = false;
+			value(result);
+			depth--;
+		}
+		write('}');
+	}
+
+	private static Accessor[] getAccessors(Class<?> clazz) {
+		SoftReference<Accessor[]> ref = accessorCache.get(clazz);
+		Accessor[] accessors = ref != null ? ref.get() : null;
+		if (accessors != null)
+			return accessors;
+
+		// same getter rule as JSONObject(Object bean)
+		List<Accessor> l = new ArrayList<Accessor>();
+		for (Method method : clazz.getDeclaredMethods()) {
+			int modifiers = method.getModifiers();
+			if (!Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers) || method.getParameterTypes().length != 0)
+				continue;
+
+			String name = method.getName();
+			String key = "";
+			if (name.startsWith("get"))
+				key = name.substring(3);
+			else if (name.startsWith("is"))
+				key = name.substring(2);
+
+			if (key.length() == 0 || !Character.isUpperCase(key.charAt(0)))
+				continue;
+
+			if (key.length() == 1)
+				key = key.toLowerCase();
+			else if (!Character.isUpperCase(key.charAt(1)))
+				key = key.substring(0, 1).toLowerCase() + key.substring(1);
+
+			if (!Modifier.isPublic(clazz.getModifiers()))
+				method.setAccessible(true);
+
+			l.add(new Accessor(JSONObject.quote(key) + ":", method));
+		}
+
+		accessors = l.toArray(new Accessor[0]);
+		accessorCache.put(clazz, new SoftReference<Accessor[]>(accessors));
+		return accessors;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (pos > 0) {
+			writer.write(buf, 0, pos);
+			pos = 0;
+		}
+	}
+
+	private void write(char c) throws JSONException {
+		if (pos == buf.length)
+			flushQuietly();
+		buf[pos++] = c;
+	}
+
+	private void writeRaw(String s) throws JSONException {
+		int len = s.length();
+		int offset = 0;
+		while (offset < len) {
+			if (pos == buf.length)
+				flushQuietly();
+
+			int n = Math.min(len - offset, buf.length - pos);
+			s.getChars(offset, offset + n, buf, pos);
+			pos += n;
+			offset += n;
+		}
+	}
+
+	private void writeLong(long l) throws JSONException {
+		if (l == Long.MIN_VALUE) {
+			writeRaw(Long.toString(l));
+			return;
+		}
+
+		// at most 20 chars including sign
+		if (buf.length - pos < 20)
+			flushQuietly();
+
+		if (l < 0) {
+			buf[pos++] = '-';
+			l = -l;
+		}
+
+		int end = pos + digits(l);
+		int p = end;
+		do {
+			buf[--p] = (char) ('0' + (l % 10));
+			l /= 10;
+		} while (l != 0);
+		pos = end;
+	}
+
+	private static int digits(long l) {
+		int n = 1;
+		while (l >= 10) {
+			l /= 10;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * same escape rule as JSONObject.quote()
+	 */
+	private void writeString(String s) throws JSONException {
+		write('"');
+		int len = s.length();
+		char c = 0;
+		for (int i = 0; i < len; i++) {
+			char b = c;
+			c = s.charAt(i);
+
+			// escaped char takes at most 6 chars
+			if (buf.length - pos < 6)
+				flushQuietly();
+
+			switch (c) {
+			case '\\':
+			case '"':
+				buf[pos++] = '\\';
+				buf[pos++] = c;
+				break;
+			case '/':
+				if (b == '<')
+					buf[pos++] = '\\';
+				buf[pos++] = c;
+				break;
+			case '\b':
+				buf[pos++] = '\\';
+				buf[pos++] = 'b';
+				break;
+			case '\t':
+				buf[pos++] = '\\';
+				buf[pos++] = 't';
+				break;
+			case '\n':
+				buf[pos++] = '\\';
+				buf[pos++] = 'n';
+				break;
+			case '\f':
+				buf[pos++] = '\\';
+				buf[pos++] = 'f';
+				break;
+			case '\r':
+				buf[pos++] = '\\';
+				buf[pos++] = 'r';
+				break;
+			default:
+				if (c < ' ' || (c >= 0x80 && c < 0xa0) || (c >= 0x2000 && c < 0x2100)) {
+					buf[pos++] = '\\';
+					buf[pos++] = 'u';
+					buf[pos++] = HEX[(c >> 12) & 0xf];
+					buf[pos++] = HEX[(c >> 8) & 0xf];
+					buf[pos++] = HEX[(c >> 4) & 0xf];
+					buf[pos++] = HEX[c & 0xf];
+				} else {
+					buf[pos++] = c;
+				}
+			}
+		}
+		write('"');
+	}
+
+	private void flushQuietly() throws JSONException {
+		try {
+			flushBuffer();
+		} catch (IOException e) {
+			throw new JSONException(e);
+		}
+	}
+
+	private static class Accessor {
+		private String quotedKey;
+		private Method method;
+
+		public Accessor(String quotedKey, Method method) {
+			this.quotedKey = quotedKey;
+			this.method = method;
+		}
+	}
+}
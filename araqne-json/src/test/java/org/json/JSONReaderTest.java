@@ -0,0 +1,187 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JSONReaderTest {
+	@Test
+	public void testEscapes() throws JSONException {
+		assertEquals("a\"b\\c/d\be\ff\ng\rh\ti", read("\"a\\\"b\\\\c\\/d\\be\\ff\\ng\\rh\\ti\""));
+		assertEquals("it's", read("'it\\'s'"));
+		assertEquals("", read("\"\""));
+	}
+
+	@Test
+	public void testUnicodeEscapes() throws JSONException {
+		assertEquals("\u0000\u001f", read("\"\\u0000\\u001F\""));
+		assertEquals("\uD55C\uAE00", read("\"\\ud55c\\uAE00\""));
+		assertEquals("\uD83D\uDE00", read("\"\\uD83D\\uDE00\""));
+		assertEquals("A", read("\"\\x41\""));
+
+		assertMalformed("\"\\u12\"");
+		assertMalformed("\"\\u12g4\"");
+		assertMalformed("\"\\u123");
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testNesting() throws JSONException {
+		String text = "{\"a\": [1, {\"b\": [[], {}]}, null], \"c\": {\"d\": {\"e\": true}}}";
+		Map<String, Object> m = (Map<String, Object>) read(text);
+
+		List<Object> a = (List<Object>) m.get("a");
+		assertEquals(3, a.size());
+		assertEquals(1, a.get(0));
+		assertNull(a.get(2));
+
+		List<Object> b = (List<Object>) ((Map<String, Object>) a.get(1)).get("b");
+		assertEquals(Arrays.asList(), b.get(0));
+		assertEquals(new HashMap<String, Object>(), b.get(1));
+
+		Map<String, Object> c = (Map<String, Object>) m.get("c");
+		assertEquals(true, ((Map<String, Object>) c.get("d")).get("e"));
+
+		// deeper than initial scope stack
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++)
+			sb.append('[');
+		for (int i = 0; i < 100; i++)
+			sb.append(']');
+
+		JSONReader r = new JSONReader(new StringReader(sb.toString()));
+		r.skipValue();
+		assertEquals(JSONReader.Token.END_DOCUMENT, r.peek());
+	}
+
+	@Test
+	public void testTokens() throws JSONException {
+		JSONReader r = new JSONReader(new StringReader("{\"name\": \"x\", \"skip\": {\"a\": [1, 2]}, \"n\": -1.5e3, \"f\": false}"));
+		r.beginObject();
+		assertEquals("name", r.nextName());
+		assertEquals("x", r.nextString());
+		assertEquals(1, r.getDepth());
+
+		r.skipValue();
+		assertEquals("n", r.nextName());
+		assertEquals(JSONReader.Token.NUMBER, r.peek());
+		assertEquals(-1500.0, r.nextNumber());
+		assertEquals("f", r.nextName());
+		assertFalse(r.nextBoolean());
+		assertFalse(r.hasNext());
+		r.endObject();
+		assertEquals(JSONReader.Token.END_DOCUMENT, r.peek());
+	}
+
+	@Test
+	public void testNumbers() throws JSONException {
+		assertEquals(0, read("0"));
+		assertEquals(-0, read("-0"));
+		assertEquals(Integer.MAX_VALUE, read("2147483647"));
+		assertEquals(Long.MIN_VALUE, read("-9223372036854775808"));
+		assertEquals(Long.MAX_VALUE, read("9223372036854775807"));
+		assertEquals(0.5, read("0.5"));
+		assertEquals(1e10, read("1E+10"));
+		assertEquals(2.5e-3, read("25e-4"));
+	}
+
+	@Test
+	public void testMalformed() {
+		assertMalformed("abc");
+		assertMalformed("[1, abc]");
+		assertMalformed("{\"a\": truex}");
+		assertMalformed("01");
+		assertMalformed("1.");
+		assertMalformed(".5");
+		assertMalformed("+1");
+		assertMalformed("1e");
+		assertMalformed("1e+");
+		assertMalformed("--1");
+		assertMalformed("0x10");
+
+		// literal is classified when peeked, even if it is skipped
+		try {
+			JSONReader r = new JSONReader(new StringReader("[1, abc]"));
+			r.skipValue();
+			fail("invalid literal should fail on skip");
+		} catch (JSONException e) {
+			assertTrue(e.getMessage().startsWith("Invalid literal [abc]"));
+		}
+
+		assertMalformed("");
+		assertMalformed("\"unterminated");
+		assertMalformed("\"line\nbreak\"");
+		assertMalformed("[1, 2");
+		assertMalformed("[1 2]");
+		assertMalformed("[1,]");
+		assertMalformed("{\"a\" 1}");
+		assertMalformed("{\"a\": 1,}");
+		assertMalformed("{a: 1}");
+		assertMalformed("[1] 2");
+		assertMalformed("]");
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testBufferRefill() throws JSONException {
+		String text = "{\"long name crossing buffer\": \"escaped \\\" \\u00e9 \\\\ value\", "
+				+ "\"numbers\": [12345678901, -3.25e-2, true, null], \"nested\": {\"k\": \"v\"}}";
+
+		for (int size = 1; size <= 8; size++) {
+			JSONReader r = new JSONReader(new StringReader(text), size);
+			Map<String, Object> m = (Map<String, Object>) r.nextValue();
+			assertEquals(JSONReader.Token.END_DOCUMENT, r.peek());
+
+			assertEquals("escaped \" \u00e9 \\ value", m.get("long name crossing buffer"));
+			assertEquals(Arrays.asList((Object) 12345678901L, -3.25e-2, true, null), m.get("numbers"));
+			assertEquals("v", ((Map<String, Object>) m.get("nested")).get("k"));
+
+			// skip path should agree with value path
+			r = new JSONReader(new StringReader(text), size);
+			r.beginObject();
+			while (r.hasNext()) {
+				r.nextName();
+				r.skipValue();
+			}
+			r.endObject();
+			assertEquals(JSONReader.Token.END_DOCUMENT, r.peek());
+		}
+	}
+
+	@Test
+	public void testUnterminatedAcrossRefill() {
+		for (int size = 1; size <= 4; size++) {
+			try {
+				new JSONReader(new StringReader("[\"abcdef"), size).nextValue();
+				fail("unterminated string should fail, buffer size " + size);
+			} catch (JSONException e) {
+				assertTrue(e.getMessage().startsWith("Unterminated string"));
+			}
+		}
+	}
+
+	private static Object read(String text) throws JSONException {
+		JSONReader r = new JSONReader(new StringReader(text));
+		Object value = r.nextValue();
+		assertEquals(JSONReader.Token.END_DOCUMENT, r.peek());
+		return value;
+	}
+
+	private static void assertMalformed(String text) {
+		try {
+			read(text);
+			fail("should fail: " + text);
+		} catch (JSONException e) {
+		}
+	}
+}
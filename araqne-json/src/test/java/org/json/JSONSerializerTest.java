@@ -0,0 +1,230 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class JSONSerializerTest {
+	@Test
+	public void testNestedRoundTrip() throws JSONException {
+		Map<String, Object> inner = new HashMap<String, Object>();
+		inner.put("s", "text");
+		inner.put("i", 42);
+		inner.put("d", 0.25);
+		inner.put("b", true);
+		inner.put("n", null);
+		inner.put("empty_map", new HashMap<String, Object>());
+		inner.put("empty_list", new ArrayList<Object>());
+
+		List<Object> list = new ArrayList<Object>();
+		list.add(inner);
+		list.add(Arrays.asList((Object) 1, Arrays.asList((Object) 2, 3), new ArrayList<Object>()));
+		list.add("tail");
+
+		Map<String, Object> m = new HashMap<String, Object>();
+		m.put("list", list);
+		m.put("inner", inner);
+
+		assertEquals(m, read(serialize(m, 8192)));
+
+		// object arrays and primitive arrays are written as lists
+		Map<String, Object> arrays = new LinkedHashMap<String, Object>();
+		arrays.put("objects", new Object[] { "a", 1, null });
+		arrays.put("ints", new int[] { 1, -2, 3 });
+		arrays.put("bools", new boolean[] { true, false });
+		assertEquals("{\"objects\":[\"a\",1,null],\"ints\":[1,-2,3],\"bools\":[true,false]}", serialize(arrays, 8192));
+	}
+
+	@Test
+	public void testCallSequence() throws JSONException {
+		StringWriter w = new StringWriter();
+		JSONSerializer s = new JSONSerializer(w);
+		s.object().key("a").value(1).key("b").array().value("x").value(1.5).value(false).endArray().key("c").object()
+				.endObject().endObject();
+		s.flush();
+		assertEquals("{\"a\":1,\"b\":[\"x\",1.5,false],\"c\":{}}", w.toString());
+
+		try {
+			new JSONSerializer(new StringWriter()).object().value(1);
+			fail("value without key should fail");
+		} catch (JSONException e) {
+		}
+
+		try {
+			new JSONSerializer(new StringWriter()).array().endObject();
+			fail("misplaced endObject should fail");
+		} catch (JSONException e) {
+		}
+
+		try {
+			new JSONSerializer(new StringWriter()).value(1).value(2);
+			fail("second top level value should fail");
+		} catch (JSONException e) {
+		}
+	}
+
+	@Test
+	public void testEscaping() throws JSONException {
+		String[] samples = new String[] { "", "plain", "quote \" backslash \\ slash /", "</script>",
+				"\b\t\n\f\r", "\u0000\u0001\u001f", "\u0080\u009f\u00a0", "\u2028\u2029", "\uD55C\uAE00 \uD83D\uDE00" };
+
+		for (String sample : samples) {
+			String json = serialize(sample, 8192);
+			assertEquals(JSONObject.quote(sample), json);
+			assertEquals(sample, read(json));
+		}
+	}
+
+	@Test
+	public void testLongBounds() throws JSONException {
+		long[] samples = new long[] { 0, -1, 9, 10, -10, Integer.MIN_VALUE, Integer.MAX_VALUE, Long.MIN_VALUE + 1,
+				Long.MIN_VALUE, Long.MAX_VALUE };
+
+		for (long l : samples) {
+			assertEquals(Long.toString(l), serialize(l, 8192));
+			assertEquals(Long.toString(l), serialize(Long.valueOf(l), 8192));
+			assertEquals(l, ((Number) read(serialize(l, 8192))).longValue());
+		}
+
+		assertEquals("-32768", serialize(Short.MIN_VALUE, 8192));
+		assertEquals("-128", serialize(Byte.MIN_VALUE, 8192));
+	}
+
+	@Test
+	public void testSmallBuffer() throws JSONException {
+		try {
+			new JSONSerializer(new StringWriter(), 31);
+			fail("buffer smaller than 32 should be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+
+		List<Object> list = new ArrayList<Object>();
+		for (int i = 0; i < 100; i++) {
+			Map<String, Object> m = new LinkedHashMap<String, Object>();
+			m.put("min", Long.MIN_VALUE);
+			m.put("max", Long.MAX_VALUE - i);
+			m.put("escaped", "\u0001\"\\\u2028 " + i);
+			m.put("double", i / 3.0);
+			list.add(m);
+		}
+
+		String expected = serialize(list, 8192);
+		for (int size = 32; size <= 40; size++)
+			assertEquals(expected, serialize(list, size));
+
+		assertEquals(list.size(), ((List<?>) read(expected)).size());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testBean() throws JSONException {
+		Sample bean = new Sample();
+		bean.setName("bean \"name\"");
+		bean.setCount(Long.MAX_VALUE);
+		bean.setEnabled(true);
+		bean.setTags(Arrays.asList("a", "b"));
+		bean.setChild(new Sample());
+
+		Map<String, Object> m = (Map<String, Object>) read(serialize(bean, 8192));
+		assertEquals("bean \"name\"", m.get("name"));
+		assertEquals(Long.MAX_VALUE, m.get("count"));
+		assertEquals(true, m.get("enabled"));
+		assertEquals(Arrays.asList("a", "b"), m.get("tags"));
+		assertEquals(5, m.size());
+
+		Map<String, Object> child = (Map<String, Object>) m.get("child");
+		assertEquals(null, child.get("name"));
+		assertEquals(0L, ((Number) child.get("count")).longValue());
+		assertEquals(false, child.get("enabled"));
+		assertEquals(null, child.get("child"));
+
+		// same keys as JSONObject bean conversion
+		assertEquals(new JSONObject(bean).length(), m.size());
+
+		// cached accessors should produce same output
+		assertEquals(serialize(bean, 8192), serialize(bean, 32));
+		JSONSerializer.clearCache();
+		assertEquals(serialize(bean, 8192), serialize(bean, 32));
+	}
+
+	private static String serialize(Object o, int bufferSize) throws JSONException {
+		StringWriter w = new StringWriter();
+		JSONSerializer s = new JSONSerializer(w, bufferSize);
+		s.value(o);
+		s.flush();
+		return w.toString();
+	}
+
+	private static String serialize(long l, int bufferSize) throws JSONException {
+		StringWriter w = new StringWriter();
+		JSONSerializer s = new JSONSerializer(w, bufferSize);
+		s.value(l);
+		s.flush();
+		return w.toString();
+	}
+
+	private static Object read(String json) throws JSONException {
+		JSONReader r = new JSONReader(new StringReader(json));
+		Object value = r.nextValue();
+		assertEquals(JSONReader.Token.END_DOCUMENT, r.peek());
+		return value;
+	}
+
+	public static class Sample {
+		private String name;
+		private long count;
+		private boolean enabled;
+		private List<String> tags;
+		private Sample child;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public void setCount(long count) {
+			this.count = count;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public void setEnabled(boolean enabled) {
+			this.enabled = enabled;
+		}
+
+		public List<String> getTags() {
+			return tags;
+		}
+
+		public void setTags(List<String> tags) {
+			this.tags = tags;
+		}
+
+		public Sample getChild() {
+			return child;
+		}
+
+		public void setChild(Sample child) {
+			this.child = child;
+		}
+	}
+}